@@ -257,11 +257,14 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
             .map(resolver::getAbsolutePath)
             .collect(ImmutableSet.toImmutableSet());
     if (isApk) {
+      // ApkBuilder stores everything uncompressed, and the incremental writer only compresses the
+      // entries that changed since the previous build, aligning the stored ones on the way.
+      Path uncompressedApkPath = getUncompressedApkPath();
       steps.add(
           new ApkBuilderStep(
               getProjectFilesystem(),
               pathResolver.getAbsolutePath(resourceFilesInfo.resourcesApkPath),
-              getSignedApkPath(),
+              uncompressedApkPath,
               pathResolver.getRelativePath(dexFilesInfo.primaryDexPath),
               allAssetDirectories,
               nativeLibraryDirectoriesBuilder.build(),
@@ -270,7 +273,11 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
               pathToKeystore,
               keystoreProperties,
               false,
+              0,
               javaRuntimeLauncher.getCommandPrefix(pathResolver)));
+      steps.add(
+          new IncrementalApkWriterStep(
+              getProjectFilesystem(), uncompressedApkPath, signedApkPath));
     } else {
       ImmutableSet<String> moduleNames =
           apkModules.stream().map(APKModule::getName).collect(ImmutableSet.toImmutableSet());
@@ -353,17 +360,21 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
     }
 
     if (isApk) {
-      Path zipalignedApkPath = getZipalignedApkPath();
-      steps.add(
-          new ZipalignStep(
-              getProjectFilesystem().getRootPath(),
-              androidPlatformTarget,
-              apkToAlign,
-              zipalignedApkPath));
+      // The incremental writer already aligned the APK, unless it was repacked or redexed since.
+      Path alignedApkPath = apkToAlign;
+      if (!apkToAlign.equals(signedApkPath)) {
+        alignedApkPath = getZipalignedApkPath();
+        steps.add(
+            new ZipalignStep(
+                getProjectFilesystem().getRootPath(),
+                androidPlatformTarget,
+                apkToAlign,
+                alignedApkPath));
+      }
       steps.add(
           new ApkSignerStep(
               getProjectFilesystem(),
-              zipalignedApkPath,
+              alignedApkPath,
               v2SignedApkPath,
               keystoreProperties,
               applyRedex));
@@ -789,7 +800,13 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
         getProjectFilesystem(), getBuildTarget(), "__native_libs_as_assets_%s__");
   }
 
-  /** The APK at this path will be jar signed, but not zipaligned. */
+  /** The APK at this path will be jar signed, but neither compressed nor zipaligned. */
+  private Path getUncompressedApkPath() {
+    return Paths.get(
+        getUnsignedApkPath().replaceAll("\\.unsigned\\.apk$", ".uncompressed.apk"));
+  }
+
+  /** The APK at this path will be jar signed, and zipaligned when it is an APK. */
   private Path getSignedApkPath() {
     return Paths.get(
         getUnsignedApkPath()
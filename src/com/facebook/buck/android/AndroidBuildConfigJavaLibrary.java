@@ -72,7 +72,8 @@ class AndroidBuildConfigJavaLibrary extends DefaultJavaLibrary implements Androi
             AbiGenerationMode.CLASS,
             AbiGenerationMode.CLASS,
             ImmutableList.of(),
-            false),
+            false,
+            /* writeClassAbiJar */ false),
         ruleFinder,
         Optional.empty(),
         ImmutableSortedSet.of(androidBuildConfig),
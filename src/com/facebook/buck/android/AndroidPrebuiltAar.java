@@ -79,7 +79,8 @@ public class AndroidPrebuiltAar extends AndroidLibrary
             AbiGenerationMode.CLASS,
             AbiGenerationMode.CLASS,
             ImmutableList.of(),
-            requiredForSourceAbi),
+            requiredForSourceAbi,
+            /* writeClassAbiJar */ false),
         ruleFinder,
         Optional.of(proguardConfig),
         /* firstOrderPackageableDeps */ androidLibraryParams.getDeclaredDeps().get(),
@@ -56,6 +56,7 @@ public class ApkBuilderStep implements Step {
   private final ImmutableSet<Path> zipFiles;
   private final ImmutableSet<Path> jarFilesThatMayContainResources;
   private final boolean debugMode;
+  private final int compressionLevel;
   private final ImmutableList<String> javaRuntimeLauncher;
   private final AppBuilderBase appBuilderBase;
 
@@ -67,6 +68,7 @@ public class ApkBuilderStep implements Step {
    * @param nativeLibraryDirectories List of paths to native directories.
    * @param zipFiles List of paths to zipfiles to be included into the apk.
    * @param debugMode Whether or not to run ApkBuilder with debug mode turned on.
+   * @param compressionLevel Level to deflate entries at, from 0 (no compression) to 9.
    */
   public ApkBuilderStep(
       ProjectFilesystem filesystem,
@@ -80,6 +82,7 @@ public class ApkBuilderStep implements Step {
       Path pathToKeystore,
       Supplier<KeystoreProperties> keystorePropertiesSupplier,
       boolean debugMode,
+      int compressionLevel,
       ImmutableList<String> javaRuntimeLauncher) {
     this.filesystem = filesystem;
     this.resourceApk = resourceApk;
@@ -90,6 +93,7 @@ public class ApkBuilderStep implements Step {
     this.jarFilesThatMayContainResources = jarFilesThatMayContainResources;
     this.zipFiles = zipFiles;
     this.debugMode = debugMode;
+    this.compressionLevel = compressionLevel;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
     this.appBuilderBase =
         new AppBuilderBase(filesystem, keystorePropertiesSupplier, pathToKeystore);
@@ -112,7 +116,8 @@ public class ApkBuilderStep implements Step {
               filesystem.getPathForRelativePath(dexFile).toFile(),
               privateKeyAndCertificate.privateKey,
               privateKeyAndCertificate.certificate,
-              output);
+              output,
+              compressionLevel);
       builder.setDebugMode(debugMode);
       for (Path nativeLibraryDirectory : nativeLibraryDirectories) {
         builder.addNativeLibraries(
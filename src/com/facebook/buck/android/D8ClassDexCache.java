@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.DirectoryCleaner;
+import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of the dex files that D8 produced for single classes, keyed by a hash of everything
+ * the dex of a class depends on: its bytes, the D8 options and, when desugaring, its supertypes.
+ * Since the key does not depend on the target being dexed, the entries are shared by all the
+ * targets of all the builds that use the same directory.
+ *
+ * <p>Entries are written to a temporary file and moved in place, so that concurrent steps only
+ * ever read complete entries. Like the dir artifact cache, the directory is bounded in size: once
+ * enough has been stored since it was last trimmed, the least recently accessed entries are deleted
+ * until it is back under a fraction of its limit. The first store of each process trims it too, so
+ * that it does not grow across short-lived processes. {@code
+ * -Dbuck.D8ClassDexCache.max_size_bytes} overrides the limit.
+ */
+class D8ClassDexCache {
+
+  private static final Logger LOG = Logger.get(D8ClassDexCache.class);
+
+  /** Bump this when the layout of the directory or the meaning of the keys change. */
+  static final int VERSION = 1;
+
+  private static final long DEFAULT_MAX_SIZE_BYTES = 1024L * 1024 * 1024;
+  // Ratio of bytes stored since the last trim to max size that triggers another trim.
+  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
+  // How much of the max size to leave when trimming.
+  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
+  private static final String TMP_EXTENSION = ".tmp";
+
+  /** Bytes stored in each directory since it was last trimmed, shared by all the dexing steps. */
+  private static final ConcurrentMap<Path, AtomicLong> BYTES_SINCE_LAST_TRIM =
+      new ConcurrentHashMap<>();
+
+  private final Path cacheDir;
+  private final Path root;
+  private final long maxSizeBytes;
+  private final long trimTriggerBytes;
+  private final AtomicLong bytesSinceLastTrim;
+
+  /** @param cacheDir absolute path of the directory holding the entries, created on demand. */
+  D8ClassDexCache(Path cacheDir) {
+    this(
+        cacheDir, Long.getLong("buck.D8ClassDexCache.max_size_bytes", DEFAULT_MAX_SIZE_BYTES));
+  }
+
+  @VisibleForTesting
+  D8ClassDexCache(Path cacheDir, long maxSizeBytes) {
+    this.cacheDir = cacheDir;
+    this.root = cacheDir.resolve(String.valueOf(VERSION));
+    this.maxSizeBytes = maxSizeBytes;
+    this.trimTriggerBytes = (long) (maxSizeBytes * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER);
+    // Starting at the trigger makes the first store of the process trim what earlier ones left.
+    this.bytesSinceLastTrim =
+        BYTES_SINCE_LAST_TRIM.computeIfAbsent(cacheDir, dir -> new AtomicLong(trimTriggerBytes));
+  }
+
+  /** @return the dex file stored for the given key, if any. */
+  Optional<byte[]> get(HashCode key) {
+    try {
+      return Optional.of(Files.readAllBytes(getPath(key)));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read the cached dex file of %s", key);
+      return Optional.empty();
+    }
+  }
+
+  /** Stores the dex file of a class. Failing to do so only costs dexing the class again. */
+  void put(HashCode key, byte[] dex) {
+    Path path = getPath(key);
+    Path tmpPath =
+        path.resolveSibling(
+            path.getFileName() + "." + Thread.currentThread().getId() + TMP_EXTENSION);
+    try {
+      Files.createDirectories(path.getParent());
+      Files.write(tmpPath, dex);
+      Files.move(
+          tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to cache the dex file of %s", key);
+      return;
+    }
+
+    // Only the store that resets the count trims, the others go on storing meanwhile.
+    if (bytesSinceLastTrim.addAndGet(dex.length) > trimTriggerBytes
+        && bytesSinceLastTrim.getAndSet(0) > trimTriggerBytes) {
+      trim();
+    }
+  }
+
+  /** Deletes the entries that were not accessed recently, including those of older versions. */
+  @VisibleForTesting
+  void trim() {
+    DirectoryCleanerArgs cleanerArgs =
+        DirectoryCleanerArgs.builder()
+            .setPathSelector(
+                new DirectoryCleaner.PathSelector() {
+                  @Override
+                  public Iterable<Path> getCandidatesToDelete(Path rootPath) throws IOException {
+                    return listEntries(rootPath);
+                  }
+
+                  @Override
+                  public int comparePaths(
+                      DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+                    return ComparisonChain.start()
+                        .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
+                        .compare(path1.getCreationMillis(), path2.getCreationMillis())
+                        .result();
+                  }
+                })
+            .setMaxTotalSizeBytes(maxSizeBytes)
+            .setMaxBytesAfterDeletion((long) (maxSizeBytes * MAX_BYTES_TRIM_RATIO))
+            .build();
+    try {
+      new DirectoryCleaner(cleanerArgs).clean(cacheDir);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to trim the dex files cached in %s", cacheDir);
+    }
+  }
+
+  /** @return the entries of all versions, leaving out the ones still being written. */
+  private static List<Path> listEntries(Path cacheDir) throws IOException {
+    List<Path> entries = new ArrayList<>();
+    if (!Files.isDirectory(cacheDir)) {
+      return entries;
+    }
+    Files.walkFileTree(
+        cacheDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (attrs.isRegularFile() && !file.getFileName().toString().endsWith(TMP_EXTENSION)) {
+              entries.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // Another process may be trimming the same directory.
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return entries;
+  }
+
+  private Path getPath(HashCode key) {
+    // Spread the entries over subdirectories, as an app can have tens of thousands of classes.
+    String name = key.toString();
+    return root.resolve(name.substring(0, 2)).resolve(name.substring(2) + ".dex");
+  }
+}
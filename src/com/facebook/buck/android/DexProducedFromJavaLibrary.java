@@ -215,7 +215,8 @@ public class DexProducedFromJavaLibrary extends ModernBuildRule<DexProducedFromJ
                 dexTool.equals(DxStep.D8),
                 getAbsolutePaths(desugarDeps, sourcePathResolver),
                 Optional.empty(),
-                Optional.empty() /* minSdkVersion */);
+                Optional.empty() /* minSdkVersion */,
+                getClassDexCacheDir(filesystem));
         steps.add(dx);
 
         // The `DxStep` delegates to android tools to build a ZIP with timestamps in it, making
@@ -278,6 +279,17 @@ public class DexProducedFromJavaLibrary extends ModernBuildRule<DexProducedFromJ
           .map(sourcePathResolver::getAbsolutePath)
           .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder()));
     }
+
+    /**
+     * D8 caches the dex file of every class outside of the rule, so that a library where a single
+     * class changed only has that class dexed again, and identical classes are dexed once.
+     */
+    private Optional<Path> getClassDexCacheDir(ProjectFilesystem filesystem) {
+      if (!dexTool.equals(DxStep.D8)) {
+        return Optional.empty();
+      }
+      return Optional.of(filesystem.getBuckPaths().getCacheDir().resolve("d8_classes"));
+    }
   }
 
   /** Metadata Resource enum */
@@ -16,12 +16,19 @@
 
 package com.facebook.buck.android;
 
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.ClassFileResourceProvider;
 import com.android.tools.r8.CompilationFailedException;
 import com.android.tools.r8.CompilationMode;
 import com.android.tools.r8.D8Command;
 import com.android.tools.r8.Diagnostic;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
 import com.android.tools.r8.DiagnosticsHandler;
 import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.origin.ArchiveEntryOrigin;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
 import com.android.tools.r8.utils.InternalOptions;
 import com.facebook.buck.android.toolchain.AndroidPlatformTarget;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
@@ -30,30 +37,51 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
+import org.objectweb.asm.ClassReader;
 
 public class DxStep extends ShellStep {
 
@@ -94,6 +122,8 @@ public class DxStep extends ShellStep {
    */
   private static final int ARG_MAX = 32768;
 
+  private static final int ANDROID_N_API_LEVEL = 24;
+
   private final ProjectFilesystem filesystem;
   private final AndroidPlatformTarget androidPlatformTarget;
   @VisibleForTesting final @Nullable Collection<Path> classpathFiles;
@@ -106,6 +136,7 @@ public class DxStep extends ShellStep {
   // used to differentiate different dexing buckets (if any)
   private final Optional<String> bucketId;
   private final Optional<Integer> minSdkVersion;
+  private final Optional<Path> classDexCacheDir;
 
   @Nullable private Collection<String> resourcesReferencedInCode;
 
@@ -206,6 +237,46 @@ public class DxStep extends ShellStep {
       @Nullable Collection<Path> classpathFiles,
       Optional<String> bucketId,
       Optional<Integer> minSdkVersion) {
+    this(
+        filesystem,
+        androidPlatformTarget,
+        outputDexFile,
+        filesToDex,
+        options,
+        maxHeapSize,
+        dexTool,
+        intermediate,
+        classpathFiles,
+        bucketId,
+        minSdkVersion,
+        Optional.empty());
+  }
+
+  /**
+   * @param outputDexFile path to the file where the generated classes.dex should go.
+   * @param filesToDex each element in this set is a path to a .class file, a zip file of .class
+   *     files, or a directory of .class files.
+   * @param options to pass to {@code dx}.
+   * @param maxHeapSize The max heap size used for out of process dex.
+   * @param dexTool the tool used to perform dexing.
+   * @param classpathFiles specifies classpath for interface static and default methods desugaring.
+   * @param minSdkVersion
+   * @param classDexCacheDir directory where D8 caches the dex file of every class it dexes, so that
+   *     only the classes that were never dexed with the same options are dexed again.
+   */
+  public DxStep(
+      ProjectFilesystem filesystem,
+      AndroidPlatformTarget androidPlatformTarget,
+      Path outputDexFile,
+      Iterable<Path> filesToDex,
+      EnumSet<Option> options,
+      Optional<String> maxHeapSize,
+      String dexTool,
+      boolean intermediate,
+      @Nullable Collection<Path> classpathFiles,
+      Optional<String> bucketId,
+      Optional<Integer> minSdkVersion,
+      Optional<Path> classDexCacheDir) {
     super(filesystem.getRootPath());
     this.filesystem = filesystem;
     this.androidPlatformTarget = androidPlatformTarget;
@@ -218,6 +289,7 @@ public class DxStep extends ShellStep {
     this.intermediate = intermediate;
     this.bucketId = bucketId;
     this.minSdkVersion = minSdkVersion;
+    this.classDexCacheDir = classDexCacheDir;
 
     Preconditions.checkArgument(
         !options.contains(Option.RUN_IN_PROCESS)
@@ -225,6 +297,9 @@ public class DxStep extends ShellStep {
         "In-process dexing is only supported with custom DX");
     Preconditions.checkArgument(
         !intermediate || dexTool.equals(D8), "Intermediate dexing is only supported with D8");
+    Preconditions.checkArgument(
+        !classDexCacheDir.isPresent() || dexTool.equals(D8),
+        "Caching the dex files of classes is only supported with D8");
   }
 
   @Override
@@ -331,50 +406,23 @@ public class DxStep extends ShellStep {
       D8DiagnosticsHandler diagnosticsHandler = new D8DiagnosticsHandler();
 
       try {
-        Set<Path> inputs = new HashSet<>();
-        for (Path rawFile : filesToDex) {
-          Path toDex = filesystem.resolve(rawFile);
-          if (Files.isRegularFile(toDex)) {
-            inputs.add(toDex);
-          } else {
-            Files.walk(toDex).filter(path -> path.toFile().isFile()).forEach(inputs::add);
-          }
-        }
-
         // D8 only outputs to dex if the output path is a directory. So we output to a temporary dir
         // and move it over to the final location
         boolean outputToDex = outputDexFile.getFileName().toString().endsWith(".dex");
         Path output = outputToDex ? Files.createTempDirectory("buck-d8") : outputDexFile;
 
-        D8Command.Builder builder =
-            D8Command.builder(diagnosticsHandler)
-                .addProgramFiles(inputs)
-                .setIntermediate(intermediate)
-                .addLibraryFiles(androidPlatformTarget.getAndroidJar())
-                .setMode(
-                    options.contains(Option.NO_OPTIMIZE)
-                        ? CompilationMode.DEBUG
-                        : CompilationMode.RELEASE)
-                .setOutput(output, OutputMode.DexIndexed)
-                .setDisableDesugaring(options.contains(Option.NO_DESUGAR))
-                .setInternalOptionsModifier(
-                    (InternalOptions opt) -> {
-                      opt.testing.forceJumboStringProcessing = options.contains(Option.FORCE_JUMBO);
-                    });
-
-        bucketId.ifPresent(builder::setBucketId);
-        minSdkVersion.ifPresent(builder::setMinApiLevel);
-
-        if (classpathFiles != null && !classpathFiles.isEmpty()) {
-          // classpathFiles is needed only for D8 java 8 desugar
-          ImmutableSet.Builder<Path> absolutePaths = ImmutableSet.builder();
-          for (Path classpathFile : classpathFiles) {
-            absolutePaths.add(filesystem.getPathForRelativeExistingPath(classpathFile));
-          }
-          builder.addClasspathFiles(absolutePaths.build());
+        D8Command d8Command = null;
+        if (classDexCacheDir.isPresent()) {
+          d8Command =
+              runD8WithClassDexCache(
+                  new D8ClassDexCache(filesystem.resolve(classDexCacheDir.get())),
+                  context.getFileHashLoader(),
+                  diagnosticsHandler,
+                  output);
+        }
+        if (d8Command == null) {
+          d8Command = runD8(diagnosticsHandler, output);
         }
-        D8Command d8Command = builder.build();
-        com.android.tools.r8.D8.run(d8Command);
 
         if (outputToDex) {
           File[] outputs = output.toFile().listFiles();
@@ -434,6 +482,287 @@ public class DxStep extends ShellStep {
     }
   }
 
+  private D8Command runD8(DiagnosticsHandler diagnosticsHandler, Path output)
+      throws IOException, CompilationFailedException {
+    Set<Path> inputs = new HashSet<>();
+    for (Path rawFile : filesToDex) {
+      Path toDex = filesystem.resolve(rawFile);
+      if (Files.isRegularFile(toDex)) {
+        inputs.add(toDex);
+      } else {
+        Files.walk(toDex).filter(path -> path.toFile().isFile()).forEach(inputs::add);
+      }
+    }
+
+    D8Command.Builder builder =
+        newD8Builder(diagnosticsHandler)
+            .addProgramFiles(inputs)
+            .setOutput(output, OutputMode.DexIndexed);
+
+    if (classpathFiles != null && !classpathFiles.isEmpty()) {
+      // classpathFiles is needed only for D8 java 8 desugar
+      builder.addClasspathFiles(getAbsoluteClasspathFiles());
+    }
+    D8Command d8Command = builder.build();
+    com.android.tools.r8.D8.run(d8Command);
+    return d8Command;
+  }
+
+  /**
+   * Dexes the classes whose dex files are not in the cache one class at a time, caches their dex
+   * files, and merges the dex files of all the classes into {@code output}.
+   *
+   * @param fileHashLoader the hashes of the build, which already cover the desugaring classpath.
+   * @return the command that merged the dex files, or null if the inputs are not all class files,
+   *     in which case nothing was dexed.
+   */
+  @Nullable
+  private D8Command runD8WithClassDexCache(
+      D8ClassDexCache cache,
+      Optional<FileHashLoader> fileHashLoader,
+      DiagnosticsHandler diagnosticsHandler,
+      Path output)
+      throws IOException, CompilationFailedException {
+    Optional<Map<String, ClassToDex>> classes = readClassesToDex();
+    boolean desugaring = isDesugaring();
+    Optional<HashCode> optionsKey = computeOptionsKey(fileHashLoader, desugaring);
+    if (!classes.isPresent() || !optionsKey.isPresent()) {
+      return null;
+    }
+
+    // Sorted by descriptor, so that the merged dex does not depend on which classes were cached.
+    Map<String, byte[]> dexFiles = new TreeMap<>();
+    Map<String, HashCode> missedKeys = new HashMap<>();
+    for (ClassToDex classToDex : classes.get().values()) {
+      HashCode key = computeClassKey(optionsKey.get(), classToDex, classes.get(), desugaring);
+      Optional<byte[]> dexFile = cache.get(key);
+      if (dexFile.isPresent()) {
+        dexFiles.put(classToDex.descriptor, dexFile.get());
+      } else {
+        missedKeys.put(classToDex.descriptor, key);
+      }
+    }
+
+    if (!missedKeys.isEmpty()) {
+      D8Command.Builder builder =
+          newD8Builder(diagnosticsHandler)
+              .setIntermediate(true)
+              .setProgramConsumer(
+                  new DexFilePerClassFileConsumer() {
+                    @Override
+                    public synchronized void accept(
+                        String primaryClassDescriptor,
+                        ByteDataView data,
+                        Set<String> descriptors,
+                        DiagnosticsHandler handler) {
+                      byte[] dexFile = data.copyByteData();
+                      dexFiles.put(primaryClassDescriptor, dexFile);
+                      HashCode key = missedKeys.get(primaryClassDescriptor);
+                      if (key != null) {
+                        cache.put(key, dexFile);
+                      }
+                    }
+
+                    @Override
+                    public boolean combineSyntheticClassesWithPrimaryClass() {
+                      // Lambdas and companion classes only depend on the class they come from.
+                      return true;
+                    }
+
+                    @Override
+                    public void finished(DiagnosticsHandler handler) {}
+                  });
+      Map<String, ClassToDex> classpathClasses = new HashMap<>(classes.get());
+      for (String descriptor : missedKeys.keySet()) {
+        ClassToDex classToDex = classpathClasses.remove(descriptor);
+        builder.addClassProgramData(classToDex.bytes, classToDex.origin);
+      }
+      if (desugaring) {
+        // Desugaring default methods needs the supertypes, which may be among the cached classes.
+        builder.addClasspathResourceProvider(
+            new InMemoryClassFileResourceProvider(classpathClasses));
+        builder.addClasspathFiles(getAbsoluteClasspathFiles());
+      }
+      com.android.tools.r8.D8.run(builder.build());
+    }
+
+    D8Command.Builder builder =
+        newD8Builder(diagnosticsHandler).setOutput(output, OutputMode.DexIndexed);
+    for (byte[] dexFile : dexFiles.values()) {
+      builder.addDexProgramData(dexFile, Origin.unknown());
+    }
+    D8Command d8Command = builder.build();
+    com.android.tools.r8.D8.run(d8Command);
+    return d8Command;
+  }
+
+  private D8Command.Builder newD8Builder(DiagnosticsHandler diagnosticsHandler) {
+    D8Command.Builder builder =
+        D8Command.builder(diagnosticsHandler)
+            .setIntermediate(intermediate)
+            .addLibraryFiles(androidPlatformTarget.getAndroidJar())
+            .setMode(
+                options.contains(Option.NO_OPTIMIZE)
+                    ? CompilationMode.DEBUG
+                    : CompilationMode.RELEASE)
+            .setDisableDesugaring(options.contains(Option.NO_DESUGAR))
+            .setInternalOptionsModifier(
+                (InternalOptions opt) -> {
+                  opt.testing.forceJumboStringProcessing = options.contains(Option.FORCE_JUMBO);
+                });
+
+    bucketId.ifPresent(builder::setBucketId);
+    minSdkVersion.ifPresent(builder::setMinApiLevel);
+    return builder;
+  }
+
+  private ImmutableSet<Path> getAbsoluteClasspathFiles() {
+    if (classpathFiles == null) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<Path> absolutePaths = ImmutableSet.builder();
+    for (Path classpathFile : classpathFiles) {
+      absolutePaths.add(filesystem.getPathForRelativeExistingPath(classpathFile));
+    }
+    return absolutePaths.build();
+  }
+
+  /** Whether D8 rewrites default methods, the only desugaring that looks beyond a single class. */
+  private boolean isDesugaring() {
+    return !options.contains(Option.NO_DESUGAR) && minSdkVersion.orElse(1) < ANDROID_N_API_LEVEL;
+  }
+
+  /**
+   * @return the classes to dex by descriptor, or empty if the inputs contain anything but class
+   *     files, or several class files for the same class.
+   */
+  private Optional<Map<String, ClassToDex>> readClassesToDex() throws IOException {
+    Map<String, ClassToDex> classes = new HashMap<>();
+    for (Path rawFile : filesToDex) {
+      Path toDex = filesystem.resolve(rawFile);
+      String fileName = toDex.getFileName().toString();
+      if (Files.isDirectory(toDex)) {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(toDex)) {
+          files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+          if (!file.getFileName().toString().endsWith(".class")
+              || !addClassToDex(classes, Files.readAllBytes(file), new PathOrigin(file))) {
+            return Optional.empty();
+          }
+        }
+      } else if (fileName.endsWith(".class")) {
+        if (!addClassToDex(classes, Files.readAllBytes(toDex), new PathOrigin(toDex))) {
+          return Optional.empty();
+        }
+      } else if (fileName.endsWith(".jar") || fileName.endsWith(".zip")) {
+        Origin archiveOrigin = new PathOrigin(toDex);
+        try (ZipFile zipFile = new ZipFile(toDex.toFile())) {
+          Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (name.endsWith(".dex")) {
+              return Optional.empty();
+            }
+            // D8 ignores the other resources of archives.
+            if (entry.isDirectory()
+                || !name.endsWith(".class")
+                || name.startsWith("META-INF/")
+                || name.endsWith("module-info.class")) {
+              continue;
+            }
+            byte[] bytes;
+            try (InputStream in = zipFile.getInputStream(entry)) {
+              bytes = ByteStreams.toByteArray(in);
+            }
+            if (!addClassToDex(classes, bytes, new ArchiveEntryOrigin(name, archiveOrigin))) {
+              return Optional.empty();
+            }
+          }
+        }
+      } else {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(classes);
+  }
+
+  private static boolean addClassToDex(
+      Map<String, ClassToDex> classes, byte[] bytes, Origin origin) {
+    ClassToDex classToDex = new ClassToDex(bytes, origin);
+    return classes.putIfAbsent(classToDex.descriptor, classToDex) == null;
+  }
+
+  /**
+   * @return a hash of the options that the dex file of any class depends on, or empty if they
+   *     cannot be hashed, in which case the cache is not used.
+   */
+  private Optional<HashCode> computeOptionsKey(
+      Optional<FileHashLoader> fileHashLoader, boolean desugaring) throws IOException {
+    Hasher hasher =
+        Hashing.sha1()
+            .newHasher()
+            .putString(com.android.tools.r8.Version.getVersionString(), StandardCharsets.UTF_8)
+            .putBoolean(options.contains(Option.NO_OPTIMIZE))
+            .putBoolean(options.contains(Option.FORCE_JUMBO))
+            .putBoolean(desugaring)
+            .putInt(minSdkVersion.orElse(0))
+            .putString(bucketId.orElse(""), StandardCharsets.UTF_8);
+    if (desugaring) {
+      hasher.putString(androidPlatformTarget.getAndroidJar().toString(), StandardCharsets.UTF_8);
+      for (Path classpathFile : getAbsoluteClasspathFiles()) {
+        if (!Files.isRegularFile(classpathFile)) {
+          return Optional.empty();
+        }
+        hasher.putBytes(hashClasspathFile(fileHashLoader, classpathFile).asBytes());
+      }
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  /**
+   * The desugaring classpath is made of the outputs of other rules, which the build has usually
+   * hashed already, so only read the files that it does not know about.
+   */
+  private static HashCode hashClasspathFile(
+      Optional<FileHashLoader> fileHashLoader, Path classpathFile) throws IOException {
+    if (fileHashLoader.isPresent()) {
+      try {
+        return fileHashLoader.get().get(classpathFile);
+      } catch (NoSuchFileException e) {
+        // Not in any cell of the build.
+      }
+    }
+    return MoreFiles.asByteSource(classpathFile).hash(Hashing.sha1());
+  }
+
+  private static HashCode computeClassKey(
+      HashCode optionsKey,
+      ClassToDex classToDex,
+      Map<String, ClassToDex> classes,
+      boolean desugaring) {
+    Hasher hasher =
+        Hashing.sha1().newHasher().putBytes(optionsKey.asBytes()).putBytes(classToDex.hash);
+    if (desugaring) {
+      // Desugaring adds the default methods a class inherits, so its dex depends on its supertypes.
+      Set<String> supertypes = new TreeSet<>();
+      Deque<String> toVisit = new ArrayDeque<>(classToDex.supertypes);
+      while (!toVisit.isEmpty()) {
+        String descriptor = toVisit.remove();
+        ClassToDex supertype = classes.get(descriptor);
+        if (supertype != null && supertypes.add(descriptor)) {
+          toVisit.addAll(supertype.supertypes);
+        }
+      }
+      for (String descriptor : supertypes) {
+        hasher.putBytes(classes.get(descriptor).hash);
+      }
+    }
+    return hasher.hash();
+  }
+
   @Override
   protected boolean shouldPrintStderr(Verbosity verbosity) {
     return verbosity.shouldPrintSelectCommandOutput();
@@ -480,6 +809,62 @@ public class DxStep extends ShellStep {
     return path.toAbsolutePath().toString();
   }
 
+  /** A class file to dex, along with what its cache key is made of. */
+  private static class ClassToDex {
+    private final byte[] bytes;
+    private final Origin origin;
+    private final String descriptor;
+    private final byte[] hash;
+    private final List<String> supertypes = new ArrayList<>();
+
+    private ClassToDex(byte[] bytes, Origin origin) {
+      this.bytes = bytes;
+      this.origin = origin;
+      this.hash = Hashing.sha1().hashBytes(bytes).asBytes();
+
+      ClassReader reader = new ClassReader(bytes);
+      this.descriptor = toDescriptor(reader.getClassName());
+      if (reader.getSuperName() != null) {
+        supertypes.add(toDescriptor(reader.getSuperName()));
+      }
+      for (String name : reader.getInterfaces()) {
+        supertypes.add(toDescriptor(name));
+      }
+    }
+
+    private static String toDescriptor(String internalName) {
+      return "L" + internalName + ";";
+    }
+  }
+
+  /** Serves classes to D8 from memory. */
+  private static class InMemoryClassFileResourceProvider implements ClassFileResourceProvider {
+    private final Map<String, ClassToDex> classes;
+
+    private InMemoryClassFileResourceProvider(Map<String, ClassToDex> classes) {
+      this.classes = classes;
+    }
+
+    @Override
+    public Set<String> getClassDescriptors() {
+      return classes.keySet();
+    }
+
+    @Override
+    @Nullable
+    public ProgramResource getProgramResource(String descriptor) {
+      ClassToDex classToDex = classes.get(descriptor);
+      if (classToDex == null) {
+        return null;
+      }
+      return ProgramResource.fromBytes(
+          classToDex.origin,
+          ProgramResource.Kind.CF,
+          classToDex.bytes,
+          ImmutableSet.of(descriptor));
+    }
+  }
+
   private static class D8DiagnosticsHandler implements DiagnosticsHandler {
 
     private final List<Diagnostic> diagnostics = new ArrayList<>();
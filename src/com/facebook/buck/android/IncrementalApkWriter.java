@@ -0,0 +1,473 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Turns the APK written by {@link ApkBuilderStep} without compression into the final, compressed
+ * and aligned APK, reusing the compressed entries of the APK it wrote in the previous build.
+ *
+ * <p>An entry is copied from the previous APK, without being compressed again, when the jar
+ * signature manifests of both APKs record the same digest for it. So only the entries that changed
+ * since the previous build are compressed, and the output is the same as if all of them were.
+ *
+ * <p>Stored entries are aligned on 4 bytes, as {@code zipalign 4} would, using the extra field
+ * that {@code apksigner} recognizes, so that signing the APK keeps them aligned.
+ */
+class IncrementalApkWriter {
+
+  /** The level {@code ApkBuilder} compresses entries at. */
+  static final int COMPRESSION_LEVEL = 4;
+
+  private static final int ALIGNMENT = 4;
+
+  /** Id of the extra field {@code apksigner} aligns the data of stored entries with. */
+  private static final short ALIGNMENT_EXTRA_FIELD_ID = (short) 0xd935;
+
+  private static final int ALIGNMENT_EXTRA_FIELD_SIZE = 6;
+
+  private static final String DIGEST_ATTRIBUTE = "SHA1-Digest";
+
+  private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAX_INITIAL_BUFFER_SIZE = 64 * 1024 * 1024;
+
+  private IncrementalApkWriter() {}
+
+  /** How many entries were copied and how many were compressed again. */
+  static class Result {
+    final int reusedEntries;
+    final int compressedEntries;
+
+    private Result(int reusedEntries, int compressedEntries) {
+      this.reusedEntries = reusedEntries;
+      this.compressedEntries = compressedEntries;
+    }
+  }
+
+  /**
+   * @param input the APK to compress, whose deflated entries may be compressed at any level.
+   * @param previous the output of the previous build, if any. Both APKs are closed on return, so
+   *     the output can then replace it.
+   * @param output where to write the compressed APK, which must differ from {@code previous}.
+   */
+  static Result write(Path input, Optional<Path> previous, OutputStream output)
+      throws IOException {
+    try (Archive inputArchive = Archive.open(input)) {
+      Optional<Archive> previousArchive =
+          previous.isPresent() ? Archive.openIfValid(previous.get()) : Optional.empty();
+      try {
+        return write(inputArchive, previousArchive, output);
+      } finally {
+        if (previousArchive.isPresent()) {
+          previousArchive.get().close();
+        }
+      }
+    }
+  }
+
+  private static Result write(
+      Archive inputArchive, Optional<Archive> previousArchive, OutputStream output)
+      throws IOException {
+    Map<String, String> inputDigests = inputArchive.readDigests();
+    Map<String, String> previousDigests =
+        previousArchive.isPresent() ? previousArchive.get().readDigests() : new HashMap<>();
+
+    int reusedEntries = 0;
+    int compressedEntries = 0;
+    ZipWriter writer = new ZipWriter(output);
+    for (Entry entry : inputArchive.entries) {
+      if (entry.method == ZipEntry.STORED) {
+        try (InputStream data = entry.openCompressed()) {
+          writer.writeEntry(entry, data, entry.compressedSize);
+        }
+        continue;
+      }
+
+      Entry previousEntry =
+          previousArchive.isPresent() ? previousArchive.get().entriesByName.get(entry.name) : null;
+      String digest = inputDigests.get(entry.name);
+      if (previousEntry != null
+          && previousEntry.method == ZipEntry.DEFLATED
+          && previousEntry.crc == entry.crc
+          && previousEntry.size == entry.size
+          && digest != null
+          && digest.equals(previousDigests.get(entry.name))) {
+        try (InputStream data = previousEntry.openCompressed()) {
+          writer.writeEntry(entry, data, previousEntry.compressedSize);
+        }
+        reusedEntries++;
+      } else {
+        byte[] compressed = recompress(entry);
+        writer.writeEntry(entry, new ByteArrayInputStream(compressed), compressed.length);
+        compressedEntries++;
+      }
+    }
+    writer.finish();
+    return new Result(reusedEntries, compressedEntries);
+  }
+
+  private static byte[] recompress(Entry entry) throws IOException {
+    ByteArrayOutputStream compressed =
+        new ByteArrayOutputStream((int) Math.min(entry.size / 2, MAX_INITIAL_BUFFER_SIZE) + 64);
+    Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+    try (InputStream in = entry.openUncompressed();
+        OutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+      ByteStreams.copy(in, out);
+    } finally {
+      deflater.end();
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * A zip file whose entries are read from its central directory. It is read through a channel
+   * rather than mapped in memory, so that nothing holds on to the file once it is closed and the
+   * output can replace it, and so that offsets past 2 GiB work.
+   */
+  private static class Archive implements Closeable {
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> entriesByName = new HashMap<>();
+
+    private Archive(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    static Optional<Archive> openIfValid(Path path) {
+      try {
+        return Optional.of(open(path));
+      } catch (IOException | RuntimeException e) {
+        // A missing or broken previous APK only means that every entry is compressed again.
+        return Optional.empty();
+      }
+    }
+
+    static Archive open(Path path) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        Archive archive = new Archive(channel);
+        archive.readCentralDirectory(path);
+        return archive;
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    private void readCentralDirectory(Path path) throws IOException {
+      // Search backwards from the end of the file for the end of central directory record, which
+      // can only be followed by a comment of up to 64 KiB.
+      long fileSize = channel.size();
+      int tailSize = (int) Math.min(fileSize, ZipEntry.ENDHDR + 0xffff);
+      ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+      int eocdOffset = tailSize - ZipEntry.ENDHDR;
+      while (eocdOffset >= 0 && tail.getInt(eocdOffset) != ZipEntry.ENDSIG) {
+        eocdOffset--;
+      }
+      check(eocdOffset >= 0, "expected end of central directory record in " + path);
+      int entryCount = Short.toUnsignedInt(tail.getShort(eocdOffset + ZipEntry.ENDTOT));
+      check(entryCount != 0xffff, "zip64 archives are not supported: " + path);
+      long cdSize = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDSIZ));
+      long cdOffset = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDOFF));
+      check(
+          cdSize <= Integer.MAX_VALUE && cdOffset + cdSize <= fileSize,
+          "expected central directory in " + path);
+
+      ByteBuffer centralDirectory = read(channel, cdOffset, (int) cdSize);
+      int offset = 0;
+      for (int i = 0; i < entryCount; i++) {
+        check(
+            centralDirectory.getInt(offset) == ZipEntry.CENSIG,
+            "expected central directory header");
+        Entry entry = new Entry(channel, centralDirectory, offset);
+        entries.add(entry);
+        entriesByName.put(entry.name, entry);
+        offset += entry.centralDirectoryRecordSize;
+      }
+    }
+
+    /** @return the digests of the entries recorded in the jar signature manifest. */
+    Map<String, String> readDigests() throws IOException {
+      Map<String, String> digests = new HashMap<>();
+      Entry manifestEntry = entriesByName.get(JarFile.MANIFEST_NAME);
+      if (manifestEntry == null) {
+        return digests;
+      }
+      Manifest manifest;
+      try (InputStream in = manifestEntry.openUncompressed()) {
+        manifest = new Manifest(in);
+      }
+      for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+        String digest = entry.getValue().getValue(DIGEST_ATTRIBUTE);
+        if (digest != null) {
+          digests.put(entry.getKey(), digest);
+        }
+      }
+      return digests;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /** An entry of an {@link Archive}, as described by its central directory record. */
+  private static class Entry {
+    private final byte[] nameBytes;
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final int time;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final int centralDirectoryRecordSize;
+    private final FileChannel channel;
+    private final long dataOffset;
+
+    Entry(FileChannel channel, ByteBuffer centralDirectory, int offset) throws IOException {
+      int nameLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENNAM));
+      nameBytes = new byte[nameLength];
+      ByteBuffer nameBuffer = centralDirectory.duplicate();
+      nameBuffer.position(offset + ZipEntry.CENHDR);
+      nameBuffer.get(nameBytes);
+      name = new String(nameBytes, StandardCharsets.UTF_8);
+      flags = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENFLG));
+      method = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENHOW));
+      time = centralDirectory.getInt(offset + ZipEntry.CENTIM);
+      crc = Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENCRC));
+      compressedSize = Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENSIZ));
+      size = Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENLEN));
+      centralDirectoryRecordSize =
+          ZipEntry.CENHDR
+              + nameLength
+              + Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENEXT))
+              + Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENCOM));
+      check(
+          method == ZipEntry.STORED || method == ZipEntry.DEFLATED,
+          "unsupported compression method for " + name);
+
+      long localHeaderOffset =
+          Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENOFF));
+      ByteBuffer localHeader = read(channel, localHeaderOffset, ZipEntry.LOCHDR);
+      check(localHeader.getInt(0) == ZipEntry.LOCSIG, "expected local header for " + name);
+      this.channel = channel;
+      dataOffset =
+          localHeaderOffset
+              + ZipEntry.LOCHDR
+              + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCNAM))
+              + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCEXT));
+      check(dataOffset + compressedSize <= channel.size(), "truncated data for " + name);
+    }
+
+    /** @return the data of the entry, as stored in the archive. */
+    InputStream openCompressed() {
+      return new ChannelRangeInputStream(channel, dataOffset, compressedSize);
+    }
+
+    InputStream openUncompressed() {
+      InputStream in = openCompressed();
+      if (method == ZipEntry.STORED) {
+        return in;
+      }
+      Inflater inflater = new Inflater(true);
+      return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          inflater.end();
+        }
+      };
+    }
+  }
+
+  /**
+   * Reads a range of a channel with positional reads, so that the entries of an archive can be
+   * read without sharing the position of its channel, and closing it leaves the channel open.
+   */
+  private static class ChannelRangeInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    ChannelRangeInputStream(FileChannel channel, long position, long length) {
+      this.channel = channel;
+      this.position = position;
+      this.end = position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position >= end) {
+        return -1;
+      }
+      int length = (int) Math.min(len, end - position);
+      int read = channel.read(ByteBuffer.wrap(b, off, length), position);
+      if (read < 0) {
+        throw new EOFException("unexpected end of archive");
+      }
+      position += read;
+      return read;
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("unexpected end of archive");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** Writes entries whose sizes are known up front, so without data descriptors. */
+  private static class ZipWriter {
+    private final OutputStream out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private long offset = 0;
+    private int entryCount = 0;
+
+    ZipWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    void writeEntry(Entry entry, InputStream data, long compressedSize) throws IOException {
+      check(offset <= 0xffffffffL && entryCount < 0xffff, "the APK is too large for zip32");
+      int flags = entry.flags & ~DATA_DESCRIPTOR_FLAG;
+      int versionNeeded = entry.method == ZipEntry.STORED ? 10 : 20;
+
+      byte[] extra = new byte[0];
+      if (entry.method == ZipEntry.STORED) {
+        long dataOffset =
+            offset + ZipEntry.LOCHDR + entry.nameBytes.length + ALIGNMENT_EXTRA_FIELD_SIZE;
+        int padding = (int) ((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+        ByteBuffer extraField =
+            ByteBuffer.allocate(ALIGNMENT_EXTRA_FIELD_SIZE + padding)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putShort(ALIGNMENT_EXTRA_FIELD_ID)
+                .putShort((short) (2 + padding))
+                .putShort((short) ALIGNMENT);
+        extra = extraField.array();
+      }
+
+      ByteBuffer localHeader =
+          ByteBuffer.allocate(ZipEntry.LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+      localHeader
+          .putInt((int) ZipEntry.LOCSIG)
+          .putShort((short) versionNeeded)
+          .putShort((short) flags)
+          .putShort((short) entry.method)
+          .putInt(entry.time)
+          .putInt((int) entry.crc)
+          .putInt((int) compressedSize)
+          .putInt((int) entry.size)
+          .putShort((short) entry.nameBytes.length)
+          .putShort((short) extra.length);
+      out.write(localHeader.array());
+      out.write(entry.nameBytes);
+      out.write(extra);
+      check(ByteStreams.copy(data, out) == compressedSize, "unexpected size of " + entry.name);
+
+      ByteBuffer centralDirectoryHeader =
+          ByteBuffer.allocate(ZipEntry.CENHDR).order(ByteOrder.LITTLE_ENDIAN);
+      centralDirectoryHeader
+          .putInt((int) ZipEntry.CENSIG)
+          .putShort((short) versionNeeded)
+          .putShort((short) versionNeeded)
+          .putShort((short) flags)
+          .putShort((short) entry.method)
+          .putInt(entry.time)
+          .putInt((int) entry.crc)
+          .putInt((int) compressedSize)
+          .putInt((int) entry.size)
+          .putShort((short) entry.nameBytes.length)
+          .putShort((short) 0) // extra field length
+          .putShort((short) 0) // comment length
+          .putShort((short) 0) // disk number
+          .putShort((short) 0) // internal attributes
+          .putInt(0) // external attributes
+          .putInt((int) offset);
+      centralDirectory.write(centralDirectoryHeader.array());
+      centralDirectory.write(entry.nameBytes);
+
+      offset += ZipEntry.LOCHDR + entry.nameBytes.length + extra.length + compressedSize;
+      entryCount++;
+    }
+
+    void finish() throws IOException {
+      check(offset <= 0xffffffffL, "the APK is too large for zip32");
+      centralDirectory.writeTo(out);
+      ByteBuffer eocd = ByteBuffer.allocate(ZipEntry.ENDHDR).order(ByteOrder.LITTLE_ENDIAN);
+      eocd.putInt((int) ZipEntry.ENDSIG)
+          .putShort((short) 0) // disk number
+          .putShort((short) 0) // disk with the central directory
+          .putShort((short) entryCount)
+          .putShort((short) entryCount)
+          .putInt(centralDirectory.size())
+          .putInt((int) offset)
+          .putShort((short) 0); // comment length
+      out.write(eocd.array());
+      out.flush();
+    }
+  }
+
+  private static void check(boolean expression, String message) throws IOException {
+    if (!expression) {
+      throw new IOException(message);
+    }
+  }
+}
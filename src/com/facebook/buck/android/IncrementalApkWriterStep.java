@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Compresses and aligns the APK written by {@link ApkBuilderStep}, only compressing the entries
+ * that changed since the APK this step wrote in the previous build. See {@link
+ * IncrementalApkWriter}.
+ */
+class IncrementalApkWriterStep implements Step {
+
+  private static final Logger LOG = Logger.get(IncrementalApkWriterStep.class);
+
+  private final ProjectFilesystem filesystem;
+  private final Path inputApkPath;
+  private final Path outputApkPath;
+
+  /**
+   * @param inputApkPath the APK to compress.
+   * @param outputApkPath where to write the compressed APK, which is also where the previous build
+   *     left the APK whose compressed entries are reused.
+   */
+  IncrementalApkWriterStep(ProjectFilesystem filesystem, Path inputApkPath, Path outputApkPath) {
+    this.filesystem = filesystem;
+    this.inputApkPath = inputApkPath;
+    this.outputApkPath = outputApkPath;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    Path input = filesystem.resolve(inputApkPath);
+    Path output = filesystem.resolve(outputApkPath);
+    Path tmpOutput = output.resolveSibling(output.getFileName() + ".tmp");
+    Optional<Path> previous = Files.isRegularFile(output) ? Optional.of(output) : Optional.empty();
+
+    IncrementalApkWriter.Result result;
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpOutput))) {
+      result = IncrementalApkWriter.write(input, previous, out);
+    }
+    Files.move(tmpOutput, output, StandardCopyOption.REPLACE_EXISTING);
+    LOG.verbose(
+        "Wrote %s reusing %d entries and compressing %d entries",
+        outputApkPath, result.reusedEntries, result.compressedEntries);
+    return StepExecutionResults.SUCCESS;
+  }
+
+  @Override
+  public String getShortName() {
+    return "incremental_apk_writer";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("%s %s %s", getShortName(), inputApkPath, outputApkPath);
+  }
+}
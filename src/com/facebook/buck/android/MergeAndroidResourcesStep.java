@@ -21,6 +21,7 @@ import static com.google.common.collect.Ordering.natural;
 import com.facebook.buck.android.aapt.RDotTxtEntry;
 import com.facebook.buck.android.aapt.RDotTxtEntry.IdType;
 import com.facebook.buck.android.aapt.RDotTxtEntry.RType;
+import com.facebook.buck.android.aapt.RDotTxtFileCache;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
@@ -217,14 +218,9 @@ public class MergeAndroidResourcesStep implements Step {
       } else {
         // re-assign Ids
         ImmutableSet.Builder<RDotTxtEntry> uberRdotTxtEntries = ImmutableSet.builder();
-        uberRDotTxt.forEach(
-            rDot -> {
-              try {
-                RDotTxtEntry.readResources(filesystem, rDot).forEach(uberRdotTxtEntries::add);
-              } catch (IOException e) {
-                throw new RuntimeException(e);
-              }
-            });
+        RDotTxtFileCache.readResources(filesystem, uberRDotTxt)
+            .values()
+            .forEach(uberRdotTxtEntries::addAll);
         uberRDotTxtIds =
             Optional.of(
                 uberRdotTxtEntries.build().stream()
@@ -444,19 +440,20 @@ public class MergeAndroidResourcesStep implements Step {
                   ovr.put(pkg, entries.stream().collect(Collectors.toMap(k -> k, v -> v))));
     }
 
+    // Parsing the symbols files is independent of the order they are merged in, so parse them all
+    // in parallel before assigning ids, which must be done in order.
+    ImmutableMap<Path, ImmutableList<RDotTxtEntry>> symbolsFileToResources;
+    try {
+      symbolsFileToResources =
+          RDotTxtFileCache.readResources(filesystem, symbolsFileToRDotJavaPackage.keySet());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
     for (Map.Entry<Path, String> entry : symbolsFileToRDotJavaPackage.entrySet()) {
       Path symbolsFile = entry.getKey();
-      // Read the symbols file and parse each line as a Resource.
-      List<RDotTxtEntry> linesInSymbolsFile;
-      try {
-        linesInSymbolsFile =
-            filesystem.readLines(symbolsFile).stream()
-                .filter(input -> !Strings.isNullOrEmpty(input))
-                .map(MergeAndroidResourcesStep::parseEntryOrThrow)
-                .collect(Collectors.toList());
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
+      List<RDotTxtEntry> linesInSymbolsFile =
+          new ArrayList<>(Objects.requireNonNull(symbolsFileToResources.get(symbolsFile)));
 
       String packageName = entry.getValue();
       Map<RDotTxtEntry, RDotTxtEntry> packageOverrides =
@@ -487,7 +484,7 @@ public class MergeAndroidResourcesStep implements Step {
         } else if (useOldStyleableFormat) {
           if (resource.idValue.startsWith("0x7f")) {
             Objects.requireNonNull(enumerator);
-            resource = resource.copyWithNewIdValue(String.format("0x%08x", enumerator.next()));
+            resource = resource.copyWithNewIdValue(formatId(enumerator.next()));
           }
         } else {
           if (resourceToIdValuesMap.containsKey(resource)) {
@@ -515,7 +512,7 @@ public class MergeAndroidResourcesStep implements Step {
             // which should not be assigned a custom R value.
             if (!resource.idValue.startsWith("0x01")) {
               Objects.requireNonNull(enumerator);
-              resource = resource.copyWithNewIdValue(String.format("0x%08x", enumerator.next()));
+              resource = resource.copyWithNewIdValue(formatId(enumerator.next()));
             }
 
             // Add resource to cache so that the id value is consistent across all R.txt
@@ -689,6 +686,11 @@ public class MergeAndroidResourcesStep implements Step {
         .resolve(String.format("%s.java", rName));
   }
 
+  /** Same as {@code String.format("0x%08x", id)}, which is slow enough to show in profiles. */
+  private static String formatId(int id) {
+    return "0x" + Strings.padStart(Integer.toHexString(id), 8, '0');
+  }
+
   private static class IntEnumerator {
     private int value;
 
@@ -38,7 +38,6 @@ import com.facebook.buck.util.xml.XmlDomParserWithLineNumbers;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -50,10 +49,11 @@ import java.nio.file.FileVisitOption;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
@@ -119,6 +119,9 @@ public class MiniAapt implements Step {
   private final boolean isGrayscaleImageProcessingEnabled;
   private final ResourceCollectionType resourceCollectionType;
 
+  /** XML files of the {@code res} directory, parsed ahead of time, by absolute path. */
+  private Map<Path, Document> parsedXmlFiles = new HashMap<>();
+
   public MiniAapt(
       SourcePathResolver resolver,
       ProjectFilesystem filesystem,
@@ -194,11 +197,14 @@ public class MiniAapt implements Step {
 
     ProjectFilesystemView filesystemViewWithoutIgnores = filesystem.asView();
     try {
+      parsedXmlFiles = parseXmlFiles(filesystemViewWithoutIgnores);
       collectResources(filesystemViewWithoutIgnores, context.getBuckEventBus());
       processXmlFilesForIds(filesystemViewWithoutIgnores, references);
     } catch (XPathExpressionException | ResourceParseException e) {
       context.logError(e, "Error parsing resources to generate resource IDs for %s.", resDirectory);
       return StepExecutionResults.ERROR;
+    } finally {
+      parsedXmlFiles = new HashMap<>();
     }
 
     Set<RDotTxtEntry> missing = verifyReferences(filesystem, references.build());
@@ -331,11 +337,10 @@ public class MiniAapt implements Step {
     boolean isGrayscaleImage = false;
     boolean isCustomDrawable = false;
     if (filename.endsWith(".xml")) {
-      try (InputStream stream = filesystem.newFileInputStream(resourceFile)) {
-        Document dom = parseXml(resourceFile, stream);
-        Element root = dom.getDocumentElement();
-        isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
-      }
+      // processXmlFilesForIds() looks into the file again, so keep it parsed.
+      Document dom = readXml(filesystem, resourceFile, /* keepParsed */ true);
+      Element root = dom.getDocumentElement();
+      isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
     } else if (isGrayscaleImageProcessingEnabled) {
       isGrayscaleImage = filename.endsWith(".g.png");
     }
@@ -397,61 +402,59 @@ public class MiniAapt implements Step {
   @VisibleForTesting
   void processValuesFile(ProjectFilesystem filesystem, Path valuesFile)
       throws IOException, ResourceParseException {
-    try (InputStream stream = filesystem.newFileInputStream(valuesFile)) {
-      Document dom = parseXml(valuesFile, stream);
-      Element root = dom.getDocumentElement();
+    Document dom = readXml(filesystem, valuesFile, /* keepParsed */ false);
+    Element root = dom.getDocumentElement();
+
+    // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
+    // This is useful to exclude using generated strings to build the
+    // resource map, which ensures a build break will show up at build time
+    // rather than being hidden until generated resources are updated.
+    if (root.getAttribute("exclude-from-buck-resource-map").equals("true")) {
+      return;
+    }
 
-      // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
-      // This is useful to exclude using generated strings to build the
-      // resource map, which ensures a build break will show up at build time
-      // rather than being hidden until generated resources are updated.
-      if (root.getAttribute("exclude-from-buck-resource-map").equals("true")) {
-        return;
+    for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
       }
 
-      for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
-        if (node.getNodeType() != Node.ELEMENT_NODE) {
-          continue;
-        }
-
-        String resourceType = node.getNodeName();
-        if (resourceType.equals(ITEM_TAG)) {
-          Node typeNode = verifyNodeHasTypeAttribute(valuesFile, node);
-          resourceType = typeNode.getNodeValue();
-        } else if (resourceType.equals(PUBLIC_TAG)) {
-          Node nameAttribute = node.getAttributes().getNamedItem("name");
-          if (nameAttribute == null || nameAttribute.getNodeValue().isEmpty()) {
-            throw new ResourceParseException(
-                "Error parsing file '%s', expected a 'name' attribute in \n'%s'\n",
-                valuesFile, node.toString());
-          }
-          String type = verifyNodeHasTypeAttribute(valuesFile, node).getNodeValue();
-
-          if (!RESOURCE_TYPES.containsKey(type)) {
-            throw new ResourceParseException(
-                "Invalid resource type '%s' in <public> resource '%s' in file '%s'.",
-                type, nameAttribute.getNodeValue(), valuesFile);
-          }
-
-          if (!PUBLIC_FILENAME.equals(valuesFile.getFileName().toString())) {
-            throw new ResourceParseException(
-                "<public> resource '%s' must be declared in res/values/public.xml, but was declared in '%s'",
-                nameAttribute.getNodeValue(), valuesFile);
-          }
+      String resourceType = node.getNodeName();
+      if (resourceType.equals(ITEM_TAG)) {
+        Node typeNode = verifyNodeHasTypeAttribute(valuesFile, node);
+        resourceType = typeNode.getNodeValue();
+      } else if (resourceType.equals(PUBLIC_TAG)) {
+        Node nameAttribute = node.getAttributes().getNamedItem("name");
+        if (nameAttribute == null || nameAttribute.getNodeValue().isEmpty()) {
+          throw new ResourceParseException(
+              "Error parsing file '%s', expected a 'name' attribute in \n'%s'\n",
+              valuesFile, node.toString());
         }
+        String type = verifyNodeHasTypeAttribute(valuesFile, node).getNodeValue();
 
-        if (IGNORED_TAGS.contains(resourceType)) {
-          continue;
+        if (!RESOURCE_TYPES.containsKey(type)) {
+          throw new ResourceParseException(
+              "Invalid resource type '%s' in <public> resource '%s' in file '%s'.",
+              type, nameAttribute.getNodeValue(), valuesFile);
         }
 
-        if (!RESOURCE_TYPES.containsKey(resourceType)) {
+        if (!PUBLIC_FILENAME.equals(valuesFile.getFileName().toString())) {
           throw new ResourceParseException(
-              "Invalid resource type '<%s>' in '%s'.", resourceType, valuesFile);
+              "<public> resource '%s' must be declared in res/values/public.xml, but was declared in '%s'",
+              nameAttribute.getNodeValue(), valuesFile);
         }
+      }
+
+      if (IGNORED_TAGS.contains(resourceType)) {
+        continue;
+      }
 
-        RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(resourceType));
-        addToResourceCollector(node, rType, valuesFile);
+      if (!RESOURCE_TYPES.containsKey(resourceType)) {
+        throw new ResourceParseException(
+            "Invalid resource type '<%s>' in '%s'.", resourceType, valuesFile);
       }
+
+      RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(resourceType));
+      addToResourceCollector(node, rType, valuesFile);
     }
   }
 
@@ -526,45 +529,82 @@ public class MiniAapt implements Step {
   void processXmlFile(
       ProjectFilesystem filesystem, Path xmlFile, ImmutableSet.Builder<RDotTxtEntry> references)
       throws IOException, XPathExpressionException, ResourceParseException {
-    try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
-      Document dom = parseXml(xmlFile, stream);
-      NodeList nodesWithIds =
-          (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesWithIds.getLength(); i++) {
-        String resourceName = nodesWithIds.item(i).getNodeValue();
-        if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
-        Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
-
-        Element ownerElement = ((Attr) nodesWithIds.item(i)).getOwnerElement();
-        DocumentLocation location = extractDocumentLocation(ownerElement);
-        resourceCollector.addIntResourceIfNotPresent(
-            RType.ID, resourceName.substring(ID_DEFINITION_PREFIX.length()), xmlFile, location);
+    Document dom = readXml(filesystem, xmlFile, /* keepParsed */ false);
+    NodeList nodesWithIds =
+        (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
+    for (int i = 0; i < nodesWithIds.getLength(); i++) {
+      String resourceName = nodesWithIds.item(i).getNodeValue();
+      if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
       }
+      Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
 
-      NodeList nodesUsingIds = (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesUsingIds.getLength(); i++) {
-        String resourceName = nodesUsingIds.item(i).getNodeValue();
-        int slashPosition = resourceName.indexOf('/');
-        if (resourceName.charAt(0) != '@' || slashPosition == -1) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
+      Element ownerElement = ((Attr) nodesWithIds.item(i)).getOwnerElement();
+      DocumentLocation location = extractDocumentLocation(ownerElement);
+      resourceCollector.addIntResourceIfNotPresent(
+          RType.ID, resourceName.substring(ID_DEFINITION_PREFIX.length()), xmlFile, location);
+    }
 
-        String rawRType = resourceName.substring(1, slashPosition);
-        String name = resourceName.substring(slashPosition + 1);
+    NodeList nodesUsingIds = (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
+    for (int i = 0; i < nodesUsingIds.getLength(); i++) {
+      String resourceName = nodesUsingIds.item(i).getNodeValue();
+      int slashPosition = resourceName.indexOf('/');
+      if (resourceName.charAt(0) != '@' || slashPosition == -1) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
+      }
 
-        String nodeName = nodesUsingIds.item(i).getNodeName();
-        if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
-          continue;
-        }
-        if (!RESOURCE_TYPES.containsKey(rawRType)) {
-          throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
-        }
-        RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(rawRType));
+      String rawRType = resourceName.substring(1, slashPosition);
+      String name = resourceName.substring(slashPosition + 1);
 
-        references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+      String nodeName = nodesUsingIds.item(i).getNodeName();
+      if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
+        continue;
       }
+      if (!RESOURCE_TYPES.containsKey(rawRType)) {
+        throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+      }
+      RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(rawRType));
+
+      references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+    }
+  }
+
+  /**
+   * Parses all the XML files of the {@code res} directory in parallel, as parsing dominates the
+   * time this step takes. Resources are then collected in the same order as before, so that they
+   * get the same ids. Files that fail to parse are left out, to fail when they are processed.
+   */
+  private Map<Path, Document> parseXmlFiles(ProjectFilesystemView filesystemView)
+      throws IOException {
+    Map<Path, Document> documents = new ConcurrentHashMap<>();
+    filesystemView
+        .getFilesUnderPath(
+            resolver.getAbsolutePath(resDirectory),
+            input -> input.toString().endsWith(".xml"),
+            EnumSet.of(FileVisitOption.FOLLOW_LINKS))
+        .parallelStream()
+        .forEach(
+            path -> {
+              try (InputStream stream = filesystem.newFileInputStream(path)) {
+                documents.put(
+                    filesystem.resolve(path), XmlDomParserWithLineNumbers.parse(stream));
+              } catch (IOException | SAXException e) {
+                // Reported when the file is processed.
+              }
+            });
+    return documents;
+  }
+
+  private Document readXml(ProjectFilesystem filesystem, Path xmlFile, boolean keepParsed)
+      throws IOException, ResourceParseException {
+    Path absolutePath = filesystem.resolve(xmlFile);
+    Document dom =
+        keepParsed ? parsedXmlFiles.get(absolutePath) : parsedXmlFiles.remove(absolutePath);
+    if (dom != null) {
+      return dom;
+    }
+    try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
+      return parseXml(xmlFile, stream);
     }
   }
 
@@ -625,17 +665,9 @@ public class MiniAapt implements Step {
     ImmutableSet.Builder<RDotTxtEntry> unresolved = ImmutableSet.builder();
     ImmutableSet.Builder<RDotTxtEntry> definitionsBuilder = ImmutableSet.builder();
     definitionsBuilder.addAll(castResourceCollector.getResources());
-    for (Path depRTxt : pathsToSymbolsOfDeps) {
-      Iterable<String> lines =
-          filesystem.readLines(depRTxt).stream()
-              .filter(input -> !Strings.isNullOrEmpty(input))
-              .collect(Collectors.toList());
-      for (String line : lines) {
-        Optional<RDotTxtEntry> entry = RDotTxtEntry.parse(line);
-        Preconditions.checkState(entry.isPresent());
-        definitionsBuilder.add(entry.get());
-      }
-    }
+    RDotTxtFileCache.readResources(filesystem, pathsToSymbolsOfDeps)
+        .values()
+        .forEach(definitionsBuilder::addAll);
 
     Set<RDotTxtEntry> definitions = definitionsBuilder.build();
     for (RDotTxtEntry reference : references) {
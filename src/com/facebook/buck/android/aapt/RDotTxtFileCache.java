@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.aapt;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Reads {@code R.txt} files, sharing the entries parsed from files with the same contents.
+ *
+ * <p>Every {@code android_resource} checks its references against the {@code R.txt} files of all
+ * its transitive dependencies, so with many libraries the same files are read over and over, in
+ * the same build and across builds. The parsed entries are kept in memory, keyed by a hash of the
+ * file contents, so that each distinct file is only parsed once per daemon.
+ */
+public class RDotTxtFileCache {
+
+  /** Bounds the memory held by the cache, as a number of parsed entries. */
+  private static final long MAX_CACHED_ENTRIES = 1_000_000;
+
+  private static final Cache<HashCode, ImmutableList<RDotTxtEntry>> CACHE =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHED_ENTRIES)
+          .weigher((HashCode key, ImmutableList<RDotTxtEntry> value) -> 1 + value.size())
+          .build();
+
+  private RDotTxtFileCache() {}
+
+  /** @return the entries of the given {@code R.txt} file, in the order they appear in it. */
+  public static ImmutableList<RDotTxtEntry> readResources(
+      ProjectFilesystem filesystem, Path rDotTxt) throws IOException {
+    byte[] contents;
+    try (InputStream stream = filesystem.newFileInputStream(rDotTxt)) {
+      contents = ByteStreams.toByteArray(stream);
+    }
+    HashCode key = Hashing.sha1().hashBytes(contents);
+    // Two threads may both parse a file missing from the cache, which is harmless.
+    ImmutableList<RDotTxtEntry> entries = CACHE.getIfPresent(key);
+    if (entries == null) {
+      entries = parse(contents);
+      CACHE.put(key, entries);
+    }
+    return entries;
+  }
+
+  /**
+   * Reads many {@code R.txt} files in parallel.
+   *
+   * @return the entries of each file, by file, in the order of {@code rDotTxts}.
+   */
+  public static ImmutableMap<Path, ImmutableList<RDotTxtEntry>> readResources(
+      ProjectFilesystem filesystem, Collection<Path> rDotTxts) throws IOException {
+    try {
+      return rDotTxts.parallelStream()
+          .distinct()
+          .collect(
+              ImmutableMap.toImmutableMap(
+                  path -> path,
+                  path -> {
+                    try {
+                      return readResources(filesystem, path);
+                    } catch (IOException e) {
+                      throw new UncheckedIOException(e);
+                    }
+                  }));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  @VisibleForTesting
+  public static void invalidateAll() {
+    CACHE.invalidateAll();
+  }
+
+  @VisibleForTesting
+  static long size() {
+    return CACHE.size();
+  }
+
+  private static ImmutableList<RDotTxtEntry> parse(byte[] contents) throws IOException {
+    ImmutableList.Builder<RDotTxtEntry> entries = ImmutableList.builder();
+    for (String line : CharSource.wrap(new String(contents, StandardCharsets.UTF_8)).readLines()) {
+      if (!Strings.isNullOrEmpty(line)) {
+        entries.add(RDotTxtEntry.TO_ENTRY.apply(line));
+      }
+    }
+    return entries.build();
+  }
+}
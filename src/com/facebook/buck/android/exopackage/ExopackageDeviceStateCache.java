@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.exopackage;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import java.nio.file.Path;
+
+/**
+ * Remembers the exopackage files and metadata that were last installed for a package on a device.
+ *
+ * <p>Exopackage files are named after the hash of their contents, so the listing of the install
+ * directory of a package tells which files are on the device. The metadata files listing them have
+ * fixed names, though, so the listing does not tell whether they are up to date. When the listing
+ * is still exactly what the last install left, the metadata files on the device are the ones that
+ * install wrote, and only the metadata that changed since needs to be pushed.
+ */
+public class ExopackageDeviceStateCache {
+
+  private static final int MAX_CACHED_PACKAGES = 100;
+
+  private static final Cache<String, DeviceState> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PACKAGES).build();
+
+  private ExopackageDeviceStateCache() {}
+
+  /**
+   * Forgets what was installed for the package, so that an install that fails halfway is not
+   * trusted, and returns the metadata that the last install left on the device.
+   *
+   * @param presentFiles the files found in the install directory of the package, relative to it.
+   * @return the contents of the metadata files by path, or an empty map if the files on the device
+   *     are not the ones the last install left there.
+   */
+  static ImmutableMap<Path, String> takeInstalledMetadata(
+      String serialNumber, String packageName, ImmutableSortedSet<Path> presentFiles) {
+    DeviceState state = CACHE.asMap().remove(getKey(serialNumber, packageName));
+    if (state == null || !state.installedFiles.equals(withoutLockFiles(presentFiles))) {
+      return ImmutableMap.of();
+    }
+    return state.installedMetadata;
+  }
+
+  /**
+   * Records a finished install.
+   *
+   * @param installedFiles the files that are now in the install directory of the package, relative
+   *     to it, including the metadata files.
+   */
+  static void putInstalledState(
+      String serialNumber,
+      String packageName,
+      ImmutableSortedSet<Path> installedFiles,
+      ImmutableMap<Path, String> installedMetadata) {
+    CACHE.put(
+        getKey(serialNumber, packageName),
+        new DeviceState(withoutLockFiles(installedFiles), installedMetadata));
+  }
+
+  @VisibleForTesting
+  public static void invalidateAll() {
+    CACHE.invalidateAll();
+  }
+
+  private static String getKey(String serialNumber, String packageName) {
+    return serialNumber + "/" + packageName;
+  }
+
+  /** Lock files are left alone by installs, so they are not part of the installed state. */
+  private static ImmutableSortedSet<Path> withoutLockFiles(ImmutableSortedSet<Path> files) {
+    return files.stream()
+        .filter(path -> !path.getFileName().toString().equals("lock"))
+        .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
+  }
+
+  private static class DeviceState {
+    private final ImmutableSortedSet<Path> installedFiles;
+    private final ImmutableMap<Path, String> installedMetadata;
+
+    DeviceState(
+        ImmutableSortedSet<Path> installedFiles, ImmutableMap<Path, String> installedMetadata) {
+      this.installedFiles = installedFiles;
+      this.installedMetadata = installedMetadata;
+    }
+  }
+}
@@ -40,6 +40,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
 import java.io.File;
 import java.io.IOException;
@@ -60,6 +61,8 @@ public class ExopackageInstaller {
   public static final String SECONDARY_DEX_TYPE = "secondary_dex";
   public static final String NATIVE_LIBRARY_TYPE = "native_library";
   public static final String RESOURCES_TYPE = "resources";
+  /** The files type of a push of the files of all types at once. */
+  private static final String EXOPACKAGE_FILES_TYPE = "exopackage_files";
 
   private final ProjectFilesystem projectFilesystem;
   private final BuckEventBus eventBus;
@@ -170,16 +173,41 @@ public class ExopackageInstaller {
       metadata.putAll(moduleExoHelper.getMetadataToInstall());
     }
 
-    deleteUnwantedFiles(presentFiles, wantedPaths.build());
-    installMetadata(metadata.build());
+    ImmutableMap<Path, String> wantedMetadata = metadata.build();
+    ImmutableMap<Path, String> installedMetadata =
+        ExopackageDeviceStateCache.takeInstalledMetadata(
+            device.getSerialNumber(), packageName, presentFiles);
+    ImmutableMap<Path, String> changedMetadata =
+        wantedMetadata.entrySet().stream()
+            .filter(entry -> !entry.getValue().equals(installedMetadata.get(entry.getKey())))
+            .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+    // Metadata files that did not change are kept, the others are deleted and pushed again.
+    wantedPaths.addAll(
+        Sets.difference(wantedMetadata.keySet(), changedMetadata.keySet()).immutableCopy());
+    ImmutableSet<Path> wantedFiles = wantedPaths.build();
+
+    deleteUnwantedFiles(presentFiles, wantedFiles);
+    installMetadata(presentFiles, changedMetadata);
+
+    ExopackageDeviceStateCache.putInstalledState(
+        device.getSerialNumber(),
+        packageName,
+        ImmutableSortedSet.<Path>naturalOrder()
+            .addAll(wantedFiles)
+            .addAll(changedMetadata.keySet())
+            .build(),
+        wantedMetadata);
   }
 
   public void installMissingExopackageFiles(
       ImmutableSortedSet<Path> presentFiles, ExopackageInfo exoInfo) throws Exception {
+    // The missing files of all types are pushed together, so that the agent is only started once.
+    ImmutableMap.Builder<Path, Path> wantedFiles = ImmutableMap.builder();
+
     if (exoInfo.getDexInfo().isPresent()) {
       DexExoHelper dexExoHelper =
           new DexExoHelper(pathResolver, projectFilesystem, exoInfo.getDexInfo().get());
-      installMissingFiles(presentFiles, dexExoHelper.getFilesToInstall(), SECONDARY_DEX_TYPE);
+      wantedFiles.putAll(dexExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getNativeLibsInfo().isPresent()) {
@@ -195,20 +223,22 @@ public class ExopackageInstaller {
               pathResolver,
               projectFilesystem,
               exoInfo.getNativeLibsInfo().get());
-      installMissingFiles(presentFiles, nativeExoHelper.getFilesToInstall(), NATIVE_LIBRARY_TYPE);
+      wantedFiles.putAll(nativeExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getResourcesInfo().isPresent()) {
       ResourcesExoHelper resourcesExoHelper =
           new ResourcesExoHelper(pathResolver, projectFilesystem, exoInfo.getResourcesInfo().get());
-      installMissingFiles(presentFiles, resourcesExoHelper.getFilesToInstall(), RESOURCES_TYPE);
+      wantedFiles.putAll(resourcesExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getModuleInfo().isPresent()) {
       ModuleExoHelper moduleExoHelper =
           new ModuleExoHelper(pathResolver, projectFilesystem, exoInfo.getModuleInfo().get());
-      installMissingFiles(presentFiles, moduleExoHelper.getFilesToInstall(), "modular_dex");
+      wantedFiles.putAll(moduleExoHelper.getFilesToInstall());
     }
+
+    installMissingFiles(presentFiles, wantedFiles.build(), EXOPACKAGE_FILES_TYPE);
   }
 
   /**
@@ -283,7 +313,7 @@ public class ExopackageInstaller {
                 ImmutableSortedMap.toImmutableSortedMap(
                     Ordering.natural(), Map.Entry::getKey, Map.Entry::getValue));
 
-    installFiles(filesType, filesToInstall);
+    installFiles(presentFiles, filesType, filesToInstall);
   }
 
   private void deleteUnwantedFiles(
@@ -307,15 +337,26 @@ public class ExopackageInstaller {
             });
   }
 
-  private void installFiles(String filesType, ImmutableMap<Path, Path> filesToInstall)
+  private void installFiles(
+      ImmutableSortedSet<Path> presentFiles,
+      String filesType,
+      ImmutableMap<Path, Path> filesToInstall)
       throws Exception {
+    if (filesToInstall.isEmpty()) {
+      return;
+    }
     try (SimplePerfEvent.Scope ignored =
             SimplePerfEvent.scope(eventBus, "multi_install_" + filesType);
         AutoCloseable ignored1 = device.createForward()) {
-      // Make sure all the directories exist.
+      // Make sure all the directories exist. The ones holding present files already do.
+      ImmutableSet<Path> presentDirs =
+          presentFiles.stream()
+              .map(p -> dataRoot.resolve(p).getParent())
+              .collect(ImmutableSet.toImmutableSet());
       filesToInstall.keySet().stream()
           .map(p -> dataRoot.resolve(p).getParent())
           .distinct()
+          .filter(p -> !presentDirs.contains(p))
           .forEach(
               p -> {
                 try {
@@ -336,7 +377,9 @@ public class ExopackageInstaller {
     }
   }
 
-  private void installMetadata(ImmutableMap<Path, String> metadataToInstall) throws Exception {
+  private void installMetadata(
+      ImmutableSortedSet<Path> presentFiles, ImmutableMap<Path, String> metadataToInstall)
+      throws Exception {
     try (Closer closer = Closer.create()) {
       Map<Path, Path> filesToInstall = new HashMap<>();
       for (Map.Entry<Path, String> entry : metadataToInstall.entrySet()) {
@@ -345,7 +388,7 @@ public class ExopackageInstaller {
             entry.getValue().getBytes(Charsets.UTF_8), temp.get().toFile());
         filesToInstall.put(entry.getKey(), temp.get());
       }
-      installFiles("metadata", ImmutableMap.copyOf(filesToInstall));
+      installFiles(presentFiles, "metadata", ImmutableMap.copyOf(filesToInstall));
     }
   }
 
@@ -42,6 +42,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
 import com.google.common.primitives.Ints;
@@ -939,9 +940,7 @@ public class RealAndroidDevice implements AndroidDevice {
       throw shellException;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(installPaths.keySet());
   }
 
   private class BuckInitiatedInstallReceiver extends CollectingOutputReceiver {
@@ -1073,12 +1072,10 @@ public class RealAndroidDevice implements AndroidDevice {
       throw failure;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(installPaths.keySet());
   }
 
-  private void chmod644(Path targetDevicePath)
+  private void chmod644(Iterable<Path> targetDevicePaths)
       throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
           IOException {
     // The standard Java libraries on Android always create new files un-readable by other users.
@@ -1086,7 +1083,17 @@ public class RealAndroidDevice implements AndroidDevice {
     // to allow the app to read them.  Ideally, the agent would do this automatically, but
     // there's no easy way to do this in Java.  We can drop this if we drop support for the
     // Java agent.
-    executeCommandWithErrorChecking("chmod 644 " + targetDevicePath);
+    // Change as many files as fit in a command at once, as each command is a round trip to the
+    // device.
+    String commandPrefix = "chmod 644 ";
+    // Add a fudge factor for separators and error checking.
+    int overhead = commandPrefix.length() + 100;
+    for (List<String> chmodArgs :
+        chunkArgs(
+            Iterables.transform(targetDevicePaths, Path::toString),
+            MAX_ADB_COMMAND_SIZE - overhead)) {
+      executeCommandWithErrorChecking(commandPrefix + Joiner.on(' ').join(chmodArgs));
+    }
   }
 
   @Override
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cli;
 
+import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.CellConfig;
@@ -365,7 +366,10 @@ public abstract class AbstractCommand extends CommandWithPluginManager {
             .setRuleKeyDiagnosticsMode(
                 params.getBuckConfig().getView(RuleKeyConfig.class).getRuleKeyDiagnosticsMode())
             .setConcurrencyLimit(getConcurrencyLimit(params.getBuckConfig()))
+            .setParallelJarCompressionEnabled(
+                params.getBuckConfig().getView(BuildBuckConfig.class).getParallelJarCompression())
             .setPersistentWorkerPools(params.getPersistentWorkerPools())
+            .setFileHashLoader(params.getFileHashCache())
             .setProjectFilesystemFactory(params.getProjectFilesystemFactory());
     return builder;
   }
@@ -908,7 +908,9 @@ public final class MainRunner {
           DefaultFileHashCache.createOsRootDirectoriesCaches(
               projectFilesystemFactory, buildBuckConfig.getFileHashCacheMode()));
 
-      StackedFileHashCache fileHashCache = new StackedFileHashCache(allCaches.build());
+      StackedFileHashCache fileHashCache =
+          new StackedFileHashCache(
+              allCaches.build(), Optional.of(buckGlobalState.getFileHashingExecutor()));
 
       Optional<WebServer> webServer = buckGlobalState.getWebServer();
       ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools =
@@ -1425,6 +1427,12 @@ public final class MainRunner {
             buildEventBus.post(CommandEvent.interrupted(startedEvent, ExitCode.SIGNAL_INTERRUPT));
             throw e;
           } finally {
+            if (context.isPresent()) {
+              buckGlobalState.savePersistentFileHashStoresInBackground();
+            } else {
+              // Without a daemon the process exits right after the command.
+              buckGlobalState.savePersistentFileHashStores();
+            }
             buildEventBus.post(CommandEvent.finished(startedEvent, exitCode));
             buildEventBus.post(
                 new CacheStatsEvent(
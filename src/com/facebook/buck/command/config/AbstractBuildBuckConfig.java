@@ -72,6 +72,15 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
     return getNumThreads(getDefaultMaximumNumberOfThreads());
   }
 
+  /** @return the number of threads used to hash files in bulk, which bounds concurrent reads. */
+  @Value.Lazy
+  public int getNumFileHashingThreads() {
+    return getDelegate()
+        .getLong(BUILD_SECTION, "file_hashing_threads")
+        .orElse((long) getNumThreads())
+        .intValue();
+  }
+
   /** @return the number of threads to be used for the scheduled executor thread pool. */
   @Value.Lazy
   public int getNumThreadsForSchedulerPool() {
@@ -240,6 +249,24 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /**
+   * @return whether file hashes should be kept on disk, validated by file attributes, so that they
+   *     survive restarts of the daemon.
+   */
+  @Value.Lazy
+  public boolean getUsePersistentFileHashCache() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "persistent_file_hash_cache", false);
+  }
+
+  /**
+   * @return whether the entries of jars written by the build are compressed on other threads while
+   *     the next ones are read.
+   */
+  @Value.Lazy
+  public boolean getParallelJarCompression() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "parallel_jar_compression", false);
+  }
+
   /** @return a target that points to a {@code platform} rule that describes the host platform. */
   @Value.Lazy
   public Optional<UnconfiguredBuildTargetView> getHostPlatform() {
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.core.build.buildable.context;
 
+import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 
 /**
@@ -30,4 +31,16 @@ import java.nio.file.Path;
 public interface BuildableContext {
   /** @see com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder#recordArtifact(Path) */
   void recordArtifact(Path pathToArtifact);
+
+  /**
+   * Records an output file which the rule's build strategy left in remote storage rather than
+   * writing it to disk.
+   *
+   * @param pathToArtifact relative to the project root
+   * @param hash SHA-1 hash of the contents of the file
+   * @param size size of the file in bytes
+   */
+  default void recordRemoteArtifact(Path pathToArtifact, HashCode hash, long size) {
+    recordArtifact(pathToArtifact);
+  }
 }
@@ -79,6 +79,12 @@ public class BuildInfo {
 
     /** Key for {@link OnDiskBuildInfo} to store the hash of the output. */
     public static final String OUTPUT_HASH = "OUTPUT_HASH";
+
+    /**
+     * Key for {@link OnDiskBuildInfo} with a map of the outputs which were left in remote storage
+     * rather than written to disk, to the hash and size of their contents.
+     */
+    public static final String REMOTE_ARTIFACTS = "REMOTE_ARTIFACTS";
   }
 
   public static final ImmutableSet<String> METADATA_KEYS =
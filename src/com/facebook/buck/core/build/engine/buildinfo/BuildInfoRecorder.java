@@ -29,15 +29,18 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -73,6 +76,9 @@ public class BuildInfoRecorder {
   /** Every value in this set is a path relative to the project root. */
   private final Set<Path> pathsToOutputs;
 
+  /** The subset of {@link #pathsToOutputs} which was left in remote storage. */
+  private final Map<Path, RemoteArtifact> remoteArtifacts;
+
   public BuildInfoRecorder(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -98,6 +104,7 @@ public class BuildInfoRecorder {
     this.metadataToWrite = new LinkedHashMap<>();
     this.buildMetadata = new LinkedHashMap<>();
     this.pathsToOutputs = new HashSet<>();
+    this.remoteArtifacts = new HashMap<>();
   }
 
   private String toJson(Object value) {
@@ -120,7 +127,18 @@ public class BuildInfoRecorder {
   }
 
   private ImmutableMap<String, String> getBuildMetadata() {
-    return ImmutableMap.<String, String>builder()
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    if (!remoteArtifacts.isEmpty()) {
+      // Recorded paths always use unix file separators
+      ImmutableSortedMap.Builder<String, String> remoteArtifactsByPath =
+          ImmutableSortedMap.naturalOrder();
+      remoteArtifacts.forEach(
+          (path, artifact) ->
+              remoteArtifactsByPath.put(
+                  path.toString().replace(File.separator, "/"), artifact.toString()));
+      builder.put(BuildInfo.MetadataKey.REMOTE_ARTIFACTS, toJson(remoteArtifactsByPath.build()));
+    }
+    return builder
         .put(
             BuildInfo.MetadataKey.ADDITIONAL_INFO,
             formatAdditionalArtifactInfo(
@@ -205,6 +223,23 @@ public class BuildInfoRecorder {
     pathsToOutputs.add(pathToArtifact);
   }
 
+  /**
+   * Records an output file which was left in remote storage rather than written to disk. It is
+   * recorded like any other artifact, and its hash and size are stored in the build metadata, as
+   * they cannot be read from disk until the file is materialized.
+   *
+   * @param pathToArtifact Relative path to the project root.
+   */
+  public void recordRemoteArtifact(Path pathToArtifact, RemoteArtifact artifact) {
+    recordArtifact(pathToArtifact);
+    remoteArtifacts.put(pathToArtifact, artifact);
+  }
+
+  /** @return the recorded artifacts which were left in remote storage. */
+  public ImmutableMap<Path, RemoteArtifact> getRemoteArtifacts() {
+    return ImmutableMap.copyOf(remoteArtifacts);
+  }
+
   @Nullable
   @VisibleForTesting
   String getMetadataFor(String key) {
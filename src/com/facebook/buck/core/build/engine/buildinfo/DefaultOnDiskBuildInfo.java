@@ -171,11 +171,40 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
         .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural()));
   }
 
+  @Override
+  public ImmutableMap<Path, RemoteArtifact> getRemoteArtifacts() {
+    Optional<String> value = getBuildValue(BuildInfo.MetadataKey.REMOTE_ARTIFACTS);
+    if (!value.isPresent()) {
+      return ImmutableMap.of();
+    }
+    try {
+      ImmutableMap<String, String> artifacts =
+          ObjectMappers.readValue(
+              value.get(), new TypeReference<ImmutableMap<String, String>>() {});
+      ImmutableMap.Builder<Path, RemoteArtifact> builder = ImmutableMap.builder();
+      // Recorded paths always use unix file separators, convert this to the appropriate separators
+      artifacts.forEach(
+          (path, artifact) ->
+              builder.put(
+                  Paths.get(path.replace("/", File.separator)),
+                  RemoteArtifact.fromString(artifact)));
+      return builder.build();
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Malformed remote artifacts for %s: %s", buildTarget, value.get());
+      return ImmutableMap.of();
+    }
+  }
+
   @Override
   public ImmutableSortedSet<Path> getPathsForArtifact() throws IOException {
+    ImmutableMap<Path, RemoteArtifact> remoteArtifacts = getRemoteArtifacts();
     ImmutableSortedSet.Builder<Path> paths = ImmutableSortedSet.naturalOrder();
     for (Path path : getOutputPaths()) {
       paths.add(path);
+      if (remoteArtifacts.containsKey(path)) {
+        // not on disk
+        continue;
+      }
       projectFilesystem.walkRelativeFileTree(
           path,
           new SimpleFileVisitor<Path>() {
@@ -231,7 +260,8 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
   public void calculateOutputSizeAndWriteOutputHashes(
       FileHashLoader fileHashLoader, Predicate<Long> shouldWriteOutputHashes) throws IOException {
     ImmutableSortedSet<Path> pathsForArtifact = getPathsForArtifact();
-    long outputSize = getOutputSize(pathsForArtifact);
+    ImmutableMap<Path, RemoteArtifact> remoteArtifacts = getRemoteArtifacts();
+    long outputSize = getOutputSize(pathsForArtifact, remoteArtifacts);
     projectFilesystem.writeContentsToPath(
         String.valueOf(outputSize), metadataDirectory.resolve(BuildInfo.MetadataKey.OUTPUT_SIZE));
 
@@ -248,7 +278,11 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
     Hasher hasher = Hashing.sha1().newHasher();
     for (Path path : pathsForArtifact) {
       String pathString = path.toString();
-      HashCode fileHash = fileHashLoader.get(projectFilesystem, path);
+      RemoteArtifact remoteArtifact = remoteArtifacts.get(path);
+      HashCode fileHash =
+          remoteArtifact != null
+              ? remoteArtifact.getHash()
+              : fileHashLoader.get(projectFilesystem, path);
       hasher.putBytes(pathString.getBytes(Charsets.UTF_8));
       hasher.putBytes(fileHash.asBytes());
       outputHashes.put(pathString, fileHash.toString());
@@ -271,7 +305,7 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
 
     // Check that the output_size of all RECORDED_PATHS matches OUTPUT_SIZE
     long outputSize = Long.parseLong(getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).get());
-    long realSize = getOutputSize(getPathsForArtifact());
+    long realSize = getOutputSize(getPathsForArtifact(), getRemoteArtifacts());
     if (realSize != outputSize) {
       LOG.warn(
           "Target (%s) Artifact output size (%s) doesn't match artifactMetadata OUTPUT_SIZE (%s).",
@@ -296,10 +330,15 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
         extractedFiles);
   }
 
-  private long getOutputSize(SortedSet<Path> paths) throws IOException {
+  private long getOutputSize(
+      SortedSet<Path> paths, ImmutableMap<Path, RemoteArtifact> remoteArtifacts)
+      throws IOException {
     long size = 0;
     for (Path path : paths) {
-      if (projectFilesystem.isFile(path)
+      RemoteArtifact remoteArtifact = remoteArtifacts.get(path);
+      if (remoteArtifact != null) {
+        size += remoteArtifact.getSize();
+      } else if (projectFilesystem.isFile(path)
           && !path.endsWith(BuildInfo.MetadataKey.RECORDED_PATHS)
           && !path.endsWith(BuildInfo.MetadataKey.OUTPUT_SIZE)
           && !path.endsWith(BuildInfo.MetadataKey.OUTPUT_HASH)
@@ -83,4 +83,10 @@ public interface OnDiskBuildInfo {
   void validateArtifact(Set<Path> extractedFiles) throws IOException;
 
   ImmutableSortedSet<Path> getOutputPaths();
+
+  /**
+   * @return the recorded output files which were left in remote storage rather than written to
+   *     disk when the rule was built.
+   */
+  ImmutableMap<Path, RemoteArtifact> getRemoteArtifacts();
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import java.util.Objects;
+
+/**
+ * An output file of a rule which was left in remote storage rather than written to disk, described
+ * by the hash and size of its contents.
+ */
+public final class RemoteArtifact {
+  private final HashCode hash;
+  private final long size;
+
+  public RemoteArtifact(HashCode hash, long size) {
+    Preconditions.checkArgument(size >= 0, "Negative size %s", size);
+    this.hash = hash;
+    this.size = size;
+  }
+
+  /** @return the artifact described by a string returned by {@link #toString()}. */
+  public static RemoteArtifact fromString(String value) {
+    int separator = value.lastIndexOf(':');
+    Preconditions.checkArgument(separator > 0, "Malformed remote artifact: %s", value);
+    return new RemoteArtifact(
+        HashCode.fromString(value.substring(0, separator)),
+        Long.parseLong(value.substring(separator + 1)));
+  }
+
+  /** SHA-1 hash of the contents, the same as the one a file hash cache computes for the file. */
+  public HashCode getHash() {
+    return hash;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof RemoteArtifact)) {
+      return false;
+    }
+    RemoteArtifact that = (RemoteArtifact) other;
+    return size == that.size && hash.equals(that.hash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hash, size);
+  }
+
+  @Override
+  public String toString() {
+    return hash + ":" + size;
+  }
+}
@@ -72,6 +72,7 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -445,9 +446,48 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     registerTopLevelRule(rule, buildContext.getEventBus());
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+    if (customBuildRuleStrategy.isPresent()) {
+      resultFuture = materializeOutputs(customBuildRuleStrategy.get(), rule, resultFuture);
+    }
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
+  /**
+   * The outputs of top level rules and of their runtime deps are used once the build is over, so
+   * they have to be on disk even if the build strategy left them in remote storage.
+   */
+  private ListenableFuture<BuildResult> materializeOutputs(
+      BuildRuleStrategy strategy, BuildRule rule, ListenableFuture<BuildResult> resultFuture) {
+    return Futures.transformAsync(
+        resultFuture,
+        result -> {
+          if (!result.isSuccess()) {
+            return Futures.immediateFuture(result);
+          }
+          Set<BuildTarget> targets = new HashSet<>();
+          addRuleAndRuntimeDeps(rule, targets);
+          return Futures.catching(
+              Futures.transform(
+                  strategy.materializeOutputs(targets),
+                  ignored -> result,
+                  MoreExecutors.directExecutor()),
+              Throwable.class,
+              throwable -> BuildResult.failure(rule, throwable),
+              MoreExecutors.directExecutor());
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void addRuleAndRuntimeDeps(BuildRule rule, Set<BuildTarget> targets) {
+    if (!targets.add(rule.getBuildTarget()) || !(rule instanceof HasRuntimeDeps)) {
+      return;
+    }
+    Stream<BuildTarget> runtimeDeps = ((HasRuntimeDeps) rule).getRuntimeDeps(resolver);
+    for (BuildRule dep : resolver.getAllRules(runtimeDeps.collect(ImmutableSet.toImmutableSet()))) {
+      addRuleAndRuntimeDeps(dep, targets);
+    }
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
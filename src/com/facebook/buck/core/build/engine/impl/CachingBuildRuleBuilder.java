@@ -33,6 +33,7 @@ import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo.MetadataKey;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
+import com.facebook.buck.core.build.engine.buildinfo.RemoteArtifact;
 import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactFetcher;
 import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactUploader;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
@@ -57,6 +58,7 @@ import com.facebook.buck.core.build.stats.BuildRuleDurationTracker;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
@@ -138,6 +140,7 @@ class CachingBuildRuleBuilder {
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
   private final RuleKeyFactories ruleKeyFactories;
   private final WeightedListeningExecutorService service;
+  private final RuleDepsCache ruleDeps;
   private final BuildRule rule;
   private final ExecutionContext executionContext;
   private final OnDiskBuildInfo onDiskBuildInfo;
@@ -226,6 +229,7 @@ class CachingBuildRuleBuilder {
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
     this.ruleKeyFactories = ruleKeyFactories;
     this.service = service;
+    this.ruleDeps = ruleDeps;
     this.rule = rule;
     this.executionContext = executionContext;
     this.onDiskBuildInfo = onDiskBuildInfo;
@@ -651,6 +655,12 @@ class CachingBuildRuleBuilder {
     for (Path path : getBuildInfoRecorder().getRecordedPaths()) {
       fileHashCache.invalidate(rule.getProjectFilesystem().resolve(path));
     }
+    // Outputs left in remote storage cannot be hashed from disk, but their hashes are known.
+    for (Map.Entry<Path, RemoteArtifact> entry :
+        getBuildInfoRecorder().getRemoteArtifacts().entrySet()) {
+      fileHashCache.set(
+          rule.getProjectFilesystem().resolve(entry.getKey()), entry.getValue().getHash());
+    }
 
     // Doing this here is probably not strictly necessary, however in the case of
     // pipelined rules built locally we will never do an input-based cache check.
@@ -811,8 +821,9 @@ class CachingBuildRuleBuilder {
 
         outputHash = hashString.map(HashCode::fromString);
 
-        // Determine if this is rule is cacheable.
-        if (outputSize.isPresent()) {
+        // Determine if this is rule is cacheable. Outputs left in remote storage are not on disk to
+        // be packed into an artifact.
+        if (outputSize.isPresent() && onDiskBuildInfo.getRemoteArtifacts().isEmpty()) {
           shouldUploadToCache =
               buildCacheArtifactUploader.shouldUploadToCache(success, outputSize.get());
         }
@@ -848,6 +859,16 @@ class CachingBuildRuleBuilder {
         new BuildStrategyContext() {
           @Override
           public ListenableFuture<Optional<BuildResult>> runWithDefaultBehavior() {
+            if (!customBuildRuleStrategy.isPresent()) {
+              return runLocally();
+            }
+            return Futures.transformAsync(
+                materializeDepsOutputs(customBuildRuleStrategy.get()),
+                ignored -> runLocally(),
+                service);
+          }
+
+          private ListenableFuture<Optional<BuildResult>> runLocally() {
             if (SupportsPipelining.isSupported(rule)
                 && ((SupportsPipelining<?>) rule).useRulePipelining()) {
               return pipelinesRunner.runPipelineStartingAt(
@@ -967,6 +988,41 @@ class CachingBuildRuleBuilder {
         MoreExecutors.directExecutor());
   }
 
+  /**
+   * Makes sure that the outputs the rule may read while running locally are on disk, as the build
+   * strategy may have left some of them in remote storage. These are the outputs of its build deps
+   * and of their transitive runtime deps.
+   *
+   * <p>Every local build of a rule starts here, including the first rule of a pipeline. The other
+   * rules of a pipeline only depend on the previous rule of the pipeline and on the deps of that
+   * rule, so they read nothing that is not materialized for the first one.
+   */
+  private ListenableFuture<?> materializeDepsOutputs(BuildRuleStrategy strategy) {
+    Set<BuildTarget> targets = new HashSet<>();
+    for (BuildRule dep : rule.getBuildDeps()) {
+      addRuleAndRuntimeDeps(dep, targets);
+    }
+    return Futures.catchingAsync(
+        strategy.materializeOutputs(targets),
+        Throwable.class,
+        throwable ->
+            Futures.immediateFailedFuture(
+                new BuckUncheckedExecutionException(
+                    throwable,
+                    "When materializing the outputs of the dependencies of %s.",
+                    rule)),
+        MoreExecutors.directExecutor());
+  }
+
+  private void addRuleAndRuntimeDeps(BuildRule depRule, Set<BuildTarget> targets) {
+    if (!targets.add(depRule.getBuildTarget())) {
+      return;
+    }
+    for (BuildRule runtimeDep : ruleDeps.getRuntimeDeps(depRule)) {
+      addRuleAndRuntimeDeps(runtimeDep, targets);
+    }
+  }
+
   private ListenableFuture<BuildResult> buildOrFetchFromCache() {
     // If we've already seen a failure, exit early.
     if (!shouldKeepGoing()) {
@@ -975,10 +1031,13 @@ class CachingBuildRuleBuilder {
 
     // 1. Check if it's already built.
     try (Scope ignored = buildRuleScope()) {
+      forgetUnmaterializedRemoteArtifacts();
       Optional<BuildResult> buildResult = checkMatchingLocalKey();
       if (buildResult.isPresent()) {
         return Futures.immediateFuture(buildResult.get());
       }
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
     }
 
     AtomicReference<CacheResult> rulekeyCacheResult = new AtomicReference<>();
@@ -1116,6 +1175,21 @@ class CachingBuildRuleBuilder {
             });
   }
 
+  /**
+   * A build strategy can only materialize the outputs it left in remote storage during the build
+   * which produced them. If any of them was not materialized then, drop the metadata of the rule so
+   * that none of the local key checks matches and the rule is built again.
+   */
+  private void forgetUnmaterializedRemoteArtifacts() throws IOException {
+    for (Path path : onDiskBuildInfo.getRemoteArtifacts().keySet()) {
+      if (!rule.getProjectFilesystem().exists(path)) {
+        LOG.debug("Remote output %s of %s was not materialized.", path, rule);
+        onDiskBuildInfo.deleteExistingMetadata();
+        return;
+      }
+    }
+  }
+
   private Optional<BuildResult> checkMatchingLocalKey() {
     Optional<RuleKey> cachedRuleKey = onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY);
     if (defaultKey.equals(cachedRuleKey.orElse(null))) {
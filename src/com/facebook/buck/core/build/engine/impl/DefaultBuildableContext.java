@@ -18,6 +18,8 @@ package com.facebook.buck.core.build.engine.impl;
 
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
+import com.facebook.buck.core.build.engine.buildinfo.RemoteArtifact;
+import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 
 public class DefaultBuildableContext implements BuildableContext {
@@ -32,4 +34,9 @@ public class DefaultBuildableContext implements BuildableContext {
   public void recordArtifact(Path pathToArtifact) {
     recorder.recordArtifact(pathToArtifact);
   }
+
+  @Override
+  public void recordRemoteArtifact(Path pathToArtifact, HashCode hash, long size) {
+    recorder.recordRemoteArtifact(pathToArtifact, new RemoteArtifact(hash, size));
+  }
 }
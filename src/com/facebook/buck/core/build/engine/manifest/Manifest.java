@@ -23,6 +23,7 @@ import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
@@ -39,11 +40,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -228,7 +232,14 @@ public class Manifest {
             interestingPaths::contains);
 
     // Find a matching entry.
+    Set<String> prefetchedInputs = new HashSet<>();
     for (Pair<RuleKey, int[]> entry : entries) {
+      if (fileHashLoader instanceof FileHashCache) {
+        prefetchHashes(
+            (FileHashCache) fileHashLoader,
+            resolver,
+            getNewCandidates(mappedUniverse, entry.getSecond(), prefetchedInputs));
+      }
       if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
         return Optional.of(entry.getFirst());
       }
@@ -236,6 +247,47 @@ public class Manifest {
     return Optional.empty();
   }
 
+  /**
+   * @return the candidates for the inputs of an entry that no earlier entry had, so that only the
+   *     inputs of entries that are actually probed are hashed.
+   */
+  private List<SourcePath> getNewCandidates(
+      ImmutableListMultimap<String, SourcePath> universe,
+      int[] hashIndices,
+      Set<String> prefetchedInputs) {
+    List<SourcePath> candidates = new ArrayList<>();
+    for (int hashIndex : hashIndices) {
+      String input = inputs.get(hashes.get(hashIndex).getFirst());
+      if (prefetchedInputs.add(input)) {
+        candidates.addAll(universe.get(input));
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Hashes the candidate inputs of an entry in one batch, which lets the cache read the files that
+   * are not cached yet concurrently, instead of one at a time as {@link #hashesMatch} reaches them.
+   */
+  private static void prefetchHashes(
+      FileHashCache fileHashCache, SourcePathResolver resolver, Iterable<SourcePath> inputs) {
+    List<Path> paths = new ArrayList<>();
+    for (SourcePath input : inputs) {
+      if (!(input instanceof ArchiveMemberSourcePath)) {
+        paths.add(resolver.getFilesystem(input).resolve(resolver.getRelativePath(input)));
+      }
+    }
+    if (paths.size() < 2) {
+      return;
+    }
+    try {
+      fileHashCache.getAll(paths);
+    } catch (IOException e) {
+      // Missing or unreadable inputs are handled by the matching below, which hashes them again.
+      LOG.verbose(e, "Failed to prefetch the hashes of manifest inputs");
+    }
+  }
+
   private static String sourcePathToManifestHeader(SourcePath input, SourcePathResolver resolver) {
     return sourcePathToManifestPathKey(input, resolver).toString();
   }
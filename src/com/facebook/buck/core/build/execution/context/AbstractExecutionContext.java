@@ -37,6 +37,7 @@ import com.facebook.buck.util.concurrent.ExecutorPool;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Closer;
@@ -125,6 +126,12 @@ abstract class AbstractExecutionContext implements Closeable {
     return false;
   }
 
+  /** Whether jars are written with their entries compressed on other threads. */
+  @Value.Default
+  public boolean isParallelJarCompressionEnabled() {
+    return false;
+  }
+
   @Value.Default
   public RuleKeyDiagnosticsMode getRuleKeyDiagnosticsMode() {
     return RuleKeyDiagnosticsMode.NEVER;
@@ -139,6 +146,12 @@ abstract class AbstractExecutionContext implements Closeable {
     return new ConcurrentHashMap<>();
   }
 
+  /**
+   * The hashes of files that the build already keeps for rule keys, for steps that would otherwise
+   * read whole files to hash them. Absent when the steps do not run as part of a local build.
+   */
+  abstract Optional<FileHashLoader> getFileHashLoader();
+
   @Value.Default
   public ConcurrencyLimit getConcurrencyLimit() {
     return new ConcurrencyLimit(
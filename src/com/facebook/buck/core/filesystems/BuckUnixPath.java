@@ -35,26 +35,36 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 
-/** Buck-specific implementation of java.nio.file.Path optimized for memory footprint */
+/**
+ * Buck-specific implementation of java.nio.file.Path optimized for memory footprint.
+ *
+ * <p>Paths are interned in the process-wide {@link PathTable}, so an instance only holds the id of
+ * its path, and equality compares ids. Operations on paths walk the ids of their ancestors rather
+ * than copying their segments.
+ */
 public class BuckUnixPath implements Path {
   // Constant strings are already interned, but having the constant here makes it more obvious in
   // code below.
   private static final String DOTDOT = "..";
   private static final String DOT = ".";
-  private static final String ROOT = "";
+
+  private static final PathTable TABLE = PathTable.INSTANCE;
 
   // Java's memory layout is padded to 8 bytes on most implementations. Given that 12 bytes is
   // a class header, we can use up to 3 4-byte fields to fit into 24-byte object. Reference type
   // is 4 bytes on heaps < 32Gb on most implementations, so for memory footprint it makes sense
   // to have either 1 or three 4-byte fields.
-  private final String[] segments;
+  private final int id;
   private final BuckFileSystem fs;
-  private volatile int hashCode = 0;
+
+  private BuckUnixPath(BuckFileSystem fs, int id) {
+    this.fs = fs;
+    this.id = id;
+  }
 
   // segments should already be interned.
   private BuckUnixPath(BuckFileSystem fs, String[] segments) {
-    this.fs = fs;
-    this.segments = segments;
+    this(fs, TABLE.intern(segments));
   }
 
   /**
@@ -105,11 +115,16 @@ public class BuckUnixPath implements Path {
   }
 
   static BuckUnixPath rootOf(BuckFileSystem fs) {
-    return new BuckUnixPath(fs, new String[] {ROOT});
+    return new BuckUnixPath(fs, PathTable.ROOT);
   }
 
   static BuckUnixPath emptyOf(BuckFileSystem fs) {
-    return new BuckUnixPath(fs, new String[0]);
+    return new BuckUnixPath(fs, PathTable.EMPTY);
+  }
+
+  /** @return the segments of this path, starting with the empty string if it is absolute */
+  private String[] getSegments() {
+    return TABLE.getSegments(id);
   }
 
   /** Return Java default implementation of Path inferred from current instance */
@@ -137,7 +152,7 @@ public class BuckUnixPath implements Path {
 
   /** @return {@code true} if this path is an empty path */
   public boolean isEmpty() {
-    return segments.length == 0;
+    return id == PathTable.EMPTY;
   }
 
   /** @return an empty path */
@@ -152,7 +167,7 @@ public class BuckUnixPath implements Path {
 
   @Override
   public Path getRoot() {
-    if (segments.length > 0 && segments[0].isEmpty()) {
+    if (isAbsolute()) {
       return fs.getRootDirectory();
     }
     return null;
@@ -163,21 +178,22 @@ public class BuckUnixPath implements Path {
     if (isEmpty()) {
       return null;
     }
-    if (isAbsolute() && segments.length == 1) {
+    if (id == PathTable.ROOT) {
       return fs.getRootDirectory();
     }
-    return new BuckUnixPath(fs, new String[] {segments[segments.length - 1]});
+    return new BuckUnixPath(fs, TABLE.intern(PathTable.EMPTY, TABLE.getSegment(id)));
   }
 
   @Override
   public Path getParent() {
-    if (segments.length < 2) {
+    if (TABLE.getDepth(id) < 2) {
       return null;
     }
-    if (segments[segments.length - 2].isEmpty()) {
+    int parent = TABLE.getParent(id);
+    if (parent == PathTable.ROOT) {
       return getRoot();
     }
-    return new BuckUnixPath(fs, Arrays.copyOf(segments, segments.length - 1));
+    return new BuckUnixPath(fs, parent);
   }
 
   @Override
@@ -185,12 +201,12 @@ public class BuckUnixPath implements Path {
     if (isEmpty()) {
       return 0;
     }
-    return segments.length - (isAbsolute() ? 1 : 0);
+    return TABLE.getDepth(id) - (isAbsolute() ? 1 : 0);
   }
 
   @Override
   public Path getName(int index) {
-    return new BuckUnixPath(fs, new String[] {getSegment(index)});
+    return new BuckUnixPath(fs, TABLE.intern(PathTable.EMPTY, getSegment(index)));
   }
 
   private String getSegment(int index) {
@@ -200,11 +216,11 @@ public class BuckUnixPath implements Path {
 
     index += isAbsolute() ? 1 : 0;
 
-    if (index >= segments.length) {
+    if (index >= TABLE.getDepth(id)) {
       throw new IllegalArgumentException();
     }
 
-    return segments[index];
+    return TABLE.getSegment(TABLE.getAncestor(id, index + 1));
   }
 
   @Override
@@ -213,26 +229,51 @@ public class BuckUnixPath implements Path {
       throw new IllegalArgumentException();
     }
 
+    int depth = TABLE.getDepth(id);
     int offset = isAbsolute() ? 1 : 0;
     beginIndex += offset;
     endIndex += offset;
 
-    if (beginIndex >= segments.length) {
+    if (beginIndex >= depth) {
       throw new IllegalArgumentException();
     }
-    if (endIndex > segments.length) {
+    if (endIndex > depth) {
       throw new IllegalArgumentException();
     }
     if (beginIndex >= endIndex) {
       throw new IllegalArgumentException();
     }
 
-    return new BuckUnixPath(fs, Arrays.copyOfRange(segments, beginIndex, endIndex));
+    return new BuckUnixPath(
+        fs, appendSegments(PathTable.EMPTY, TABLE.getAncestor(id, endIndex), beginIndex));
+  }
+
+  /**
+   * @return the id of the path made of {@code base} followed by the segments of {@code path} which
+   *     come after its first {@code depth} ones.
+   */
+  private static int appendSegments(int base, int path, int depth) {
+    if (TABLE.getDepth(path) <= depth) {
+      return base;
+    }
+    return TABLE.intern(appendSegments(base, TABLE.getParent(path), depth), TABLE.getSegment(path));
+  }
+
+  /** @return the id of the longest path both paths start with. */
+  private static int getCommonAncestor(int path, int otherPath) {
+    int depth = Math.min(TABLE.getDepth(path), TABLE.getDepth(otherPath));
+    path = TABLE.getAncestor(path, depth);
+    otherPath = TABLE.getAncestor(otherPath, depth);
+    while (path != otherPath) {
+      path = TABLE.getParent(path);
+      otherPath = TABLE.getParent(otherPath);
+    }
+    return path;
   }
 
   @Override
   public boolean isAbsolute() {
-    return (!isEmpty() && segments[0].isEmpty());
+    return TABLE.isAbsolute(id);
   }
 
   @Override
@@ -247,7 +288,7 @@ public class BuckUnixPath implements Path {
       return other;
     }
 
-    return new BuckUnixPath(fs, concatSegments(segments, other.segments));
+    return new BuckUnixPath(fs, appendSegments(id, other.id, 0));
   }
 
   @Override
@@ -269,13 +310,6 @@ public class BuckUnixPath implements Path {
     return resolveSibling(fs.getPath(other));
   }
 
-  private String[] concatSegments(String[] first, String[] second) {
-    String[] result = new String[first.length + second.length];
-    System.arraycopy(first, 0, result, 0, first.length);
-    System.arraycopy(second, 0, result, first.length, second.length);
-    return result;
-  }
-
   @Override
   public Path relativize(Path obj) {
     BuckUnixPath other = toUnixPath(obj);
@@ -295,31 +329,16 @@ public class BuckUnixPath implements Path {
     }
 
     // skip matching names
-    int minCount =
-        (segments.length > other.segments.length) ? other.segments.length : segments.length;
-
-    int i = 0;
-    for (; i < minCount; i++) {
-      // intentional reference compare
-      if (segments[i] != other.segments[i]) {
-        break;
-      }
-    }
-
-    int dotdots = segments.length - i;
-    if (i >= other.segments.length) {
-      // no remaining sections in other so result is simply a sequence of ".."
-      String[] newSegments = new String[dotdots];
-      Arrays.fill(newSegments, DOTDOT);
-      return new BuckUnixPath(fs, newSegments);
-    }
+    int common = getCommonAncestor(id, other.id);
+    int commonDepth = TABLE.getDepth(common);
 
     // result is a  "../" for each remaining name in base
     // followed by the remaining names in other.
-    String[] newSegments = new String[dotdots + other.segments.length - i];
-    Arrays.fill(newSegments, 0, dotdots, DOTDOT);
-    System.arraycopy(other.segments, i, newSegments, dotdots, other.segments.length - i);
-    return new BuckUnixPath(fs, newSegments);
+    int result = PathTable.EMPTY;
+    for (int i = TABLE.getDepth(id); i > commonDepth; i--) {
+      result = TABLE.intern(result, DOTDOT);
+    }
+    return new BuckUnixPath(fs, appendSegments(result, other.id, commonDepth));
   }
 
   @Override
@@ -332,71 +351,44 @@ public class BuckUnixPath implements Path {
     // if different interner is used, this function will be broken!
 
     // first quick pass to check if anything needs to be normalized
-    int i = segments.length - 1;
-    for (; i >= 0; i--) {
+    boolean hasDots = false;
+    for (int i = id; i != PathTable.EMPTY && !hasDots; i = TABLE.getParent(i)) {
       // intentional reference compare
-      if (segments[i] == DOT || segments[i] == DOTDOT) {
-        break;
-      }
+      hasDots = TABLE.getSegment(i) == DOT || TABLE.getSegment(i) == DOTDOT;
     }
 
-    if (i < 0) {
+    if (!hasDots) {
       return this;
     }
 
-    // it seems there are symbols like ".." in the path that should be normalized
-
-    // have to allocate maximum length as some of the dots (leading ones) might not be removed
-    String[] filtered = new String[segments.length];
-
-    // copy the tail which is good
-    System.arraycopy(segments, i + 1, filtered, i + 1, segments.length - i - 1);
-
-    // continue going down the array removing non-meaningful segments
-    int dotdots = 0;
-    int j = i;
-    for (; i >= 0; i--) {
-      String segment = segments[i];
-
-      // intentional reference compare
-      if (segment == DOT) {
-        continue;
-      }
-
-      // intentional reference compare
-      if (segment == DOTDOT) {
-        dotdots++;
-        continue;
-      }
-
-      if (dotdots > 0) {
-        // ignore real segment because it is swallowed by following dotdot
-        dotdots--;
-        continue;
-      }
-
-      filtered[j] = segment;
-      j--;
-    }
+    return new BuckUnixPath(fs, normalize(id));
+  }
 
-    if (dotdots > 0) {
-      // some leading dotdots left, so copy them to the resulting array
-      j -= dotdots;
-      Arrays.fill(filtered, j + 1, j + 1 + dotdots, DOTDOT);
+  /**
+   * Normalizes the parent of a path first, so that each ".." removes the last remaining segment.
+   * Leading ".." segments are kept, also right after the root of an absolute path.
+   */
+  private static int normalize(int path) {
+    if (path == PathTable.EMPTY || path == PathTable.ROOT) {
+      return path;
     }
+    int parent = normalize(TABLE.getParent(path));
+    String segment = TABLE.getSegment(path);
 
-    if (isAbsolute() && (j + 1 >= filtered.length || filtered[j + 1] != ROOT)) {
-      // Root segment was removed by .., restore it back
-      filtered[j] = DOTDOT;
-      filtered[j - 1] = ROOT;
-      j -= 2;
+    // intentional reference compare
+    if (segment == DOT) {
+      return parent;
     }
 
-    if (j >= 0) {
-      filtered = Arrays.copyOfRange(filtered, j + 1, filtered.length);
+    // intentional reference compare
+    if (segment == DOTDOT
+        && parent != PathTable.EMPTY
+        && parent != PathTable.ROOT
+        && TABLE.getSegment(parent) != DOTDOT) {
+      return TABLE.getParent(parent);
     }
 
-    return new BuckUnixPath(fs, filtered);
+    return TABLE.intern(parent, segment);
   }
 
   @Override
@@ -409,15 +401,24 @@ public class BuckUnixPath implements Path {
 
   /** Lexicographically compares another path to this one */
   private int compareTo(BuckUnixPath other) {
+    if (id == other.id) {
+      return 0;
+    }
     // lexicographic ordering just like {@link String#compareTo}
-    int lim = Math.min(this.segments.length, other.segments.length);
-    for (int i = 0; i < lim; i++) {
-      int res = segments[i].compareTo(other.segments[i]);
-      if (res != 0) {
-        return res;
-      }
+    int depth = TABLE.getDepth(id);
+    int otherDepth = TABLE.getDepth(other.id);
+    int minDepth = Math.min(depth, otherDepth);
+    int path = TABLE.getAncestor(id, minDepth);
+    int otherPath = TABLE.getAncestor(other.id, minDepth);
+    if (path == otherPath) {
+      return depth - otherDepth;
+    }
+    // the first segments that differ are the ones right after the longest common prefix
+    while (TABLE.getParent(path) != TABLE.getParent(otherPath)) {
+      path = TABLE.getParent(path);
+      otherPath = TABLE.getParent(otherPath);
     }
-    return segments.length - other.segments.length;
+    return TABLE.getSegment(path).compareTo(TABLE.getSegment(otherPath));
   }
 
   @Override
@@ -451,23 +452,26 @@ public class BuckUnixPath implements Path {
       return isEmpty() && that.isEmpty();
     }
 
-    if (that.segments.length > segments.length) {
+    int depth = TABLE.getDepth(id);
+    int thatDepth = TABLE.getDepth(that.id);
+    if (thatDepth > depth) {
       return false;
     }
 
-    int start = startOrEnd ? 0 : (segments.length - that.segments.length);
-
-    return checkSegmentsEqual(that, start);
-  }
+    if (startOrEnd) {
+      return TABLE.getAncestor(id, thatDepth) == that.id;
+    }
 
-  /** Checks that this path contains the other path's segments starting at start. */
-  private boolean checkSegmentsEqual(BuckUnixPath other, int start) {
-    // Paths are more likely to be different in later segments.
-    for (int i = other.segments.length - 1; i >= 0; i--) {
+    // Walk both paths up from their last segment, as paths are more likely to differ there.
+    int thisId = id;
+    int thatId = that.id;
+    for (int i = 0; i < thatDepth; i++) {
       // Intentional reference comparison, these are interned.
-      if (segments[i + start] != other.segments[i]) {
+      if (TABLE.getSegment(thisId) != TABLE.getSegment(thatId)) {
         return false;
       }
+      thisId = TABLE.getParent(thisId);
+      thatId = TABLE.getParent(thatId);
     }
     return true;
   }
@@ -482,23 +486,15 @@ public class BuckUnixPath implements Path {
       return false;
     }
 
-    BuckUnixPath other = (BuckUnixPath) ob;
-    if (segments.length != other.segments.length) {
-      return false;
-    }
-
-    return checkSegmentsEqual(other, 0);
+    // paths are interned, so equal paths have the same id
+    return id == ((BuckUnixPath) ob).id;
   }
 
   @Override
   public int hashCode() {
-    // We do not have a luxury to keep a flag if hashCode() was ever invoked or not, so using
-    // hashCode==0 for it. The poor guy (1 / 2^32 given good hash distribution) that resolves
-    // to zero hash value will be always rehashed.
-    if (hashCode == 0) {
-      hashCode = Arrays.hashCode(segments);
-    }
-    return hashCode;
+    // derived from the segments rather than the id, so that it does not depend on the order in
+    // which paths were created
+    return TABLE.getHash(id);
   }
 
   @Override
@@ -506,13 +502,13 @@ public class BuckUnixPath implements Path {
     if (isEmpty()) {
       return "";
     }
-    if (isAbsolute() && segments.length == 1) {
+    if (id == PathTable.ROOT) {
       return "/";
     }
-    if (segments.length == 1) {
-      return segments[0];
+    if (TABLE.getDepth(id) == 1) {
+      return TABLE.getSegment(id);
     }
-    return String.join("/", segments);
+    return String.join("/", getSegments());
   }
 
   // resolve current path against default path
@@ -593,5 +589,11 @@ public class BuckUnixPath implements Path {
     public static String getNameString(BuckUnixPath path, int index) {
       return path.getSegment(index);
     }
+
+    /** @return the names of the path, like {@link #getNameString} for each of them. */
+    public static String[] getNameStrings(BuckUnixPath path) {
+      String[] segments = path.getSegments();
+      return path.isAbsolute() ? Arrays.copyOfRange(segments, 1, segments.length) : segments;
+    }
   }
 }
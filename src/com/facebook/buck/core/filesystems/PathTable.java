@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.filesystems;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Process-wide table of interned paths backing {@link BuckUnixPath}.
+ *
+ * <p>Each distinct path is stored once, as the id of its parent plus its last (interned) segment,
+ * so paths sharing a prefix share its storage, and two paths are equal if and only if their ids
+ * are. Absolute paths descend from {@link #ROOT}, whose segment is the empty string, and relative
+ * paths from {@link #EMPTY}, which has no segment.
+ *
+ * <p>Each path also records a jump to one of its ancestors, chosen so that any ancestor can be
+ * reached in a logarithmic number of steps, and the hash of its segments.
+ *
+ * <p>Entries are never removed: the table grows with the number of distinct paths the process ever
+ * creates, which for a daemon is dominated by the files of the projects it builds, at about 30
+ * bytes per path. The table is split into shards, each with its own lock, so that threads creating
+ * paths concurrently rarely wait for each other. Lookups are lock free.
+ */
+final class PathTable {
+
+  static final PathTable INSTANCE = new PathTable();
+
+  /** Id of the empty path. */
+  static final int EMPTY = 0;
+
+  /** Id of the root directory. */
+  static final int ROOT = 1;
+
+  private static final String ROOT_SEGMENT = "";
+
+  // The lowest bits of an id are the index of its shard, the others its index in the shard. The
+  // empty path is the first entry of shard 0 and the root directory the first entry of shard 1.
+  private static final int SHARD_BITS = 4;
+  private static final int SHARD_COUNT = 1 << SHARD_BITS;
+  private static final int SHARD_MASK = SHARD_COUNT - 1;
+
+  private final Shard[] shards = new Shard[SHARD_COUNT];
+
+  PathTable() {
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      shards[i] = new Shard(i);
+    }
+    shards[EMPTY].addNode(EMPTY, null, 0, EMPTY, 1);
+    // same as Arrays.hashCode(new String[] {""})
+    shards[ROOT].addNode(EMPTY, ROOT_SEGMENT, (1 << 1) | 1, EMPTY, 31);
+    for (int i = 2; i < SHARD_COUNT; i++) {
+      // keeps the first id of every shard unused, so that zero can mark empty slots
+      shards[i].addNode(EMPTY, null, 0, EMPTY, 0);
+    }
+  }
+
+  /**
+   * @param segments interned segments of a path, starting with the empty string if the path is
+   *     absolute
+   * @return the id of the path
+   */
+  int intern(String[] segments) {
+    int id = EMPTY;
+    for (String segment : segments) {
+      id = intern(id, segment);
+    }
+    return id;
+  }
+
+  /** @return the id of the path made of {@code parent} followed by an interned segment. */
+  int intern(int parent, String segment) {
+    if (parent == EMPTY && segment.isEmpty()) {
+      return ROOT;
+    }
+    int hash = hash(parent, segment);
+    return shards[hash & SHARD_MASK].intern(parent, segment, hash >>> SHARD_BITS);
+  }
+
+  int getParent(int id) {
+    return getData(id, Shard.PARENT);
+  }
+
+  String getSegment(int id) {
+    return shards[id & SHARD_MASK].getLocalSegment(id >>> SHARD_BITS);
+  }
+
+  /** @return the number of segments of the path, including the root segment if it is absolute. */
+  int getDepth(int id) {
+    return getData(id, Shard.DEPTH_AND_ABSOLUTE) >>> 1;
+  }
+
+  boolean isAbsolute(int id) {
+    return (getData(id, Shard.DEPTH_AND_ABSOLUTE) & 1) != 0;
+  }
+
+  /** @return the hash of the segments of the path, the same as {@code Arrays.hashCode} of them. */
+  int getHash(int id) {
+    return getData(id, Shard.HASH);
+  }
+
+  /** @return the id of the prefix of the path which is {@code depth} segments long. */
+  int getAncestor(int id, int depth) {
+    while (getDepth(id) > depth) {
+      int jump = getData(id, Shard.JUMP);
+      id = getDepth(jump) >= depth ? jump : getParent(id);
+    }
+    return id;
+  }
+
+  /** @return the segments of the path, starting with the empty string if it is absolute. */
+  String[] getSegments(int id) {
+    String[] result = new String[getDepth(id)];
+    for (int i = result.length - 1; i >= 0; i--) {
+      result[i] = getSegment(id);
+      id = getParent(id);
+    }
+    return result;
+  }
+
+  private int getData(int id, int field) {
+    return shards[id & SHARD_MASK].getLocalData(id >>> SHARD_BITS, field);
+  }
+
+  private static int hash(int parent, String segment) {
+    int h = parent * 31 + segment.hashCode();
+    // spread the bits, as ids of siblings are often close to each other
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /** A part of the table, which holds the paths whose parent and segment hash to it. */
+  private final class Shard {
+
+    static final int PARENT = 0;
+    /** Depth of the path, shifted left by one, with the lowest bit set for absolute paths. */
+    static final int DEPTH_AND_ABSOLUTE = 1;
+    /** Id of an ancestor of the path, see {@link #getAncestor}. */
+    static final int JUMP = 2;
+    static final int HASH = 3;
+    static final int FIELDS = 4;
+
+    // Node data lives in fixed size chunks which never move once allocated, so that readers never
+    // see a partially copied array.
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int INITIAL_SLOTS = 1 << 12;
+
+    private final int index;
+
+    private volatile int[][] data = new int[4][];
+    private volatile String[][] segments = new String[4][];
+
+    /**
+     * Open addressing hash set of the ids of the shard, keyed by parent id and segment. Zero marks
+     * an empty slot.
+     */
+    private volatile AtomicIntegerArray slots = new AtomicIntegerArray(INITIAL_SLOTS);
+
+    private int size;
+
+    Shard(int index) {
+      this.index = index;
+    }
+
+    int getLocalData(int local, int field) {
+      return data[local >>> CHUNK_SHIFT][(local & CHUNK_MASK) * FIELDS + field];
+    }
+
+    String getLocalSegment(int local) {
+      return segments[local >>> CHUNK_SHIFT][local & CHUNK_MASK];
+    }
+
+    int intern(int parent, String segment, int hash) {
+      int id = find(slots, parent, segment, hash);
+      if (id != EMPTY) {
+        return id;
+      }
+      synchronized (this) {
+        id = find(slots, parent, segment, hash);
+        if (id != EMPTY) {
+          return id;
+        }
+        id =
+            addNode(
+                parent,
+                segment,
+                getData(parent, DEPTH_AND_ABSOLUTE) + (1 << 1),
+                getJump(parent),
+                31 * getHash(parent) + segment.hashCode());
+        AtomicIntegerArray currentSlots = slots;
+        if (size * 2 > currentSlots.length()) {
+          currentSlots = rehash(currentSlots);
+        }
+        // publishing the id makes the node data written above visible to readers which find it
+        insert(currentSlots, id, hash);
+        slots = currentSlots;
+        return id;
+      }
+    }
+
+    /**
+     * Jumps form a skew-binary structure: a path jumps either to its parent, or twice as far as
+     * its parent when the parent's jump and its jump's jump cover the same distance.
+     */
+    private int getJump(int parent) {
+      int parentJump = getData(parent, JUMP);
+      int parentJumpJump = getData(parentJump, JUMP);
+      int parentJumpDepth = getDepth(parentJump);
+      if (getDepth(parent) - parentJumpDepth == parentJumpDepth - getDepth(parentJumpJump)) {
+        return parentJumpJump;
+      }
+      return parent;
+    }
+
+    private int addNode(int parent, String segment, int depthAndAbsolute, int jump, int hash) {
+      int local = size++;
+      int chunk = local >>> CHUNK_SHIFT;
+      if (chunk == data.length) {
+        int[][] newData = new int[chunk * 2][];
+        String[][] newSegments = new String[chunk * 2][];
+        System.arraycopy(data, 0, newData, 0, chunk);
+        System.arraycopy(segments, 0, newSegments, 0, chunk);
+        data = newData;
+        segments = newSegments;
+      }
+      if (data[chunk] == null) {
+        data[chunk] = new int[CHUNK_SIZE * FIELDS];
+        segments[chunk] = new String[CHUNK_SIZE];
+      }
+      int offset = (local & CHUNK_MASK) * FIELDS;
+      data[chunk][offset + PARENT] = parent;
+      data[chunk][offset + DEPTH_AND_ABSOLUTE] = depthAndAbsolute;
+      data[chunk][offset + JUMP] = jump;
+      data[chunk][offset + HASH] = hash;
+      segments[chunk][local & CHUNK_MASK] = segment;
+      return (local << SHARD_BITS) | index;
+    }
+
+    private int find(AtomicIntegerArray slots, int parent, String segment, int hash) {
+      int mask = slots.length() - 1;
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        int id = slots.get(i);
+        // segments are interned, so a reference compare is enough
+        if (id == EMPTY
+            || (getLocalData(id >>> SHARD_BITS, PARENT) == parent
+                && getLocalSegment(id >>> SHARD_BITS) == segment)) {
+          return id;
+        }
+      }
+    }
+
+    private void insert(AtomicIntegerArray slots, int id, int hash) {
+      int mask = slots.length() - 1;
+      int i = hash & mask;
+      while (slots.get(i) != EMPTY) {
+        i = (i + 1) & mask;
+      }
+      slots.set(i, id);
+    }
+
+    private AtomicIntegerArray rehash(AtomicIntegerArray oldSlots) {
+      AtomicIntegerArray newSlots = new AtomicIntegerArray(oldSlots.length() * 2);
+      for (int i = 0; i < oldSlots.length(); i++) {
+        int id = oldSlots.get(i);
+        if (id != EMPTY) {
+          int local = id >>> SHARD_BITS;
+          int hash = hash(getLocalData(local, PARENT), getLocalSegment(local));
+          insert(newSlots, id, hash >>> SHARD_BITS);
+        }
+      }
+      return newSlots;
+    }
+  }
+}
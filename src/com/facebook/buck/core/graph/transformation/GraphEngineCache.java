@@ -46,4 +46,20 @@ public interface GraphEngineCache<Key extends ComputeKey<Value>, Value extends C
    * @param value the value to cache
    */
   void put(Key key, Value value);
+
+  /**
+   * Notifies the cache that the result of the given key is an input of a computation that has not
+   * finished yet. Caches that evict results should prefer keeping it until {@link
+   * #release(ComputeKey)} is called, since evicting it would not free any memory.
+   *
+   * @param key the key of the result in use
+   */
+  default void acquire(Key key) {}
+
+  /**
+   * Reverses one prior call to {@link #acquire(ComputeKey)}
+   *
+   * @param key the key of the result no longer in use
+   */
+  default void release(Key key) {}
 }
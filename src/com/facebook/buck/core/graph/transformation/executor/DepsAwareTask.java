@@ -101,4 +101,12 @@ public abstract class DepsAwareTask<T, Impl extends DepsAwareTask<T, Impl>> {
   public Future<T> getResultFuture() {
     return result;
   }
+
+  /**
+   * Runs {@code callback} once this task completes, whether it succeeds, fails, or fails because
+   * one of its dependencies failed.
+   */
+  public void addCompletionCallback(Runnable callback) {
+    result.whenComplete((value, throwable) -> callback.run());
+  }
 }
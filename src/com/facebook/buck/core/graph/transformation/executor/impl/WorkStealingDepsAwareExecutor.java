@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A specialized Executor that executes {@link DepsAwareTask}. This executor will attempt to
+ * maintain maximum concurrency, while completing dependencies of each supplied work first.
+ *
+ * <p>This implementation uses work stealing: each worker keeps its own deque of tasks, runs the
+ * most recently discovered dependencies first, and steals the oldest tasks from other workers when
+ * it runs out of work. Idle workers park rather than spin. See {@link WorkStealingDepsAwareWorker}.
+ */
+public class WorkStealingDepsAwareExecutor<T> extends AbstractDefaultDepsAwareExecutor<T> {
+
+  private final WorkStealingDepsAwareWorker.Pool<T> pool;
+
+  private WorkStealingDepsAwareExecutor(
+      BlockingDeque<DefaultDepsAwareTask<T>> workQueue,
+      Future<?>[] workers,
+      ExecutorService executorService,
+      WorkStealingDepsAwareWorker.Pool<T> pool) {
+    super(workQueue, workers, executorService);
+    this.pool = pool;
+  }
+
+  /** Creates a {@link WorkStealingDepsAwareExecutor} with given {@code numberOfThreads}. */
+  public static <U> WorkStealingDepsAwareExecutor<U> of(int numberOfThreads) {
+    ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+    LinkedBlockingDeque<DefaultDepsAwareTask<U>> workQueue = new LinkedBlockingDeque<>();
+    WorkStealingDepsAwareWorker.Pool<U> pool = new WorkStealingDepsAwareWorker.Pool<>(workQueue);
+    Future<?>[] workers =
+        startWorkers(executorService, numberOfThreads, workQueue, queue -> pool.newWorker());
+    return new WorkStealingDepsAwareExecutor<>(workQueue, workers, executorService, pool);
+  }
+
+  @Override
+  public Future<T> submit(DefaultDepsAwareTask<T> task) {
+    Future<T> future = super.submit(task);
+    pool.signalIdleWorker();
+    return future;
+  }
+}
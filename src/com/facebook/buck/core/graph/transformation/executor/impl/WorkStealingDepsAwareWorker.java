@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.impl.AbstractDepsAwareTask.TaskStatus;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+
+/**
+ * A worker to be ran in a thread to manage {@link DefaultDepsAwareTask} and their deps using work
+ * stealing.
+ *
+ * <p>Each worker owns a deque of tasks. The owner pushes and pops tasks at the head of its deque,
+ * so that dependencies discovered while evaluating a task are computed next, in LIFO order, by the
+ * same thread. Workers that run out of local work first take newly submitted tasks from the shared
+ * queue, and then steal the oldest task from the tail of the deque of the busiest peer. Workers
+ * with nothing to do park until new work is pushed, instead of spinning on the queues.
+ *
+ * <p>A task with unfinished dependencies is not polled again. Instead, it is resubmitted once all
+ * of those dependencies complete, so that workers never duplicate each other's work by re-walking
+ * the same part of the graph.
+ *
+ * <p>Blocking operations that are ran in the {@link DefaultDepsAwareTask} will block the thread,
+ * and its corresponding worker.
+ */
+class WorkStealingDepsAwareWorker<T> extends AbstractDepsAwareWorker<DefaultDepsAwareTask<T>> {
+
+  /**
+   * Upper bound on how long an idle worker parks before checking the queues again. Work is
+   * normally handed to idle workers by unparking them, this only guards against tasks added to the
+   * shared queue without going through the {@link Pool}.
+   */
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final ThreadLocal<WorkStealingDepsAwareWorker<?>> currentWorker =
+      new ThreadLocal<>();
+
+  private final Pool<T> pool;
+  private final ConcurrentLinkedDeque<DefaultDepsAwareTask<T>> localDeque =
+      new ConcurrentLinkedDeque<>();
+
+  /** Approximate number of tasks in {@link #localDeque}, used to pick a victim to steal from. */
+  private final AtomicInteger localDequeSize = new AtomicInteger();
+
+  private WorkStealingDepsAwareWorker(Pool<T> pool) {
+    super(pool.sharedQueue);
+    this.pool = pool;
+  }
+
+  @Override
+  void loopForever() throws InterruptedException {
+    currentWorker.set(this);
+    try {
+      super.loopForever();
+    } finally {
+      currentWorker.remove();
+    }
+  }
+
+  @Override
+  protected DefaultDepsAwareTask<T> takeTask() throws InterruptedException {
+    while (true) {
+      DefaultDepsAwareTask<T> task = findTask();
+      if (task != null) {
+        return task;
+      }
+
+      // Register as idle before checking for work one last time, so that any task pushed after the
+      // check will unpark this thread.
+      pool.idleThreads.add(Thread.currentThread());
+      try {
+        task = findTask();
+        if (task != null) {
+          return task;
+        }
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+      } finally {
+        pool.idleThreads.remove(Thread.currentThread());
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  @Nullable
+  private DefaultDepsAwareTask<T> findTask() {
+    DefaultDepsAwareTask<T> task = localDeque.pollFirst();
+    if (task != null) {
+      localDequeSize.decrementAndGet();
+      return task;
+    }
+    task = sharedQueue.pollFirst();
+    if (task != null) {
+      return task;
+    }
+    return steal();
+  }
+
+  /**
+   * Steals the oldest task of the peer with the most queued tasks, falling back to any other peer
+   * with queued tasks.
+   */
+  @Nullable
+  private DefaultDepsAwareTask<T> steal() {
+    WorkStealingDepsAwareWorker<T> busiest = null;
+    int busiestSize = 0;
+    for (WorkStealingDepsAwareWorker<T> victim : pool.workers) {
+      int size = victim.localDequeSize.get();
+      if (victim != this && size > busiestSize) {
+        busiest = victim;
+        busiestSize = size;
+      }
+    }
+    if (busiest == null) {
+      return null;
+    }
+    DefaultDepsAwareTask<T> task = busiest.pollLast();
+    if (task != null) {
+      return task;
+    }
+    for (WorkStealingDepsAwareWorker<T> victim : pool.workers) {
+      if (victim != this) {
+        task = victim.pollLast();
+        if (task != null) {
+          return task;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private DefaultDepsAwareTask<T> pollLast() {
+    DefaultDepsAwareTask<T> task = localDeque.pollLast();
+    if (task != null) {
+      localDequeSize.decrementAndGet();
+    }
+    return task;
+  }
+
+  private void pushLocal(DefaultDepsAwareTask<T> task) {
+    localDeque.addFirst(task);
+    // The owner picks up its first queued task itself, so only wake a peer once there is more work
+    // than this worker can handle right away.
+    if (localDequeSize.incrementAndGet() > 1) {
+      pool.signalIdleWorker();
+    }
+  }
+
+  @Override
+  protected boolean eval(DefaultDepsAwareTask<T> task) throws InterruptedException {
+    if (!task.compareAndSetStatus(TaskStatus.SCHEDULED, TaskStatus.STARTED)) {
+      return false;
+    }
+
+    ImmutableSet<DefaultDepsAwareTask<T>> prereqs;
+    try {
+      prereqs = task.getPrereqs();
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return true;
+    }
+    boolean prereqsDone;
+    try {
+      prereqsDone = checkTasksReadyOrSchedule(task, prereqs);
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return true;
+    }
+    if (!prereqsDone) {
+      return false;
+    }
+
+    ImmutableSet<DefaultDepsAwareTask<T>> deps;
+    try {
+      deps = task.getDependencies();
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return true;
+    }
+    boolean depsDone;
+    try {
+      depsDone = checkTasksReadyOrSchedule(task, deps);
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return true;
+    }
+    if (!depsDone) {
+      return false;
+    }
+
+    task.call();
+    return true;
+  }
+
+  /**
+   * Checks whether all of {@code tasksToCheck} are done. If not, the ones that nobody has scheduled
+   * yet are pushed to the local deque, and {@code task} is left {@link TaskStatus#STARTED} until
+   * all of them complete, at which point it is scheduled again. This way each task is queued once
+   * per evaluation stage, regardless of how many workers end up waiting on it.
+   */
+  private boolean checkTasksReadyOrSchedule(
+      DefaultDepsAwareTask<T> task, ImmutableSet<DefaultDepsAwareTask<T>> tasksToCheck)
+      throws InterruptedException, ExecutionException {
+    List<DefaultDepsAwareTask<T>> pending = new ArrayList<>();
+    for (DefaultDepsAwareTask<T> dep : tasksToCheck) {
+      propagateException(dep);
+      if (!dep.getFuture().isDone()) {
+        pending.add(dep);
+      }
+    }
+
+    if (pending.isEmpty()) {
+      return true;
+    }
+
+    for (DefaultDepsAwareTask<T> dep : pending) {
+      if (dep.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+        pushLocal(dep);
+      }
+    }
+
+    AtomicInteger remaining = new AtomicInteger(pending.size());
+    for (DefaultDepsAwareTask<T> dep : pending) {
+      dep.getFuture()
+          .whenComplete(
+              (result, throwable) -> {
+                // A failed dependency fails the task right away, so stop counting after it.
+                boolean reschedule =
+                    throwable == null
+                        ? remaining.decrementAndGet() == 0
+                        : remaining.getAndSet(0) > 0;
+                if (reschedule) {
+                  Verify.verify(task.compareAndSetStatus(TaskStatus.STARTED, TaskStatus.SCHEDULED));
+                  pool.schedule(task);
+                }
+              });
+    }
+    return false;
+  }
+
+  /** The group of {@link WorkStealingDepsAwareWorker}s that steal work from each other. */
+  static class Pool<T> {
+    private final LinkedBlockingDeque<DefaultDepsAwareTask<T>> sharedQueue;
+    private final List<WorkStealingDepsAwareWorker<T>> workers = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Thread> idleThreads = new ConcurrentLinkedQueue<>();
+
+    Pool(LinkedBlockingDeque<DefaultDepsAwareTask<T>> sharedQueue) {
+      this.sharedQueue = sharedQueue;
+    }
+
+    /** @return a new worker that steals work from, and can be stolen from, the other workers */
+    WorkStealingDepsAwareWorker<T> newWorker() {
+      WorkStealingDepsAwareWorker<T> worker = new WorkStealingDepsAwareWorker<>(this);
+      workers.add(worker);
+      return worker;
+    }
+
+    /**
+     * Schedules a task that has already been marked {@link TaskStatus#SCHEDULED}. Tasks scheduled
+     * from one of the workers go to its local deque, others go to the shared queue.
+     */
+    void schedule(DefaultDepsAwareTask<T> task) {
+      WorkStealingDepsAwareWorker<?> worker = currentWorker.get();
+      if (worker != null && worker.pool == this) {
+        @SuppressWarnings("unchecked")
+        WorkStealingDepsAwareWorker<T> localWorker = (WorkStealingDepsAwareWorker<T>) worker;
+        localWorker.pushLocal(task);
+        return;
+      }
+      sharedQueue.offer(task);
+      signalIdleWorker();
+    }
+
+    /** Unparks one idle worker, if any, to pick up newly available work. */
+    void signalIdleWorker() {
+      Thread idleThread = idleThreads.poll();
+      if (idleThread != null) {
+        LockSupport.unpark(idleThread);
+      }
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.impl;
+
+import com.facebook.buck.core.graph.transformation.GraphEngineCache;
+import com.facebook.buck.core.graph.transformation.model.ComputationIdentifier;
+import com.facebook.buck.core.graph.transformation.model.ComputeKey;
+import com.facebook.buck.core.graph.transformation.model.ComputeResult;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * A {@link GraphEngineCache} that bounds the total estimated weight of the results it holds.
+ *
+ * <p>Each result is weighed when it is put in the cache. When the total weight goes over the limit,
+ * the least recently used results are evicted, skipping results that are {@link
+ * #acquire(ComputeKey) acquired} by computations that are still running, since those are kept in
+ * memory by the engine anyway. Evicted results are optionally written to a {@link
+ * DiskGraphEngineCacheSpillStore}, from which they are reloaded on the next {@link #get(ComputeKey)}
+ * instead of being recomputed.
+ *
+ * <p>Hits, misses, evictions and reloads are tracked per {@link ComputationIdentifier}, see {@link
+ * #getStats()}.
+ *
+ * @param <Key> Key to the cache
+ * @param <Value> Value stored by Cache
+ */
+public class BoundedGraphEngineCache<Key extends ComputeKey<Value>, Value extends ComputeResult>
+    implements GraphEngineCache<Key, Value> {
+
+  private final long maxWeight;
+  private final ToLongFunction<? super Value> weigher;
+  private final Optional<DiskGraphEngineCacheSpillStore<Key, Value>> spillStore;
+
+  /** In access order, so that iteration starts at the least recently used entry. */
+  private final LinkedHashMap<Key, Entry<Value>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<Key, Integer> acquireCounts = new HashMap<>();
+  private long totalWeight = 0;
+
+  private final ConcurrentHashMap<ComputationIdentifier<?>, StatsCounter> stats =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param maxWeight the maximum total weight of the results held in memory
+   * @param weigher estimates the weight of a result, typically its approximate retained size
+   * @param spillStore where evicted results are written to, if any
+   */
+  public BoundedGraphEngineCache(
+      long maxWeight,
+      ToLongFunction<? super Value> weigher,
+      Optional<DiskGraphEngineCacheSpillStore<Key, Value>> spillStore) {
+    Preconditions.checkArgument(maxWeight >= 0, "maxWeight must not be negative: %s", maxWeight);
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.spillStore = spillStore;
+  }
+
+  @Override
+  public Optional<Value> get(Key key) {
+    StatsCounter counter = statsFor(key);
+    Entry<Value> entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry != null) {
+      counter.hits.increment();
+      return Optional.of(entry.value);
+    }
+    if (!spillStore.isPresent()) {
+      counter.misses.increment();
+      return Optional.empty();
+    }
+
+    long startNanos = System.nanoTime();
+    Optional<Value> reloaded = spillStore.get().load(key);
+    if (!reloaded.isPresent()) {
+      counter.misses.increment();
+      return Optional.empty();
+    }
+    counter.reloads.increment();
+    counter.reloadNanos.add(System.nanoTime() - startNanos);
+    // The spilled copy is still valid, so it does not need to be written again if evicted.
+    admit(key, reloaded.get(), true);
+    return reloaded;
+  }
+
+  @Override
+  public void put(Key key, Value value) {
+    admit(key, value, false);
+  }
+
+  @Override
+  public void acquire(Key key) {
+    synchronized (this) {
+      acquireCounts.merge(key, 1, Integer::sum);
+    }
+  }
+
+  @Override
+  public void release(Key key) {
+    List<Map.Entry<Key, Entry<Value>>> evicted;
+    synchronized (this) {
+      Integer count = acquireCounts.get(key);
+      if (count == null) {
+        return;
+      }
+      if (count == 1) {
+        acquireCounts.remove(key);
+      } else {
+        acquireCounts.put(key, count - 1);
+      }
+      // acquired entries may have kept the cache over its limit
+      evicted = evictIfNeeded();
+    }
+    spill(evicted);
+  }
+
+  /** @return the total weight of the results currently held in memory */
+  public synchronized long getTotalWeight() {
+    return totalWeight;
+  }
+
+  /** @return a snapshot of the statistics of this cache, per {@link ComputationIdentifier} */
+  public ImmutableMap<ComputationIdentifier<?>, GraphEngineCacheStats> getStats() {
+    ImmutableMap.Builder<ComputationIdentifier<?>, GraphEngineCacheStats> builder =
+        ImmutableMap.builderWithExpectedSize(stats.size());
+    stats.forEach((identifier, counter) -> builder.put(identifier, counter.snapshot()));
+    return builder.build();
+  }
+
+  private void admit(Key key, Value value, boolean spilled) {
+    long weight = weigher.applyAsLong(value);
+    Preconditions.checkState(weight >= 0, "Negative weight %s for result of %s", weight, key);
+
+    List<Map.Entry<Key, Entry<Value>>> evicted;
+    synchronized (this) {
+      Entry<Value> previous = entries.put(key, new Entry<>(value, weight, spilled));
+      if (previous != null) {
+        totalWeight -= previous.weight;
+      }
+      totalWeight += weight;
+      evicted = evictIfNeeded();
+    }
+    spill(evicted);
+  }
+
+  /** Removes least recently used entries that are not acquired until the weight fits the limit. */
+  private List<Map.Entry<Key, Entry<Value>>> evictIfNeeded() {
+    List<Map.Entry<Key, Entry<Value>>> evicted = new ArrayList<>();
+    Iterator<Map.Entry<Key, Entry<Value>>> iterator = entries.entrySet().iterator();
+    while (totalWeight > maxWeight && iterator.hasNext()) {
+      Map.Entry<Key, Entry<Value>> candidate = iterator.next();
+      if (acquireCounts.containsKey(candidate.getKey())) {
+        continue;
+      }
+      iterator.remove();
+      totalWeight -= candidate.getValue().weight;
+      evicted.add(candidate);
+    }
+    return evicted;
+  }
+
+  /** Writes evicted entries to the spill store. Done outside of the lock as it performs IO. */
+  private void spill(List<Map.Entry<Key, Entry<Value>>> evicted) {
+    for (Map.Entry<Key, Entry<Value>> entry : evicted) {
+      statsFor(entry.getKey()).evictions.increment();
+      if (spillStore.isPresent() && !entry.getValue().spilled) {
+        spillStore.get().store(entry.getKey(), entry.getValue().value);
+      }
+    }
+  }
+
+  private StatsCounter statsFor(Key key) {
+    return stats.computeIfAbsent(key.getIdentifier(), ignored -> new StatsCounter());
+  }
+
+  private static class Entry<Value> {
+    private final Value value;
+    private final long weight;
+    private final boolean spilled;
+
+    private Entry(Value value, long weight, boolean spilled) {
+      this.value = value;
+      this.weight = weight;
+      this.spilled = spilled;
+    }
+  }
+
+  private static class StatsCounter {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadNanos = new LongAdder();
+
+    private GraphEngineCacheStats snapshot() {
+      return new GraphEngineCacheStats(
+          hits.sum(), misses.sum(), evictions.sum(), reloads.sum(), reloadNanos.sum());
+    }
+  }
+}
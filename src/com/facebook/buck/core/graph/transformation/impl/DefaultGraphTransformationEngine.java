@@ -20,6 +20,7 @@ import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
 import com.facebook.buck.core.graph.transformation.ComputationEnvironment;
 import com.facebook.buck.core.graph.transformation.GraphComputation;
+import com.facebook.buck.core.graph.transformation.GraphEngineCache;
 import com.facebook.buck.core.graph.transformation.GraphTransformationEngine;
 import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask;
@@ -35,6 +36,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -80,7 +84,10 @@ import java.util.concurrent.RejectedExecutionException;
  * immutable, and have deterministic equals. For future perspective, we want to have {@link
  * ComputeKey} be serializable, so that we can eventually send keys to be computed remotely.
  *
- * <p>A custom cache can be supplied to the engine to cache the computation as desired.
+ * <p>A custom cache can be supplied to the engine to cache the computation as desired. The engine
+ * {@link GraphEngineCache#acquire(ComputeKey) acquires} the results of dependencies while the
+ * computations that depend on them are running, so that memory bounded caches can avoid evicting
+ * them.
  *
  * <p>Transformations will be applied asynchronously, so independent transformations can be executed
  * in parallel. It is therefore important that transformations are thread safe.
@@ -228,19 +235,42 @@ public final class DefaultGraphTransformationEngine implements GraphTransformati
 
             ImmutableMap.Builder<ComputeKey<?>, Future<ComputeResult>> depResults =
                 ImmutableMap.builder();
+            List<ComputeKey<?>> acquiredDepKeys = Collections.synchronizedList(new ArrayList<>());
             ThrowingSupplier<ImmutableSet<TaskType>, Exception> preliminaryDepsSupplier =
                 MoreSuppliers.memoize(
-                    () -> computePreliminaryDepForKey(key, stage, depResults), Exception.class);
+                    () -> computePreliminaryDepForKey(key, stage, depResults, acquiredDepKeys),
+                    Exception.class);
             ThrowingSupplier<ImmutableSet<TaskType>, Exception> depsSupplier =
                 MoreSuppliers.memoize(
-                    () -> computeDepsForKey(stage, key, depResults), Exception.class);
-            return executor.createThrowingTask(
-                () -> computeForKey(key, stage, collectDeps(depResults.build())),
-                preliminaryDepsSupplier,
-                depsSupplier);
+                    () -> computeDepsForKey(stage, key, depResults, acquiredDepKeys),
+                    Exception.class);
+            TaskType task =
+                executor.createThrowingTask(
+                    () -> {
+                      try {
+                        return computeForKey(key, stage, collectDeps(depResults.build()));
+                      } finally {
+                        releaseDeps(acquiredDepKeys);
+                      }
+                    },
+                    preliminaryDepsSupplier,
+                    depsSupplier);
+            // Discovering the dependencies may fail before the computation runs, so release them
+            // whenever the task completes too, so that the cache can evict them again.
+            task.addCompletionCallback(() -> releaseDeps(acquiredDepKeys));
+            return task;
           });
     }
 
+    private void releaseDeps(List<ComputeKey<?>> acquiredDepKeys) {
+      synchronized (acquiredDepKeys) {
+        for (ComputeKey<?> depKey : acquiredDepKeys) {
+          transformationStageMap.get(depKey).getCache().release(depKey);
+        }
+        acquiredDepKeys.clear();
+      }
+    }
+
     private ComputeResult computeForKey(
         ComputeKey<? extends ComputeResult> key,
         GraphComputationStage<ComputeKey<?>, ? extends ComputeResult> stage,
@@ -255,7 +285,8 @@ public final class DefaultGraphTransformationEngine implements GraphTransformati
     private ImmutableSet<TaskType> computePreliminaryDepForKey(
         ComputeKey<? extends ComputeResult> key,
         GraphComputationStage<ComputeKey<? extends ComputeResult>, ? extends ComputeResult> stage,
-        ImmutableMap.Builder<ComputeKey<?>, Future<ComputeResult>> depResults)
+        ImmutableMap.Builder<ComputeKey<?>, Future<ComputeResult>> depResults,
+        List<ComputeKey<?>> acquiredDepKeys)
         throws Exception {
       ImmutableSet<? extends ComputeKey<?>> preliminaryDepKeys =
           stage.getTransformer().discoverPreliminaryDeps(key);
@@ -266,6 +297,8 @@ public final class DefaultGraphTransformationEngine implements GraphTransformati
             GraphComputationStage<ComputeKey<? extends ComputeResult>, ? extends ComputeResult>
                 depStage = transformationStageMap.get(preliminaryDepKey);
             TaskType task = convertKeyToTask(preliminaryDepKey, depStage);
+            depStage.getCache().acquire(preliminaryDepKey);
+            acquiredDepKeys.add(preliminaryDepKey);
             depResults.put(preliminaryDepKey, task.getResultFuture());
             preliminaryDepWorkBuilder.add(task);
           });
@@ -275,7 +308,8 @@ public final class DefaultGraphTransformationEngine implements GraphTransformati
     private ImmutableSet<TaskType> computeDepsForKey(
         GraphComputationStage<ComputeKey<? extends ComputeResult>, ? extends ComputeResult> stage,
         ComputeKey<? extends ComputeResult> key,
-        ImmutableMap.Builder<ComputeKey<?>, Future<ComputeResult>> depResults)
+        ImmutableMap.Builder<ComputeKey<?>, Future<ComputeResult>> depResults,
+        List<ComputeKey<?>> acquiredDepKeys)
         throws Exception {
 
       ImmutableSet<? extends ComputeKey<? extends ComputeResult>> depKeys =
@@ -288,7 +322,11 @@ public final class DefaultGraphTransformationEngine implements GraphTransformati
       ImmutableSet.Builder<TaskType> depWorkBuilder =
           ImmutableSet.builderWithExpectedSize(depKeys.size());
       for (ComputeKey<? extends ComputeResult> depKey : depKeys) {
-        TaskType task = convertKeyToTask(depKey, transformationStageMap.get(depKey));
+        GraphComputationStage<ComputeKey<? extends ComputeResult>, ? extends ComputeResult>
+            depStage = transformationStageMap.get(depKey);
+        TaskType task = convertKeyToTask(depKey, depStage);
+        depStage.getCache().acquire(depKey);
+        acquiredDepKeys.add(depKey);
         depResults.put(depKey, task.getResultFuture());
         depWorkBuilder.add(task);
       }
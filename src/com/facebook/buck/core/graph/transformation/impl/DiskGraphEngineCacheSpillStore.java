@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.impl;
+
+import com.facebook.buck.core.graph.transformation.model.ComputeKey;
+import com.facebook.buck.core.graph.transformation.model.ComputeResult;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.MostFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores results evicted from a {@link BoundedGraphEngineCache} in files of a local directory, so
+ * that they can be reloaded without being recomputed.
+ *
+ * <p>Keys are kept in memory and mapped to the file holding their serialized result. Failing to
+ * write or read a result is not an error, the result is simply computed again.
+ *
+ * @param <Key> Key to the cache
+ * @param <Value> Value stored by Cache
+ */
+public class DiskGraphEngineCacheSpillStore<
+        Key extends ComputeKey<Value>, Value extends ComputeResult>
+    implements AutoCloseable {
+
+  private static final Logger LOG = Logger.get(DiskGraphEngineCacheSpillStore.class);
+
+  /** Converts results to and from bytes. */
+  public interface Serializer<Value> {
+
+    byte[] serialize(Value value) throws IOException;
+
+    Value deserialize(byte[] bytes) throws IOException;
+  }
+
+  private final Path directory;
+  private final Serializer<Value> serializer;
+  private final ConcurrentHashMap<Key, Path> index = new ConcurrentHashMap<>();
+  private final AtomicLong nextFileId = new AtomicLong();
+
+  /**
+   * @param directory the directory to store results in, which is created if needed and deleted on
+   *     {@link #close()}
+   * @param serializer the serializer for the results
+   */
+  public DiskGraphEngineCacheSpillStore(Path directory, Serializer<Value> serializer)
+      throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.serializer = serializer;
+  }
+
+  /** Writes the result of the given key, replacing any previously stored result. */
+  void store(Key key, Value value) {
+    Path path = index.computeIfAbsent(key, ignored -> nextPath());
+    Path tmpPath = nextPath();
+    try {
+      Files.write(tmpPath, serializer.serialize(value));
+      // readers never observe partially written files
+      Files.move(
+          tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to spill result of %s to %s", key, path);
+      index.remove(key, path);
+      try {
+        Files.deleteIfExists(tmpPath);
+      } catch (IOException ignored) {
+        // the directory is deleted when the store is closed
+      }
+    }
+  }
+
+  /** @return the stored result of the given key, if any */
+  Optional<Value> load(Key key) {
+    Path path = index.get(key);
+    if (path == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(serializer.deserialize(Files.readAllBytes(path)));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to reload result of %s from %s", key, path);
+      return Optional.empty();
+    }
+  }
+
+  private Path nextPath() {
+    return directory.resolve(Long.toString(nextFileId.getAndIncrement()));
+  }
+
+  @Override
+  public void close() throws IOException {
+    index.clear();
+    MostFiles.deleteRecursivelyIfExists(directory);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.impl;
+
+import com.google.common.base.MoreObjects;
+
+/** Statistics of a {@link BoundedGraphEngineCache} for a single computation. */
+public final class GraphEngineCacheStats {
+
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long reloadCount;
+  private final long totalReloadNanos;
+
+  GraphEngineCacheStats(
+      long hitCount, long missCount, long evictionCount, long reloadCount, long totalReloadNanos) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.reloadCount = reloadCount;
+    this.totalReloadNanos = totalReloadNanos;
+  }
+
+  /** @return the number of lookups that found the result in memory */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /** @return the number of lookups that found the result neither in memory nor on disk */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /** @return the number of results evicted from memory */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** @return the number of lookups that reloaded a previously evicted result from disk */
+  public long getReloadCount() {
+    return reloadCount;
+  }
+
+  /** @return the total time spent reloading results from disk, in nanoseconds */
+  public long getTotalReloadNanos() {
+    return totalReloadNanos;
+  }
+
+  /** @return the average time spent reloading a result from disk, in nanoseconds */
+  public long getAverageReloadNanos() {
+    return reloadCount == 0 ? 0 : totalReloadNanos / reloadCount;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("hitCount", hitCount)
+        .add("missCount", missCount)
+        .add("evictionCount", evictionCount)
+        .add("reloadCount", reloadCount)
+        .add("totalReloadNanos", totalReloadNanos)
+        .toString();
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.core.model.actiongraph;
 
 import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.graph.CompactDirectedAcyclicGraph;
 import com.google.common.collect.Iterables;
 
 public class ActionGraph {
@@ -40,4 +41,9 @@ public class ActionGraph {
   public int getSize() {
     return Iterables.size(nodes);
   }
+
+  /** @return a compact copy of this graph, with edges from each rule to its build deps */
+  public CompactDirectedAcyclicGraph<BuildRule> toCompactGraph() {
+    return CompactDirectedAcyclicGraph.copyOf(nodes, rule -> rule.getBuildDeps().iterator());
+  }
 }
@@ -45,6 +45,18 @@ public abstract class AbstractActionGraphConfig implements ConfigView<BuckConfig
             "cache", "incremental_action_graph_experiment", IncrementalActionGraphMode.class);
   }
 
+  /**
+   * @return the number of previous action graphs whose build rules are retained for incremental
+   *     action graph construction. Retaining more than one allows switching between different sets
+   *     of top-level targets without recreating the rules of their shared dependencies.
+   */
+  @Value.Derived
+  public int getIncrementalActionGraphRetainedGenerations() {
+    return getDelegate()
+        .getInteger("cache", "incremental_action_graph_retained_generations")
+        .orElse(1);
+  }
+
   @Value.Derived
   public boolean isActionGraphCheckingEnabled() {
     return getDelegate().getBooleanValue("cache", "action_graph_cache_check_enabled", false);
@@ -30,8 +30,18 @@ public class ActionGraphCache {
   private final IncrementalActionGraphGenerator incrementalActionGraphGenerator;
 
   public ActionGraphCache(int maxEntries) {
+    this(maxEntries, 1);
+  }
+
+  /**
+   * @param maxEntries the maximum number of action graphs to keep in memory.
+   * @param maxRetainedRuleGenerations the number of previous action graphs whose build rules are
+   *     kept around for incremental action graph construction.
+   */
+  public ActionGraphCache(int maxEntries, int maxRetainedRuleGenerations) {
     previousActionGraphs = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
-    incrementalActionGraphGenerator = new IncrementalActionGraphGenerator();
+    incrementalActionGraphGenerator =
+        new IncrementalActionGraphGenerator(maxRetainedRuleGenerations);
   }
 
   public void invalidateCache() {
@@ -60,4 +70,8 @@ public class ActionGraphCache {
     incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
         eventBus, targetGraph, graphBuilder);
   }
+
+  public void finishIncrementalLoad(BuckEventBus eventBus, long constructionNanos) {
+    incrementalActionGraphGenerator.finishIncrementalLoad(eventBus, constructionNanos);
+  }
 }
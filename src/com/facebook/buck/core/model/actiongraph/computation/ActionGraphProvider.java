@@ -207,21 +207,25 @@ public class ActionGraphProvider {
       TargetGraph targetGraph,
       IncrementalActionGraphMode incrementalActionGraphMode) {
 
-    return actionGraphFactory.createActionGraph(
-        transformer,
-        targetGraph,
-        incrementalActionGraphMode,
-        graphBuilder -> {
-          // Any previously cached action graphs are no longer valid, as we may use build rules
-          // from those graphs to construct a new graph incrementally, and update those build
-          // rules to use a new BuildRuleResolver.
-          actionGraphCache.invalidateCache();
+    long startNanos = System.nanoTime();
+    ActionGraphAndBuilder actionGraphAndBuilder =
+        actionGraphFactory.createActionGraph(
+            transformer,
+            targetGraph,
+            incrementalActionGraphMode,
+            graphBuilder -> {
+              // Any previously cached action graphs are no longer valid, as we may use build rules
+              // from those graphs to construct a new graph incrementally, and update those build
+              // rules to use a new BuildRuleResolver.
+              actionGraphCache.invalidateCache();
 
-          // Populate the new build rule graphBuilder with all of the usable rules from the last
-          // build rule graphBuilder for incremental action graph generation.
-          actionGraphCache.populateActionGraphBuilderWithCachedRules(
-              eventBus, targetGraph, graphBuilder);
-        });
+              // Populate the new build rule graphBuilder with all of the usable rules from
+              // previous build rule graphBuilders for incremental action graph generation.
+              actionGraphCache.populateActionGraphBuilderWithCachedRules(
+                  eventBus, targetGraph, graphBuilder);
+            });
+    actionGraphCache.finishIncrementalLoad(eventBus, System.nanoTime() - startNanos);
+    return actionGraphAndBuilder;
   }
 
   private static Map<BuildRule, RuleKey> getRuleKeysFromBuildRules(
@@ -18,7 +18,6 @@ package com.facebook.buck.core.model.actiongraph.computation;
 
 import com.facebook.buck.core.description.BaseDescription;
 import com.facebook.buck.core.description.Description;
-import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.UnflavoredBuildTargetView;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
@@ -28,231 +27,300 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
- * Provides a way to incrementally construct a new {@link ActionGraphBuilder} from a previous one.
+ * Provides a way to incrementally construct a new {@link ActionGraphBuilder} from previous ones.
  *
- * <p>This works by grabbing all the build rules from the previous {@link ActionGraphBuilder} with
- * unflavored targets that were not invalidated when doing a target graph walk to check for changes.
+ * <p>Build rules of previously constructed action graphs are retained, grouped by unflavored build
+ * target, together with the {@link TargetNode}s they were created from. A group of rules is reused
+ * by a new {@link ActionGraphBuilder} if every node with that unflavored target in the new target
+ * graph is equal to one the rules were created from, and the same holds transitively for all of
+ * its dependencies. Since groups are retained across several target graphs, switching between
+ * builds of different top-level targets that share dependencies reuses the shared subgraph.
+ *
+ * <p>Groups that were not part of the last {@code maxRetainedGenerations} target graphs are
+ * dropped, so with the default of a single generation only rules from the last action graph are
+ * considered.
  */
 public class IncrementalActionGraphGenerator {
   private static final Logger LOG = Logger.get(IncrementalActionGraphGenerator.class);
 
+  /** Weight of the most recent construction when estimating the cost of creating a rule. */
+  private static final double RULE_COST_SMOOTHING_FACTOR = 0.5;
+
+  private final int maxRetainedGenerations;
+  private final Map<UnflavoredBuildTargetView, RetainedRules> retainedRules = new HashMap<>();
+
+  private int generation = 0;
   @Nullable private ActionGraphBuilder lastActionGraphBuilder;
-  @Nullable private TargetGraph lastTargetGraph;
+  @Nullable private SetMultimap<UnflavoredBuildTargetView, TargetNode<?>> lastTargetNodes;
+  private int lastReusedRuleCount = 0;
+  private boolean lastIncrementalLoadFinished = true;
+  private double averageNanosPerCreatedRule = 0;
+
+  public IncrementalActionGraphGenerator() {
+    this(1);
+  }
+
+  public IncrementalActionGraphGenerator(int maxRetainedGenerations) {
+    Preconditions.checkArgument(
+        maxRetainedGenerations > 0, "must retain rules from at least one action graph");
+    this.maxRetainedGenerations = maxRetainedGenerations;
+  }
 
   /**
-   * Populates the given {@link ActionGraphBuilder} with the rules from the previously used {@link
-   * ActionGraphBuilder} that are deemed usable after checking for invalidations with a target graph
-   * walk.
+   * Populates the given {@link ActionGraphBuilder} with the rules from previously used {@link
+   * ActionGraphBuilder}s that are deemed usable after checking for invalidations with a target
+   * graph walk.
    */
   public void populateActionGraphBuilderWithCachedRules(
       BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
     int reusedRuleCount = 0;
     if (lastActionGraphBuilder != null) {
-      Objects.requireNonNull(lastTargetGraph);
-
-      // We first walk the new target graph to find new nodes. A new node will invalidate all nodes
-      // with the same unflavored target.
-      Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes =
-          findUnflavoredTargetsForNewNodes(targetGraph);
-
-      // We figure out which build rules we can reuse from the last action graph by performing an
-      // invalidation walk over the new target graph.
-      Set<UnflavoredBuildTargetView> invalidUnflavoredTargets = new HashSet<>();
-      Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph = new HashSet<>();
-      invalidateChangedTargets(
-          targetGraph,
-          allUnflavoredTargetsInNewGraph,
-          invalidUnflavoredTargets,
-          unflavoredTargetsForNewNodes);
-
-      // Now we can load in all build rules whose unflavored targets weren't invalidated for
-      // incremental action graph generation.
-      reusedRuleCount =
-          addValidRulesToActionGraphBuilder(
-              graphBuilder, allUnflavoredTargetsInNewGraph, invalidUnflavoredTargets);
+      // Record the rules constructed by the last builder, so they can be reused by this one or by
+      // any of the following ones.
+      retainRulesFromLastActionGraphBuilder();
 
       // Invalidate the previous {@see ActionGraphBuilder}, which we no longer need, to make sure
       // nobody unexpectedly accesses it after this point.
       lastActionGraphBuilder.invalidate();
     }
+    generation++;
 
-    lastTargetGraph = targetGraph;
+    SetMultimap<UnflavoredBuildTargetView, TargetNode<?>> targetNodes =
+        groupByUnflavoredTarget(targetGraph);
+    if (!retainedRules.isEmpty()) {
+      // We figure out which retained build rules we can reuse by checking every unflavored target
+      // of the new target graph against the retained rules, and loading in all that are valid.
+      Map<UnflavoredBuildTargetView, Boolean> explored = new HashMap<>();
+      int retainedRuleCount = 0;
+      for (UnflavoredBuildTargetView unflavoredTarget : targetNodes.keySet()) {
+        if (isReusable(unflavoredTarget, targetGraph, targetNodes, explored)) {
+          RetainedRules rules = Objects.requireNonNull(retainedRules.get(unflavoredTarget));
+          reusedRuleCount += rules.addToActionGraphBuilder(graphBuilder);
+          rules.lastUsedGeneration = generation;
+        }
+      }
+      for (RetainedRules rules : retainedRules.values()) {
+        retainedRuleCount += rules.rules.size();
+      }
+      LOG.debug("reused %d of %d retained build rules", reusedRuleCount, retainedRuleCount);
+    }
+
+    lastTargetNodes = targetNodes;
     lastActionGraphBuilder = graphBuilder;
+    lastReusedRuleCount = reusedRuleCount;
+    lastIncrementalLoadFinished = false;
     eventBus.post(new ActionGraphEvent.IncrementalLoad(reusedRuleCount));
   }
 
-  private Set<UnflavoredBuildTargetView> findUnflavoredTargetsForNewNodes(TargetGraph targetGraph) {
-    ImmutableSet.Builder<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes =
-        new ImmutableSet.Builder<>();
-    Set<BuildTarget> explored = new HashSet<>();
-    for (TargetNode<?> root : targetGraph.getNodesWithNoIncomingEdges()) {
-      findUnflavoredTargetsForNewNodes(root, targetGraph, explored, unflavoredTargetsForNewNodes);
-    }
-    return unflavoredTargetsForNewNodes.build();
-  }
-
-  private void findUnflavoredTargetsForNewNodes(
-      TargetNode<?> node,
-      TargetGraph targetGraph,
-      Set<BuildTarget> explored,
-      ImmutableSet.Builder<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    if (explored.contains(node.getBuildTarget())) {
+  /**
+   * Reports how the construction of the action graph that was last populated with cached rules
+   * split between reused and newly created rules, and how much time reuse is estimated to have
+   * saved.
+   *
+   * @param constructionNanos the time it took to construct the action graph.
+   */
+  public void finishIncrementalLoad(BuckEventBus eventBus, long constructionNanos) {
+    if (lastActionGraphBuilder == null || lastIncrementalLoadFinished) {
       return;
     }
-    explored.add(node.getBuildTarget());
+    lastIncrementalLoadFinished = true;
 
-    if (!lastTargetGraph.getExactOptional(node.getBuildTarget()).isPresent()) {
-      unflavoredTargetsForNewNodes.add(node.getBuildTarget().getUnflavoredBuildTarget());
+    int totalRuleCount =
+        Iterables.size(lastActionGraphBuilder.getSuccessfullyConstructedBuildRules());
+    int createdRuleCount = Math.max(0, totalRuleCount - lastReusedRuleCount);
+    if (createdRuleCount > 0) {
+      double nanosPerCreatedRule = (double) constructionNanos / createdRuleCount;
+      averageNanosPerCreatedRule =
+          averageNanosPerCreatedRule == 0
+              ? nanosPerCreatedRule
+              : RULE_COST_SMOOTHING_FACTOR * nanosPerCreatedRule
+                  + (1 - RULE_COST_SMOOTHING_FACTOR) * averageNanosPerCreatedRule;
     }
+    long estimatedTimeSavedMillis =
+        TimeUnit.NANOSECONDS.toMillis((long) (averageNanosPerCreatedRule * lastReusedRuleCount));
 
-    for (TargetNode<?> child : targetGraph.getOutgoingNodesFor(node)) {
-      findUnflavoredTargetsForNewNodes(child, targetGraph, explored, unflavoredTargetsForNewNodes);
+    eventBus.post(
+        new ActionGraphEvent.IncrementalLoadFinished(
+            lastReusedRuleCount, createdRuleCount, estimatedTimeSavedMillis));
+  }
+
+  private static SetMultimap<UnflavoredBuildTargetView, TargetNode<?>> groupByUnflavoredTarget(
+      TargetGraph targetGraph) {
+    SetMultimap<UnflavoredBuildTargetView, TargetNode<?>> targetNodes = HashMultimap.create();
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      targetNodes.put(node.getBuildTarget().getUnflavoredBuildTarget(), node);
     }
+    return targetNodes;
   }
 
-  private int addValidRulesToActionGraphBuilder(
-      ActionGraphBuilder graphBuilder,
-      Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph,
-      Set<UnflavoredBuildTargetView> invalidUnflavoredTargets) {
-    int totalRuleCount = 0;
-    int reusedRuleCount = 0;
-    for (BuildRule buildRule :
-        Objects.requireNonNull(lastActionGraphBuilder).getSuccessfullyConstructedBuildRules()) {
+  private void retainRulesFromLastActionGraphBuilder() {
+    Objects.requireNonNull(lastActionGraphBuilder);
+    Objects.requireNonNull(lastTargetNodes);
+
+    // Group the rules of the last builder by unflavored target. Only targets that were part of the
+    // last target graph can be matched against future target graphs.
+    Map<UnflavoredBuildTargetView, List<BuildRule>> rulesByUnflavoredTarget = new HashMap<>();
+    for (BuildRule buildRule : lastActionGraphBuilder.getSuccessfullyConstructedBuildRules()) {
       UnflavoredBuildTargetView unflavoredTarget =
           buildRule.getBuildTarget().getUnflavoredBuildTarget();
-      if (!invalidUnflavoredTargets.contains(unflavoredTarget)
-          && allUnflavoredTargetsInNewGraph.contains(unflavoredTarget)) {
-        graphBuilder.addToIndex(buildRule);
-
-        // Update build rule resolvers for all reused rules. Build rules may use build rule
-        // resolvers to locate and construct other build rules during construction. Furthermore, if
-        // we didn't update them, we'd leak previous action graphs.
-        buildRule.updateBuildRuleResolver(graphBuilder);
-
-        reusedRuleCount++;
+      if (lastTargetNodes.containsKey(unflavoredTarget)) {
+        rulesByUnflavoredTarget
+            .computeIfAbsent(unflavoredTarget, ignored -> new ArrayList<>())
+            .add(buildRule);
       }
-      totalRuleCount++;
     }
 
-    LOG.debug("reused %d of %d build rules", reusedRuleCount, totalRuleCount);
-    return reusedRuleCount;
-  }
-
-  private void invalidateChangedTargets(
-      TargetGraph targetGraph,
-      Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph,
-      Set<UnflavoredBuildTargetView> invalidUnflavoredTargets,
-      Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    Map<BuildTarget, Boolean> explored = new HashMap<>();
-    for (TargetNode<?> root : targetGraph.getNodesWithNoIncomingEdges()) {
-      invalidateChangedTargets(
-          root,
-          targetGraph,
-          explored,
-          allUnflavoredTargetsInNewGraph,
-          invalidUnflavoredTargets,
-          unflavoredTargetsForNewNodes);
+    // Rules that were reused keep their existing group, so that groups which depend on them stay
+    // valid. Everything else starts a new group, which invalidates groups retained from earlier
+    // graphs that depended on the replaced one.
+    List<RetainedRules> newGroups = new ArrayList<>();
+    for (Map.Entry<UnflavoredBuildTargetView, List<BuildRule>> entry :
+        rulesByUnflavoredTarget.entrySet()) {
+      UnflavoredBuildTargetView unflavoredTarget = entry.getKey();
+      Set<TargetNode<?>> nodes = lastTargetNodes.get(unflavoredTarget);
+      RetainedRules existing = retainedRules.get(unflavoredTarget);
+      if (existing != null && existing.lastUsedGeneration == generation) {
+        existing.rules.addAll(entry.getValue());
+        continue;
+      }
+      if (!nodes.stream().allMatch(IncrementalActionGraphGenerator::isCacheable)) {
+        retainedRules.remove(unflavoredTarget);
+        continue;
+      }
+      RetainedRules rules = new RetainedRules(nodes, entry.getValue(), generation);
+      retainedRules.put(unflavoredTarget, rules);
+      newGroups.add(rules);
     }
-  }
-
-  private boolean invalidateChangedTargets(
-      TargetNode<?> node,
-      TargetGraph targetGraph,
-      Map<BuildTarget, Boolean> explored,
-      Set<UnflavoredBuildTargetView> allUnflavoredTargetsInNewGraph,
-      Set<UnflavoredBuildTargetView> invalidUnflavoredTargets,
-      Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    if (explored.containsKey(node.getBuildTarget())) {
-      return explored.get(node.getBuildTarget());
+    for (RetainedRules rules : newGroups) {
+      for (TargetNode<?> node : rules.nodes) {
+        for (UnflavoredBuildTargetView dep : getDepsOutsideOfGroup(node)) {
+          rules.deps.put(dep, retainedRules.get(dep));
+        }
+      }
     }
 
-    allUnflavoredTargetsInNewGraph.add(node.getBuildTarget().getUnflavoredBuildTarget());
-
-    // Recursively check if any node in a child subgraph causes invalidation of its parent chain.
-    boolean ancestorInvalidated = false;
-    for (TargetNode<?> child : targetGraph.getOutgoingNodesFor(node)) {
-      // Note: We can't short circuit here since we need to also make sure things inside child
-      // subgraphs get properly invalidated in turn.
-      ancestorInvalidated |=
-          invalidateChangedTargets(
-              child,
-              targetGraph,
-              explored,
-              allUnflavoredTargetsInNewGraph,
-              invalidUnflavoredTargets,
-              unflavoredTargetsForNewNodes);
-    }
+    evictStaleRules();
+  }
 
-    boolean invalidateParent = false;
-    if (ancestorInvalidated || shouldInvalidateParentChain(node, unflavoredTargetsForNewNodes)) {
-      if (LOG.isVerboseEnabled()) {
-        LOG.verbose("invalidating target %s", node.getBuildTarget().toString());
-      }
-      invalidateParent = true;
+  /**
+   * Drops groups that have not been used by recent action graphs, as well as groups that can no
+   * longer be valid because a group they depend on was dropped or replaced.
+   */
+  private void evictStaleRules() {
+    int oldestRetainedGeneration = generation - maxRetainedGenerations + 1;
+    retainedRules.values().removeIf(rules -> rules.lastUsedGeneration < oldestRetainedGeneration);
 
-      // This node is invalid. We can't load any of its flavors from cache.
-      invalidUnflavoredTargets.add(node.getBuildTarget().getUnflavoredBuildTarget());
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      Iterator<RetainedRules> iterator = retainedRules.values().iterator();
+      while (iterator.hasNext()) {
+        RetainedRules rules = iterator.next();
+        for (Map.Entry<UnflavoredBuildTargetView, RetainedRules> dep : rules.deps.entrySet()) {
+          if (dep.getValue() == null || retainedRules.get(dep.getKey()) != dep.getValue()) {
+            iterator.remove();
+            changed = true;
+            break;
+          }
+        }
+      }
     }
-
-    explored.put(node.getBuildTarget(), invalidateParent);
-    return invalidateParent;
   }
 
-  private boolean shouldInvalidateParentChain(
-      TargetNode<?> targetNode, Set<UnflavoredBuildTargetView> unflavoredTargetsForNewNodes) {
-    if (unflavoredTargetsForNewNodes.contains(
-        targetNode.getBuildTarget().getUnflavoredBuildTarget())) {
-      // If this node wasn't present in the previous graph, we need to invalidate, as flavored
-      // versions of rules might be reconstructed differently. Furthermore, there are cases where a
-      // flavored version of a node without the unflavored version shows up in the new target graph,
-      // when the previous target graph had only the unflavored version, e.g. when a
-      // {@code cxx_binary} changes to a {@code cxx_library}, and we'd otherwise happily incorrectly
-      // pull in the previous unflavored version of the node from cache.
-      if (LOG.isVerboseEnabled()) {
-        LOG.verbose(
-            "target %s caused invalidation due to a new node with the same unflavored target",
-            targetNode.getBuildTarget().toString());
-      }
-      return true;
+  private boolean isReusable(
+      UnflavoredBuildTargetView unflavoredTarget,
+      TargetGraph targetGraph,
+      SetMultimap<UnflavoredBuildTargetView, TargetNode<?>> targetNodes,
+      Map<UnflavoredBuildTargetView, Boolean> explored) {
+    Boolean result = explored.get(unflavoredTarget);
+    if (result != null) {
+      return result;
     }
+    // Conservatively treat cycles between unflavored targets as invalidating.
+    explored.put(unflavoredTarget, false);
 
-    if (lastTargetGraph != null) {
-      Optional<TargetNode<?>> previousTargetNode =
-          lastTargetGraph.getExactOptional(targetNode.getBuildTarget());
-      if (previousTargetNode.isPresent()) {
-        Preconditions.checkState(
-            lastActionGraphBuilder.getRuleOptional(targetNode.getBuildTarget()).isPresent());
-        // If the target node has changed, then invalidate parent chains, as ancestors might
-        // generate their subgraphs differently given the change.
-        if (!targetNode.equals(previousTargetNode.get())) {
+    RetainedRules rules = retainedRules.get(unflavoredTarget);
+    boolean reusable = rules != null;
+    if (reusable) {
+      for (TargetNode<?> node : targetNodes.get(unflavoredTarget)) {
+        // If a node wasn't present when the rules were created, or has changed since, we need to
+        // invalidate, as flavored versions of rules might be reconstructed differently.
+        // Furthermore, there are cases where a flavored version of a node without the unflavored
+        // version shows up in the new target graph, when the previous target graph had only the
+        // unflavored version, e.g. when a {@code cxx_binary} changes to a {@code cxx_library}, and
+        // we'd otherwise happily incorrectly pull in the previous unflavored version of the node.
+        if (!rules.nodes.contains(node)) {
           if (LOG.isVerboseEnabled()) {
             LOG.verbose(
-                "target %s caused invalidation due to target node change",
-                targetNode.getBuildTarget().toString());
+                "target %s caused invalidation due to a new or changed node",
+                node.getBuildTarget().toString());
+          }
+          reusable = false;
+          break;
+        }
+      }
+    }
+    if (reusable) {
+      // The rules may only be reused together with the exact rules of their dependencies they were
+      // created with, as they may reference those directly.
+      for (TargetNode<?> node : targetNodes.get(unflavoredTarget)) {
+        for (TargetNode<?> child : targetGraph.getOutgoingNodesFor(node)) {
+          UnflavoredBuildTargetView dep = child.getBuildTarget().getUnflavoredBuildTarget();
+          if (dep.equals(unflavoredTarget)) {
+            continue;
+          }
+          if (!isReusable(dep, targetGraph, targetNodes, explored)
+              || rules.deps.get(dep) != retainedRules.get(dep)) {
+            reusable = false;
+            break;
           }
-          return true;
         }
-      } else {
-        Preconditions.checkState(
-            unflavoredTargetsForNewNodes.contains(
-                targetNode.getBuildTarget().getUnflavoredBuildTarget()));
+        if (!reusable) {
+          break;
+        }
       }
     }
 
-    // Incremental caching is only supported for {@link Description}s known to
-    // be safe. This is
-    // because we cannot generally guarantee that descriptions won't do crazy things that violate
-    // our assumptions during their construction.
+    if (!reusable && LOG.isVerboseEnabled()) {
+      LOG.verbose("invalidating target %s", unflavoredTarget.toString());
+    }
+    explored.put(unflavoredTarget, reusable);
+    return reusable;
+  }
+
+  private static Set<UnflavoredBuildTargetView> getDepsOutsideOfGroup(TargetNode<?> node) {
+    UnflavoredBuildTargetView unflavoredTarget = node.getBuildTarget().getUnflavoredBuildTarget();
+    Set<UnflavoredBuildTargetView> deps = new HashSet<>();
+    node.getParseDeps()
+        .forEach(
+            dep -> {
+              if (!dep.getUnflavoredBuildTarget().equals(unflavoredTarget)) {
+                deps.add(dep.getUnflavoredBuildTarget());
+              }
+            });
+    return deps;
+  }
+
+  // Incremental caching is only supported for {@link Description}s known to be safe. This is
+  // because we cannot generally guarantee that descriptions won't do crazy things that violate our
+  // assumptions during their construction.
+  private static boolean isCacheable(TargetNode<?> targetNode) {
     BaseDescription<?> description = targetNode.getDescription();
     if ((description instanceof Description<?>)
         && !((Description<?>) description).producesCacheableSubgraph()) {
@@ -261,8 +329,39 @@ public class IncrementalActionGraphGenerator {
             "target %s caused invalidation due to not being cacheable",
             targetNode.getBuildTarget().toString());
       }
-      return true;
+      return false;
+    }
+    return true;
+  }
+
+  /** Build rules retained for a single unflavored target. */
+  private static class RetainedRules {
+    /** The target nodes the rules were created from. */
+    private final Set<TargetNode<?>> nodes;
+
+    private final Set<BuildRule> rules;
+
+    /** The retained rules of dependencies at the time these rules were created. */
+    private final Map<UnflavoredBuildTargetView, RetainedRules> deps = new HashMap<>();
+
+    private int lastUsedGeneration;
+
+    RetainedRules(Set<TargetNode<?>> nodes, List<BuildRule> rules, int generation) {
+      this.nodes = new HashSet<>(nodes);
+      this.rules = new LinkedHashSet<>(rules);
+      this.lastUsedGeneration = generation;
+    }
+
+    int addToActionGraphBuilder(ActionGraphBuilder graphBuilder) {
+      for (BuildRule buildRule : rules) {
+        graphBuilder.addToIndex(buildRule);
+
+        // Update build rule resolvers for all reused rules. Build rules may use build rule
+        // resolvers to locate and construct other build rules during construction. Furthermore, if
+        // we didn't update them, we'd leak previous action graphs.
+        buildRule.updateBuildRuleResolver(graphBuilder);
+      }
+      return rules.size();
     }
-    return false;
   }
 }
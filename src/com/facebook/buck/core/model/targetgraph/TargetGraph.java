@@ -18,6 +18,7 @@ package com.facebook.buck.core.model.targetgraph;
 
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
+import com.facebook.buck.core.util.graph.CompactDirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.DirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.util.MoreMaps;
@@ -157,4 +158,12 @@ public class TargetGraph extends DirectedAcyclicGraph<TargetNode<?>> {
   public int getSize() {
     return getNodes().size();
   }
+
+  /**
+   * @return a compact copy of this graph, for traversals of large graphs. Node ids follow the
+   *     iteration order of {@link #getNodes()}.
+   */
+  public CompactDirectedAcyclicGraph<TargetNode<?>> toCompactGraph() {
+    return CompactDirectedAcyclicGraph.copyOf(this);
+  }
 }
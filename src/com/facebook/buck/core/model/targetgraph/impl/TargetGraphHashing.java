@@ -20,6 +20,8 @@ import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.graph.CompactDirectedAcyclicGraph;
+import com.facebook.buck.core.util.graph.ParallelBottomUpTraversal;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
@@ -27,10 +29,8 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.json.JsonObjectHashing;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
-import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.hashing.StringHashing;
-import com.facebook.buck.util.types.Pair;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -40,16 +40,14 @@ import com.google.common.hash.Hasher;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * Utility class to calculate hash codes for build targets in a {@link TargetGraph}.
@@ -106,9 +104,6 @@ public class TargetGraphHashing {
 
   private class Runner {
 
-    private final Map<BuildTarget, ListenableFuture<HashCode>> futures =
-        new ConcurrentHashMap<>(targetGraph.getSize());
-
     /**
      * The initial hashing phase of a node, which hashes everything except its dependencies.
      *
@@ -138,82 +133,59 @@ public class TargetGraphHashing {
     }
 
     /**
-     * Finish up hashing a node by including its dependencies.
+     * Finish up hashing a node by including its dependencies, in the order of {@link
+     * TargetNode#getParseDeps()}.
      *
      * @return the nodes {@link HashCode}.
      */
     private HashCode finishNode(
-        BuildTarget node, Hasher hasher, List<Pair<BuildTarget, HashCode>> depPairs) {
-      for (Pair<BuildTarget, HashCode> depPair : depPairs) {
-        LOG.verbose(
-            "Node %s: adding dependency %s (%s)", node, depPair.getFirst(), depPair.getSecond());
-        StringHashing.hashStringAndLength(hasher, depPair.getFirst().toString());
-        hasher.putBytes(depPair.getSecond().asBytes());
+        TargetNode<?> node, Hasher hasher, Function<TargetNode<?>, HashCode> depHashes) {
+      for (BuildTarget dep : node.getParseDeps()) {
+        HashCode depHash = depHashes.apply(targetGraph.get(dep));
+        LOG.verbose("Node %s: adding dependency %s (%s)", node, dep, depHash);
+        StringHashing.hashStringAndLength(hasher, dep.toString());
+        hasher.putBytes(depHash.asBytes());
       }
       return hasher.hash();
     }
 
-    /**
-     * @return the {@link HashCode} of all the node's dependencies as as a {@link ListenableFuture}
-     *     of a list of {@link BuildTarget} and {@link HashCode} pairs.
-     */
-    private ListenableFuture<List<Pair<BuildTarget, HashCode>>> getDepPairsFuture(
-        TargetNode<?> node) {
-      return Futures.allAsList(
-          node.getParseDeps().stream()
-              .map(
-                  dep ->
-                      Futures.transform(
-                          getHash(targetGraph.get(dep)),
-                          depHash -> new Pair<>(dep, depHash),
-                          MoreExecutors.directExecutor()))
-              .collect(Collectors.toList()));
-    }
-
-    private ListenableFuture<HashCode> getHash(TargetNode<?> node) {
-      // NOTE: Our current implementation starts *all* the target node hashes in parallel, and
-      // and only starts synchronizing near the end, when nodes need to incorporate the hashes of
-      // their dependencies.  As such, we're basically trading off the extra memory required to
-      // keep around the hashers for all in flight node hashing operations for the ability to mine
-      // extra parallelism.  The hashers should be relatively small, but it's possible that in
-      // some situations, this tradeoff isn't ideal, in which case we could switch to only
-      // *starting* to hash a node after it's dependencies have completed.
-      ListenableFuture<HashCode> future = futures.get(node.getBuildTarget());
-      if (future == null) {
-        future =
-            Futures.transformAsync(
-                // Start hashing a node.
-                Futures.transform(
-                    targetNodeRawAttributesProvider.apply(node),
-                    attributes -> startNode(node, attributes),
-                    executor),
-                // Wait for all dependencies to finish hashing.
-                hasher ->
-                    Futures.transform(
-                        getDepPairsFuture(node),
-                        depPairs -> finishNode(node.getBuildTarget(), hasher, depPairs),
-                        executor),
-                executor);
-        futures.put(node.getBuildTarget(), future);
-      }
-      return future;
-    }
-
     /**
      * @return a map of all {@link BuildTarget}s to {@link HashCode}s for the graph defined by the
      *     given roots.
      */
     private ImmutableMap<BuildTarget, HashCode> run()
         throws InterruptedException, ExecutionException {
-
-      // Kick off future chain and wait for roots to complete.  Due to the recursive nature of
-      // target hashes, once these have completed, all transitive deps should be finished as well.
-      Futures.allAsList(RichStream.from(roots).map(this::getHash).toImmutableList()).get();
-
-      // Wait for all scheduled tasks to complete
-      ImmutableMap.Builder<BuildTarget, HashCode> results = ImmutableMap.builder();
-      for (Map.Entry<BuildTarget, ListenableFuture<HashCode>> ent : futures.entrySet()) {
-        results.put(ent.getKey(), ent.getValue().get());
+      CompactDirectedAcyclicGraph<TargetNode<?>> graph =
+          CompactDirectedAcyclicGraph.copyOf(
+              roots,
+              node -> node.getParseDeps().stream().<TargetNode<?>>map(targetGraph::get).iterator());
+
+      // Start hashing all nodes in parallel, as everything but the dependencies can be hashed
+      // independently. This trades off the memory of keeping around the hashers of all nodes for
+      // the ability to mine extra parallelism. The hashers should be relatively small.
+      List<ListenableFuture<Hasher>> hasherFutures = new ArrayList<>(graph.getNodeCount());
+      for (TargetNode<?> node : graph.getNodes()) {
+        hasherFutures.add(
+            Futures.transform(
+                targetNodeRawAttributesProvider.apply(node),
+                attributes -> startNode(node, attributes),
+                executor));
+      }
+      List<Hasher> hashers = Futures.allAsList(hasherFutures).get();
+
+      // Then finish nodes bottom-up, so that each node only waits for its own dependencies.
+      ImmutableMap<TargetNode<?>, HashCode> hashes =
+          ParallelBottomUpTraversal.traverse(
+                  graph,
+                  (TargetNode<?> node, Function<TargetNode<?>, HashCode> depHashes) ->
+                      finishNode(node, hashers.get(graph.getNodeId(node)), depHashes),
+                  executor)
+              .get();
+
+      ImmutableMap.Builder<BuildTarget, HashCode> results =
+          ImmutableMap.builderWithExpectedSize(hashes.size());
+      for (Map.Entry<TargetNode<?>, HashCode> entry : hashes.entrySet()) {
+        results.put(entry.getKey().getBuildTarget(), entry.getValue());
       }
       return results.build();
     }
@@ -18,7 +18,9 @@ package com.facebook.buck.core.rules.build.strategy;
 
 import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.Closeable;
 import java.io.IOException;
@@ -35,6 +37,17 @@ public interface BuildRuleStrategy extends Closeable {
   /** A rule will be built by the custom strategy only if canBuild() returns true. */
   boolean canBuild(BuildRule instance);
 
+  /**
+   * Writes to disk the outputs of the given rules which this strategy left in remote storage when
+   * it built them. Outputs of rules built by other means are expected to be on disk already.
+   *
+   * @return a future which completes once the outputs are on disk
+   */
+  @SuppressWarnings("unused")
+  default ListenableFuture<?> materializeOutputs(Iterable<BuildTarget> targets) {
+    return Futures.immediateFuture(null);
+  }
+
   /** A simple interface for build results exposing an explicit cancellation. */
   interface StrategyBuildResult {
     /**
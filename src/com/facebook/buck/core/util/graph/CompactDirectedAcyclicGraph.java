@@ -0,0 +1,386 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable directed acyclic graph stored in compressed sparse row form.
+ *
+ * <p>Nodes are assigned dense int ids in {@code [0, getNodeCount())}. The successors of node {@code
+ * i} are stored contiguously in a single int array, at the offsets given by a second array, and
+ * likewise for predecessors. Compared to {@link DirectedAcyclicGraph}, which keeps an immutable
+ * multimap entry per edge in each direction, this uses a few ints per node and edge, and traversals
+ * only touch primitive arrays.
+ *
+ * <p>Nodes can be traversed either by id, using methods such as {@link #forEachSuccessor(int,
+ * IntConsumer)}, or through the {@link TraversableGraph} interface, so that existing traversals
+ * work on this graph as well.
+ *
+ * @param <T> the type of object stored as nodes in this graph
+ */
+public final class CompactDirectedAcyclicGraph<T> implements TraversableGraph<T> {
+
+  private static final int NO_NODE = -1;
+
+  private final ImmutableList<T> nodes;
+
+  /** Open addressing hash table from node to id, storing {@link #NO_NODE} in empty slots. */
+  private final int[] idTable;
+
+  private final int[] outOffsets;
+  private final int[] outEdges;
+  private final int[] inOffsets;
+  private final int[] inEdges;
+
+  /** Node ids such that every node comes after all of its successors. */
+  private final int[] topologicalOrder;
+
+  private CompactDirectedAcyclicGraph(ImmutableList<T> nodes, int[] outOffsets, int[] outEdges) {
+    this.nodes = nodes;
+    this.outOffsets = outOffsets;
+    this.outEdges = outEdges;
+
+    int nodeCount = nodes.size();
+    this.inOffsets = new int[nodeCount + 1];
+    this.inEdges = new int[outEdges.length];
+    for (int target : outEdges) {
+      inOffsets[target + 1]++;
+    }
+    for (int i = 0; i < nodeCount; i++) {
+      inOffsets[i + 1] += inOffsets[i];
+    }
+    int[] inPositions = Arrays.copyOf(inOffsets, nodeCount);
+    for (int source = 0; source < nodeCount; source++) {
+      for (int edge = outOffsets[source]; edge < outOffsets[source + 1]; edge++) {
+        inEdges[inPositions[outEdges[edge]]++] = source;
+      }
+    }
+
+    this.topologicalOrder = computeTopologicalOrder();
+    this.idTable = buildIdTable();
+  }
+
+  /** @return a compact copy of the given graph, with node ids assigned in iteration order */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(TraversableGraph<T> graph) {
+    return copyOf(graph.getNodes(), node -> graph.getOutgoingNodesFor(node).iterator());
+  }
+
+  /**
+   * @param roots the nodes to start from
+   * @param traversable the function returning the successors of a node
+   * @return a compact graph of the given nodes and all nodes reachable from them
+   * @throws IllegalArgumentException if the graph contains a cycle
+   */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(
+      Iterable<? extends T> roots, GraphTraversable<T> traversable) {
+    Map<T, Integer> ids = new HashMap<>();
+    List<T> nodes = new ArrayList<>();
+    for (T root : roots) {
+      if (ids.putIfAbsent(root, nodes.size()) == null) {
+        nodes.add(root);
+      }
+    }
+
+    // nodes grows as new successors are discovered
+    int[] offsets = new int[Math.max(nodes.size(), 16) + 1];
+    int[] edges = new int[Math.max(nodes.size(), 16)];
+    int[] lastSource = new int[offsets.length];
+    Arrays.fill(lastSource, NO_NODE);
+    int edgeCount = 0;
+    for (int source = 0; source < nodes.size(); source++) {
+      offsets[source] = edgeCount;
+      Iterator<? extends T> children = traversable.findChildren(nodes.get(source));
+      while (children.hasNext()) {
+        T child = children.next();
+        Integer target = ids.get(child);
+        if (target == null) {
+          target = nodes.size();
+          ids.put(child, target);
+          nodes.add(child);
+          if (nodes.size() >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            int previousLength = lastSource.length;
+            lastSource = Arrays.copyOf(lastSource, offsets.length);
+            Arrays.fill(lastSource, previousLength, lastSource.length, NO_NODE);
+          }
+        }
+        // drop duplicate edges
+        if (lastSource[target] == source) {
+          continue;
+        }
+        lastSource[target] = source;
+        if (edgeCount == edges.length) {
+          edges = Arrays.copyOf(edges, edges.length * 2);
+        }
+        edges[edgeCount++] = target;
+      }
+    }
+    offsets[nodes.size()] = edgeCount;
+
+    return new CompactDirectedAcyclicGraph<>(
+        ImmutableList.copyOf(nodes),
+        Arrays.copyOf(offsets, nodes.size() + 1),
+        Arrays.copyOf(edges, edgeCount));
+  }
+
+  private int[] computeTopologicalOrder() {
+    int nodeCount = nodes.size();
+    int[] order = new int[nodeCount];
+    int[] remainingOutDegrees = new int[nodeCount];
+    int size = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      remainingOutDegrees[node] = getOutDegree(node);
+      if (remainingOutDegrees[node] == 0) {
+        order[size++] = node;
+      }
+    }
+    // order doubles as the queue of nodes whose successors have all been visited
+    for (int head = 0; head < size; head++) {
+      int node = order[head];
+      for (int edge = inOffsets[node]; edge < inOffsets[node + 1]; edge++) {
+        int predecessor = inEdges[edge];
+        if (--remainingOutDegrees[predecessor] == 0) {
+          order[size++] = predecessor;
+        }
+      }
+    }
+    Preconditions.checkArgument(size == nodeCount, "Graph must be acyclic");
+    return order;
+  }
+
+  private int[] buildIdTable() {
+    int capacity = Integer.highestOneBit(Math.max(nodes.size(), 1)) * 4;
+    int[] table = new int[capacity];
+    Arrays.fill(table, NO_NODE);
+    for (int id = 0; id < nodes.size(); id++) {
+      int slot = slotFor(nodes.get(id), capacity);
+      while (table[slot] != NO_NODE) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      table[slot] = id;
+    }
+    return table;
+  }
+
+  private static int slotFor(Object node, int capacity) {
+    // spread the hash so that node types with poor low bits do not cluster
+    int hash = node.hashCode() * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & (capacity - 1);
+  }
+
+  /** @return the number of nodes in the graph */
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  /** @return the number of edges in the graph */
+  public int getEdgeCount() {
+    return outEdges.length;
+  }
+
+  /** @return the node with the given id */
+  public T getNode(int id) {
+    return nodes.get(id);
+  }
+
+  /** @return the id of the given node, or {@code -1} if it is not in the graph */
+  public int getNodeId(T node) {
+    int slot = slotFor(node, idTable.length);
+    while (idTable[slot] != NO_NODE) {
+      if (nodes.get(idTable[slot]).equals(node)) {
+        return idTable[slot];
+      }
+      slot = (slot + 1) & (idTable.length - 1);
+    }
+    return NO_NODE;
+  }
+
+  /** @return the number of successors of the node with the given id */
+  public int getOutDegree(int id) {
+    return outOffsets[id + 1] - outOffsets[id];
+  }
+
+  /** @return the number of predecessors of the node with the given id */
+  public int getInDegree(int id) {
+    return inOffsets[id + 1] - inOffsets[id];
+  }
+
+  /** Calls {@code consumer} with the id of each successor of the node with the given id. */
+  public void forEachSuccessor(int id, IntConsumer consumer) {
+    for (int edge = outOffsets[id]; edge < outOffsets[id + 1]; edge++) {
+      consumer.accept(outEdges[edge]);
+    }
+  }
+
+  /** Calls {@code consumer} with the id of each predecessor of the node with the given id. */
+  public void forEachPredecessor(int id, IntConsumer consumer) {
+    for (int edge = inOffsets[id]; edge < inOffsets[id + 1]; edge++) {
+      consumer.accept(inEdges[edge]);
+    }
+  }
+
+  /**
+   * Calls {@code consumer} with the id of every node, such that each node comes after all of its
+   * successors.
+   */
+  public void forEachInTopologicalOrder(IntConsumer consumer) {
+    for (int id : topologicalOrder) {
+      consumer.accept(id);
+    }
+  }
+
+  /**
+   * @return all nodes such that each node comes after all of its successors. Like {@link
+   *     TopologicalSort#sort(TraversableGraph)}, nodes are returned level by level, starting with
+   *     the nodes without successors.
+   */
+  public ImmutableList<T> getTopologicalOrder() {
+    return mapIds(topologicalOrder, topologicalOrder.length);
+  }
+
+  /**
+   * Performs a depth-first, post-order traversal, visiting successors in order. This returns the
+   * same nodes in the same order as {@link AcyclicDepthFirstPostOrderTraversal} over the successors
+   * this graph was created with.
+   *
+   * @param roots the nodes from which to perform the traversal
+   * @return the nodes reachable from {@code roots} in post-order
+   * @throws IllegalArgumentException if one of {@code roots} is not in the graph
+   */
+  public ImmutableList<T> traverseDepthFirstPostOrder(Iterable<? extends T> roots) {
+    int nodeCount = nodes.size();
+    BitSet explored = new BitSet(nodeCount);
+    int[] postOrder = new int[nodeCount];
+    int visitedCount = 0;
+
+    // the path currently being explored, along with the next edge to follow for each of its nodes
+    int[] stack = new int[nodeCount];
+    int[] nextEdges = new int[nodeCount];
+    for (T root : roots) {
+      int rootId = getNodeId(root);
+      Preconditions.checkArgument(rootId != NO_NODE, "%s is not in the graph", root);
+      if (explored.get(rootId)) {
+        continue;
+      }
+      int depth = 0;
+      stack[0] = rootId;
+      nextEdges[0] = outOffsets[rootId];
+      while (depth >= 0) {
+        int node = stack[depth];
+        int edge = nextEdges[depth];
+        int end = outOffsets[node + 1];
+        while (edge < end && explored.get(outEdges[edge])) {
+          edge++;
+        }
+        if (edge < end) {
+          int child = outEdges[edge];
+          nextEdges[depth] = edge + 1;
+          depth++;
+          stack[depth] = child;
+          nextEdges[depth] = outOffsets[child];
+        } else {
+          explored.set(node);
+          postOrder[visitedCount++] = node;
+          depth--;
+        }
+      }
+    }
+    return mapIds(postOrder, visitedCount);
+  }
+
+  private ImmutableList<T> mapIds(int[] ids, int count) {
+    ImmutableList.Builder<T> builder = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      builder.add(nodes.get(ids[i]));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableList<T> getNodesWithNoIncomingEdges() {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int id = 0; id < nodes.size(); id++) {
+      if (getInDegree(id) == 0) {
+        builder.add(nodes.get(id));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableList<T> getNodesWithNoOutgoingEdges() {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int id = 0; id < nodes.size(); id++) {
+      if (getOutDegree(id) == 0) {
+        builder.add(nodes.get(id));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public List<T> getIncomingNodesFor(T sink) {
+    int id = getNodeId(sink);
+    return id == NO_NODE ? ImmutableList.of() : new NodeSlice(inEdges, inOffsets, id);
+  }
+
+  @Override
+  public List<T> getOutgoingNodesFor(T source) {
+    int id = getNodeId(source);
+    return id == NO_NODE ? ImmutableList.of() : new NodeSlice(outEdges, outOffsets, id);
+  }
+
+  @Override
+  public ImmutableList<T> getNodes() {
+    return nodes;
+  }
+
+  /** An unmodifiable view of the nodes adjacent to a node. */
+  private class NodeSlice extends AbstractList<T> {
+    private final int[] edges;
+    private final int start;
+    private final int size;
+
+    private NodeSlice(int[] edges, int[] offsets, int id) {
+      this.edges = edges;
+      this.start = offsets[id];
+      this.size = offsets[id + 1] - start;
+    }
+
+    @Override
+    public T get(int index) {
+      Preconditions.checkElementIndex(index, size);
+      return nodes.get(edges[start + index]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+/**
+ * Computes a value for every node of a DAG, visiting each node only after all of its successors,
+ * and visiting independent nodes concurrently.
+ *
+ * <p>This is the parallel counterpart of {@link AbstractBottomUpTraversal}. Each node keeps a count
+ * of its successors that are not visited yet. Visiting a node decrements the counts of its
+ * predecessors, and each predecessor whose count drops to zero is ready. The visiting thread
+ * continues with one of the ready predecessors itself and hands the others to the executor. When
+ * given a {@link ForkJoinPool}, those are forked onto the visiting worker's own queue, so that idle
+ * workers steal them.
+ *
+ * <p>The resulting map iterates in the node order of the {@link CompactDirectedAcyclicGraph}, so
+ * it does not depend on the scheduling.
+ *
+ * <p>This is the only parallel traversal in this package, and {@code TargetGraphHashing} is its
+ * only user. {@link AbstractBreadthFirstTraversal} and {@link TopologicalSort} are sequential.
+ *
+ * @param <T> the type of node in the graph
+ * @param <V> the type of the values computed for the nodes
+ */
+public final class ParallelBottomUpTraversal<T, V> {
+
+  private static final int NO_NODE = -1;
+
+  /** Computes the value of a node. */
+  @FunctionalInterface
+  public interface Visitor<T, V> {
+
+    /**
+     * @param node the node to visit
+     * @param successorValues returns the value of a successor of {@code node}. Values of other
+     *     nodes must not be requested.
+     * @return the non-null value of {@code node}
+     */
+    V visit(T node, Function<T, V> successorValues) throws Exception;
+  }
+
+  private final CompactDirectedAcyclicGraph<T> graph;
+  private final Visitor<T, V> visitor;
+  private final Executor executor;
+
+  /**
+   * Values are published to the threads visiting predecessors by the decrement of their entry in
+   * {@link #remainingSuccessors}.
+   */
+  private final Object[] values;
+
+  private final AtomicIntegerArray remainingSuccessors;
+  private final AtomicInteger remainingNodes;
+  private final SettableFuture<ImmutableMap<T, V>> result = SettableFuture.create();
+
+  /**
+   * Nodes made ready by the thread currently visiting, if any. This is only used when the executor
+   * runs tasks in the calling thread, to avoid nesting visits on the stack.
+   */
+  private final ThreadLocal<ArrayDeque<Integer>> currentReadyNodes = new ThreadLocal<>();
+
+  private ParallelBottomUpTraversal(
+      CompactDirectedAcyclicGraph<T> graph, Visitor<T, V> visitor, Executor executor) {
+    this.graph = graph;
+    this.visitor = visitor;
+    this.executor = executor;
+    this.values = new Object[graph.getNodeCount()];
+    this.remainingSuccessors = new AtomicIntegerArray(graph.getNodeCount());
+    this.remainingNodes = new AtomicInteger(graph.getNodeCount());
+  }
+
+  /**
+   * Visits all nodes of {@code graph} on {@code executor}.
+   *
+   * @return a future of the values of all nodes, which fails with the first exception thrown by
+   *     {@code visitor}. No more nodes are visited after a failure.
+   */
+  public static <T, V> ListenableFuture<ImmutableMap<T, V>> traverse(
+      CompactDirectedAcyclicGraph<T> graph, Visitor<T, V> visitor, Executor executor) {
+    ParallelBottomUpTraversal<T, V> traversal =
+        new ParallelBottomUpTraversal<>(graph, visitor, executor);
+    traversal.start();
+    return traversal.result;
+  }
+
+  private void start() {
+    if (graph.getNodeCount() == 0) {
+      result.set(ImmutableMap.of());
+      return;
+    }
+    for (int id = 0; id < graph.getNodeCount(); id++) {
+      remainingSuccessors.set(id, graph.getOutDegree(id));
+    }
+    for (int id = 0; id < graph.getNodeCount(); id++) {
+      if (graph.getOutDegree(id) == 0) {
+        schedule(id);
+      }
+    }
+  }
+
+  private void schedule(int id) {
+    try {
+      executor.execute(() -> visitFrom(id));
+    } catch (RejectedExecutionException e) {
+      result.setException(e);
+    }
+  }
+
+  /** Visits the given node, then keeps visiting nodes it makes ready until there are none left. */
+  private void visitFrom(int id) {
+    ArrayDeque<Integer> readyNodes = currentReadyNodes.get();
+    if (readyNodes != null) {
+      // the executor ran this task inline, let the outer loop pick it up
+      readyNodes.push(id);
+      return;
+    }
+
+    readyNodes = new ArrayDeque<>();
+    currentReadyNodes.set(readyNodes);
+    try {
+      int next = id;
+      while (next != NO_NODE && !result.isDone()) {
+        int readyPredecessor = visit(next);
+        if (readyPredecessor != NO_NODE) {
+          next = readyPredecessor;
+        } else {
+          next = readyNodes.isEmpty() ? NO_NODE : readyNodes.pop();
+        }
+      }
+    } finally {
+      currentReadyNodes.remove();
+    }
+  }
+
+  /** @return one of the predecessors made ready by visiting the node, if any */
+  private int visit(int id) {
+    V value;
+    try {
+      value = Preconditions.checkNotNull(visitor.visit(graph.getNode(id), this::getValue));
+    } catch (Throwable t) {
+      result.setException(t);
+      return NO_NODE;
+    }
+    values[id] = value;
+
+    int[] readyPredecessor = {NO_NODE};
+    graph.forEachPredecessor(
+        id,
+        predecessor -> {
+          if (remainingSuccessors.decrementAndGet(predecessor) == 0) {
+            if (readyPredecessor[0] == NO_NODE) {
+              readyPredecessor[0] = predecessor;
+            } else {
+              schedule(predecessor);
+            }
+          }
+        });
+
+    if (remainingNodes.decrementAndGet() == 0) {
+      result.set(collectValues());
+    }
+    return readyPredecessor[0];
+  }
+
+  @SuppressWarnings("unchecked")
+  private V getValue(T node) {
+    int id = graph.getNodeId(node);
+    Preconditions.checkArgument(id != NO_NODE, "%s is not in the graph", node);
+    Object value = values[id];
+    Preconditions.checkState(value != null, "%s has not been visited yet", node);
+    return (V) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private ImmutableMap<T, V> collectValues() {
+    ImmutableMap.Builder<T, V> builder = ImmutableMap.builderWithExpectedSize(values.length);
+    for (int id = 0; id < values.length; id++) {
+      builder.put(graph.getNode(id), (V) values[id]);
+    }
+    return builder.build();
+  }
+}
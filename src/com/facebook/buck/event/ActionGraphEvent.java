@@ -97,6 +97,42 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
     }
   }
 
+  /**
+   * Event for the end of incremental action graph construction, reporting how many rules were
+   * reused from previous action graphs, how many had to be created, and an estimate of the time
+   * reuse saved based on the observed cost of creating rules.
+   */
+  public static class IncrementalLoadFinished extends ActionGraphEvent {
+    private final int reusedNodeCount;
+    private final int createdNodeCount;
+    private final long estimatedTimeSavedMillis;
+
+    public IncrementalLoadFinished(
+        int reusedNodeCount, int createdNodeCount, long estimatedTimeSavedMillis) {
+      super(EventKey.unique());
+      this.reusedNodeCount = reusedNodeCount;
+      this.createdNodeCount = createdNodeCount;
+      this.estimatedTimeSavedMillis = estimatedTimeSavedMillis;
+    }
+
+    @Override
+    public String getEventName() {
+      return "ActionGraphIncrementalLoadFinished";
+    }
+
+    public int getReusedNodeCount() {
+      return reusedNodeCount;
+    }
+
+    public int getCreatedNodeCount() {
+      return createdNodeCount;
+    }
+
+    public long getEstimatedTimeSavedMillis() {
+      return estimatedTimeSavedMillis;
+    }
+  }
+
   public static class Cache extends ActionGraphEvent implements BuckEvent {
     private final String eventName;
 
@@ -48,11 +48,12 @@ public class FastPaths {
     if (path.isAbsolute()) {
       hasher.putChar('/');
     }
-    for (int i = 0; i < path.getNameCount(); i++) {
+    String[] names = BuckUnixPath.InternalsForFastPaths.getNameStrings((BuckUnixPath) path);
+    for (int i = 0; i < names.length; i++) {
       if (i != 0) {
         hasher.putChar('/');
       }
-      hasher.putUnencodedChars(FastPaths.getNameString(path, i));
+      hasher.putUnencodedChars(names[i]);
     }
     return hasher;
   }
@@ -20,6 +20,7 @@ import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.IOException;
 import java.io.InputStream;
@@ -206,6 +207,16 @@ public interface ProjectFilesystem {
   @Deprecated
   ImmutableCollection<Path> getDirectoryContents(Path pathToUse) throws IOException;
 
+  /**
+   * Lists the entries of a directory along with their attributes in a single pass, which is much
+   * cheaper than reading the attributes of each entry separately on some file systems. Ignored
+   * entries are skipped and symlinks are not followed.
+   *
+   * @return the paths of the entries relative to the project root, mapped to their attributes.
+   */
+  ImmutableSortedMap<Path, BasicFileAttributes> getDirectoryContentsWithAttributes(
+      Path pathToUse) throws IOException;
+
   /**
    * Returns the files inside {@code pathRelativeToProjectRoot} which match {@code globPattern},
    * ordered in descending last modified time order. This will not obey the results of {@link
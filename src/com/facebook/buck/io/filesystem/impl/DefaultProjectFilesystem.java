@@ -35,12 +35,12 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.collect.Maps;
 import com.google.common.hash.Hashing;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -75,9 +75,12 @@ import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
@@ -567,6 +570,20 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
     }
   }
 
+  @Override
+  public ImmutableSortedMap<Path, BasicFileAttributes> getDirectoryContentsWithAttributes(
+      Path pathToUse) throws IOException {
+    ImmutableSortedMap.Builder<Path, BasicFileAttributes> builder =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<Path, BasicFileAttributes> entry :
+        DirectoryListing.list(
+                getPathForRelativePath(pathToUse), input -> !isIgnored(relativize(input)))
+            .entrySet()) {
+      builder.put(MorePaths.relativize(projectRoot, entry.getKey()), entry.getValue());
+    }
+    return builder.build();
+  }
+
   /** @return returns sorted absolute paths of everything under the given directory */
   DirectoryStream<Path> getDirectoryContentsStream(Path absolutePath) throws IOException {
     return Files.newDirectoryStream(absolutePath);
@@ -1109,9 +1126,25 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       this.ignoreFilter = ignoreFilter;
     }
 
-    private ImmutableList<Path> getContents(Path root) throws IOException {
-      try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, ignoreFilter)) {
-        return FluentIterable.from(stream).toSortedList(Comparator.naturalOrder());
+    /**
+     * Lists the entries of a directory along with their attributes in a single pass, falling back
+     * to listing their paths only (and reading attributes as each entry is visited) if that fails,
+     * so that entries whose attributes cannot be read are still reported to the visitor.
+     */
+    private ImmutableSortedMap<Path, Optional<BasicFileAttributes>> getContents(Path root)
+        throws IOException {
+      try {
+        return ImmutableSortedMap.copyOf(
+            Maps.transformValues(DirectoryListing.list(root, ignoreFilter), Optional::of));
+      } catch (IOException e) {
+        ImmutableSortedMap.Builder<Path, Optional<BasicFileAttributes>> builder =
+            ImmutableSortedMap.naturalOrder();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, ignoreFilter)) {
+          for (Path path : stream) {
+            builder.put(path, Optional.empty());
+          }
+        }
+        return builder.build();
       }
     }
 
@@ -1119,19 +1152,20 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       final Path dir;
       final BasicFileAttributes attrs;
       final boolean isRootSentinel;
-      UnmodifiableIterator<Path> iter;
+      Iterator<Map.Entry<Path, Optional<BasicFileAttributes>>> iter;
       @Nullable IOException ioe = null;
 
       DirWalkState(Path directory, BasicFileAttributes attributes, boolean isRootSentinel) {
         this.dir = directory;
         this.attrs = attributes;
         if (isRootSentinel) {
-          this.iter = ImmutableList.of(root).iterator();
+          this.iter =
+              ImmutableMap.of(root, Optional.<BasicFileAttributes>empty()).entrySet().iterator();
         } else {
           try {
-            this.iter = getContents(directory).iterator();
+            this.iter = getContents(directory).entrySet().iterator();
           } catch (IOException e) {
-            this.iter = ImmutableList.<Path>of().iterator();
+            this.iter = Collections.emptyIterator();
             this.ioe = e;
           }
         }
@@ -1145,7 +1179,8 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       while (true) {
         FileVisitResult result;
         if (state.getLast().iter.hasNext()) {
-          result = visitPath(state.getLast().iter.next());
+          Map.Entry<Path, Optional<BasicFileAttributes>> entry = state.getLast().iter.next();
+          result = visitPath(entry.getKey(), entry.getValue());
         } else {
           DirWalkState dirState = state.removeLast();
           if (dirState.isRootSentinel) {
@@ -1155,17 +1190,18 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
         }
         Objects.requireNonNull(result, "FileVisitor returned a null FileVisitResult.");
         if (result == FileVisitResult.SKIP_SIBLINGS) {
-          state.getLast().iter = ImmutableList.<Path>of().iterator();
+          state.getLast().iter = Collections.emptyIterator();
         } else if (result == FileVisitResult.TERMINATE) {
           return;
         }
       }
     }
 
-    private FileVisitResult visitPath(Path p) throws IOException {
+    private FileVisitResult visitPath(Path p, Optional<BasicFileAttributes> listedAttrs)
+        throws IOException {
       BasicFileAttributes attrs;
       try {
-        attrs = getAttributes(p);
+        attrs = getAttributes(p, listedAttrs);
         ensureNoLoops(p, attrs);
       } catch (IOException ioe) {
         return visitor.visitFileFailed(p, ioe);
@@ -1216,6 +1252,21 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       return false;
     }
 
+    /**
+     * Uses the attributes read when listing the parent directory where possible. These were read
+     * without following symlinks, and their file keys may not be comparable to those of attributes
+     * read through java.nio, so directories and symlinks are read again when following links.
+     */
+    private BasicFileAttributes getAttributes(Path p, Optional<BasicFileAttributes> listedAttrs)
+        throws IOException {
+      if (listedAttrs.isPresent()
+          && (!followLinks
+              || !(listedAttrs.get().isDirectory() || listedAttrs.get().isSymbolicLink()))) {
+        return listedAttrs.get();
+      }
+      return getAttributes(p);
+    }
+
     private BasicFileAttributes getAttributes(Path root) throws IOException {
       if (!followLinks) {
         return Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
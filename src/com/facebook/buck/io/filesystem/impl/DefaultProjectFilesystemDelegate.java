@@ -20,13 +20,18 @@ import com.facebook.buck.io.filesystem.ProjectFilesystemDelegate;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Default implementation of {@link ProjectFilesystemDelegate} that talks to the filesystem via
@@ -34,6 +39,16 @@ import java.nio.file.Path;
  */
 public final class DefaultProjectFilesystemDelegate implements ProjectFilesystemDelegate {
 
+  private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Direct buffers are read into without the copy through a temporary buffer that heap buffers
+   * need, but are expensive to allocate and are only freed by the garbage collector, so each
+   * hashing thread keeps reusing one.
+   */
+  private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
+
   private final Path root;
 
   public DefaultProjectFilesystemDelegate(Path root) {
@@ -49,19 +64,25 @@ public final class DefaultProjectFilesystemDelegate implements ProjectFilesystem
   public Sha1HashCode computeSha1(Path pathRelativeToProjectRootOrJustAbsolute) throws IOException {
     Path fileToHash = getPathForRelativePath(pathRelativeToProjectRootOrJustAbsolute);
     try {
-      // Normally, we would just use `Files.hash(fileToHash.toFile(), Hashing.sha1())`, but if
-      // fileToHash is backed by Jimfs, its toFile() method throws an UnsupportedOperationException.
-      // Creating the input stream via java.nio.file.Files.newInputStream() avoids this issue.
-      ByteSource source =
-          new ByteSource() {
-            @Override
-            public InputStream openStream() throws IOException {
-              // No need to wrap with BufferedInputStream because ByteSource uses
-              // ByteStreams.copy(), which already buffers.
-              return Files.newInputStream(fileToHash);
-            }
-          };
-      HashCode hashCode = source.hash(Hashing.sha1());
+      HashCode hashCode;
+      if (fileToHash.getFileSystem().equals(FileSystems.getDefault())) {
+        hashCode = hashWithFileChannel(fileToHash);
+      } else {
+        // Normally, we would just use `Files.hash(fileToHash.toFile(), Hashing.sha1())`, but if
+        // fileToHash is backed by Jimfs, its toFile() method throws an
+        // UnsupportedOperationException. Creating the input stream via
+        // java.nio.file.Files.newInputStream() avoids this issue.
+        ByteSource source =
+            new ByteSource() {
+              @Override
+              public InputStream openStream() throws IOException {
+                // No need to wrap with BufferedInputStream because ByteSource uses
+                // ByteStreams.copy(), which already buffers.
+                return Files.newInputStream(fileToHash);
+              }
+            };
+        hashCode = source.hash(Hashing.sha1());
+      }
 
       return Sha1HashCode.fromHashCode(hashCode);
 
@@ -73,6 +94,24 @@ public final class DefaultProjectFilesystemDelegate implements ProjectFilesystem
     }
   }
 
+  /** Streams the file through the direct buffer of the current thread. */
+  private static HashCode hashWithFileChannel(Path fileToHash) throws IOException {
+    try (FileChannel channel = FileChannel.open(fileToHash, StandardOpenOption.READ)) {
+      ByteBuffer buffer = HASH_BUFFER.get();
+      buffer.clear();
+      Hasher hasher = Hashing.sha1().newHasher();
+      while (channel.read(buffer) != -1) {
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          hasher.putBytes(buffer);
+          buffer.clear();
+        }
+      }
+      buffer.flip();
+      return hasher.putBytes(buffer).hash();
+    }
+  }
+
   @Override
   public Path getPathForRelativePath(Path pathRelativeToProjectRoot) {
     // We often create {@link Path} instances using
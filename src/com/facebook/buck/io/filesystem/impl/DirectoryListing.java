@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.filesystem.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Lists directories along with the attributes of their entries in a single pass.
+ *
+ * <p>On Linux, this goes through {@link LinuxDirectoryLister}, unless {@code
+ * -Dbuck.DirectoryListing.disable_native=true} is set. Elsewhere, and for directories which are not
+ * on the default file system, it falls back to a {@link DirectoryStream} and one {@link
+ * Files#readAttributes} per entry.
+ */
+class DirectoryListing {
+
+  private static final boolean DISABLE_NATIVE =
+      Boolean.getBoolean("buck.DirectoryListing.disable_native");
+
+  private DirectoryListing() {}
+
+  /**
+   * @return the absolute paths of the entries of {@code directory} accepted by {@code filter},
+   *     mapped to their attributes. Symlinks are not followed. Entries which disappear while the
+   *     directory is listed are skipped.
+   */
+  static ImmutableSortedMap<Path, BasicFileAttributes> list(
+      Path directory, DirectoryStream.Filter<? super Path> filter) throws IOException {
+    if (!DISABLE_NATIVE
+        && directory.getFileSystem() == FileSystems.getDefault()
+        && LinuxDirectoryLister.isAvailable()) {
+      ImmutableSortedMap.Builder<Path, BasicFileAttributes> builder =
+          ImmutableSortedMap.naturalOrder();
+      IOException[] filterException = new IOException[1];
+      boolean listed =
+          LinuxDirectoryLister.list(
+              directory,
+              (name, attributes) -> {
+                Path path = directory.resolve(name);
+                try {
+                  if (filter.accept(path)) {
+                    builder.put(path, attributes);
+                  }
+                } catch (IOException e) {
+                  filterException[0] = e;
+                }
+              });
+      if (filterException[0] != null) {
+        throw filterException[0];
+      }
+      if (listed) {
+        return builder.build();
+      }
+    }
+    return listWithJava(directory, filter);
+  }
+
+  static ImmutableSortedMap<Path, BasicFileAttributes> listWithJava(
+      Path directory, DirectoryStream.Filter<? super Path> filter) throws IOException {
+    ImmutableSortedMap.Builder<Path, BasicFileAttributes> builder =
+        ImmutableSortedMap.naturalOrder();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, filter)) {
+      for (Path path : stream) {
+        try {
+          builder.put(
+              path,
+              Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (NoSuchFileException e) {
+          // deleted since it was listed
+        }
+      }
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.filesystem.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Lists a directory along with the attributes of its entries through {@code getdents64} and {@code
+ * statx}.
+ *
+ * <p>The directory is opened once, its entries are read in large batches, and each entry is stat'ed
+ * relative to the directory file descriptor, so the kernel resolves a single path component per
+ * entry rather than the whole absolute path, and no {@link Path} is built for entries the caller
+ * ends up filtering out.
+ */
+final class LinuxDirectoryLister {
+
+  private static final Logger LOG = Logger.get(LinuxDirectoryLister.class);
+
+  private static final int O_RDONLY = 0;
+  private static final int O_CLOEXEC = 02000000;
+  private static final int AT_SYMLINK_NOFOLLOW = 0x100;
+  private static final int STATX_BASIC_STATS = 0x7ff;
+
+  private static final int ENOENT = 2;
+  private static final int EACCES = 13;
+  private static final int ENOTDIR = 20;
+
+  private static final int S_IFMT = 0170000;
+  private static final int S_IFDIR = 0040000;
+  private static final int S_IFREG = 0100000;
+  private static final int S_IFLNK = 0120000;
+
+  private static final int DIRENTS_BUFFER_SIZE = 64 * 1024;
+  private static final int STATX_BUFFER_SIZE = 256;
+  /** Offset of the end of the last field of {@code struct statx} which is read. */
+  private static final int STATX_READ_SIZE = 144;
+
+  private static final Charset FILE_NAME_CHARSET =
+      Charset.forName(System.getProperty("sun.jnu.encoding", Charset.defaultCharset().name()));
+
+  private static final long GETDENTS64_SYSCALL = getGetdents64SyscallNumber();
+
+  private static final boolean AVAILABLE = register();
+
+  private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+  private LinuxDirectoryLister() {}
+
+  private static native int open(String path, int flags) throws LastErrorException;
+
+  private static native int close(int fd);
+
+  private static native long syscall(long number, int fd, Pointer dirents, long count)
+      throws LastErrorException;
+
+  private static native int statx(int dirfd, byte[] path, int flags, int mask, Pointer statxbuf)
+      throws LastErrorException;
+
+  private static long getGetdents64SyscallNumber() {
+    switch (System.getProperty("os.arch", "")) {
+      case "amd64":
+      case "x86_64":
+        return 217;
+      case "aarch64":
+        return 61;
+      default:
+        return -1;
+    }
+  }
+
+  private static boolean register() {
+    if (!Platform.isLinux() || GETDENTS64_SYSCALL < 0) {
+      return false;
+    }
+    try {
+      Native.register(LinuxDirectoryLister.class, Platform.C_LIBRARY_NAME);
+      return true;
+    } catch (LinkageError e) {
+      // statx is only available from glibc 2.28 on
+      LOG.debug(e, "Native directory listing is not available");
+      return false;
+    }
+  }
+
+  /** @return whether directories can be listed natively on this machine. */
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Passes the name and attributes of each entry of {@code directory}, except {@code .} and {@code
+   * ..}, to {@code consumer}. Attributes are those of symlinks themselves rather than of their
+   * targets. Entries which disappear while the directory is listed are skipped.
+   *
+   * @return false if the directory holds names which cannot be decoded, in which case it should be
+   *     listed through java.nio instead.
+   */
+  static boolean list(Path directory, BiConsumer<String, BasicFileAttributes> consumer)
+      throws IOException {
+    Buffers buffers = BUFFERS.get();
+    int fd;
+    try {
+      fd = open(directory.toString(), O_RDONLY | O_CLOEXEC);
+    } catch (LastErrorException e) {
+      throw toIOException(directory, e);
+    }
+    try {
+      while (true) {
+        long read;
+        try {
+          read = syscall(GETDENTS64_SYSCALL, fd, buffers.dirents, DIRENTS_BUFFER_SIZE);
+        } catch (LastErrorException e) {
+          throw toIOException(directory, e);
+        }
+        if (read == 0) {
+          return true;
+        }
+        buffers.dirents.read(0, buffers.direntBytes, 0, (int) read);
+        if (!listDirents(directory, fd, (int) read, buffers, consumer)) {
+          return false;
+        }
+      }
+    } finally {
+      close(fd);
+    }
+  }
+
+  /** Parses a batch of {@code struct linux_dirent64} records. */
+  private static boolean listDirents(
+      Path directory,
+      int fd,
+      int length,
+      Buffers buffers,
+      BiConsumer<String, BasicFileAttributes> consumer)
+      throws IOException {
+    byte[] dirents = buffers.direntBytes;
+    ByteBuffer direntsBuffer = ByteBuffer.wrap(dirents).order(ByteOrder.nativeOrder());
+    for (int offset = 0; offset < length; ) {
+      int recordLength = direntsBuffer.getShort(offset + 16) & 0xffff;
+      int nameStart = offset + 19;
+      int nameEnd = nameStart;
+      while (dirents[nameEnd] != 0) {
+        nameEnd++;
+      }
+      offset += recordLength;
+
+      int nameLength = nameEnd - nameStart;
+      if (dirents[nameStart] == '.'
+          && (nameLength == 1 || (nameLength == 2 && dirents[nameStart + 1] == '.'))) {
+        continue;
+      }
+      byte[] name = Arrays.copyOfRange(dirents, nameStart, nameEnd + 1);
+      String decodedName = new String(name, 0, nameLength, FILE_NAME_CHARSET);
+      if (!Arrays.equals(
+          decodedName.getBytes(FILE_NAME_CHARSET), Arrays.copyOf(name, nameLength))) {
+        return false;
+      }
+
+      try {
+        statx(fd, name, AT_SYMLINK_NOFOLLOW, STATX_BASIC_STATS, buffers.statx);
+      } catch (LastErrorException e) {
+        if (e.getErrorCode() == ENOENT) {
+          continue;
+        }
+        throw toIOException(directory.resolve(decodedName), e);
+      }
+      buffers.statx.read(0, buffers.statxBytes, 0, STATX_READ_SIZE);
+      consumer.accept(decodedName, new StatxAttributes(buffers.statxBytes));
+    }
+    return true;
+  }
+
+  private static IOException toIOException(Path path, LastErrorException e) {
+    switch (e.getErrorCode()) {
+      case ENOENT:
+        return new NoSuchFileException(path.toString());
+      case ENOTDIR:
+        return new NotDirectoryException(path.toString());
+      case EACCES:
+        return new AccessDeniedException(path.toString());
+      default:
+        return new IOException(String.format("Failed to list %s", path), e);
+    }
+  }
+
+  private static class Buffers {
+    private final Memory dirents = new Memory(DIRENTS_BUFFER_SIZE);
+    private final byte[] direntBytes = new byte[DIRENTS_BUFFER_SIZE];
+    private final Memory statx = new Memory(STATX_BUFFER_SIZE);
+    private final byte[] statxBytes = new byte[STATX_READ_SIZE];
+  }
+
+  /** The fields of a {@code struct statx} which make up {@link BasicFileAttributes}. */
+  private static class StatxAttributes implements BasicFileAttributes {
+    private final int mode;
+    private final long size;
+    private final FileTime lastAccessTime;
+    private final FileTime lastModifiedTime;
+    private final FileKey fileKey;
+
+    StatxAttributes(byte[] statx) {
+      ByteBuffer buffer = ByteBuffer.wrap(statx).order(ByteOrder.nativeOrder());
+      this.mode = buffer.getShort(28) & 0xffff;
+      this.size = buffer.getLong(40);
+      this.lastAccessTime = toFileTime(buffer, 64);
+      this.lastModifiedTime = toFileTime(buffer, 112);
+      this.fileKey =
+          new FileKey(
+              makeDevice(buffer.getInt(136) & 0xffffffffL, buffer.getInt(140) & 0xffffffffL),
+              buffer.getLong(32));
+    }
+
+    private static FileTime toFileTime(ByteBuffer buffer, int offset) {
+      long seconds = buffer.getLong(offset);
+      long nanos = buffer.getInt(offset + 8) & 0xffffffffL;
+      // same precision as java.nio on Java 8, so that times read either way compare equal
+      if (nanos == 0) {
+        return FileTime.from(seconds, TimeUnit.SECONDS);
+      }
+      return FileTime.from(
+          TimeUnit.SECONDS.toMicros(seconds) + TimeUnit.NANOSECONDS.toMicros(nanos),
+          TimeUnit.MICROSECONDS);
+    }
+
+    /** Same as glibc's {@code makedev}. */
+    private static long makeDevice(long major, long minor) {
+      return ((major & 0x00000fffL) << 8)
+          | ((major & 0xfffff000L) << 32)
+          | (minor & 0x000000ffL)
+          | ((minor & 0xffffff00L) << 12);
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+      return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+      return lastAccessTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+      // like java.nio on Linux
+      return lastModifiedTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+      return (mode & S_IFMT) == S_IFREG;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return (mode & S_IFMT) == S_IFDIR;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return (mode & S_IFMT) == S_IFLNK;
+    }
+
+    @Override
+    public boolean isOther() {
+      return !isRegularFile() && !isDirectory() && !isSymbolicLink();
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public Object fileKey() {
+      return fileKey;
+    }
+  }
+
+  /** Identifies a file like the file key java.nio uses on Unix, and renders the same way. */
+  private static class FileKey {
+    private final long device;
+    private final long inode;
+
+    private FileKey(long device, long inode) {
+      this.device = device;
+      this.inode = inode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof FileKey)) {
+        return false;
+      }
+      FileKey that = (FileKey) other;
+      return device == that.device && inode == that.inode;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(device, inode);
+    }
+
+    @Override
+    public String toString() {
+      return "(dev=" + Long.toHexString(device) + ",ino=" + inode + ')';
+    }
+  }
+}
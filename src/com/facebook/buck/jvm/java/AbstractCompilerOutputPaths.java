@@ -94,6 +94,13 @@ abstract class AbstractCompilerOutputPaths {
     return CompilerOutputPaths.of(target, filesystem).getOutputJarPath().get();
   }
 
+  /** @return where the library writes its class ABI jar, next to the library jar. */
+  public static Path getClassAbiJarPath(BuildTarget target, ProjectFilesystem filesystem) {
+    Preconditions.checkArgument(isLibraryJar(target));
+    return getOutputJarDirPath(target, filesystem)
+        .resolve(String.format("%s-class-abi.jar", target.getShortName()));
+  }
+
   private static boolean isLibraryJar(BuildTarget target) {
     return JavaAbis.isLibraryTarget(target);
   }
@@ -17,6 +17,7 @@
 package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -55,6 +56,17 @@ abstract class AbstractJarParameters {
 
   public abstract Optional<Path> getManifestFile();
 
+  /**
+   * Where to also write the class ABI of the jar, when it is written from classes held in memory.
+   * Other ways of writing the jar ignore this, and leave the ABI to be calculated from the jar.
+   */
+  public abstract Optional<Path> getClassAbiJarPath();
+
+  @Value.Default
+  public AbiGenerationMode getAbiCompatibilityMode() {
+    return AbiGenerationMode.CLASS;
+  }
+
   @Value.Default
   public Level getDuplicatesLogLevel() {
     return Level.INFO;
@@ -21,11 +21,14 @@ import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.worker.CompilerWorkers;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableMap;
 import java.io.PrintStream;
+import java.util.concurrent.ConcurrentMap;
 import org.immutables.value.Value;
 
 @Value.Immutable
@@ -50,4 +53,10 @@ abstract class AbstractJavacExecutionContext {
   public abstract ImmutableMap<String, String> getEnvironment();
 
   public abstract ProcessExecutor getProcessExecutor();
+
+  /** The pools in which compiler workers are kept, see {@link CompilerWorkers}. */
+  public abstract ConcurrentMap<String, WorkerProcessPool> getWorkerProcessPools();
+
+  /** Whether jars are written with their entries compressed on other threads. */
+  public abstract boolean isParallelJarCompressionEnabled();
 }
@@ -131,6 +131,16 @@ abstract class AbstractJavacOptions implements AddsToRuleKey {
     return false;
   }
 
+  /**
+   * Whether libraries only recompile the sources affected by a change, see {@link
+   * IncrementalJavacStep}. This does not change what is built, so it is not part of the rule key.
+   */
+  @Value.Default
+  @CustomFieldBehavior(DefaultFieldSerialization.class)
+  public boolean isIncrementalCompilation() {
+    return false;
+  }
+
   public void validateOptions(Function<String, Boolean> classpathChecker) throws IOException {
     if (getBootclasspath().isPresent()) {
       String bootclasspath = getBootclasspath().get();
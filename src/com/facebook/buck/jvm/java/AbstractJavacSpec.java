@@ -31,6 +31,18 @@ abstract class AbstractJavacSpec {
 
   protected abstract Optional<String> getCompilerClassName();
 
+  /** Whether the JDK's javac should run in persistent worker processes rather than in Buck's. */
+  @Value.Default
+  protected boolean isCompileInWorkers() {
+    return false;
+  }
+
+  /** How many worker processes may compile at the same time. */
+  @Value.Default
+  protected int getMaxCompilerWorkers() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
   @Value.Lazy
   public JavacProvider getJavacProvider() {
     return ExternalJavacProvider.getProviderForSpec((JavacSpec) this);
@@ -45,6 +57,8 @@ abstract class AbstractJavacSpec {
       return Javac.Source.EXTERNAL;
     } else if (getJavacJarPath().isPresent()) {
       return Javac.Source.JAR;
+    } else if (isCompileInWorkers()) {
+      return Javac.Source.WORKER;
     } else {
       return Javac.Source.JDK;
     }
@@ -36,6 +36,7 @@ import com.facebook.buck.rules.modern.OutputPathResolver;
 import com.facebook.buck.step.Step;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.util.Optional;
 
 /** Calculates Class ABI. */
 public class CalculateClassAbi extends ModernBuildRule<CalculateClassAbi.Impl>
@@ -49,6 +50,7 @@ public class CalculateClassAbi extends ModernBuildRule<CalculateClassAbi.Impl>
       ProjectFilesystem projectFilesystem,
       SourcePathRuleFinder ruleFinder,
       SourcePath binaryJar,
+      Optional<SourcePath> libraryClassAbiJar,
       AbiGenerationMode compatibilityMode) {
     super(
         buildTarget,
@@ -56,6 +58,7 @@ public class CalculateClassAbi extends ModernBuildRule<CalculateClassAbi.Impl>
         ruleFinder,
         new Impl(
             binaryJar,
+            libraryClassAbiJar,
             compatibilityMode,
             projectFilesystem,
             String.format("%s-abi.jar", buildTarget.getShortName())));
@@ -77,13 +80,29 @@ public class CalculateClassAbi extends ModernBuildRule<CalculateClassAbi.Impl>
       ProjectFilesystem projectFilesystem,
       SourcePath library,
       AbiGenerationMode compatibilityMode) {
-    return new CalculateClassAbi(target, projectFilesystem, ruleFinder, library, compatibilityMode);
+    return of(target, ruleFinder, projectFilesystem, library, Optional.empty(), compatibilityMode);
+  }
+
+  /**
+   * @param libraryClassAbiJar the class ABI jar that the library wrote along with its jar, which
+   *     is copied instead of calculating the ABI again
+   */
+  public static CalculateClassAbi of(
+      BuildTarget target,
+      SourcePathRuleFinder ruleFinder,
+      ProjectFilesystem projectFilesystem,
+      SourcePath library,
+      Optional<SourcePath> libraryClassAbiJar,
+      AbiGenerationMode compatibilityMode) {
+    return new CalculateClassAbi(
+        target, projectFilesystem, ruleFinder, library, libraryClassAbiJar, compatibilityMode);
   }
 
   /** CalculateClassAbi's buildable implementation required by MBR */
   static class Impl implements Buildable {
 
     @AddToRuleKey private final SourcePath binaryJar;
+    @AddToRuleKey private final Optional<SourcePath> libraryClassAbiJar;
     /**
      * Controls whether we strip out things that are intentionally not included in other forms of
      * ABI generation, so that we can still detect bugs by binary comparison.
@@ -94,10 +113,12 @@ public class CalculateClassAbi extends ModernBuildRule<CalculateClassAbi.Impl>
 
     Impl(
         SourcePath binaryJar,
+        Optional<SourcePath> libraryClassAbiJar,
         AbiGenerationMode compatibilityMode,
         ProjectFilesystem projectFilesystem,
         String outputFileName) {
       this.binaryJar = binaryJar;
+      this.libraryClassAbiJar = libraryClassAbiJar;
       this.compatibilityMode = compatibilityMode;
       this.output = new OutputPath(projectFilesystem.getPath(outputFileName));
     }
@@ -108,10 +129,12 @@ public class CalculateClassAbi extends ModernBuildRule<CalculateClassAbi.Impl>
         ProjectFilesystem filesystem,
         OutputPathResolver outputPathResolver,
         BuildCellRelativePathFactory buildCellPathFactory) {
+      SourcePathResolver resolver = buildContext.getSourcePathResolver();
       return ImmutableList.of(
           new CalculateClassAbiStep(
               filesystem,
-              buildContext.getSourcePathResolver().getAbsolutePath(binaryJar),
+              resolver.getAbsolutePath(binaryJar),
+              libraryClassAbiJar.map(resolver::getAbsolutePath),
               outputPathResolver.resolvePath(output),
               compatibilityMode));
     }
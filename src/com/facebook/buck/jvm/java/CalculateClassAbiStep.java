@@ -25,11 +25,13 @@ import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class CalculateClassAbiStep implements Step {
 
   private final ProjectFilesystem filesystem;
   private final Path binaryJar;
+  private final Optional<Path> libraryClassAbiJar;
   private final Path abiJar;
   private final AbiGenerationMode compatibilityMode;
 
@@ -38,14 +40,32 @@ public class CalculateClassAbiStep implements Step {
       Path binaryJar,
       Path abiJar,
       AbiGenerationMode compatibilityMode) {
+    this(filesystem, binaryJar, Optional.empty(), abiJar, compatibilityMode);
+  }
+
+  public CalculateClassAbiStep(
+      ProjectFilesystem filesystem,
+      Path binaryJar,
+      Optional<Path> libraryClassAbiJar,
+      Path abiJar,
+      AbiGenerationMode compatibilityMode) {
     this.filesystem = filesystem;
     this.binaryJar = binaryJar;
+    this.libraryClassAbiJar = libraryClassAbiJar;
     this.abiJar = abiJar;
     this.compatibilityMode = compatibilityMode;
   }
 
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    // The library already wrote the same ABI jar, usually without reading its own jar back. A
+    // library fetched from a cache that did not store it only has its jar, though.
+    if (libraryClassAbiJar.isPresent() && filesystem.exists(libraryClassAbiJar.get())) {
+      filesystem.createParentDirs(abiJar);
+      filesystem.copyFile(libraryClassAbiJar.get(), abiJar);
+      return StepExecutionResults.SUCCESS;
+    }
+
     try {
       Path binJar = filesystem.resolve(binaryJar);
       new StubJar(binJar).setCompatibilityMode(compatibilityMode).writeTo(filesystem, abiJar);
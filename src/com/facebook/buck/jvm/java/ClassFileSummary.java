@@ -0,0 +1,360 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+/**
+ * What incremental compilation needs to know about a class file: the classes it refers to, and
+ * fingerprints of its ABI and of its compile-time constants.
+ *
+ * <p>The referenced classes are the classes named in the constant pool, in descriptors, in generic
+ * signatures and in annotations. That is every class whose change can affect the compilation of
+ * this one, except for the classes whose compile-time constants javac inlined. That is why
+ * constants are fingerprinted separately.
+ */
+final class ClassFileSummary {
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+
+  private final String name;
+  @Nullable private final String sourceFile;
+  private final ImmutableList<String> supertypes;
+  private final ImmutableSortedSet<String> referencedClasses;
+  private final String abiHash;
+  private final String constantsHash;
+
+  private ClassFileSummary(
+      String name,
+      @Nullable String sourceFile,
+      ImmutableList<String> supertypes,
+      ImmutableSortedSet<String> referencedClasses,
+      String abiHash,
+      String constantsHash) {
+    this.name = name;
+    this.sourceFile = sourceFile;
+    this.supertypes = supertypes;
+    this.referencedClasses = referencedClasses;
+    this.abiHash = abiHash;
+    this.constantsHash = constantsHash;
+  }
+
+  static ClassFileSummary read(byte[] classFile) {
+    ClassReader reader = new ClassReader(classFile);
+    SummaryVisitor visitor = new SummaryVisitor();
+    reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+
+    Set<String> referencedClasses = visitor.referencedClasses;
+    char[] buffer = new char[reader.getMaxStringLength()];
+    for (int i = 1; i < reader.getItemCount(); i++) {
+      int offset = reader.getItem(i);
+      if (offset == 0) {
+        // The second slot of a long or double constant.
+        continue;
+      }
+      switch (classFile[offset - 1]) {
+        case CONSTANT_CLASS:
+          addReferencedClass(reader.readUTF8(offset, buffer), referencedClasses);
+          break;
+        case CONSTANT_NAME_AND_TYPE:
+          addDescriptorClasses(reader.readUTF8(offset + 2, buffer), referencedClasses);
+          break;
+        case CONSTANT_METHOD_TYPE:
+          addDescriptorClasses(reader.readUTF8(offset, buffer), referencedClasses);
+          break;
+        default:
+          break;
+      }
+    }
+    referencedClasses.remove(reader.getClassName());
+
+    return new ClassFileSummary(
+        reader.getClassName(),
+        visitor.sourceFile,
+        visitor.supertypes.build(),
+        ImmutableSortedSet.copyOf(referencedClasses),
+        visitor.abiHasher.hash().toString(),
+        visitor.constantsHasher.hash().toString());
+  }
+
+  /** @return the internal name of the class. */
+  String getName() {
+    return name;
+  }
+
+  /** @return the name of the source file the class was compiled from, without its directory. */
+  @Nullable
+  String getSourceFile() {
+    return sourceFile;
+  }
+
+  /** @return the internal names of the superclass and the interfaces of the class. */
+  ImmutableList<String> getSupertypes() {
+    return supertypes;
+  }
+
+  /** @return the internal names of the classes this class refers to. */
+  ImmutableSortedSet<String> getReferencedClasses() {
+    return referencedClasses;
+  }
+
+  String getAbiHash() {
+    return abiHash;
+  }
+
+  String getConstantsHash() {
+    return constantsHash;
+  }
+
+  private static void addReferencedClass(String name, Set<String> result) {
+    if (name.startsWith("[")) {
+      addDescriptorClasses(name, result);
+    } else {
+      result.add(name);
+    }
+  }
+
+  private static void addDescriptorClasses(String descriptor, Set<String> result) {
+    addDescriptorClasses(
+        descriptor.startsWith("(") ? Type.getMethodType(descriptor) : Type.getType(descriptor),
+        result);
+  }
+
+  private static void addSignatureClasses(@Nullable String signature, Set<String> result) {
+    if (signature == null) {
+      return;
+    }
+    new SignatureReader(signature)
+        .accept(
+            new SignatureVisitor(Opcodes.ASM7) {
+              @Override
+              public void visitClassType(String name) {
+                result.add(name);
+              }
+            });
+  }
+
+  private static void addDescriptorClasses(Type type, Set<String> result) {
+    switch (type.getSort()) {
+      case Type.ARRAY:
+        addDescriptorClasses(type.getElementType(), result);
+        break;
+      case Type.OBJECT:
+        result.add(type.getInternalName());
+        break;
+      case Type.METHOD:
+        addDescriptorClasses(type.getReturnType(), result);
+        for (Type argument : type.getArgumentTypes()) {
+          addDescriptorClasses(argument, result);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Hashes everything a dependent compile can see: the class, and its non-private members and
+   * annotations. Method bodies are skipped.
+   */
+  private static class SummaryVisitor extends ClassVisitor {
+    private final Hasher abiHasher = Hashing.sha1().newHasher();
+    private final Hasher constantsHasher = Hashing.sha1().newHasher();
+    private final Set<String> referencedClasses = new TreeSet<>();
+    private final ImmutableList.Builder<String> supertypes = ImmutableList.builder();
+    @Nullable private String sourceFile;
+
+    SummaryVisitor() {
+      super(Opcodes.ASM7);
+    }
+
+    @Override
+    public void visit(
+        int version,
+        int access,
+        String name,
+        @Nullable String signature,
+        @Nullable String superName,
+        @Nullable String[] interfaces) {
+      addSignatureClasses(signature, referencedClasses);
+      putInt(access).putString(name).putString(signature).putString(superName);
+      if (superName != null) {
+        supertypes.add(superName);
+      }
+      if (interfaces != null) {
+        putString(Arrays.toString(interfaces));
+        supertypes.add(interfaces);
+      }
+    }
+
+    @Override
+    public void visitSource(@Nullable String source, @Nullable String debug) {
+      sourceFile = source;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      return visitAnnotation(descriptor);
+    }
+
+    @Override
+    public void visitInnerClass(
+        String name, @Nullable String outerName, @Nullable String innerName, int access) {
+      putString("inner").putString(name).putString(outerName).putString(innerName).putInt(access);
+    }
+
+    @Override
+    @Nullable
+    public FieldVisitor visitField(
+        int access,
+        String name,
+        String descriptor,
+        @Nullable String signature,
+        @Nullable Object value) {
+      addDescriptorClasses(descriptor, referencedClasses);
+      addSignatureClasses(signature, referencedClasses);
+      if ((access & Opcodes.ACC_PRIVATE) != 0) {
+        return null;
+      }
+      putString("field").putInt(access).putString(name).putString(descriptor);
+      putString(signature).putString(String.valueOf(value));
+      if (value != null) {
+        constantsHasher.putUnencodedChars(name).putUnencodedChars(String.valueOf(value));
+      }
+      return new FieldVisitor(Opcodes.ASM7) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+          return SummaryVisitor.this.visitAnnotation(descriptor);
+        }
+      };
+    }
+
+    @Override
+    @Nullable
+    public MethodVisitor visitMethod(
+        int access,
+        String name,
+        String descriptor,
+        @Nullable String signature,
+        @Nullable String[] exceptions) {
+      addDescriptorClasses(descriptor, referencedClasses);
+      addSignatureClasses(signature, referencedClasses);
+      if ((access & Opcodes.ACC_PRIVATE) != 0) {
+        return null;
+      }
+      putString("method").putInt(access).putString(name).putString(descriptor);
+      putString(signature);
+      if (exceptions != null) {
+        putString(Arrays.toString(exceptions));
+      }
+      return new MethodVisitor(Opcodes.ASM7) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+          return SummaryVisitor.this.visitAnnotation(descriptor);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(
+            int parameter, String descriptor, boolean visible) {
+          putInt(parameter);
+          return SummaryVisitor.this.visitAnnotation(descriptor);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+          putString("default");
+          return new HashingAnnotationVisitor();
+        }
+      };
+    }
+
+    private AnnotationVisitor visitAnnotation(String descriptor) {
+      addDescriptorClasses(descriptor, referencedClasses);
+      putString("annotation").putString(descriptor);
+      return new HashingAnnotationVisitor();
+    }
+
+    private SummaryVisitor putString(@Nullable String value) {
+      abiHasher.putInt(value == null ? -1 : value.length());
+      if (value != null) {
+        abiHasher.putUnencodedChars(value);
+      }
+      return this;
+    }
+
+    private SummaryVisitor putInt(int value) {
+      abiHasher.putInt(value);
+      return this;
+    }
+
+    /** Hashes annotation values, which annotation processors and some checks can depend on. */
+    private class HashingAnnotationVisitor extends AnnotationVisitor {
+      HashingAnnotationVisitor() {
+        super(Opcodes.ASM7);
+      }
+
+      @Override
+      public void visit(@Nullable String name, Object value) {
+        if (value instanceof Type) {
+          addDescriptorClasses((Type) value, referencedClasses);
+        }
+        putString(name).putString(Arrays.deepToString(new Object[] {value}));
+      }
+
+      @Override
+      public void visitEnum(@Nullable String name, String descriptor, String value) {
+        addDescriptorClasses(descriptor, referencedClasses);
+        putString(name).putString(descriptor).putString(value);
+      }
+
+      @Override
+      public AnnotationVisitor visitAnnotation(@Nullable String name, String descriptor) {
+        addDescriptorClasses(descriptor, referencedClasses);
+        putString(name).putString(descriptor);
+        return this;
+      }
+
+      @Override
+      public AnnotationVisitor visitArray(@Nullable String name) {
+        putString(name).putString("[");
+        return this;
+      }
+
+      @Override
+      public void visitEnd() {
+        putString("end");
+      }
+    }
+  }
+}
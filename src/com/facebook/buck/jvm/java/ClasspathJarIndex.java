@@ -0,0 +1,525 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+
+/**
+ * An index of the entries of a jar on the compiler's classpath, by package. Indexes are shared by
+ * all the in-process javac invocations run by this process, so that a jar used by many compiles is
+ * only indexed once rather than by the file manager of each compile.
+ *
+ * <p>The index is built from the jar's central directory, which is memory mapped while it is read.
+ * Entry contents are read with positional reads from a channel which is open while the index is
+ * acquired by at least one compile. Indexes which are no longer acquired are retained, least
+ * recently used first, so that the next build does not need to index its classpath again.
+ *
+ * <p>An index is only reused while the jar's central directory is unchanged. It is hashed on every
+ * acquisition, which only reads the end of the jar, and catches the jars which were rewritten with
+ * the same size and modification time. As the central directory holds the CRC of each entry, an
+ * unchanged central directory means unchanged contents.
+ */
+final class ClasspathJarIndex {
+  private static final Logger LOG = Logger.get(ClasspathJarIndex.class);
+
+  private static final int RETAINED_JARS =
+      Integer.getInteger("buck.ClasspathJarIndex.retained_jars", 2000);
+
+  private static final int ZIP64_ENDSIG = 0x06064b50;
+  private static final int ZIP64_LOCSIG = 0x07064b50;
+  private static final int ZIP64_LOCHDR = 20;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+  /** The indexes by jar path, least recently used first. Guards the reference counts as well. */
+  private static final LinkedHashMap<Path, ClasspathJarIndex> INDEXES =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Path jarPath;
+  private final HashCode centralDirectoryHash;
+  private final ImmutableMap<String, ImmutableList<Entry>> packages;
+  private final boolean hasManifestClassPath;
+
+  private int refCount = 0;
+  @Nullable private volatile FileChannel channel;
+
+  private ClasspathJarIndex(Path jarPath, CentralDirectory centralDirectory, FileChannel channel)
+      throws IOException {
+    this.jarPath = jarPath;
+    this.centralDirectoryHash = centralDirectory.hash;
+    this.packages = readEntries(centralDirectory);
+    Entry manifest = getEntry("META-INF", "MANIFEST.MF");
+    this.hasManifestClassPath = manifest != null && hasClassPath(read(channel, manifest));
+  }
+
+  /**
+   * Returns the index of the given jar, indexing it if it was not indexed yet or has changed since.
+   * Every call must be matched by a call to {@link #release()}.
+   */
+  static ClasspathJarIndex acquire(Path jar) throws IOException {
+    Path jarPath = jar.toAbsolutePath().normalize();
+    ClasspathJarIndex index;
+    try (FileChannel channel = FileChannel.open(jarPath, StandardOpenOption.READ)) {
+      CentralDirectory centralDirectory = CentralDirectory.read(jarPath, channel);
+      synchronized (INDEXES) {
+        ClasspathJarIndex existing = INDEXES.get(jarPath);
+        if (existing != null && existing.centralDirectoryHash.equals(centralDirectory.hash)) {
+          existing.retain();
+          return existing;
+        }
+      }
+      index = new ClasspathJarIndex(jarPath, centralDirectory, channel);
+    }
+    synchronized (INDEXES) {
+      ClasspathJarIndex existing = INDEXES.get(jarPath);
+      if (existing != null && existing.centralDirectoryHash.equals(index.centralDirectoryHash)) {
+        // Indexed concurrently by another compile.
+        index = existing;
+      } else {
+        INDEXES.put(jarPath, index);
+      }
+      index.retain();
+      trimIdleIndexes();
+    }
+    return index;
+  }
+
+  /** Releases an index returned by {@link #acquire(Path)}. */
+  void release() {
+    synchronized (INDEXES) {
+      if (--refCount > 0) {
+        return;
+      }
+      FileChannel toClose = channel;
+      channel = null;
+      closeQuietly(toClose);
+      trimIdleIndexes();
+    }
+  }
+
+  /** @return the entries in the given package, in central directory order. */
+  ImmutableList<Entry> getEntries(String packageName) {
+    ImmutableList<Entry> entries = packages.get(packageName);
+    return entries == null ? ImmutableList.of() : entries;
+  }
+
+  /** @return the packages in this jar, to which {@link #getEntries(String)} can be applied. */
+  Iterable<String> getPackageNames() {
+    return packages.keySet();
+  }
+
+  @Nullable
+  Entry getEntry(String packageName, String fileName) {
+    for (Entry entry : getEntries(packageName)) {
+      if (entry.getFileName().equals(fileName)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return whether the jar's manifest has a {@code Class-Path}, which javac adds to the classpath
+   *     and which this index does not follow.
+   */
+  boolean hasManifestClassPath() {
+    return hasManifestClassPath;
+  }
+
+  private void retain() throws IOException {
+    if (refCount == 0) {
+      channel = FileChannel.open(jarPath, StandardOpenOption.READ);
+    }
+    refCount++;
+  }
+
+  private static void trimIdleIndexes() {
+    Iterator<ClasspathJarIndex> iterator = INDEXES.values().iterator();
+    int toRemove = INDEXES.size() - RETAINED_JARS;
+    while (toRemove > 0 && iterator.hasNext()) {
+      if (iterator.next().refCount == 0) {
+        iterator.remove();
+        toRemove--;
+      }
+    }
+  }
+
+  private static void closeQuietly(@Nullable FileChannel channel) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to close a classpath jar.");
+    }
+  }
+
+  private ImmutableMap<String, ImmutableList<Entry>> readEntries(CentralDirectory centralDirectory)
+      throws IOException {
+    ByteBuffer cd = centralDirectory.buffer;
+    Map<String, ImmutableList.Builder<Entry>> builders = new HashMap<>();
+    int offset = 0;
+    for (long i = 0; i < centralDirectory.entryCount; i++) {
+      check(cd.getInt(offset) == ZipEntry.CENSIG, "bad central directory header");
+      int method = Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENHOW));
+      long compressedSize = Integer.toUnsignedLong(cd.getInt(offset + ZipEntry.CENSIZ));
+      long uncompressedSize = Integer.toUnsignedLong(cd.getInt(offset + ZipEntry.CENLEN));
+      long localHeaderOffset = Integer.toUnsignedLong(cd.getInt(offset + ZipEntry.CENOFF));
+      int nameLength = Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENNAM));
+      int extraLength = Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENEXT));
+      int commentLength = Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENCOM));
+
+      byte[] nameBytes = new byte[nameLength];
+      ByteBuffer nameBuffer = cd.duplicate();
+      nameBuffer.position(offset + ZipEntry.CENHDR);
+      nameBuffer.get(nameBytes);
+      String name = new String(nameBytes, Charsets.UTF_8);
+
+      if (compressedSize == 0xffffffffL
+          || uncompressedSize == 0xffffffffL
+          || localHeaderOffset == 0xffffffffL) {
+        // The actual values are in the ZIP64 extra field, in this order, when they overflowed.
+        int extraOffset = offset + ZipEntry.CENHDR + nameLength;
+        int extraEnd = extraOffset + extraLength;
+        while (extraOffset + 4 <= extraEnd) {
+          int id = Short.toUnsignedInt(cd.getShort(extraOffset));
+          int dataSize = Short.toUnsignedInt(cd.getShort(extraOffset + 2));
+          if (id == ZIP64_EXTRA_ID) {
+            int valueOffset = extraOffset + 4;
+            if (uncompressedSize == 0xffffffffL) {
+              uncompressedSize = cd.getLong(valueOffset);
+              valueOffset += 8;
+            }
+            if (compressedSize == 0xffffffffL) {
+              compressedSize = cd.getLong(valueOffset);
+              valueOffset += 8;
+            }
+            if (localHeaderOffset == 0xffffffffL) {
+              localHeaderOffset = cd.getLong(valueOffset);
+            }
+            break;
+          }
+          extraOffset += 4 + dataSize;
+        }
+      }
+
+      if (!name.endsWith("/")) {
+        int lastSlash = name.lastIndexOf('/');
+        String packageName = lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+        check(
+            compressedSize <= Integer.MAX_VALUE && uncompressedSize <= Integer.MAX_VALUE,
+            "entry too large: " + name);
+        builders
+            .computeIfAbsent(packageName, key -> ImmutableList.builder())
+            .add(
+                new Entry(
+                    name,
+                    method,
+                    localHeaderOffset,
+                    (int) compressedSize,
+                    (int) uncompressedSize));
+      }
+
+      offset += ZipEntry.CENHDR + nameLength + extraLength + commentLength;
+    }
+
+    ImmutableMap.Builder<String, ImmutableList<Entry>> result = ImmutableMap.builder();
+    builders.forEach((packageName, entries) -> result.put(packageName, entries.build()));
+    return result.build();
+  }
+
+  private byte[] read(Entry entry) throws IOException {
+    FileChannel currentChannel = channel;
+    if (currentChannel == null) {
+      throw new IOException(String.format("%s is no longer open.", jarPath));
+    }
+    return read(currentChannel, entry);
+  }
+
+  private byte[] read(FileChannel currentChannel, Entry entry) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(ZipEntry.LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(currentChannel, header, entry.localHeaderOffset);
+    check(header.getInt(0) == ZipEntry.LOCSIG, "bad local header for " + entry.name);
+    long dataOffset =
+        entry.localHeaderOffset
+            + ZipEntry.LOCHDR
+            + Short.toUnsignedInt(header.getShort(ZipEntry.LOCNAM))
+            + Short.toUnsignedInt(header.getShort(ZipEntry.LOCEXT));
+    byte[] data = new byte[entry.compressedSize];
+    readFully(currentChannel, ByteBuffer.wrap(data), dataOffset);
+
+    if (entry.method == ZipEntry.STORED) {
+      return data;
+    }
+    check(entry.method == ZipEntry.DEFLATED, "unsupported compression method for " + entry.name);
+    byte[] result = new byte[entry.uncompressedSize];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data);
+      int inflated = 0;
+      while (inflated < result.length) {
+        int count = inflater.inflate(result, inflated, result.length - inflated);
+        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        inflated += count;
+      }
+      check(inflated == result.length, "truncated entry " + entry.name);
+    } catch (DataFormatException e) {
+      throw new IOException(String.format("Corrupt entry %s in %s.", entry.name, jarPath), e);
+    } finally {
+      inflater.end();
+    }
+    return result;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of jar.");
+      }
+    }
+  }
+
+  private static boolean hasClassPath(byte[] manifest) throws IOException {
+    String classPath =
+        new Manifest(new ByteArrayInputStream(manifest))
+            .getMainAttributes()
+            .getValue(Attributes.Name.CLASS_PATH);
+    return classPath != null && !classPath.trim().isEmpty();
+  }
+
+  private void check(boolean expression, String message) throws IOException {
+    check(jarPath, expression, message);
+  }
+
+  private static void check(Path jarPath, boolean expression, String message) throws IOException {
+    if (!expression) {
+      throw new IOException(String.format("Failed to read %s: %s.", jarPath, message));
+    }
+  }
+
+  /** The central directory of a jar, which is mapped while the jar is being indexed. */
+  private static final class CentralDirectory {
+    private final ByteBuffer buffer;
+    private final long entryCount;
+    private final HashCode hash;
+
+    private CentralDirectory(ByteBuffer buffer, long entryCount) {
+      this.buffer = buffer;
+      this.entryCount = entryCount;
+      this.hash = Hashing.sha1().hashBytes(buffer.duplicate());
+    }
+
+    static CentralDirectory read(Path jarPath, FileChannel channel) throws IOException {
+      long size = channel.size();
+      long tailSize = Math.min(size, ZipEntry.ENDHDR + MAX_COMMENT_LENGTH);
+      ByteBuffer tail = map(jarPath, channel, size - tailSize, tailSize);
+
+      // Search backwards from the end of the jar for the end of central directory record.
+      int eocdOffset = (int) tailSize - ZipEntry.ENDHDR;
+      while (eocdOffset >= 0 && tail.getInt(eocdOffset) != ZipEntry.ENDSIG) {
+        eocdOffset--;
+      }
+      check(jarPath, eocdOffset >= 0, "no end of central directory record");
+
+      long entryCount = Short.toUnsignedLong(tail.getShort(eocdOffset + ZipEntry.ENDTOT));
+      long cdSize = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDSIZ));
+      long cdOffset = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDOFF));
+      int locatorOffset = eocdOffset - ZIP64_LOCHDR;
+      if (locatorOffset >= 0 && tail.getInt(locatorOffset) == ZIP64_LOCSIG) {
+        // 8 = 4 + 4: the signature, and the disk with the ZIP64 end of central directory record.
+        long zip64EocdOffset = tail.getLong(locatorOffset + 8);
+        ByteBuffer zip64Eocd = map(jarPath, channel, zip64EocdOffset, 56);
+        check(
+            jarPath,
+            zip64Eocd.getInt(0) == ZIP64_ENDSIG,
+            "bad ZIP64 end of central directory record");
+        // 32 = 4 + 8 + 2 + 2 + 4 + 4 + 8
+        entryCount = zip64Eocd.getLong(32);
+        cdSize = zip64Eocd.getLong(40);
+        cdOffset = zip64Eocd.getLong(48);
+      }
+      check(jarPath, cdOffset + cdSize <= size, "central directory out of bounds");
+
+      return new CentralDirectory(map(jarPath, channel, cdOffset, cdSize), entryCount);
+    }
+
+    private static ByteBuffer map(Path jarPath, FileChannel channel, long position, long length)
+        throws IOException {
+      check(jarPath, length <= Integer.MAX_VALUE, "central directory too large");
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      return buffer;
+    }
+  }
+
+  /**
+   * A file in an indexed jar. Entries are shared by the compiles which use the jar, and are only
+   * readable while its index is acquired.
+   */
+  final class Entry implements JavaFileObject {
+    private final String name;
+    private final int method;
+    private final long localHeaderOffset;
+    private final int compressedSize;
+    private final int uncompressedSize;
+
+    @Nullable private volatile URI uri;
+
+    private Entry(
+        String name, int method, long localHeaderOffset, int compressedSize, int uncompressedSize) {
+      this.name = name;
+      this.method = method;
+      this.localHeaderOffset = localHeaderOffset;
+      this.compressedSize = compressedSize;
+      this.uncompressedSize = uncompressedSize;
+    }
+
+    /** @return the name of the file, without its package. */
+    String getFileName() {
+      return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    /** @return the binary name of the class in this file, assuming it is a class file. */
+    String getBinaryName() {
+      int end = name.lastIndexOf('.');
+      return (end < 0 ? name : name.substring(0, end)).replace('/', '.');
+    }
+
+    @Override
+    public Kind getKind() {
+      for (Kind kind : Kind.values()) {
+        if (kind != Kind.OTHER && name.endsWith(kind.extension)) {
+          return kind;
+        }
+      }
+      return Kind.OTHER;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+      return kind == getKind() && getFileName().equals(simpleName + kind.extension);
+    }
+
+    @Override
+    @Nullable
+    public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Modifier getAccessLevel() {
+      return null;
+    }
+
+    @Override
+    public URI toUri() {
+      URI result = uri;
+      if (result == null) {
+        // The same form as the URIs of javac's own jar entries, which ClassUsageTracker parses.
+        result = URI.create("jar:" + jarPath.toFile().toURI().normalize() + "!/" + name);
+        uri = result;
+      }
+      return result;
+    }
+
+    @Override
+    public String getName() {
+      return jarPath + "(" + name + ")";
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return new ByteArrayInputStream(read(this));
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+      return new StringReader(getCharContent(ignoreEncodingErrors).toString());
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      return new String(read(this), Charsets.UTF_8);
+    }
+
+    @Override
+    public Writer openWriter() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Buck compiles with an empty source path, so that classes on the classpath are never compared
+     * with sources by their modification time.
+     */
+    @Override
+    public long getLastModified() {
+      return 0L;
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getName() + "[" + toUri() + "]";
+    }
+  }
+}
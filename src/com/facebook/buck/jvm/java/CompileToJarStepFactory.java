@@ -183,6 +183,7 @@ public abstract class CompileToJarStepFactory implements AddsToRuleKey {
       createJarStep(projectFilesystem, jarParameters, steps);
     }
     buildableContext.recordArtifact(jarParameters.getJarPath());
+    jarParameters.getClassAbiJarPath().ifPresent(buildableContext::recordArtifact);
   }
 
   protected void createCompileToJarStepImpl(
@@ -527,6 +527,10 @@ public abstract class DefaultJavaLibraryRules {
                 getActionGraphBuilder(),
                 getProjectFilesystem(),
                 libraryRule.getSourcePathToOutput(),
+                Optional.ofNullable(
+                    getJarBuildStepsFactory()
+                        .getSourcePathToClassAbiOutput(
+                            getLibraryTarget(), getProjectFilesystem())),
                 getAbiCompatibilityMode()));
   }
 
@@ -620,7 +624,8 @@ public abstract class DefaultJavaLibraryRules {
         getAbiGenerationMode(),
         getAbiCompatibilityMode(),
         classpaths.getDependencyInfos(),
-        getRequiredForSourceOnlyAbi());
+        getRequiredForSourceOnlyAbi(),
+        willProduceClassAbi());
   }
 
   @Value.Lazy
@@ -640,7 +645,8 @@ public abstract class DefaultJavaLibraryRules {
         getAbiGenerationMode(),
         getAbiCompatibilityMode(),
         classpaths.getDependencyInfos(),
-        getRequiredForSourceOnlyAbi());
+        getRequiredForSourceOnlyAbi(),
+        /* writeClassAbiJar */ false);
   }
 
   private ResourcesParameters getResourcesParameters() {
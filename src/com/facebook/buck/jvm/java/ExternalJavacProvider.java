@@ -76,6 +76,8 @@ public class ExternalJavacProvider implements JavacProvider {
         return new JarBackedJavacProvider(spec.getJavacJarPath().get(), compilerClassName);
       case JDK:
         return new ConstantJavacProvider(new JdkProvidedInMemoryJavac());
+      case WORKER:
+        return new ConstantJavacProvider(new WorkerJavac(spec.getMaxCompilerWorkers()));
     }
     throw new AssertionError("Unknown javac source: " + javacSource);
   }
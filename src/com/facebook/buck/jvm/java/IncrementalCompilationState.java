@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import javax.annotation.Nullable;
+
+/**
+ * What {@link IncrementalJavacStep} remembers about the last successful compile of a library: what
+ * it was compiled from, which source each class came from, and what each class it depended on
+ * looked like.
+ */
+final class IncrementalCompilationState {
+  private final String optionsHash;
+  private final ImmutableSortedMap<String, String> sourceHashes;
+  private final ImmutableSortedMap<String, String> classpathFingerprints;
+  private final ImmutableSortedMap<String, ClassState> classes;
+  private final ImmutableSortedMap<String, ClassState> externalClasses;
+
+  @JsonCreator
+  IncrementalCompilationState(
+      @JsonProperty("optionsHash") String optionsHash,
+      @JsonProperty("sourceHashes") ImmutableSortedMap<String, String> sourceHashes,
+      @JsonProperty("classpathFingerprints")
+          ImmutableSortedMap<String, String> classpathFingerprints,
+      @JsonProperty("classes") ImmutableSortedMap<String, ClassState> classes,
+      @JsonProperty("externalClasses") ImmutableSortedMap<String, ClassState> externalClasses) {
+    this.optionsHash = optionsHash;
+    this.sourceHashes = sourceHashes;
+    this.classpathFingerprints = classpathFingerprints;
+    this.classes = classes;
+    this.externalClasses = externalClasses;
+  }
+
+  /** @return a hash of the javac options, classpath included. */
+  @JsonProperty
+  String getOptionsHash() {
+    return optionsHash;
+  }
+
+  /** @return the hashes of the sources, by their path relative to the project root. */
+  @JsonProperty
+  ImmutableSortedMap<String, String> getSourceHashes() {
+    return sourceHashes;
+  }
+
+  /** @return the SHA-1 of each classpath entry that is a file. */
+  @JsonProperty
+  ImmutableSortedMap<String, String> getClasspathFingerprints() {
+    return classpathFingerprints;
+  }
+
+  /** @return the classes the library is made of, by internal name. */
+  @JsonProperty
+  ImmutableSortedMap<String, ClassState> getClasses() {
+    return classes;
+  }
+
+  /**
+   * @return the classes from the classpath the library was compiled against, by internal name,
+   *     including the ones which could not be found.
+   */
+  @JsonProperty
+  ImmutableSortedMap<String, ClassState> getExternalClasses() {
+    return externalClasses;
+  }
+
+  /** What is remembered about one class. */
+  static final class ClassState {
+    /** Stands in for a class that could not be found. */
+    static final ClassState MISSING =
+        new ClassState(null, "", "", ImmutableList.of(), ImmutableSortedSet.of());
+
+    @Nullable private final String source;
+    private final String abiHash;
+    private final String constantsHash;
+    private final ImmutableList<String> supertypes;
+    private final ImmutableSortedSet<String> referencedClasses;
+
+    @JsonCreator
+    ClassState(
+        @JsonProperty("source") @Nullable String source,
+        @JsonProperty("abiHash") String abiHash,
+        @JsonProperty("constantsHash") String constantsHash,
+        @JsonProperty("supertypes") ImmutableList<String> supertypes,
+        @JsonProperty("referencedClasses") ImmutableSortedSet<String> referencedClasses) {
+      this.source = source;
+      this.abiHash = abiHash;
+      this.constantsHash = constantsHash;
+      this.supertypes = supertypes;
+      this.referencedClasses = referencedClasses;
+    }
+
+    /** The state of a class of the library, which only needs to know what the class refers to. */
+    static ClassState of(ClassFileSummary summary, String source) {
+      return new ClassState(
+          source,
+          summary.getAbiHash(),
+          summary.getConstantsHash(),
+          summary.getSupertypes(),
+          summary.getReferencedClasses());
+    }
+
+    /** The state of a class from the classpath. */
+    static ClassState ofExternal(ClassFileSummary summary) {
+      return new ClassState(
+          null,
+          summary.getAbiHash(),
+          summary.getConstantsHash(),
+          summary.getSupertypes(),
+          ImmutableSortedSet.of());
+    }
+
+    /** @return the source the class was compiled from, or null for classes on the classpath. */
+    @JsonProperty
+    @Nullable
+    String getSource() {
+      return source;
+    }
+
+    @JsonProperty
+    String getAbiHash() {
+      return abiHash;
+    }
+
+    @JsonProperty
+    String getConstantsHash() {
+      return constantsHash;
+    }
+
+    @JsonProperty
+    ImmutableList<String> getSupertypes() {
+      return supertypes;
+    }
+
+    @JsonProperty
+    ImmutableSortedSet<String> getReferencedClasses() {
+      return referencedClasses;
+    }
+  }
+}
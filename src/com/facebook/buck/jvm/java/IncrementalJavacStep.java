@@ -0,0 +1,675 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.impl.BuildTargetPaths;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.IncrementalCompilationState.ClassState;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multimap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Compiles the sources of a library into its classes directory like {@link JavacStep}, but only
+ * recompiles the sources affected by what changed since the last successful compile. The class
+ * files of everything else are restored from a snapshot of that compile.
+ *
+ * <p>A source is affected when it changed, or when one of its classes refers to a class whose ABI
+ * changed, either in this library or on the classpath. The ABI of a class changes with its own
+ * non-private members, and with the ABI of its supertypes. Classes that javac read without
+ * referring to them, like the ones whose constants it inlined, are known from the used classes file
+ * written by class usage tracking. Recompiling can change the ABI of more classes, so this is done
+ * in rounds.
+ *
+ * <p>Everything is recompiled when there is no usable state from a previous compile, or when the
+ * change is one this step does not track precisely: different javac options or classpath, added or
+ * removed top level classes, changed compile-time constants, or too many rounds.
+ */
+class IncrementalJavacStep implements Step {
+  private static final Logger LOG = Logger.get(IncrementalJavacStep.class);
+
+  private static final int MAX_ROUNDS = 5;
+  private static final String CLASS_EXTENSION = ".class";
+  private static final String DIRECTORY_FINGERPRINT = "directory";
+  private static final String USED_CLASSES_FILE = "used-classes.json";
+
+  private final Javac javac;
+  private final JavacOptions javacOptions;
+  private final BuildTarget invokingRule;
+  private final SourcePathResolver resolver;
+  private final ProjectFilesystem filesystem;
+  private final CompilerParameters compilerParameters;
+  private final Path classesDir;
+  private final Path stateDir;
+
+  IncrementalJavacStep(
+      Javac javac,
+      JavacOptions javacOptions,
+      BuildTarget invokingRule,
+      SourcePathResolver resolver,
+      ProjectFilesystem filesystem,
+      CompilerParameters compilerParameters) {
+    this.javac = javac;
+    this.javacOptions = javacOptions;
+    this.invokingRule = invokingRule;
+    this.resolver = resolver;
+    this.filesystem = filesystem;
+    this.compilerParameters = compilerParameters;
+    this.classesDir = filesystem.resolve(compilerParameters.getOutputPaths().getClassesDir());
+    this.stateDir =
+        filesystem.resolve(
+            BuildTargetPaths.getScratchPath(filesystem, invokingRule, "lib__%s__incremental"));
+  }
+
+  /** @return whether the sources of a library can be compiled by this step. */
+  static boolean canCompile(CompilerParameters compilerParameters) {
+    return compilerParameters.shouldTrackClassUsage()
+        && compilerParameters.getSourceFilePaths().stream()
+            .allMatch(path -> path.toString().endsWith(".java"));
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    String optionsHash =
+        Hashing.sha1()
+            .hashString(
+                Joiner.on('\0')
+                    .join(
+                        newJavacStep(compilerParameters)
+                            .getOptions(context, compilerParameters.getClasspathEntries())),
+                Charsets.UTF_8)
+            .toString();
+    ImmutableSortedMap.Builder<String, String> sourceHashes = ImmutableSortedMap.naturalOrder();
+    for (Path source : compilerParameters.getSourceFilePaths()) {
+      sourceHashes.put(source.toString(), filesystem.computeSha1(source).getHash());
+    }
+    ImmutableSortedMap<String, String> classpathFingerprints = fingerprintClasspath();
+
+    IncrementalCompilationState previousState = readState();
+    if (previousState != null && previousState.getOptionsHash().equals(optionsHash)) {
+      IncrementalCompilation compilation =
+          new IncrementalCompilation(
+              context,
+              previousState,
+              new IncrementalCompilationState(
+                  optionsHash,
+                  sourceHashes.build(),
+                  classpathFingerprints,
+                  ImmutableSortedMap.of(),
+                  ImmutableSortedMap.of()));
+      try {
+        Optional<StepExecutionResult> result = compilation.run();
+        if (result.isPresent()) {
+          return result.get();
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "%s: failed to compile incrementally.", invokingRule);
+      }
+      compilation.deleteClassFiles();
+    }
+
+    deleteState();
+    StepExecutionResult result = newJavacStep(compilerParameters).execute(context);
+    if (result.isSuccess()) {
+      saveStateAfterFullCompile(optionsHash, sourceHashes.build(), classpathFingerprints);
+    }
+    return result;
+  }
+
+  @Override
+  public String getShortName() {
+    return "javac";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return newJavacStep(compilerParameters).getDescription(context);
+  }
+
+  /** Recompiles the sources affected by a change, if that can be done precisely. */
+  private class IncrementalCompilation {
+    private final ExecutionContext context;
+    private final IncrementalCompilationState previousState;
+    private final IncrementalCompilationState currentInputs;
+    private final Map<String, ClassState> classes;
+    private final Map<String, ClassState> externalClasses;
+    private final Set<String> writtenClasses = new HashSet<>();
+    private final Set<String> compiledClasses = new HashSet<>();
+
+    IncrementalCompilation(
+        ExecutionContext context,
+        IncrementalCompilationState previousState,
+        IncrementalCompilationState currentInputs) {
+      this.context = context;
+      this.previousState = previousState;
+      this.currentInputs = currentInputs;
+      this.classes = new TreeMap<>(previousState.getClasses());
+      this.externalClasses = new TreeMap<>(previousState.getExternalClasses());
+    }
+
+    /**
+     * @return the result of compiling incrementally, or nothing if everything needs to be
+     *     recompiled.
+     */
+    Optional<StepExecutionResult> run() throws IOException, InterruptedException {
+      Map<String, SortedSet<String>> usedClasses =
+          readUsedClasses(stateDir.resolve(USED_CLASSES_FILE));
+      Set<String> changedClasses = new HashSet<>();
+      Set<String> dirtySources = new TreeSet<>();
+      for (Map.Entry<String, String> source : currentInputs.getSourceHashes().entrySet()) {
+        if (!source.getValue().equals(previousState.getSourceHashes().get(source.getKey()))) {
+          dirtySources.add(source.getKey());
+        }
+      }
+      for (String source : previousState.getSourceHashes().keySet()) {
+        if (!currentInputs.getSourceHashes().containsKey(source)) {
+          Collection<String> removed = getClassesOf(ImmutableSortedSet.of(source));
+          changedClasses.addAll(removed);
+          classes.keySet().removeAll(removed);
+        }
+      }
+
+      if (!currentInputs.getClasspathFingerprints().equals(previousState.getClasspathFingerprints())
+          || currentInputs.getClasspathFingerprints().containsValue(DIRECTORY_FINGERPRINT)) {
+        try (ClasspathReader classpath = new ClasspathReader()) {
+          for (Map.Entry<String, ClassState> external : externalClasses.entrySet()) {
+            ClassState current = classpath.read(external.getKey());
+            ClassState previous = external.setValue(current);
+            if (!current.getConstantsHash().equals(previous.getConstantsHash())) {
+              LOG.debug("%s: constants of %s changed.", invokingRule, external.getKey());
+              return Optional.empty();
+            }
+            if (!current.getAbiHash().equals(previous.getAbiHash())) {
+              changedClasses.add(external.getKey());
+            }
+          }
+        }
+      }
+
+      restoreClassFiles(dirtySources, changedClasses);
+      for (int round = 1; !dirtySources.isEmpty(); round++) {
+        if (round > MAX_ROUNDS) {
+          LOG.debug("%s: still recompiling after %d rounds.", invokingRule, MAX_ROUNDS);
+          return Optional.empty();
+        }
+        LOG.debug("%s: round %d recompiles %s.", invokingRule, round, dirtySources);
+
+        Map<String, ClassState> previousClasses = new HashMap<>();
+        for (String name : getClassesOf(dirtySources)) {
+          previousClasses.put(name, classes.remove(name));
+          if (writtenClasses.remove(name)) {
+            Files.deleteIfExists(getClassFile(classesDir, name));
+          }
+        }
+
+        StepExecutionResult result = newJavacStep(getParametersFor(dirtySources)).execute(context);
+        if (!result.isSuccess()) {
+          return Optional.of(result);
+        }
+        mergeUsedClasses(readUsedClasses(getDepFile()), usedClasses);
+
+        changedClasses.clear();
+        Multimap<String, String> sourcesByFileName = getSourcesByFileName(dirtySources);
+        for (Path classFile : listClassFiles()) {
+          String name = getClassName(classFile);
+          if (writtenClasses.contains(name)) {
+            continue;
+          }
+          ClassFileSummary summary = ClassFileSummary.read(Files.readAllBytes(classFile));
+          writtenClasses.add(name);
+          compiledClasses.add(name);
+          String source = findSource(summary, sourcesByFileName);
+          if (source == null) {
+            LOG.debug("%s: could not tell which source %s came from.", invokingRule, name);
+            return Optional.empty();
+          }
+          ClassState current = ClassState.of(summary, source);
+          classes.put(name, current);
+
+          ClassState previous = previousClasses.remove(name);
+          if (previous == null) {
+            if (!name.contains("$")) {
+              LOG.debug("%s: new top level class %s.", invokingRule, name);
+              return Optional.empty();
+            }
+            changedClasses.add(name);
+          } else if (!current.getConstantsHash().equals(previous.getConstantsHash())) {
+            LOG.debug("%s: constants of %s changed.", invokingRule, name);
+            return Optional.empty();
+          } else if (!current.getAbiHash().equals(previous.getAbiHash())) {
+            changedClasses.add(name);
+          }
+        }
+        changedClasses.addAll(previousClasses.keySet());
+
+        Set<String> compiledSources = dirtySources;
+        dirtySources = getAffectedSources(changedClasses);
+        dirtySources.removeAll(compiledSources);
+      }
+
+      saveStateAfterIncrementalCompile(usedClasses);
+      return Optional.of(StepExecutionResults.SUCCESS);
+    }
+
+    /**
+     * Copies the classes of the sources which are not going to be recompiled back into the
+     * classes directory, and adds the sources affected by the classes that changed.
+     */
+    private void restoreClassFiles(Set<String> dirtySources, Set<String> changedClasses)
+        throws IOException {
+      dirtySources.addAll(getAffectedSources(changedClasses));
+      Collection<String> dirtyClasses = getClassesOf(dirtySources);
+      for (String name : classes.keySet()) {
+        if (!dirtyClasses.contains(name)) {
+          Path classFile = getClassFile(classesDir, name);
+          Files.createDirectories(classFile.getParent());
+          Files.copy(getClassFile(getSnapshotDir(), name), classFile);
+          writtenClasses.add(name);
+        }
+      }
+    }
+
+    /**
+     * @return the sources of the library classes which are or refer to a changed class, or to a
+     *     class with a changed supertype.
+     */
+    private Set<String> getAffectedSources(Set<String> changedClasses) {
+      Set<String> changed = new HashSet<>(changedClasses);
+      addSubtypes(changed, classes);
+      addSubtypes(changed, externalClasses);
+      Set<String> affected = new TreeSet<>();
+      for (Map.Entry<String, ClassState> entry : classes.entrySet()) {
+        ClassState state = entry.getValue();
+        if (changed.contains(entry.getKey())
+            || state.getReferencedClasses().stream().anyMatch(changed::contains)) {
+          affected.add(state.getSource());
+        }
+      }
+      return affected;
+    }
+
+    private void addSubtypes(Set<String> changed, Map<String, ClassState> candidates) {
+      boolean added = true;
+      while (added) {
+        added = false;
+        for (Map.Entry<String, ClassState> entry : candidates.entrySet()) {
+          if (!changed.contains(entry.getKey())
+              && entry.getValue().getSupertypes().stream().anyMatch(changed::contains)) {
+            changed.add(entry.getKey());
+            added = true;
+          }
+        }
+      }
+    }
+
+    private Collection<String> getClassesOf(Set<String> sources) {
+      return classes.entrySet().stream()
+          .filter(entry -> sources.contains(entry.getValue().getSource()))
+          .map(Map.Entry::getKey)
+          .collect(Collectors.toList());
+    }
+
+    private CompilerParameters getParametersFor(Set<String> sources) {
+      return CompilerParameters.builder()
+          .from(compilerParameters)
+          .setSourceFilePaths(
+              sources.stream()
+                  .map(Paths::get)
+                  .collect(ImmutableSortedSet.toImmutableSortedSet(Path::compareTo)))
+          .setClasspathEntries(
+              ImmutableSortedSet.<Path>naturalOrder()
+                  .addAll(compilerParameters.getClasspathEntries())
+                  .add(classesDir)
+                  .build())
+          .build();
+    }
+
+    private void saveStateAfterIncrementalCompile(Map<String, SortedSet<String>> usedClasses)
+        throws IOException {
+      // The used classes of the sources which were not recompiled are still used.
+      Path depFile = getDepFile();
+      ObjectMappers.WRITER.writeValue(depFile.toFile(), usedClasses);
+
+      try {
+        Files.deleteIfExists(getStateFile());
+        Path snapshotDir = getSnapshotDir();
+        for (String name : previousState.getClasses().keySet()) {
+          if (!classes.containsKey(name) || compiledClasses.contains(name)) {
+            Files.deleteIfExists(getClassFile(snapshotDir, name));
+          }
+        }
+        for (String name : compiledClasses) {
+          if (classes.containsKey(name)) {
+            copyClassFile(classesDir, snapshotDir, name);
+          }
+        }
+        Files.copy(
+            depFile, stateDir.resolve(USED_CLASSES_FILE), StandardCopyOption.REPLACE_EXISTING);
+        writeState(
+            new IncrementalCompilationState(
+                currentInputs.getOptionsHash(),
+                currentInputs.getSourceHashes(),
+                currentInputs.getClasspathFingerprints(),
+                ImmutableSortedMap.copyOf(classes),
+                readExternalClasses(classes, usedClasses, externalClasses)));
+      } catch (IOException e) {
+        LOG.warn(e, "%s: failed to save the state of incremental compilation.", invokingRule);
+        Files.deleteIfExists(getStateFile());
+      }
+    }
+
+    /** Deletes the class files put into the classes directory, before recompiling everything. */
+    void deleteClassFiles() throws IOException {
+      for (String name : writtenClasses) {
+        Files.deleteIfExists(getClassFile(classesDir, name));
+      }
+    }
+  }
+
+  private void saveStateAfterFullCompile(
+      String optionsHash,
+      ImmutableSortedMap<String, String> sourceHashes,
+      ImmutableSortedMap<String, String> classpathFingerprints) {
+    try {
+      Multimap<String, String> sourcesByFileName = getSourcesByFileName(sourceHashes.keySet());
+      Map<String, ClassState> classes = new TreeMap<>();
+      for (Path classFile : listClassFiles()) {
+        ClassFileSummary summary = ClassFileSummary.read(Files.readAllBytes(classFile));
+        String source = findSource(summary, sourcesByFileName);
+        if (source == null) {
+          LOG.debug("%s: could not tell which source %s came from.", invokingRule, classFile);
+          return;
+        }
+        classes.put(summary.getName(), ClassState.of(summary, source));
+      }
+
+      Path snapshotDir = getSnapshotDir();
+      for (String name : classes.keySet()) {
+        copyClassFile(classesDir, snapshotDir, name);
+      }
+      Path depFile = getDepFile();
+      Files.copy(depFile, stateDir.resolve(USED_CLASSES_FILE));
+      writeState(
+          new IncrementalCompilationState(
+              optionsHash,
+              sourceHashes,
+              classpathFingerprints,
+              ImmutableSortedMap.copyOf(classes),
+              readExternalClasses(classes, readUsedClasses(depFile), ImmutableSortedMap.of())));
+    } catch (IOException e) {
+      LOG.warn(e, "%s: failed to save the state of incremental compilation.", invokingRule);
+    }
+  }
+
+  /**
+   * @return the state of the classes from the classpath the library depends on, reusing the known
+   *     state of classes unless they could have changed.
+   */
+  private ImmutableSortedMap<String, ClassState> readExternalClasses(
+      Map<String, ClassState> classes,
+      Map<String, SortedSet<String>> usedClasses,
+      Map<String, ClassState> knownClasses)
+      throws IOException {
+    Set<String> names = new TreeSet<>();
+    for (ClassState state : classes.values()) {
+      names.addAll(state.getReferencedClasses());
+    }
+    for (SortedSet<String> classFiles : usedClasses.values()) {
+      for (String classFile : classFiles) {
+        names.add(classFile.substring(0, classFile.length() - CLASS_EXTENSION.length()));
+      }
+    }
+    names.removeAll(classes.keySet());
+
+    ImmutableSortedMap.Builder<String, ClassState> externalClasses =
+        ImmutableSortedMap.naturalOrder();
+    try (ClasspathReader classpath = new ClasspathReader()) {
+      for (String name : names) {
+        ClassState known = knownClasses.get(name);
+        externalClasses.put(name, known != null ? known : classpath.read(name));
+      }
+    }
+    return externalClasses.build();
+  }
+
+  private JavacStep newJavacStep(CompilerParameters parameters) {
+    return new JavacStep(
+        javac,
+        javacOptions,
+        invokingRule,
+        resolver,
+        filesystem,
+        new ClasspathChecker(),
+        parameters,
+        null,
+        null);
+  }
+
+  private ImmutableSortedMap<String, String> fingerprintClasspath() throws IOException {
+    ImmutableSortedMap.Builder<String, String> fingerprints = ImmutableSortedMap.naturalOrder();
+    for (Path entry : compilerParameters.getClasspathEntries()) {
+      String fingerprint;
+      if (Files.isDirectory(entry)) {
+        fingerprint = DIRECTORY_FINGERPRINT;
+      } else if (Files.isRegularFile(entry)) {
+        // By contents, as jars are often rewritten with a new time but the same contents, and
+        // may be restored from the cache with an old time but new contents.
+        fingerprint = filesystem.computeSha1(entry).getHash();
+      } else {
+        fingerprint = "missing";
+      }
+      fingerprints.put(entry.toString(), fingerprint);
+    }
+    return fingerprints.build();
+  }
+
+  private static Multimap<String, String> getSourcesByFileName(Collection<String> sources) {
+    Multimap<String, String> sourcesByFileName = HashMultimap.create();
+    for (String source : sources) {
+      sourcesByFileName.put(Paths.get(source).getFileName().toString(), source);
+    }
+    return sourcesByFileName;
+  }
+
+  /** @return the source a class was compiled from, or null if that cannot be told. */
+  @Nullable
+  private static String findSource(
+      ClassFileSummary summary, Multimap<String, String> sourcesByFileName) {
+    if (summary.getSourceFile() == null) {
+      return null;
+    }
+    Collection<String> candidates = sourcesByFileName.get(summary.getSourceFile());
+    if (candidates.size() > 1) {
+      int lastSlash = summary.getName().lastIndexOf('/');
+      String suffix = summary.getName().substring(0, lastSlash + 1) + summary.getSourceFile();
+      candidates =
+          candidates.stream()
+              .filter(source -> source.endsWith("/" + suffix) || source.equals(suffix))
+              .collect(Collectors.toList());
+    }
+    return candidates.size() == 1 ? candidates.iterator().next() : null;
+  }
+
+  private List<Path> listClassFiles() throws IOException {
+    try (Stream<Path> files = Files.walk(classesDir)) {
+      return files
+          .filter(path -> path.toString().endsWith(CLASS_EXTENSION) && Files.isRegularFile(path))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private String getClassName(Path classFile) {
+    String relativePath = classesDir.relativize(classFile).toString();
+    return relativePath
+        .substring(0, relativePath.length() - CLASS_EXTENSION.length())
+        .replace(classFile.getFileSystem().getSeparator(), "/");
+  }
+
+  private static Path getClassFile(Path root, String name) {
+    return root.resolve(name + CLASS_EXTENSION);
+  }
+
+  private static void copyClassFile(Path from, Path to, String name) throws IOException {
+    Path target = getClassFile(to, name);
+    Files.createDirectories(target.getParent());
+    Files.copy(getClassFile(from, name), target, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private Path getDepFile() {
+    return filesystem.resolve(CompilerOutputPaths.getDepFilePath(invokingRule, filesystem));
+  }
+
+  private Path getSnapshotDir() {
+    return stateDir.resolve("classes");
+  }
+
+  private Path getStateFile() {
+    return stateDir.resolve("state.json");
+  }
+
+  @Nullable
+  private IncrementalCompilationState readState() {
+    Path stateFile = getStateFile();
+    if (!Files.exists(stateFile)) {
+      return null;
+    }
+    try {
+      return ObjectMappers.readValue(stateFile, IncrementalCompilationState.class);
+    } catch (IOException e) {
+      LOG.warn(e, "%s: ignoring unreadable incremental compilation state.", invokingRule);
+      return null;
+    }
+  }
+
+  private void writeState(IncrementalCompilationState state) throws IOException {
+    // Written last, as everything else in the state directory is only valid with it.
+    ObjectMappers.WRITER.writeValue(getStateFile().toFile(), state);
+  }
+
+  private void deleteState() throws IOException {
+    if (Files.exists(stateDir)) {
+      MoreFiles.deleteRecursively(stateDir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+    Files.createDirectories(stateDir);
+  }
+
+  private static Map<String, SortedSet<String>> readUsedClasses(Path file) throws IOException {
+    Map<String, SortedSet<String>> usedClasses = new TreeMap<>();
+    if (Files.exists(file)) {
+      mergeUsedClasses(
+          ObjectMappers.readValue(file, new TypeReference<Map<String, List<String>>>() {}),
+          usedClasses);
+    }
+    return usedClasses;
+  }
+
+  private static void mergeUsedClasses(
+      Map<String, ? extends Collection<String>> from, Map<String, SortedSet<String>> into) {
+    for (Map.Entry<String, ? extends Collection<String>> entry : from.entrySet()) {
+      into.computeIfAbsent(entry.getKey(), key -> new TreeSet<>()).addAll(entry.getValue());
+    }
+  }
+
+  /** Finds classes on the classpath the way javac does, indexing jars as they are needed. */
+  private class ClasspathReader implements Closeable {
+    private final Map<Path, Optional<ClasspathJarIndex>> jars = new HashMap<>();
+
+    ClassState read(String name) throws IOException {
+      int lastSlash = name.lastIndexOf('/');
+      String packageName = lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+      String fileName = name.substring(lastSlash + 1) + CLASS_EXTENSION;
+      for (Path entry : compilerParameters.getClasspathEntries()) {
+        byte[] classFile = null;
+        Optional<ClasspathJarIndex> jar = jars.computeIfAbsent(entry, this::acquire);
+        if (jar.isPresent()) {
+          ClasspathJarIndex.Entry jarEntry = jar.get().getEntry(packageName, fileName);
+          if (jarEntry != null) {
+            try (InputStream input = jarEntry.openInputStream()) {
+              classFile = ByteStreams.toByteArray(input);
+            }
+          }
+        } else if (Files.isDirectory(entry)) {
+          Path file = getClassFile(entry, name);
+          if (Files.isRegularFile(file)) {
+            classFile = Files.readAllBytes(file);
+          }
+        }
+        if (classFile != null) {
+          return ClassState.ofExternal(ClassFileSummary.read(classFile));
+        }
+      }
+      return ClassState.MISSING;
+    }
+
+    private Optional<ClasspathJarIndex> acquire(Path entry) {
+      if (!Files.isRegularFile(entry)) {
+        return Optional.empty();
+      }
+      try {
+        return Optional.of(ClasspathJarIndex.acquire(entry));
+      } catch (IOException e) {
+        // javac could not have read any classes from it either.
+        LOG.debug(e, "%s: could not index %s.", invokingRule, entry);
+        return Optional.empty();
+      }
+    }
+
+    @Override
+    public void close() {
+      for (Optional<ClasspathJarIndex> jar : jars.values()) {
+        jar.ifPresent(ClasspathJarIndex::release);
+      }
+    }
+  }
+}
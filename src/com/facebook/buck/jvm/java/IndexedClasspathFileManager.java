@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link StandardJavaFileManager} which answers {@link #list} and {@link #getJavaFileForInput}
+ * for the classpath from {@link ClasspathJarIndex}es shared with the other compiles run by this
+ * process, rather than having the delegate open and index every jar on the classpath again.
+ *
+ * <p>The classpath is only indexed when every element of it is a jar, and none of the jars has a
+ * manifest {@code Class-Path}, which javac would follow. Anything else, and every other location,
+ * is left to the delegate.
+ */
+class IndexedClasspathFileManager extends ForwardingStandardJavaFileManager {
+  private static final Logger LOG = Logger.get(IndexedClasspathFileManager.class);
+
+  @Nullable private ImmutableList<ClasspathJarIndex> classpath;
+  private boolean classpathResolved = false;
+
+  public IndexedClasspathFileManager(StandardJavaFileManager fileManager) {
+    super(fileManager);
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    ImmutableList<ClasspathJarIndex> jars = getIndexedClasspath(location);
+    if (jars == null) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    List<JavaFileObject> result = new ArrayList<>();
+    String subpackagePrefix = packageName.isEmpty() ? "" : packageName + ".";
+    for (ClasspathJarIndex jar : jars) {
+      addEntries(jar.getEntries(packageName), kinds, result);
+      if (recurse) {
+        for (String name : jar.getPackageNames()) {
+          if (!name.isEmpty() && name.startsWith(subpackagePrefix)) {
+            addEntries(jar.getEntries(name), kinds, result);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @Nullable
+  public JavaFileObject getJavaFileForInput(
+      Location location, String className, JavaFileObject.Kind kind) throws IOException {
+    ImmutableList<ClasspathJarIndex> jars = getIndexedClasspath(location);
+    if (jars == null) {
+      return super.getJavaFileForInput(location, className, kind);
+    }
+
+    int lastDot = className.lastIndexOf('.');
+    String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+    String fileName = className.substring(lastDot + 1) + kind.extension;
+    for (ClasspathJarIndex jar : jars) {
+      ClasspathJarIndex.Entry entry = jar.getEntry(packageName, fileName);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof ClasspathJarIndex.Entry) {
+      return ((ClasspathJarIndex.Entry) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof ClasspathJarIndex.Entry || b instanceof ClasspathJarIndex.Entry) {
+      return a == b;
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public boolean handleOption(String current, Iterator<String> remaining) {
+    boolean handled = super.handleOption(current, remaining);
+    if (handled) {
+      releaseClasspath();
+    }
+    return handled;
+  }
+
+  @Override
+  public void setLocation(Location location, Iterable<? extends File> path) throws IOException {
+    super.setLocation(location, path);
+    if (location == StandardLocation.CLASS_PATH) {
+      releaseClasspath();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    releaseClasspath();
+    super.close();
+  }
+
+  private static void addEntries(
+      ImmutableList<ClasspathJarIndex.Entry> entries,
+      Set<JavaFileObject.Kind> kinds,
+      List<JavaFileObject> result) {
+    for (ClasspathJarIndex.Entry entry : entries) {
+      if (kinds.contains(entry.getKind())) {
+        result.add(entry);
+      }
+    }
+  }
+
+  /** @return the indexes of the classpath jars, or null if the delegate has to be used. */
+  @Nullable
+  private synchronized ImmutableList<ClasspathJarIndex> getIndexedClasspath(Location location) {
+    if (location != StandardLocation.CLASS_PATH) {
+      return null;
+    }
+    if (!classpathResolved) {
+      classpathResolved = true;
+      classpath = indexClasspath();
+    }
+    return classpath;
+  }
+
+  @Nullable
+  private ImmutableList<ClasspathJarIndex> indexClasspath() {
+    Iterable<? extends File> files = getLocation(StandardLocation.CLASS_PATH);
+    if (files == null) {
+      return null;
+    }
+
+    ImmutableList.Builder<ClasspathJarIndex> jars = ImmutableList.builder();
+    List<ClasspathJarIndex> acquired = new ArrayList<>();
+    for (File file : files) {
+      if (!file.exists()) {
+        // javac ignores missing classpath elements as well.
+        continue;
+      }
+      if (!file.isFile()) {
+        release(acquired);
+        return null;
+      }
+      try {
+        ClasspathJarIndex jar = ClasspathJarIndex.acquire(file.toPath());
+        acquired.add(jar);
+        if (jar.hasManifestClassPath()) {
+          LOG.debug("Not indexing the classpath, %s has a manifest Class-Path.", file);
+          release(acquired);
+          return null;
+        }
+        jars.add(jar);
+      } catch (IOException e) {
+        // Let javac report the problem with this jar the way it usually does.
+        LOG.debug(e, "Not indexing the classpath, failed to index %s.", file);
+        release(acquired);
+        return null;
+      }
+    }
+    return jars.build();
+  }
+
+  private synchronized void releaseClasspath() {
+    if (classpath != null) {
+      release(classpath);
+    }
+    classpath = null;
+    classpathResolved = false;
+  }
+
+  private static void release(List<ClasspathJarIndex> jars) {
+    for (ClasspathJarIndex jar : jars) {
+      jar.release();
+    }
+  }
+}
@@ -43,6 +43,7 @@ import com.facebook.buck.rules.modern.CustomFieldSerialization;
 import com.facebook.buck.rules.modern.ValueCreator;
 import com.facebook.buck.rules.modern.ValueVisitor;
 import com.facebook.buck.rules.modern.impl.ModernBuildableSupport;
+import com.facebook.buck.step.ConditionalStep;
 import com.facebook.buck.step.Step;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -88,6 +89,7 @@ public class JarBuildStepsFactory
 
   @AddToRuleKey private final AbiGenerationMode abiGenerationMode;
   @AddToRuleKey private final AbiGenerationMode abiCompatibilityMode;
+  @AddToRuleKey private final boolean writeClassAbiJar;
 
   /** Contains information about a Java classpath dependency. */
   public static class JavaDependencyInfo implements AddsToRuleKey {
@@ -199,7 +201,8 @@ public class JarBuildStepsFactory
       AbiGenerationMode abiGenerationMode,
       AbiGenerationMode abiCompatibilityMode,
       ImmutableList<JavaDependencyInfo> dependencyInfos,
-      boolean isRequiredForSourceOnlyAbi) {
+      boolean isRequiredForSourceOnlyAbi,
+      boolean writeClassAbiJar) {
     this.libraryTarget = libraryTarget;
     this.configuredCompiler = configuredCompiler;
     this.srcs = srcs;
@@ -215,6 +218,7 @@ public class JarBuildStepsFactory
     this.dependencyInfos = new DependencyInfoHolder(dependencyInfos);
     this.abiClasspath = this.dependencyInfos.getAbiClasspath();
     this.isRequiredForSourceOnlyAbi = isRequiredForSourceOnlyAbi;
+    this.writeClassAbiJar = writeClassAbiJar;
   }
 
   public boolean producesJar() {
@@ -240,6 +244,17 @@ public class JarBuildStepsFactory
         .orElse(null);
   }
 
+  /** @return the class ABI jar that the library writes along with its jar, if any. */
+  @Nullable
+  public SourcePath getSourcePathToClassAbiOutput(
+      BuildTarget buildTarget, ProjectFilesystem filesystem) {
+    if (!writeClassAbiJar || !producesJar()) {
+      return null;
+    }
+    return ExplicitBuildTargetSourcePath.of(
+        buildTarget, CompilerOutputPaths.getClassAbiJarPath(buildTarget, filesystem));
+  }
+
   @Nullable
   public SourcePath getSourcePathToGeneratedAnnotationPath(
       BuildTarget buildTarget, ProjectFilesystem filesystem) {
@@ -366,6 +381,7 @@ public class JarBuildStepsFactory
         getLibraryJarParameters(context, filesystem, compilerParameters).orElse(null),
         steps,
         buildableContext);
+    addClassAbiStep(filesystem, buildableContext, buildTarget, steps);
 
     JavaLibraryRules.addAccumulateClassNamesStep(
         ModernBuildableSupport.newCellRelativePathFactory(
@@ -396,6 +412,7 @@ public class JarBuildStepsFactory
             postprocessClassesCommands,
             steps,
             buildableContext);
+    addClassAbiStep(filesystem, buildableContext, libraryTarget, steps);
 
     JavaLibraryRules.addAccumulateClassNamesStep(
         ModernBuildableSupport.newCellRelativePathFactory(
@@ -409,6 +426,31 @@ public class JarBuildStepsFactory
     return steps.build();
   }
 
+  /**
+   * The compiler writes the class ABI jar along with the library jar when it holds the classes in
+   * memory. Otherwise, calculate it from the library jar. Either way it is an output of the
+   * library, so that the class ABI rule can still copy it when the library is fetched from the
+   * cache.
+   */
+  private void addClassAbiStep(
+      ProjectFilesystem filesystem,
+      RecordArtifactVerifier buildableContext,
+      BuildTarget buildTarget,
+      ImmutableList.Builder<Step> steps) {
+    Optional<Path> outputJarPath = getOutputJarPath(buildTarget, filesystem);
+    Optional<Path> classAbiJarPath = getClassAbiJarPath(buildTarget, filesystem);
+    if (!outputJarPath.isPresent() || !classAbiJarPath.isPresent()) {
+      return;
+    }
+
+    steps.add(
+        new ConditionalStep(
+            () -> !filesystem.exists(classAbiJarPath.get()),
+            new CalculateClassAbiStep(
+                filesystem, outputJarPath.get(), classAbiJarPath.get(), abiCompatibilityMode)));
+    buildableContext.recordArtifact(classAbiJarPath.get());
+  }
+
   protected CompilerParameters getCompilerParameters(
       BuildContext context, ProjectFilesystem filesystem, BuildTarget buildTarget) {
     return CompilerParameters.builder()
@@ -463,6 +505,8 @@ public class JarBuildStepsFactory
                         manifestFile.map(context.getSourcePathResolver()::getAbsolutePath))
                     .setJarPath(output)
                     .setRemoveEntryPredicate(classesToRemoveFromJar)
+                    .setClassAbiJarPath(getClassAbiJarPath(buildTarget, filesystem))
+                    .setAbiCompatibilityMode(abiCompatibilityMode)
                     .build());
   }
 
@@ -494,6 +538,14 @@ public class JarBuildStepsFactory
     }
   }
 
+  private Optional<Path> getClassAbiJarPath(BuildTarget buildTarget, ProjectFilesystem filesystem) {
+    if (!writeClassAbiJar || !JavaAbis.isLibraryTarget(buildTarget)) {
+      return Optional.empty();
+    }
+
+    return Optional.of(CompilerOutputPaths.getClassAbiJarPath(buildTarget, filesystem));
+  }
+
   private Optional<Path> getGeneratedAnnotationPath(
       BuildTarget buildTarget, ProjectFilesystem filesystem) {
     if (!hasAnnotationProcessing()) {
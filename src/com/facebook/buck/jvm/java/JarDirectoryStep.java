@@ -21,6 +21,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.zip.JarBuilder;
+import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.base.Joiner;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -86,6 +87,10 @@ public class JarDirectoryStep implements Step {
             .setShouldDisallowAllDuplicates(parameters.getDisallowAllDuplicates())
             .setShouldHashEntries(parameters.getHashEntries())
             .setRemoveEntryPredicate(parameters.getRemoveEntryPredicate())
+            .setCompressionExecutor(
+                context.isParallelJarCompressionEnabled()
+                    ? ZipOutputStreams.getCompressionExecutor()
+                    : null)
             .createJarFile(filesystem.resolve(parameters.getJarPath())));
   }
 }
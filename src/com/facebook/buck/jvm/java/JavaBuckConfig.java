@@ -69,6 +69,8 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
                 .setJavacPath(getJavacPath(targetConfiguration))
                 .setJavacJarPath(getJavacJarPath(targetConfiguration))
                 .setCompilerClassName(delegate.getValue("tools", "compiler_class_name"))
+                .setCompileInWorkers(delegate.getBooleanValue(SECTION, "compiler_workers", false))
+                .setMaxCompilerWorkers(getMaxCompilerWorkers())
                 .build();
   }
 
@@ -112,6 +114,9 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
     if (trackJavacPhaseEvents.isPresent()) {
       builder.setTrackJavacPhaseEvents(trackJavacPhaseEvents.get());
     }
+    delegate
+        .getBoolean(SECTION, "incremental_compilation")
+        .ifPresent(builder::setIncrementalCompilation);
 
     Optional<AbstractJavacOptions.SpoolMode> spoolMode =
         delegate.getEnum(SECTION, "jar_spool_mode", AbstractJavacOptions.SpoolMode.class);
@@ -170,6 +175,13 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
     return (javacSource == Javac.Source.JAR || javacSource == Javac.Source.JDK);
   }
 
+  /** @return how many persistent compiler workers may run at the same time. */
+  public int getMaxCompilerWorkers() {
+    return delegate
+        .getInteger(SECTION, "compiler_worker_count")
+        .orElse(Runtime.getRuntime().availableProcessors());
+  }
+
   public boolean shouldDesugarInterfaceMethods() {
     return delegate.getBoolean(SECTION, "desugar_interface_methods").orElse(false);
   }
@@ -22,6 +22,7 @@ import com.facebook.buck.core.rules.pipeline.RulePipelineState;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.worker.CompilerWorkers;
 import com.facebook.buck.util.CapturingPrintStream;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
@@ -110,7 +111,9 @@ public class JavacPipelineState implements RulePipelineState {
               filesystem,
               context.getProjectFilesystemFactory(),
               firstOrderContext.getEnvironment(),
-              firstOrderContext.getProcessExecutor());
+              firstOrderContext.getProcessExecutor(),
+              CompilerWorkers.getWorkerProcessPools(context),
+              context.isParallelJarCompressionEnabled());
 
       ImmutableList<JavacPluginJsr199Fields> annotationProcessors =
           ImmutableList.copyOf(
@@ -35,6 +35,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import java.nio.file.Path;
+import java.util.Objects;
 import java.util.Optional;
 import javax.annotation.Nullable;
 
@@ -198,7 +199,18 @@ public class JavacToJarStepFactory extends CompileToJarStepFactory implements Ad
         spoolMode,
         postprocessClassesCommands.toString());
 
-    if (isSpoolingToJarEnabled) {
+    if (isIncrementalCompilationEnabled(
+        invokingRule, compilerParameters, postprocessClassesCommands, libraryJarParameters)) {
+      steps.add(
+          new IncrementalJavacStep(
+              javac,
+              javacOptions.withBootclasspathFromContext(extraClasspathProvider),
+              invokingRule,
+              context.getSourcePathResolver(),
+              projectFilesystem,
+              compilerParameters));
+      createJarStep(projectFilesystem, Objects.requireNonNull(libraryJarParameters), steps);
+    } else if (isSpoolingToJarEnabled) {
       JavacOptions buildTimeOptions =
           javacOptions.withBootclasspathFromContext(extraClasspathProvider);
 
@@ -227,6 +239,25 @@ public class JavacToJarStepFactory extends CompileToJarStepFactory implements Ad
     }
   }
 
+  /**
+   * Incremental compilation needs the classes of the library on disk, and knows nothing about
+   * annotation processors and postprocessing.
+   */
+  private boolean isIncrementalCompilationEnabled(
+      BuildTarget invokingRule,
+      CompilerParameters compilerParameters,
+      ImmutableList<String> postprocessClassesCommands,
+      @Nullable JarParameters libraryJarParameters) {
+    return javacOptions.isIncrementalCompilation()
+        && javac instanceof Jsr199Javac
+        && JavaAbis.isLibraryTarget(invokingRule)
+        && !compilerParameters.getAbiGenerationMode().isSourceAbi()
+        && libraryJarParameters != null
+        && postprocessClassesCommands.isEmpty()
+        && !hasAnnotationProcessing()
+        && IncrementalJavacStep.canCompile(compilerParameters);
+  }
+
   public void createPipelinedCompileStep(
       BuildContext context,
       ProjectFilesystem projectFilesystem,
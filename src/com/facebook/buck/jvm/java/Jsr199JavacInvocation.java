@@ -21,11 +21,13 @@ import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.api.BuckTracing;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.core.JavaAbis;
 import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
 import com.facebook.buck.jvm.java.abi.SourceBasedAbiStubber;
 import com.facebook.buck.jvm.java.abi.SourceVersionUtils;
 import com.facebook.buck.jvm.java.abi.StubGenerator;
+import com.facebook.buck.jvm.java.abi.StubJar;
 import com.facebook.buck.jvm.java.abi.source.api.FrontendOnlyJavacTaskProxy;
 import com.facebook.buck.jvm.java.abi.source.api.SourceOnlyAbiRuleInfoFactory;
 import com.facebook.buck.jvm.java.abi.source.api.StopCompilation;
@@ -39,6 +41,7 @@ import com.facebook.buck.jvm.java.tracing.TracingTaskListener;
 import com.facebook.buck.jvm.java.tracing.TranslatingJavacPhaseTracer;
 import com.facebook.buck.util.concurrent.MostExecutors.NamedThreadFactory;
 import com.facebook.buck.util.zip.JarBuilder;
+import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
@@ -53,14 +56,21 @@ import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.io.PrintWriter; // NOPMD required by API
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
@@ -79,6 +89,13 @@ class Jsr199JavacInvocation implements Javac.Invocation {
       MoreExecutors.listeningDecorator(
           Executors.newCachedThreadPool(new NamedThreadFactory("javac")));
 
+  /**
+   * Whether the classpath is read through the {@link ClasspathJarIndex}es shared by all the compiles
+   * run by this process, rather than through a fresh file manager per compile.
+   */
+  private static final boolean USE_SHARED_CLASSPATH_INDEX =
+      Boolean.getBoolean("buck.Jsr199JavacInvocation.use_shared_classpath_index");
+
   static final String NO_JAVA_FILES_ERROR_MESSAGE =
       "No Java files provided for library compilation";
 
@@ -418,6 +435,8 @@ class Jsr199JavacInvocation implements Javac.Invocation {
                   targetEvent =
                       new JavacEventSinkScopedSimplePerfEvent(
                           context.getEventSink(), invokingRule.toString());
+                  long startNanos = System.nanoTime();
+                  long startAllocatedBytes = getCurrentThreadAllocatedBytes();
                   try {
                     boolean success = false;
                     try {
@@ -459,12 +478,7 @@ class Jsr199JavacInvocation implements Javac.Invocation {
                       return 0;
                     }
 
-                    return newJarBuilder(libraryJarParameters)
-                        .createJarFile(
-                            Objects.requireNonNull(
-                                context
-                                    .getProjectFilesystem()
-                                    .getPathForRelativePath(libraryJarParameters.getJarPath())));
+                    return writeLibraryJar(libraryJarParameters);
                   } catch (RuntimeException e) {
                     if (e.getCause() instanceof StopCompilation) {
                       return 0;
@@ -488,6 +502,12 @@ class Jsr199JavacInvocation implements Javac.Invocation {
                         LOG.warn(e, "Unable to close %s; we may be leaking memory.", closeable);
                       }
                     }
+                    LOG.debug(
+                        "%s: javac took %d ms and allocated %d bytes (shared classpath index: %s).",
+                        invokingRule,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                        getCurrentThreadAllocatedBytes() - startAllocatedBytes,
+                        USE_SHARED_CLASSPATH_INDEX);
                     targetEvent.close();
                   }
                 }));
@@ -505,6 +525,9 @@ class Jsr199JavacInvocation implements Javac.Invocation {
 
           StandardJavaFileManager standardFileManager =
               compiler.getStandardFileManager(null, null, null);
+          if (USE_SHARED_CLASSPATH_INDEX) {
+            standardFileManager = new IndexedClasspathFileManager(standardFileManager);
+          }
           addCloseable(standardFileManager);
 
           // Ensure plugins are loaded from their own classloader.
@@ -627,6 +650,39 @@ class Jsr199JavacInvocation implements Javac.Invocation {
       return lazyJavacTask;
     }
 
+    /**
+     * Writes the library jar from the classes in memory, and its class ABI jar from the same
+     * entries as they are written, so that the ABI doesn't need to read the jar back.
+     */
+    private int writeLibraryJar(JarParameters jarParameters) throws IOException {
+      ProjectFilesystem filesystem = context.getProjectFilesystem();
+      JarBuilder jarBuilder = newJarBuilder(jarParameters);
+      Map<Path, byte[]> jarContents = new HashMap<>();
+      Optional<Path> classAbiJarPath = jarParameters.getClassAbiJarPath();
+      if (classAbiJarPath.isPresent()) {
+        jarBuilder.setEntryListener((name, contents) -> jarContents.put(Paths.get(name), contents));
+      }
+
+      int result =
+          jarBuilder.createJarFile(
+              Objects.requireNonNull(
+                  filesystem.getPathForRelativePath(jarParameters.getJarPath())));
+      if (result != 0 || !classAbiJarPath.isPresent()) {
+        return result;
+      }
+
+      try {
+        new StubJar(jarContents)
+            .setCompatibilityMode(jarParameters.getAbiCompatibilityMode())
+            .writeTo(filesystem, classAbiJarPath.get());
+      } catch (IllegalArgumentException e) {
+        // Leave it to the next step to calculate the ABI from the jar, and report the error.
+        LOG.debug(e, "%s: unable to write the class ABI along with the jar.", invokingRule);
+        filesystem.deleteFileAtPathIfExists(classAbiJarPath.get());
+      }
+      return result;
+    }
+
     private JarBuilder newJarBuilder(JarParameters jarParameters) {
       JarBuilder jarBuilder = new JarBuilder();
       Objects.requireNonNull(inMemoryFileManager).writeToJar(jarBuilder);
@@ -637,7 +693,11 @@ class Jsr199JavacInvocation implements Javac.Invocation {
           .setMainClass(jarParameters.getMainClass().orElse(null))
           .setManifestFile(jarParameters.getManifestFile().orElse(null))
           .setShouldMergeManifests(true)
-          .setRemoveEntryPredicate(jarParameters.getRemoveEntryPredicate());
+          .setRemoveEntryPredicate(jarParameters.getRemoveEntryPredicate())
+          .setCompressionExecutor(
+              context.isParallelJarCompressionEnabled()
+                  ? ZipOutputStreams.getCompressionExecutor()
+                  : null);
     }
 
     private Iterable<? extends JavaFileObject> createCompilationUnits(
@@ -703,4 +763,14 @@ class Jsr199JavacInvocation implements Javac.Invocation {
 
     throw new AssertionError("Unreachable code");
   }
+
+  /** @return the bytes allocated by the current thread so far, or 0 if the JVM doesn't say. */
+  private static long getCurrentThreadAllocatedBytes() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
 }
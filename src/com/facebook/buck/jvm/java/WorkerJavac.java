@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
+import com.facebook.buck.jvm.java.abi.source.api.SourceOnlyAbiRuleInfoFactory;
+import com.facebook.buck.jvm.java.worker.CompilerWorkers;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+
+/**
+ * The JDK's javac, run in persistent worker processes. Unlike {@link ExternalJavac}, which starts a
+ * new JVM per rule, the workers keep javac and the annotation processors it loaded warm from one
+ * rule to the next. Like {@link ExternalJavac}, it only produces classes.
+ */
+public class WorkerJavac implements Javac {
+  private final int maxWorkers;
+
+  public WorkerJavac(int maxWorkers) {
+    this.maxWorkers = maxWorkers;
+  }
+
+  @Override
+  public ImmutableList<String> getCommandPrefix(SourcePathResolver resolver) {
+    throw new UnsupportedOperationException("javac in a worker may not be used externally");
+  }
+
+  @Override
+  public ImmutableMap<String, String> getEnvironment(SourcePathResolver resolver) {
+    throw new UnsupportedOperationException("javac in a worker may not be used externally");
+  }
+
+  @Override
+  public String getDescription(
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList) {
+    StringBuilder builder = new StringBuilder("javac ");
+    Joiner.on(" ").appendTo(builder, options);
+    builder.append(" ");
+    builder.append("@").append(pathToSrcsList);
+
+    return builder.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "javac (worker)";
+  }
+
+  @Override
+  public Invocation newBuildInvocation(
+      JavacExecutionContext context,
+      SourcePathResolver sourcePathResolver,
+      BuildTarget invokingRule,
+      ImmutableList<String> options,
+      ImmutableList<JavacPluginJsr199Fields> annotationProcessors,
+      ImmutableList<JavacPluginJsr199Fields> javacPlugins,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList,
+      Path workingDirectory,
+      boolean trackClassUsage,
+      boolean trackJavacPhaseEvents,
+      @Nullable JarParameters abiJarParameters,
+      @Nullable JarParameters libraryJarParameters,
+      AbiGenerationMode abiGenerationMode,
+      AbiGenerationMode abiCompatibilityMode,
+      @Nullable SourceOnlyAbiRuleInfoFactory ruleInfoFactory) {
+    Preconditions.checkArgument(abiJarParameters == null);
+    Preconditions.checkArgument(libraryJarParameters == null);
+
+    return new Invocation() {
+      @Override
+      public int buildSourceOnlyAbiJar() {
+        throw new UnsupportedOperationException(
+            "Cannot build source-only ABI jar with javac in a worker.");
+      }
+
+      @Override
+      public int buildSourceAbiJar() {
+        throw new UnsupportedOperationException(
+            "Cannot build source ABI jar with javac in a worker.");
+      }
+
+      @Override
+      public int buildClasses() throws InterruptedException {
+        Preconditions.checkArgument(
+            abiGenerationMode == AbiGenerationMode.CLASS,
+            "Cannot compile ABI jars with javac in a worker");
+        ImmutableList<Path> expandedSources;
+        try {
+          expandedSources =
+              JavaPaths.extractArchivesAndGetPaths(
+                  context.getProjectFilesystem(),
+                  context.getProjectFilesystemFactory(),
+                  javaSourceFilePaths,
+                  workingDirectory);
+        } catch (IOException e) {
+          throw new HumanReadableException(
+              "Unable to expand sources for %s into %s", invokingRule, workingDirectory);
+        }
+
+        // Same as ExternalJavac: no sources, nothing to do.
+        if (expandedSources.isEmpty()) {
+          return 0;
+        }
+
+        ImmutableList<String> sources =
+            expandedSources.stream().map(Object::toString).collect(ImmutableList.toImmutableList());
+        try {
+          // Not read by the worker, but makes the description of the step runnable by hand.
+          context
+              .getProjectFilesystem()
+              .writeLinesToPath(
+                  Iterables.concat(
+                      FluentIterable.from(options).transform(ARGFILES_ESCAPER::apply),
+                      FluentIterable.from(sources).transform(ARGFILES_ESCAPER::apply)),
+                  pathToSrcsList);
+          return CompilerWorkers.compile(
+              context.getWorkerProcessPools(),
+              context.getProcessExecutor(),
+              context.getProjectFilesystem(),
+              context.getEnvironment(),
+              ImmutableList.of(CompilerWorkers.JAVAC),
+              maxWorkers,
+              options,
+              sources,
+              context.getStdErr());
+        } catch (IOException e) {
+          e.printStackTrace(context.getStdErr());
+          return 1;
+        }
+      }
+
+      @Override
+      public void close() {
+        // Nothing to do
+      }
+    };
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.abi;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+/** A {@link LibraryReader} that reads from the contents of a library kept in memory. */
+class InMemoryReader implements LibraryReader {
+  private final Map<Path, byte[]> contents;
+
+  public InMemoryReader(Map<Path, byte[]> contents) {
+    this.contents = contents;
+  }
+
+  @Override
+  public List<Path> getRelativePaths() {
+    return new ArrayList<>(contents.keySet());
+  }
+
+  @Override
+  public InputStream openResourceFile(Path relativePath) {
+    if (!isResource(relativePath)) {
+      throw new IllegalArgumentException();
+    }
+    return new ByteArrayInputStream(getContents(relativePath));
+  }
+
+  @Override
+  public void visitClass(Path relativePath, ClassVisitor cv, boolean skipCode) {
+    if (!isClass(relativePath)) {
+      throw new IllegalArgumentException();
+    }
+
+    int parsingOptions = ClassReader.SKIP_FRAMES;
+    if (skipCode) {
+      parsingOptions |= ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE;
+    }
+
+    new ClassReader(getContents(relativePath)).accept(cv, parsingOptions);
+  }
+
+  @Override
+  public void close() {
+    // Nothing in particular needed
+  }
+
+  private byte[] getContents(Path relativePath) {
+    return Objects.requireNonNull(contents.get(relativePath), relativePath::toString);
+  }
+}
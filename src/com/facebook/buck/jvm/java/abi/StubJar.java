@@ -41,6 +41,14 @@ public class StubJar {
     libraryReaderSupplier = () -> LibraryReader.of(toMirror);
   }
 
+  /**
+   * @param libraryContents the files of the library to mirror, by path relative to its root, as
+   *     collected while writing its jar
+   */
+  public StubJar(Map<Path, byte[]> libraryContents) {
+    libraryReaderSupplier = () -> new InMemoryReader(libraryContents);
+  }
+
   /**
    * @param targetVersion the class file version to output, expressed as the corresponding Java
    *     source version
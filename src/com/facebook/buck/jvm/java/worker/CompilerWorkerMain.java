@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import com.facebook.buck.worker.WorkerProcessCommand;
+import com.facebook.buck.worker.WorkerProcessProtocol;
+import com.facebook.buck.worker.WorkerProcessProtocolZero;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The main class of a persistent compiler worker process, which {@link CompilerWorkers} talks to
+ * over {@link WorkerProcessProtocolZero}. It keeps a single compiler loaded, so that the JIT
+ * compiled code of the compiler is reused by every compile the process runs.
+ *
+ * <p>Usage: {@code CompilerWorkerMain javac} or {@code CompilerWorkerMain kotlinc
+ * <compiler-jar>...}
+ */
+public class CompilerWorkerMain {
+  private CompilerWorkerMain() {}
+
+  public static void main(String[] args) throws Exception {
+    // Stdout carries the protocol: anything a compiler or an annotation processor prints goes to
+    // stderr instead.
+    PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+
+    run(createCompiler(Arrays.asList(args)), System.in, protocolOut);
+    System.exit(0);
+  }
+
+  static WorkerCompiler createCompiler(List<String> args) throws Exception {
+    if (args.isEmpty()) {
+      throw new IllegalArgumentException("Expected the name of the compiler to run.");
+    }
+    switch (args.get(0)) {
+      case CompilerWorkers.JAVAC:
+        return new JavacWorkerCompiler();
+      case CompilerWorkers.KOTLINC:
+        return new KotlincWorkerCompiler(args.subList(1, args.size()));
+      default:
+        throw new IllegalArgumentException("Unknown compiler: " + args.get(0));
+    }
+  }
+
+  /** Answers the handshake, then runs compiles until Buck closes the stream. */
+  static void run(WorkerCompiler compiler, InputStream in, OutputStream out) throws IOException {
+    WorkerProcessProtocol.CommandReceiver receiver =
+        new WorkerProcessProtocolZero.CommandReceiver(out, in);
+    int messageId = 0;
+    receiver.handshake(messageId++);
+    while (!receiver.shouldClose()) {
+      WorkerProcessCommand command = receiver.receiveCommand(messageId);
+      receiver.sendResponse(
+          messageId, WorkerProcessProtocolZero.TYPE_RESULT, runCommand(compiler, command));
+      messageId++;
+    }
+    receiver.close();
+  }
+
+  private static int runCommand(WorkerCompiler compiler, WorkerProcessCommand command)
+      throws IOException {
+    List<String> args = Files.readAllLines(command.getArgsPath(), StandardCharsets.UTF_8);
+    int separator = args.indexOf(CompilerWorkers.SOURCES_SEPARATOR);
+    try (PrintStream stdout = newPrintStream(command.getStdOutPath());
+        PrintStream stderr = newPrintStream(command.getStdErrPath())) {
+      try {
+        return compiler.compile(
+            args.subList(0, separator), args.subList(separator + 1, args.size()), stdout, stderr);
+      } catch (Exception e) {
+        // A crash of the compiler fails the compile, not the worker.
+        e.printStackTrace(stderr);
+        return 1;
+      }
+    }
+  }
+
+  private static PrintStream newPrintStream(Path path) throws IOException {
+    return new PrintStream(Files.newOutputStream(path), true, "UTF-8");
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.env.BuckClasspath;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPool.BorrowedWorkerProcess;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs compiles in pools of persistent {@link CompilerWorkerMain} processes.
+ *
+ * <p>The pools are kept with the other worker pools of the build: in the daemon's persistent worker
+ * pools when there is a daemon, and in the pools of the build otherwise. They are closed along with
+ * those, and a worker also exits as soon as its stdin is closed, which happens when Buck exits or
+ * dies. A pool is replaced when its capacity or one of the {@link #POOL_ENVIRONMENT_VARIABLES}
+ * changes, so with a daemon, warm workers are reused by the following builds as long as those stay
+ * the same.
+ */
+public final class CompilerWorkers {
+  public static final String JAVAC = "javac";
+  public static final String KOTLINC = "kotlinc";
+
+  /** Separates the options of the compiler from the sources in the arguments of a job. */
+  static final String SOURCES_SEPARATOR = "--";
+
+  /**
+   * The environment variables read by the JVM of a worker or by the compilers it runs. Workers
+   * inherit the whole environment of the build that starts them, but the other variables, like the
+   * id of the build, do not change how sources are compiled.
+   */
+  static final ImmutableSet<String> POOL_ENVIRONMENT_VARIABLES =
+      ImmutableSet.of(
+          "JAVA_TOOL_OPTIONS",
+          "_JAVA_OPTIONS",
+          "KOTLIN_HOME",
+          "LANG",
+          "LC_ALL",
+          "LC_CTYPE",
+          "LC_MESSAGES",
+          "TMPDIR");
+
+  private CompilerWorkers() {}
+
+  /**
+   * Compiles the given sources in a worker running the given compiler, starting the worker if
+   * needed. What the compiler printed is copied to {@code output}.
+   *
+   * @param compiler the name of the compiler, followed by the arguments {@link CompilerWorkerMain}
+   *     needs to load it
+   * @param pools the worker pools of the build, see {@link #getWorkerProcessPools}
+   * @param maxWorkers how many workers may run the compiler at the same time
+   * @return the exit code of the compiler
+   */
+  public static int compile(
+      ConcurrentMap<String, WorkerProcessPool> pools,
+      ProcessExecutor processExecutor,
+      ProjectFilesystem filesystem,
+      ImmutableMap<String, String> environment,
+      ImmutableList<String> compiler,
+      int maxWorkers,
+      Iterable<String> options,
+      Iterable<String> sources,
+      PrintStream output)
+      throws IOException, InterruptedException {
+    WorkerProcessPool pool =
+        getPool(pools, processExecutor, filesystem, environment, compiler, maxWorkers);
+    // One argument per line: the worker does not need to unescape anything.
+    String jobArgs =
+        Joiner.on('\n')
+            .join(Iterables.concat(options, ImmutableList.of(SOURCES_SEPARATOR), sources));
+
+    WorkerJobResult result;
+    try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+      result = worker.submitAndWaitForJob(jobArgs);
+    }
+    result.getStdout().ifPresent(output::print);
+    result.getStderr().ifPresent(output::print);
+    return result.getExitCode();
+  }
+
+  /**
+   * @return the pools in which the workers are kept: the daemon's persistent pools if there is a
+   *     daemon, or else the pools of the build, which are closed when it ends.
+   */
+  public static ConcurrentMap<String, WorkerProcessPool> getWorkerProcessPools(
+      ExecutionContext context) {
+    return context.getPersistentWorkerPools().orElse(context.getWorkerProcessPools());
+  }
+
+  private static WorkerProcessPool getPool(
+      ConcurrentMap<String, WorkerProcessPool> pools,
+      ProcessExecutor processExecutor,
+      ProjectFilesystem filesystem,
+      ImmutableMap<String, String> environment,
+      ImmutableList<String> compiler,
+      int maxWorkers) {
+    ImmutableList<String> command = getCommand(compiler);
+    String key =
+        "compiler-worker " + filesystem.getRootPath() + " " + Joiner.on(' ').join(command);
+    // A pool started with another capacity or compiler environment is replaced, the same way
+    // WorkerProcessPoolFactory replaces the pools of worker tools.
+    Hasher poolHasher = Hashing.sha1().newHasher().putString(key, StandardCharsets.UTF_8);
+    for (String variable : POOL_ENVIRONMENT_VARIABLES) {
+      poolHasher.putString(variable, StandardCharsets.UTF_8);
+      String value = environment.get(variable);
+      if (value != null) {
+        poolHasher.putBoolean(true).putString(value, StandardCharsets.UTF_8);
+      } else {
+        poolHasher.putBoolean(false);
+      }
+    }
+    HashCode poolHash = poolHasher.putInt(maxWorkers).hash();
+
+    WorkerProcessPool pool = pools.get(key);
+    if (pool != null && !pool.getPoolHash().equals(poolHash)) {
+      if (pools.remove(key, pool)) {
+        pool.close();
+      }
+      pool = pools.get(key);
+    }
+    if (pool != null) {
+      return pool;
+    }
+
+    Path tmpDir =
+        filesystem
+            .getBuckPaths()
+            .getTmpDir()
+            .resolve("compiler-workers")
+            .resolve(compiler.get(0) + "-" + poolHash.toString().substring(0, 8));
+    Path logDir = filesystem.resolve(filesystem.getBuckPaths().getLogDir()).resolve("workers");
+    ProcessExecutorParams processParams =
+        ProcessExecutorParams.builder()
+            .setCommand(command)
+            .setEnvironment(environment)
+            .setDirectory(filesystem.getRootPath())
+            .build();
+    AtomicInteger workerNumber = new AtomicInteger(0);
+    WorkerProcessPool newPool =
+        new WorkerProcessPool(
+            maxWorkers,
+            poolHash,
+            () -> {
+              Path workerTmpDir =
+                  tmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
+              filesystem.mkdirs(workerTmpDir);
+              Files.createDirectories(logDir);
+              // Deleted by the worker process when it is closed.
+              Path stdErr = Files.createTempFile(logDir, compiler.get(0) + "-", "-stderr.log");
+              WorkerProcess process =
+                  new WorkerProcess(
+                      processExecutor, processParams, filesystem, stdErr, workerTmpDir);
+              process.ensureLaunchAndHandshake();
+              return process;
+            });
+    WorkerProcessPool previousPool = pools.putIfAbsent(key, newPool);
+    return previousPool == null ? newPool : previousPool;
+  }
+
+  /** @return the command that starts a worker running the given compiler. */
+  private static ImmutableList<String> getCommand(ImmutableList<String> compiler) {
+    String classpath = BuckClasspath.getBuckClasspathFromEnvVarOrNull();
+    if (classpath == null) {
+      // Not running from the launcher, e.g. in tests. Workers run from the project root.
+      classpath =
+          Splitter.on(File.pathSeparatorChar).splitToList(System.getProperty("java.class.path"))
+              .stream()
+              .map(entry -> Paths.get(entry).toAbsolutePath().toString())
+              .collect(Collectors.joining(File.pathSeparator));
+    }
+    return ImmutableList.<String>builder()
+        .add(Paths.get(System.getProperty("java.home"), "bin", "java").toString())
+        .add("-cp", classpath)
+        .add(CompilerWorkerMain.class.getName())
+        .addAll(compiler)
+        .build();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs the JDK's javac. Besides the compiler itself, the class loaders of annotation processors are
+ * kept from one compile to the next, for as long as the jars they are loaded from do not change.
+ */
+class JavacWorkerCompiler implements WorkerCompiler {
+  private static final int MAX_PROCESSOR_CLASS_LOADERS = 16;
+
+  private final JavaCompiler compiler;
+  private final Map<List<String>, URLClassLoader> processorClassLoaders =
+      new LinkedHashMap<List<String>, URLClassLoader>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, URLClassLoader> eldest) {
+          if (size() <= MAX_PROCESSOR_CLASS_LOADERS) {
+            return false;
+          }
+          try {
+            eldest.getValue().close();
+          } catch (IOException e) {
+            // The class loader is unreachable from now on anyway.
+          }
+          return true;
+        }
+      };
+
+  JavacWorkerCompiler() {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IllegalStateException(
+          "No system compiler found. Did you install the JRE instead of the JDK?");
+    }
+    this.compiler = compiler;
+  }
+
+  @Override
+  public int compile(
+      List<String> options, List<String> sources, PrintStream stdout, PrintStream stderr)
+      throws IOException {
+    PrintWriter output = new PrintWriter(stderr, true);
+    try (StandardJavaFileManager fileManager =
+        compiler.getStandardFileManager(null, null, null)) {
+      boolean success =
+          compiler
+              .getTask(
+                  output,
+                  new ProcessorCachingFileManager(fileManager),
+                  null,
+                  options,
+                  null,
+                  fileManager.getJavaFileObjectsFromStrings(sources))
+              .call();
+      output.flush();
+      return success ? 0 : 1;
+    }
+  }
+
+  private ClassLoader getProcessorClassLoader(Iterable<? extends File> processorPath)
+      throws MalformedURLException {
+    // Keyed by modification time and size as well, so that rebuilt processors are reloaded.
+    List<String> key = new ArrayList<>();
+    List<URL> urls = new ArrayList<>();
+    for (File file : processorPath) {
+      key.add(file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length());
+      urls.add(file.toURI().toURL());
+    }
+    URLClassLoader classLoader = processorClassLoaders.get(key);
+    if (classLoader == null) {
+      classLoader =
+          new URLClassLoader(urls.toArray(new URL[0]), compiler.getClass().getClassLoader());
+      processorClassLoaders.put(key, classLoader);
+    }
+    // javac closes the processor class loader at the end of the compile if it can.
+    return new ClassLoader(classLoader) {};
+  }
+
+  private class ProcessorCachingFileManager
+      extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    ProcessorCachingFileManager(StandardJavaFileManager fileManager) {
+      super(fileManager);
+    }
+
+    @Override
+    @Nullable
+    public ClassLoader getClassLoader(Location location) {
+      Iterable<? extends File> processorPath =
+          location == StandardLocation.ANNOTATION_PROCESSOR_PATH
+              ? fileManager.getLocation(location)
+              : null;
+      if (processorPath == null) {
+        return super.getClassLoader(location);
+      }
+      try {
+        return getProcessorClassLoader(processorPath);
+      } catch (MalformedURLException e) {
+        return super.getClassLoader(location);
+      }
+    }
+  }
+}
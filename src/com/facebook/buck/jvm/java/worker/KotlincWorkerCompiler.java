@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.ToolProvider;
+
+/** Runs kotlinc, loaded once from the jars of the Kotlin compiler. */
+class KotlincWorkerCompiler implements WorkerCompiler {
+  private static final String COMPILER_CLASS = "org.jetbrains.kotlin.cli.jvm.K2JVMCompiler";
+  private static final String EXIT_CODE_CLASS = "org.jetbrains.kotlin.cli.common.ExitCode";
+
+  private final URLClassLoader classLoader;
+  private final Object compiler;
+  private final Method exec;
+  private final Method getCode;
+
+  KotlincWorkerCompiler(List<String> compilerClassPath) throws Exception {
+    URL[] urls = new URL[compilerClassPath.size()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = Paths.get(compilerClassPath.get(i)).toUri().toURL();
+    }
+    classLoader = new URLClassLoader(urls, ToolProvider.getSystemToolClassLoader());
+    compiler = classLoader.loadClass(COMPILER_CLASS).newInstance();
+    exec = compiler.getClass().getMethod("exec", PrintStream.class, String[].class);
+    getCode = classLoader.loadClass(EXIT_CODE_CLASS).getMethod("getCode");
+  }
+
+  @Override
+  public int compile(
+      List<String> options, List<String> sources, PrintStream stdout, PrintStream stderr)
+      throws Exception {
+    List<String> args = new ArrayList<>(options);
+    args.addAll(sources);
+    Object exitCode = exec.invoke(compiler, stderr, args.toArray(new String[0]));
+    return (Integer) getCode.invoke(exitCode);
+  }
+}
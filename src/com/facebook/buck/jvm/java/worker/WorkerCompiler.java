@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/** A compiler that stays loaded in a worker process and compiles one job after the other. */
+interface WorkerCompiler {
+  /**
+   * @param options the command line options of the compiler
+   * @param sources the paths of the sources to compile
+   * @return the exit code of the compiler
+   */
+  int compile(List<String> options, List<String> sources, PrintStream stdout, PrintStream stderr)
+      throws Exception;
+}
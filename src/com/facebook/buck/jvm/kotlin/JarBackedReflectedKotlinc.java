@@ -78,6 +78,11 @@ public class JarBackedReflectedKotlinc implements Kotlinc {
     this.standardLibraryClasspath = standardLibraryClasspath;
   }
 
+  /** @return the jars the compiler is loaded from. */
+  ImmutableSet<SourcePath> getCompilerClassPath() {
+    return compilerClassPath;
+  }
+
   @Override
   public KotlincVersion getVersion() {
     return VERSION;
@@ -129,7 +134,8 @@ public class JarBackedReflectedKotlinc implements Kotlinc {
       ImmutableSortedSet<Path> kotlinSourceFilePaths,
       Path pathToSrcsList,
       Optional<Path> workingDirectory,
-      ProjectFilesystem projectFilesystem) {
+      ProjectFilesystem projectFilesystem)
+      throws InterruptedException {
 
     ImmutableList<Path> expandedSources;
     try {
@@ -61,6 +61,13 @@ public class KotlinBuckConfig implements ConfigView<BuckConfig> {
               delegate.getPathSourcePath(getPathToAnnotationsJar()),
               delegate.getPathSourcePath(getPathToCompilerJar()));
 
+      if (isWorkerCompilation()) {
+        return new WorkerKotlinc(
+            classpathEntries,
+            getPathToAnnotationProcessingJar(),
+            getPathToStdlibJar(),
+            getMaxCompilerWorkers());
+      }
       return new JarBackedReflectedKotlinc(
           classpathEntries, getPathToAnnotationProcessingJar(), getPathToStdlibJar());
     }
@@ -209,6 +216,21 @@ public class KotlinBuckConfig implements ConfigView<BuckConfig> {
     return value.orElse(false);
   }
 
+  /**
+   * Determine whether the in-process compiler should run in persistent worker processes instead,
+   * which is requested by setting the "compiler_workers" property to "true".
+   */
+  private boolean isWorkerCompilation() {
+    return delegate.getBooleanValue(SECTION, "compiler_workers", false);
+  }
+
+  /** @return how many compiler workers may run at the same time. */
+  private int getMaxCompilerWorkers() {
+    return delegate
+        .getInteger(SECTION, "compiler_worker_count")
+        .orElse(Runtime.getRuntime().availableProcessors());
+  }
+
   /**
    * Find the Kotlin home (installation) directory by searching in this order: <br>
    *
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.worker.CompilerWorkers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * The same compiler as {@link JarBackedReflectedKotlinc}, run in persistent worker processes
+ * instead of Buck's, so that it stays warm without competing with Buck for heap.
+ */
+public class WorkerKotlinc extends JarBackedReflectedKotlinc {
+  private final int maxWorkers;
+
+  WorkerKotlinc(
+      ImmutableSet<SourcePath> compilerClassPath,
+      Path annotationProcessingClassPath,
+      Path standardLibraryClasspath,
+      int maxWorkers) {
+    super(compilerClassPath, annotationProcessingClassPath, standardLibraryClasspath);
+    this.maxWorkers = maxWorkers;
+  }
+
+  @Override
+  public String getShortName() {
+    return "kotlinc (worker)";
+  }
+
+  @Override
+  public int buildWithClasspath(
+      ExecutionContext context,
+      BuildTarget invokingRule,
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> kotlinSourceFilePaths,
+      Path pathToSrcsList,
+      Optional<Path> workingDirectory,
+      ProjectFilesystem projectFilesystem)
+      throws InterruptedException {
+    ImmutableList<String> sources;
+    try {
+      sources =
+          getExpandedSourcePaths(
+                  projectFilesystem,
+                  context.getProjectFilesystemFactory(),
+                  kotlinSourceFilePaths,
+                  workingDirectory)
+              .stream()
+              .map(path -> projectFilesystem.resolve(path).toAbsolutePath().toString())
+              .collect(ImmutableList.toImmutableList());
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          e, "Unable to expand sources for %s into %s", invokingRule, workingDirectory);
+    }
+
+    ImmutableList.Builder<String> compiler = ImmutableList.builder();
+    compiler.add(CompilerWorkers.KOTLINC);
+    for (SourcePath path : getCompilerClassPath()) {
+      PathSourcePath pathSourcePath = (PathSourcePath) path;
+      compiler.add(
+          pathSourcePath.getFilesystem().resolve(pathSourcePath.getRelativePath()).toString());
+    }
+
+    try {
+      return CompilerWorkers.compile(
+          CompilerWorkers.getWorkerProcessPools(context),
+          context.getProcessExecutor(),
+          projectFilesystem,
+          context.getEnvironment(),
+          compiler.build(),
+          maxWorkers,
+          options,
+          sources,
+          context.getStdErr());
+    } catch (IOException e) {
+      e.printStackTrace(context.getStdErr());
+      return 1;
+    }
+  }
+}
@@ -17,8 +17,15 @@ package com.facebook.buck.remoteexecution;
 
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /** Used for wrapping access to data for uploads. */
 public interface UploadDataSupplier {
@@ -33,6 +40,18 @@ public interface UploadDataSupplier {
 
   InputStream get() throws IOException;
 
+  /**
+   * Returns the data as a buffer which is not modified afterwards, so that it can be sent without
+   * being copied again. Implementations backed by byte arrays should avoid copying the data, the
+   * default reads the whole stream. This holds all of the data at once, so large blobs should be
+   * read through {@link #get()} instead.
+   */
+  default ByteBuffer getByteBuffer() throws IOException {
+    try (InputStream stream = get()) {
+      return ByteBuffer.wrap(ByteStreams.toByteArray(stream));
+    }
+  }
+
   Digest getDigest();
 
   /** Create a simple UploadDataSupplier. */
@@ -55,4 +74,117 @@ public interface UploadDataSupplier {
       }
     };
   }
+
+  /** Create an UploadDataSupplier which can hand out its data as a buffer without a stream. */
+  static UploadDataSupplier of(
+      String name,
+      Digest digest,
+      ThrowingSupplier<InputStream, IOException> stream,
+      ThrowingSupplier<ByteBuffer, IOException> buffer) {
+    return new UploadDataSupplier() {
+      @Override
+      public InputStream get() throws IOException {
+        return stream.get();
+      }
+
+      @Override
+      public ByteBuffer getByteBuffer() throws IOException {
+        return buffer.get();
+      }
+
+      @Override
+      public Digest getDigest() {
+        return digest;
+      }
+
+      @Override
+      public String describe() {
+        return name;
+      }
+    };
+  }
+
+  /** Create an UploadDataSupplier which hands out {@code data} without copying it. */
+  static UploadDataSupplier ofBytes(String name, Digest digest, byte[] data) {
+    return new UploadDataSupplier() {
+      @Override
+      public InputStream get() {
+        return new ByteArrayInputStream(data);
+      }
+
+      @Override
+      public ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+      }
+
+      @Override
+      public Digest getDigest() {
+        return digest;
+      }
+
+      @Override
+      public String describe() {
+        return name;
+      }
+    };
+  }
+
+  /**
+   * Create an UploadDataSupplier for the contents of a file, which are read into a buffer with a
+   * single copy.
+   */
+  static UploadDataSupplier ofFile(String name, Digest digest, Path path) {
+    return new UploadDataSupplier() {
+      @Override
+      public InputStream get() throws IOException {
+        return Files.newInputStream(path);
+      }
+
+      @Override
+      public ByteBuffer getByteBuffer() throws IOException {
+        return FileBuffers.read(path);
+      }
+
+      @Override
+      public Digest getDigest() {
+        return digest;
+      }
+
+      @Override
+      public String describe() {
+        return name;
+      }
+    };
+  }
+
+  /** Reads files into buffers for {@link #ofFile}. */
+  final class FileBuffers {
+    private FileBuffers() {}
+
+    /**
+     * Files are read onto the heap rather than memory mapped, as mappings are only released when
+     * the buffer is garbage collected, which can be long after the upload.
+     *
+     * @return a read-only buffer with the contents of the file at {@code path}
+     */
+    public static ByteBuffer read(Path path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+          throw new IOException(
+              String.format(
+                  "%s is too large (%d bytes) to be read into a buffer, it should be streamed.",
+                  path, size));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            break;
+          }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+      }
+    }
+  }
 }
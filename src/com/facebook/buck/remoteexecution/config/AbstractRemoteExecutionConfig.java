@@ -27,6 +27,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.remoteexecution.proto.RESessionID;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
 import com.facebook.buck.remoteexecution.util.RemoteExecutionUtil;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -120,6 +121,14 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
   // Should ree try to reschedule OOMed action on a larger worker
   public static final String TRY_LARGER_WORKER_ON_OOM = "try_larger_worker_on_oom";
 
+  // Whether output files of remote actions are left in the CAS until something needs them on disk
+  public static final String LAZY_OUTPUT_MATERIALIZATION_KEY = "lazy_output_materialization";
+
+  // Local cache of the blobs downloaded from the CAS, shared by the builds run on this machine
+  public static final String LOCAL_CAS_CACHE_DIR_KEY = "local_cas_cache_dir";
+  public static final String LOCAL_CAS_CACHE_MAX_SIZE_KEY = "local_cas_cache_max_size";
+  public static final long DEFAULT_LOCAL_CAS_CACHE_MAX_SIZE_BYTES = 10L * 1024 * 1024 * 1024;
+
   public static final String AUTO_RE_BUILD_PROJECTS_WHITELIST_KEY =
       "auto_re_build_projects_whitelist";
   public static final String AUTO_RE_BUILD_USERS_BLACKLIST_KEY = "auto_re_build_users_blacklist";
@@ -319,6 +328,19 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
     boolean tryLargerWorkerOnOom =
         getDelegate().getBoolean(SECTION, TRY_LARGER_WORKER_ON_OOM).orElse(false);
 
+    boolean isLazyOutputMaterializationEnabled =
+        getDelegate().getBooleanValue(SECTION, LAZY_OUTPUT_MATERIALIZATION_KEY, false);
+
+    Optional<Path> localCasCacheDirectory =
+        getValue(LOCAL_CAS_CACHE_DIR_KEY)
+            .map(
+                dir ->
+                    getDelegate().resolveNonNullPathOutsideTheProjectFilesystem(Paths.get(dir)));
+    long localCasCacheMaxSizeBytes =
+        getValue(LOCAL_CAS_CACHE_MAX_SIZE_KEY)
+            .map(SizeUnit::parseBytes)
+            .orElse(DEFAULT_LOCAL_CAS_CACHE_MAX_SIZE_BYTES);
+
     // Some of these values are also limited by other ones (e.g. synchronous work is limited by the
     // number of threads). We detect some of these cases and log an error to the user to help them
     // understand the behavior.
@@ -394,6 +416,21 @@ abstract class AbstractRemoteExecutionConfig implements ConfigView<BuckConfig> {
       public boolean tryLargerWorkerOnOom() {
         return tryLargerWorkerOnOom;
       }
+
+      @Override
+      public boolean isLazyOutputMaterializationEnabled() {
+        return isLazyOutputMaterializationEnabled;
+      }
+
+      @Override
+      public Optional<Path> getLocalCasCacheDirectory() {
+        return localCasCacheDirectory;
+      }
+
+      @Override
+      public long getLocalCasCacheMaxSizeBytes() {
+        return localCasCacheMaxSizeBytes;
+      }
     };
   }
 
@@ -15,6 +15,8 @@
  */
 package com.facebook.buck.remoteexecution.config;
 
+import java.nio.file.Path;
+import java.util.Optional;
 import java.util.OptionalLong;
 
 /** Configuration for the remote execution strategy. */
@@ -38,4 +40,16 @@ public interface RemoteExecutionStrategyConfig {
   String getWorkerRequirementsFilename();
 
   boolean tryLargerWorkerOnOom();
+
+  /**
+   * Whether output files of remote actions are left in the CAS, and only written to disk when a
+   * local step, or the user, needs them.
+   */
+  boolean isLazyOutputMaterializationEnabled();
+
+  /** Directory of the local cache of the blobs downloaded from the CAS, if they are cached. */
+  Optional<Path> getLocalCasCacheDirectory();
+
+  /** Size above which the least recently used blobs are evicted from the local CAS cache. */
+  long getLocalCasCacheMaxSizeBytes();
 }
@@ -22,7 +22,10 @@ import com.facebook.buck.event.EventKey;
 import com.facebook.buck.event.WorkAdvanceEvent;
 import com.facebook.buck.util.Scope;
 
-/** Started/Finished event pairs for CAS blob downloads . */
+/**
+ * Started/Finished event pairs for CAS blob downloads, and events for the blobs found in the local
+ * cache instead.
+ */
 public abstract class CasBlobDownloadEvent extends AbstractBuckEvent implements WorkAdvanceEvent {
   protected CasBlobDownloadEvent(EventKey eventKey) {
     super(eventKey);
@@ -65,6 +68,31 @@ public abstract class CasBlobDownloadEvent extends AbstractBuckEvent implements
     }
   }
 
+  /** Blobs were found in the local cache of CAS blobs, and did not have to be downloaded. */
+  public static final class LocalCacheHit extends CasBlobDownloadEvent {
+    private final int blobCount;
+    private final long sizeBytes;
+
+    public LocalCacheHit(int blobCount, long sizeBytes) {
+      super(EventKey.unique());
+      this.blobCount = blobCount;
+      this.sizeBytes = sizeBytes;
+    }
+
+    public int getBlobCount() {
+      return blobCount;
+    }
+
+    public long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("blobCount=[%d] sizeBytes=[%d]", getBlobCount(), getSizeBytes());
+    }
+  }
+
   /** Download to the CAS has finished. */
   public static class Finished extends CasBlobDownloadEvent {
     private final Started startedEvent;
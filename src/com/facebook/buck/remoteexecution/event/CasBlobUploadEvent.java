@@ -29,9 +29,15 @@ public abstract class CasBlobUploadEvent extends AbstractBuckEvent implements Wo
     super(eventKey);
   }
 
-  /** Send the Started and returns a Scoped object that sends the Finished event. */
-  public static Scope sendEvent(final BuckEventBus eventBus, int blobCount, long sizeBytes) {
-    final Started startedEvent = new Started(blobCount, sizeBytes);
+  /**
+   * Send the Started and returns a Scoped object that sends the Finished event.
+   *
+   * @param isBatch whether the blobs are uploaded in a single BatchUpdateBlobs request, rather than
+   *     streamed through the ByteStream service
+   */
+  public static Scope sendEvent(
+      final BuckEventBus eventBus, int blobCount, long sizeBytes, boolean isBatch) {
+    final Started startedEvent = new Started(blobCount, sizeBytes, isBatch);
     eventBus.post(startedEvent);
     return () -> eventBus.post(new Finished(startedEvent));
   }
@@ -40,17 +46,20 @@ public abstract class CasBlobUploadEvent extends AbstractBuckEvent implements Wo
   public static class Started extends CasBlobUploadEvent {
     private final int blobCount;
     private final long sizeBytes;
+    private final boolean isBatch;
 
     @VisibleForTesting
-    Started(int blobCount, long sizeBytes) {
+    Started(int blobCount, long sizeBytes, boolean isBatch) {
       super(EventKey.unique());
       this.blobCount = blobCount;
       this.sizeBytes = sizeBytes;
+      this.isBatch = isBatch;
     }
 
     @Override
     protected String getValueString() {
-      return String.format("BlobCount=[%d] SizeBytes=[%d]", getBlobCount(), getSizeBytes());
+      return String.format(
+          "BlobCount=[%d] SizeBytes=[%d] Batch=[%s]", getBlobCount(), getSizeBytes(), isBatch());
     }
 
     public int getBlobCount() {
@@ -60,6 +69,10 @@ public abstract class CasBlobUploadEvent extends AbstractBuckEvent implements Wo
     public long getSizeBytes() {
       return sizeBytes;
     }
+
+    public boolean isBatch() {
+      return isBatch;
+    }
   }
 
   /** Upload to the CAS has finished. */
@@ -76,6 +89,11 @@ public abstract class CasBlobUploadEvent extends AbstractBuckEvent implements Wo
       return startedEvent;
     }
 
+    /** @return how long the upload took, from sending the request to receiving the response. */
+    public long getElapsedNanos() {
+      return getNanoTime() - startedEvent.getNanoTime();
+    }
+
     @Override
     protected String getValueString() {
       return getStartedEvent().getValueString();
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.event;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+
+/**
+ * Summary of the merkle tree nodes built for the inputs of remote execution actions during a build.
+ */
+public class InputsTreeStatsEvent extends AbstractBuckEvent {
+  private final long nodesBuilt;
+  private final long nodesReused;
+
+  public InputsTreeStatsEvent(long nodesBuilt, long nodesReused) {
+    super(EventKey.unique());
+    this.nodesBuilt = nodesBuilt;
+    this.nodesReused = nodesReused;
+  }
+
+  /** Number of nodes which had to be built and hashed. */
+  public long getNodesBuilt() {
+    return nodesBuilt;
+  }
+
+  /** Number of nodes which were found already built, by this build or a previous one. */
+  public long getNodesReused() {
+    return nodesReused;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("NodesBuilt=[%d] NodesReused=[%d]", nodesBuilt, nodesReused);
+  }
+
+  @Override
+  public String getEventName() {
+    return "InputsTreeStats";
+  }
+}
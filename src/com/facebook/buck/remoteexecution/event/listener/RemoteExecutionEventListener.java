@@ -20,6 +20,7 @@ import com.facebook.buck.core.build.event.BuildRuleEvent;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.remoteexecution.event.CasBlobDownloadEvent;
 import com.facebook.buck.remoteexecution.event.CasBlobUploadEvent.Finished;
+import com.facebook.buck.remoteexecution.event.InputsTreeStatsEvent;
 import com.facebook.buck.remoteexecution.event.LocalFallbackEvent;
 import com.facebook.buck.remoteexecution.event.LocalFallbackEvent.Result;
 import com.facebook.buck.remoteexecution.event.LocalFallbackStats;
@@ -47,8 +48,15 @@ public class RemoteExecutionEventListener
 
   private final LongAdder downloads;
   private final LongAdder downloadBytes;
+  private final LongAdder downloadCacheHits;
+  private final LongAdder downloadCacheHitBytes;
   private final LongAdder uploads;
   private final LongAdder uploadBytes;
+  private final LongAdder uploadBatches;
+  private final LongAdder uploadNanos;
+
+  private final LongAdder inputsTreeNodesBuilt;
+  private final LongAdder inputsTreeNodesReused;
 
   private final LongAdder remoteCpuTime;
   private final LongAdder remoteQueueTime;
@@ -63,8 +71,14 @@ public class RemoteExecutionEventListener
   public RemoteExecutionEventListener() {
     this.downloads = new LongAdder();
     this.downloadBytes = new LongAdder();
+    this.downloadCacheHits = new LongAdder();
+    this.downloadCacheHitBytes = new LongAdder();
     this.uploads = new LongAdder();
     this.uploadBytes = new LongAdder();
+    this.uploadBatches = new LongAdder();
+    this.uploadNanos = new LongAdder();
+    this.inputsTreeNodesBuilt = new LongAdder();
+    this.inputsTreeNodesReused = new LongAdder();
     this.remoteCpuTime = new LongAdder();
     this.remoteQueueTime = new LongAdder();
     this.totalRemoteTime = new LongAdder();
@@ -93,6 +107,10 @@ public class RemoteExecutionEventListener
     hasFirstRemoteActionStarted.set(true);
     uploads.add(event.getStartedEvent().getBlobCount());
     uploadBytes.add(event.getStartedEvent().getSizeBytes());
+    if (event.getStartedEvent().isBatch()) {
+      uploadBatches.increment();
+    }
+    uploadNanos.add(event.getElapsedNanos());
   }
 
   /** Event specific subscriber method. */
@@ -103,6 +121,20 @@ public class RemoteExecutionEventListener
     downloadBytes.add(event.getStartedEvent().getSizeBytes());
   }
 
+  /** Event specific subscriber method. */
+  @Subscribe
+  public void onCasDownloadCacheHitEvent(CasBlobDownloadEvent.LocalCacheHit event) {
+    downloadCacheHits.add(event.getBlobCount());
+    downloadCacheHitBytes.add(event.getSizeBytes());
+  }
+
+  /** Event specific subscriber method. */
+  @Subscribe
+  public void onInputsTreeStatsEvent(InputsTreeStatsEvent event) {
+    inputsTreeNodesBuilt.add(event.getNodesBuilt());
+    inputsTreeNodesReused.add(event.getNodesReused());
+  }
+
   /** Event specific subscriber method. */
   @Subscribe
   public void onActionScheduled(
@@ -197,6 +229,16 @@ public class RemoteExecutionEventListener
     return downloadBytes.sum();
   }
 
+  /** @return the number of blobs found in the local CAS cache instead of being downloaded. */
+  public long getCasDownloadCacheHits() {
+    return downloadCacheHits.sum();
+  }
+
+  /** @return the number of bytes which did not have to be downloaded thanks to the local cache. */
+  public long getCasDownloadCacheHitBytes() {
+    return downloadCacheHitBytes.sum();
+  }
+
   @Override
   public int getCasUploads() {
     return uploads.intValue();
@@ -204,7 +246,27 @@ public class RemoteExecutionEventListener
 
   @Override
   public long getCasUploadSizeBytes() {
-    return uploadBytes.intValue();
+    return uploadBytes.sum();
+  }
+
+  /** @return the number of BatchUpdateBlobs requests sent to the CAS. */
+  public int getCasUploadBatches() {
+    return uploadBatches.intValue();
+  }
+
+  /** @return the total time spent in upload requests to the CAS, which may overlap. */
+  public long getCasUploadTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(uploadNanos.sum());
+  }
+
+  /** @return the number of inputs tree nodes which had to be built and hashed. */
+  public long getInputsTreeNodesBuilt() {
+    return inputsTreeNodesBuilt.sum();
+  }
+
+  /** @return the number of inputs tree nodes which were found already built. */
+  public long getInputsTreeNodesReused() {
+    return inputsTreeNodesReused.sum();
   }
 
   @Override
@@ -243,8 +305,14 @@ public class RemoteExecutionEventListener
     retval
         .put("cas_downloads_count", Integer.toString(getCasDownloads()))
         .put("cas_downloads_bytes", Long.toString(getCasDownloadSizeBytes()))
+        .put("cas_download_cache_hits_count", Long.toString(getCasDownloadCacheHits()))
+        .put("cas_download_cache_hits_bytes", Long.toString(getCasDownloadCacheHitBytes()))
         .put("cas_uploads_count", Integer.toString(getCasUploads()))
         .put("cas_uploads_bytes", Long.toString(getCasUploadSizeBytes()))
+        .put("cas_upload_batches_count", Integer.toString(getCasUploadBatches()))
+        .put("cas_upload_time_ms", Long.toString(getCasUploadTimeMs()))
+        .put("inputs_tree_nodes_built_count", Long.toString(getInputsTreeNodesBuilt()))
+        .put("inputs_tree_nodes_reused_count", Long.toString(getInputsTreeNodesReused()))
         .put("localfallback_totally_executed_rules", localFallbackTotalExecutions.toString())
         .put("localfallback_locally_executed_rules", localFallbackLocalExecutions.toString())
         .put(
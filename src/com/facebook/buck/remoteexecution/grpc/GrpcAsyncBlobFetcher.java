@@ -183,15 +183,22 @@ public class GrpcAsyncBlobFetcher implements AsyncBlobFetcher {
               digest, batchResponse.getStatus().getCode(), batchResponse.getStatus().getMessage()));
     }
     MessageDigest messageDigest = protocol.getMessageDigest();
-    for (ByteBuffer dataByteBuffer : batchResponse.getData().asReadOnlyByteBufferList()) {
+    List<ByteBuffer> dataByteBuffers = batchResponse.getData().asReadOnlyByteBufferList();
+    for (ByteBuffer dataByteBuffer : dataByteBuffers) {
       messageDigest.update(dataByteBuffer.duplicate());
-      for (Callable<WritableByteChannel> callable : writableByteChannels) {
-        // Reset buffer position for each channel that's written to
-        try (WritableByteChannel channel = callable.call()) {
-          channel.write(dataByteBuffer.duplicate());
-        } catch (Exception e) {
-          throw new BuckUncheckedExecutionException("Unable to write " + digest + " to channel");
+    }
+    // Large blobs come back as several buffers, which must all go to the same channel.
+    for (Callable<WritableByteChannel> callable : writableByteChannels) {
+      try (WritableByteChannel channel = callable.call()) {
+        for (ByteBuffer dataByteBuffer : dataByteBuffers) {
+          // Reset buffer position for each channel that's written to
+          ByteBuffer buffer = dataByteBuffer.duplicate();
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
         }
+      } catch (Exception e) {
+        throw new BuckUncheckedExecutionException(e, "Unable to write " + digest + " to channel");
       }
     }
     String receivedHash = HashCode.fromBytes(messageDigest.digest()).toString();
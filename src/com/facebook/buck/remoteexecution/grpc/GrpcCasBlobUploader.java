@@ -37,8 +37,9 @@ import com.google.bytestream.ByteStreamProto;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.SettableFuture;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
@@ -92,15 +93,14 @@ public class GrpcCasBlobUploader implements CasBlobUploader {
       throws IOException {
     long totalBlobSizeBytes = blobs.stream().mapToLong(blob -> blob.getDigest().getSize()).sum();
     try (Scope ignored =
-        CasBlobUploadEvent.sendEvent(buckEventBus, blobs.size(), totalBlobSizeBytes)) {
+        CasBlobUploadEvent.sendEvent(buckEventBus, blobs.size(), totalBlobSizeBytes, true)) {
       BatchUpdateBlobsRequest.Builder requestBuilder = BatchUpdateBlobsRequest.newBuilder();
       for (UploadDataSupplier blob : blobs) {
-        try (InputStream dataStream = blob.get()) {
-          requestBuilder.addRequests(
-              BatchUpdateBlobsRequest.Request.newBuilder()
-                  .setDigest(GrpcProtocol.get(blob.getDigest()))
-                  .setData(ByteString.readFrom(dataStream)));
-        }
+        // The buffers are not modified after this, so they can be wrapped rather than copied.
+        requestBuilder.addRequests(
+            BatchUpdateBlobsRequest.Request.newBuilder()
+                .setDigest(GrpcProtocol.get(blob.getDigest()))
+                .setData(UnsafeByteOperations.unsafeWrap(blob.getByteBuffer())));
       }
       BatchUpdateBlobsResponse batchUpdateBlobsResponse =
           storageStub.batchUpdateBlobs(requestBuilder.build()).get();
@@ -127,8 +127,7 @@ public class GrpcCasBlobUploader implements CasBlobUploader {
   @Override
   public UploadResult uploadFromStream(UploadDataSupplier blob) throws IOException {
     long uploadSize = blob.getDigest().getSize();
-    try (Scope ignored = CasBlobUploadEvent.sendEvent(buckEventBus, 1, uploadSize)) {
-      InputStream dataStream = blob.get();
+    try (Scope ignored = CasBlobUploadEvent.sendEvent(buckEventBus, 1, uploadSize, false)) {
       String name = GrpcRemoteExecutionClients.getResourceName(instanceName, blob.getDigest());
 
       SettableFuture<UploadResult> result = SettableFuture.create();
@@ -157,23 +156,30 @@ public class GrpcCasBlobUploader implements CasBlobUploader {
       StreamObserver<ByteStreamProto.WriteRequest> requestObserver =
           byteStreamStub.write(responseObserver);
 
-      // ByteString's readFrom InputStream will drain the stream - since these are large objects we
-      // want read and send chunks at a time. So read byte[CHUNK_SIZE] from the InputStream and copy
-      // them into the ByteString for upload.
-      byte[] buffer = new byte[CHUNK_SIZE];
-      int len, writeOffset = 0;
-      while ((len = dataStream.read(buffer)) > 0) {
-        requestObserver.onNext(
-            ByteStreamProto.WriteRequest.newBuilder()
-                .setResourceName(name)
-                .setWriteOffset(writeOffset)
-                .setData(ByteString.copyFrom(buffer, 0, len))
-                .build());
-        writeOffset += len;
+      // These are large objects (possibly larger than a buffer can hold), so read and send them
+      // in chunks. Each chunk is read into its own array, which the request wraps rather than
+      // copies, as it may still be queued after the next chunk is read.
+      long writeOffset = 0;
+      try (InputStream dataStream = blob.get()) {
+        while (true) {
+          byte[] chunk = new byte[CHUNK_SIZE];
+          int len = ByteStreams.read(dataStream, chunk, 0, CHUNK_SIZE);
+          if (len == 0) {
+            break;
+          }
+          requestObserver.onNext(
+              ByteStreamProto.WriteRequest.newBuilder()
+                  .setResourceName(name)
+                  .setWriteOffset(writeOffset)
+                  .setData(UnsafeByteOperations.unsafeWrap(chunk, 0, len))
+                  .build());
+          writeOffset += len;
+        }
       }
       requestObserver.onNext(
           ByteStreamProto.WriteRequest.newBuilder()
               .setResourceName(name)
+              .setWriteOffset(writeOffset)
               .setFinishWrite(true)
               .build());
       requestObserver.onCompleted();
@@ -18,6 +18,7 @@ package com.facebook.buck.remoteexecution.grpc;
 
 import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc.ContentAddressableStorageFutureStub;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.remoteexecution.AsyncBlobFetcher;
 import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
@@ -26,6 +27,8 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.proto.RemoteExecutionMetadata;
+import com.facebook.buck.remoteexecution.util.CachingAsyncBlobFetcher;
+import com.facebook.buck.remoteexecution.util.LocalCasCache;
 import com.facebook.buck.remoteexecution.util.MultiThreadedBlobUploader;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer;
 import com.facebook.buck.util.concurrent.MostExecutors;
@@ -36,6 +39,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /** Implementation of a CAS client using GRPC. */
 public class GrpcContentAddressableStorageClient implements ContentAddressedStorageClient {
@@ -46,7 +50,7 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
 
   private final MultiThreadedBlobUploader uploader;
   private final OutputsMaterializer outputsMaterializer;
-  private final GrpcAsyncBlobFetcher fetcher;
+  private final AsyncBlobFetcher fetcher;
 
   public GrpcContentAddressableStorageClient(
       ContentAddressableStorageFutureStub storageStub,
@@ -65,7 +69,7 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
             new GrpcCasBlobUploader(
                 instanceName, storageStub, byteStreamStub, buckEventBus, metadata));
 
-    this.fetcher =
+    AsyncBlobFetcher grpcFetcher =
         new GrpcAsyncBlobFetcher(
             instanceName,
             storageStub,
@@ -74,6 +78,18 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
             metadata,
             protocol,
             casDeadline);
+    Optional<LocalCasCache> localCache =
+        strategyConfig
+            .getLocalCasCacheDirectory()
+            .map(
+                dir ->
+                    LocalCasCache.forDirectory(
+                        dir, strategyConfig.getLocalCasCacheMaxSizeBytes(), protocol));
+    this.fetcher =
+        localCache
+            .<AsyncBlobFetcher>map(
+                cache -> new CachingAsyncBlobFetcher(grpcFetcher, cache, buckEventBus))
+            .orElse(grpcFetcher);
     this.outputsMaterializer =
         new OutputsMaterializer(
             SIZE_LIMIT,
@@ -81,7 +97,8 @@ public class GrpcContentAddressableStorageClient implements ContentAddressedStor
                 "output-materializer", strategyConfig.getOutputMaterializationThreads()),
             fetcher,
             protocol,
-            buckEventBus);
+            buckEventBus,
+            localCache);
   }
 
   @Override
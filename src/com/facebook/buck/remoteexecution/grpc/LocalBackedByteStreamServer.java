@@ -17,6 +17,8 @@
 package com.facebook.buck.remoteexecution.grpc;
 
 import build.bazel.remote.execution.v2.Digest;
+import com.facebook.buck.remoteexecution.CasBlobUploader.UploadResult;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.grpc.GrpcProtocol.GrpcDigest;
 import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamImplBase;
@@ -27,11 +29,15 @@ import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.ByteString;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /** A simple ByteStream server backed by a {@link LocalContentAddressedStorage}. */
 class LocalBackedByteStreamServer extends ByteStreamImplBase {
@@ -85,8 +91,62 @@ class LocalBackedByteStreamServer extends ByteStreamImplBase {
 
   @Override
   public StreamObserver<WriteRequest> write(StreamObserver<WriteResponse> responseObserver) {
-    // Unimplemented, Buck client doesn't use this.
-    return super.write(responseObserver);
+    return new StreamObserver<WriteRequest>() {
+      private final ByteString.Output data = ByteString.newOutput();
+      @Nullable private String resourceName;
+      private boolean failed;
+
+      @Override
+      public void onNext(WriteRequest request) {
+        if (failed) {
+          return;
+        }
+        if (resourceName == null) {
+          resourceName = request.getResourceName();
+        }
+        if (request.getWriteOffset() != data.size()) {
+          fail(
+              Status.INVALID_ARGUMENT.withDescription(
+                  String.format(
+                      "Expected write offset %d, got %d", data.size(), request.getWriteOffset())));
+          return;
+        }
+        try {
+          request.getData().writeTo(data);
+        } catch (IOException e) {
+          fail(Status.INTERNAL.withCause(e));
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {}
+
+      @Override
+      public void onCompleted() {
+        if (failed) {
+          return;
+        }
+        Digest digest = parseResourceName(Preconditions.checkNotNull(resourceName)).getDigest();
+        byte[] bytes = data.toByteString().toByteArray();
+        UploadResult result =
+            storage
+                .batchUpdateBlobs(
+                    ImmutableList.of(
+                        UploadDataSupplier.ofBytes(resourceName, new GrpcDigest(digest), bytes)))
+                .get(0);
+        if (result.status != 0) {
+          fail(Status.INTERNAL.withDescription(result.message));
+          return;
+        }
+        responseObserver.onNext(WriteResponse.newBuilder().setCommittedSize(bytes.length).build());
+        responseObserver.onCompleted();
+      }
+
+      private void fail(Status status) {
+        failed = true;
+        responseObserver.onError(status.asException());
+      }
+    };
   }
 
   @Override
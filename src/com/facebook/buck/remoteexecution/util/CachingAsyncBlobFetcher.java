@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.remoteexecution.AsyncBlobFetcher;
+import com.facebook.buck.remoteexecution.event.CasBlobDownloadEvent;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+/**
+ * An {@link AsyncBlobFetcher} which serves blobs from a {@link LocalCasCache} when they are cached,
+ * and adds the blobs it fetches from its delegate to the cache.
+ */
+public class CachingAsyncBlobFetcher implements AsyncBlobFetcher {
+  private final AsyncBlobFetcher delegate;
+  private final LocalCasCache cache;
+  private final BuckEventBus buckEventBus;
+
+  public CachingAsyncBlobFetcher(
+      AsyncBlobFetcher delegate, LocalCasCache cache, BuckEventBus buckEventBus) {
+    this.delegate = delegate;
+    this.cache = cache;
+    this.buckEventBus = buckEventBus;
+  }
+
+  @Override
+  public ListenableFuture<ByteBuffer> fetch(Digest digest) {
+    Optional<Path> cached = cache.get(digest);
+    if (cached.isPresent()) {
+      try (FileChannel source = FileChannel.open(cached.get())) {
+        ByteBuffer data = ByteBuffer.allocate(digest.getSize());
+        while (data.hasRemaining()) {
+          if (source.read(data) < 0) {
+            throw new IOException("Truncated cache entry " + cached.get());
+          }
+        }
+        data.flip();
+        postCacheHits(1, digest.getSize());
+        return Futures.immediateFuture(data);
+      } catch (NoSuchFileException e) {
+        // Evicted since, fetch it.
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
+    return Futures.transform(
+        delegate.fetch(digest),
+        data -> {
+          cache.put(digest, data);
+          return data;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<Unit> fetchToStream(Digest digest, WritableByteChannel channel) {
+    Optional<Path> cached = cache.get(digest);
+    if (cached.isPresent()) {
+      try (FileChannel source = FileChannel.open(cached.get())) {
+        transfer(source, channel);
+        postCacheHits(1, digest.getSize());
+        return Futures.immediateFuture(null);
+      } catch (NoSuchFileException e) {
+        // Evicted since, fetch it.
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
+    WritableByteChannel writer = cache.newWriter(digest);
+    ListenableFuture<Unit> future =
+        delegate.fetchToStream(digest, new TeeChannel(channel, writer, false));
+    future.addListener(() -> closeQuietly(writer), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  @Override
+  public ListenableFuture<Unit> batchFetchBlobs(
+      ImmutableMultimap<Digest, Callable<WritableByteChannel>> requests,
+      ImmutableMultimap<Digest, SettableFuture<Unit>> futures)
+      throws IOException {
+    ImmutableMultimap.Builder<Digest, Callable<WritableByteChannel>> missingRequests =
+        ImmutableMultimap.builder();
+    ImmutableMultimap.Builder<Digest, SettableFuture<Unit>> missingFutures =
+        ImmutableMultimap.builder();
+    int hits = 0;
+    long hitBytes = 0;
+    for (Digest digest : requests.keySet()) {
+      Optional<Path> cached = cache.get(digest);
+      if (cached.isPresent()) {
+        try (FileChannel source = FileChannel.open(cached.get())) {
+          for (Callable<WritableByteChannel> callable : requests.get(digest)) {
+            try (WritableByteChannel channel = callable.call()) {
+              transfer(source, channel);
+            }
+          }
+          futures.get(digest).forEach(future -> future.set(null));
+          hits++;
+          hitBytes += digest.getSize();
+          continue;
+        } catch (NoSuchFileException e) {
+          // Evicted since, fetch it.
+        } catch (Exception e) {
+          futures.get(digest).forEach(future -> future.setException(e));
+          continue;
+        }
+      }
+      boolean first = true;
+      for (Callable<WritableByteChannel> callable : requests.get(digest)) {
+        if (first) {
+          // One copy of the data is enough for the cache.
+          missingRequests.put(
+              digest, () -> new TeeChannel(callable.call(), cache.newWriter(digest), true));
+          first = false;
+        } else {
+          missingRequests.put(digest, callable);
+        }
+      }
+      missingFutures.putAll(digest, futures.get(digest));
+    }
+    postCacheHits(hits, hitBytes);
+
+    ImmutableMultimap<Digest, Callable<WritableByteChannel>> missing = missingRequests.build();
+    if (missing.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    return delegate.batchFetchBlobs(missing, missingFutures.build());
+  }
+
+  private void postCacheHits(int blobCount, long sizeBytes) {
+    if (blobCount > 0) {
+      buckEventBus.post(new CasBlobDownloadEvent.LocalCacheHit(blobCount, sizeBytes));
+    }
+  }
+
+  private static void transfer(FileChannel source, WritableByteChannel target) throws IOException {
+    long size = source.size();
+    long position = 0;
+    while (position < size) {
+      position += source.transferTo(position, size - position, target);
+    }
+  }
+
+  private static void closeQuietly(WritableByteChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Cache writers don't fail.
+    }
+  }
+
+  /** Writes everything written to it to the cache as well. */
+  private static class TeeChannel implements WritableByteChannel {
+    private final WritableByteChannel channel;
+    private final WritableByteChannel cacheWriter;
+    private final boolean closeChannel;
+
+    TeeChannel(WritableByteChannel channel, WritableByteChannel cacheWriter, boolean closeChannel) {
+      this.channel = channel;
+      this.cacheWriter = cacheWriter;
+      this.closeChannel = closeChannel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      ByteBuffer cached = src.duplicate();
+      int written = channel.write(src);
+      cached.limit(cached.position() + written);
+      cacheWriter.write(cached);
+      return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      cacheWriter.close();
+      if (closeChannel) {
+        channel.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded, on-disk cache of the blobs downloaded from the CAS. It is shared by the builds run on
+ * this machine, so that a blob which a previous build downloaded is not downloaded again.
+ *
+ * <p>Blobs are stored by hash, with the same layout as {@link LocalContentAddressedStorage}. They
+ * are verified against their digest before being added, and are read-only so that nothing modifies
+ * them in place. When the cache grows over its size limit, the least recently used blobs are
+ * deleted. Recency is tracked in memory: the blobs found on disk when the cache is first used are
+ * ordered by the time they were added. The first use lists the cache directory without holding the
+ * lock, and the blobs found are only hits once the listing is done.
+ */
+public class LocalCasCache {
+  private static final Logger LOG = Logger.get(LocalCasCache.class);
+
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final long STALE_TEMP_FILE_AGE_MS = TimeUnit.DAYS.toMillis(1);
+
+  private static final ConcurrentMap<Path, LocalCasCache> INSTANCES = new ConcurrentHashMap<>();
+
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final Protocol protocol;
+
+  /** Sizes of the cached blobs by hash, least recently used first. Guarded by this. */
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long sizeBytes = 0;
+
+  private final AtomicBoolean loadStarted = new AtomicBoolean();
+
+  @VisibleForTesting
+  LocalCasCache(Path cacheDir, long maxSizeBytes, Protocol protocol) {
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+    this.protocol = protocol;
+  }
+
+  /** @return the cache in {@code cacheDir}, shared with the other builds run by this process. */
+  public static LocalCasCache forDirectory(Path cacheDir, long maxSizeBytes, Protocol protocol) {
+    return INSTANCES.compute(
+        cacheDir,
+        (dir, existing) ->
+            existing != null && existing.maxSizeBytes == maxSizeBytes
+                ? existing
+                : new LocalCasCache(dir, maxSizeBytes, protocol));
+  }
+
+  /**
+   * @return the path of the cached blob with this digest, if it is cached. The file may be evicted
+   *     at any time, so it has to be opened before being used and a missing file handled as a miss.
+   */
+  public Optional<Path> get(Digest digest) {
+    String hash = digest.getHash();
+    ensureLoaded();
+    synchronized (this) {
+      if (entries.get(hash) == null) {
+        return Optional.empty();
+      }
+    }
+    Path path = getPath(hash);
+    if (!Files.isRegularFile(path)) {
+      // Deleted by someone else.
+      synchronized (this) {
+        Long size = entries.remove(hash);
+        if (size != null) {
+          sizeBytes -= size;
+        }
+      }
+      return Optional.empty();
+    }
+    return Optional.of(path);
+  }
+
+  /** Adds a blob to the cache. Failures are logged and otherwise ignored. */
+  public void put(Digest digest, ByteBuffer data) {
+    try (WritableByteChannel writer = newWriter(digest)) {
+      ByteBuffer buffer = data.duplicate();
+      while (buffer.hasRemaining()) {
+        writer.write(buffer);
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to cache %s.", digest);
+    }
+  }
+
+  /**
+   * Returns a channel to which the contents of a blob can be written as they are downloaded. When
+   * the channel is closed, the blob is added to the cache if it is complete and matches its digest.
+   * Writing to the channel never fails, so that it can be written to alongside the actual output.
+   */
+  public WritableByteChannel newWriter(Digest digest) {
+    if (digest.getSize() > maxSizeBytes / 10 || get(digest).isPresent()) {
+      return new BlobWriter(digest, null, null);
+    }
+    Path path = getPath(digest.getHash());
+    Path tempPath = null;
+    try {
+      MoreFiles.createParentDirectories(path);
+      tempPath = Files.createTempFile(path.getParent(), digest.getHash(), TEMP_SUFFIX);
+      return new BlobWriter(
+          digest, tempPath, FileChannel.open(tempPath, StandardOpenOption.WRITE));
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to create the cache entry for %s.", digest);
+      deleteQuietly(tempPath);
+      return new BlobWriter(digest, null, null);
+    }
+  }
+
+  @VisibleForTesting
+  long getSizeBytes() {
+    ensureLoaded();
+    synchronized (this) {
+      return sizeBytes;
+    }
+  }
+
+  private void add(Digest digest, Path tempPath) throws IOException {
+    Path path = getPath(digest.getHash());
+    if (!tempPath.toFile().setReadOnly()) {
+      throw new IOException("Failed to make " + tempPath + " read-only.");
+    }
+    Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+    ensureLoaded();
+    List<String> evicted;
+    synchronized (this) {
+      if (entries.put(digest.getHash(), (long) digest.getSize()) == null) {
+        sizeBytes += digest.getSize();
+      }
+      evicted = evict();
+    }
+    for (String hash : evicted) {
+      deleteQuietly(getPath(hash));
+    }
+  }
+
+  /** Removes the least recently used entries until the cache fits, and returns their hashes. */
+  private List<String> evict() {
+    List<String> evicted = new ArrayList<>();
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      sizeBytes -= entry.getValue();
+      evicted.add(entry.getKey());
+      iterator.remove();
+    }
+    return evicted;
+  }
+
+  /**
+   * Adds the blobs found on disk to the index, the first time the cache is used. Only the first
+   * caller lists the cache directory, and it does so without holding the lock, so the other callers
+   * carry on meanwhile and see the blobs on disk as misses.
+   */
+  private void ensureLoaded() {
+    if (!loadStarted.compareAndSet(false, true)) {
+      return;
+    }
+    List<Blob> blobs = listBlobs();
+    blobs.sort(Comparator.comparingLong(blob -> blob.modifiedMillis));
+    List<String> evicted;
+    synchronized (this) {
+      // The blobs added while listing are the most recently used ones.
+      Map<String, Long> added = new LinkedHashMap<>(entries);
+      entries.clear();
+      sizeBytes = 0;
+      for (Blob blob : blobs) {
+        entries.put(blob.hash, blob.size);
+        sizeBytes += blob.size;
+      }
+      for (Map.Entry<String, Long> entry : added.entrySet()) {
+        Long previous = entries.put(entry.getKey(), entry.getValue());
+        if (previous != null) {
+          sizeBytes -= previous;
+        }
+        sizeBytes += entry.getValue();
+      }
+      evicted = evict();
+      LOG.debug("Found %d blobs, %d bytes, in %s.", entries.size(), sizeBytes, cacheDir);
+    }
+    for (String hash : evicted) {
+      deleteQuietly(getPath(hash));
+    }
+  }
+
+  /** Lists the blobs in the cache directory, and deletes the stale temporary files. */
+  private List<Blob> listBlobs() {
+    List<Blob> blobs = new ArrayList<>();
+    if (!Files.isDirectory(cacheDir)) {
+      return blobs;
+    }
+    long now = System.currentTimeMillis();
+    try {
+      Files.walkFileTree(
+          cacheDir,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              String name = file.getFileName().toString();
+              long modifiedMillis = attrs.lastModifiedTime().toMillis();
+              if (!name.endsWith(TEMP_SUFFIX)) {
+                blobs.add(new Blob(name, attrs.size(), modifiedMillis));
+              } else if (now - modifiedMillis > STALE_TEMP_FILE_AGE_MS) {
+                // Left behind by a process which died while writing it.
+                deleteQuietly(file);
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to list the local CAS cache in %s.", cacheDir);
+    }
+    return blobs;
+  }
+
+  private Path getPath(String hash) {
+    return cacheDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+  }
+
+  private static void deleteQuietly(Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to delete %s.", path);
+    }
+  }
+
+  /** A blob found on disk. */
+  private static class Blob {
+    final String hash;
+    final long size;
+    final long modifiedMillis;
+
+    Blob(String hash, long size, long modifiedMillis) {
+      this.hash = hash;
+      this.size = size;
+      this.modifiedMillis = modifiedMillis;
+    }
+  }
+
+  /** Writes a blob to a temporary file, and adds it to the cache once it is complete. */
+  private class BlobWriter implements WritableByteChannel {
+    private final Digest digest;
+    private final MessageDigest messageDigest = protocol.getMessageDigest();
+    private Path tempPath;
+    private FileChannel channel;
+    private long written = 0;
+    private boolean open = true;
+
+    BlobWriter(Digest digest, Path tempPath, FileChannel channel) {
+      this.digest = digest;
+      this.tempPath = tempPath;
+      this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      int length = src.remaining();
+      if (channel != null) {
+        try {
+          ByteBuffer hashed = src.duplicate();
+          while (src.hasRemaining()) {
+            channel.write(src);
+          }
+          messageDigest.update(hashed);
+          written += length;
+        } catch (IOException e) {
+          LOG.debug(e, "Failed to write the cache entry for %s.", digest);
+          abort();
+        }
+      }
+      src.position(src.limit());
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.close();
+        String hash = HashCode.fromBytes(messageDigest.digest()).toString();
+        if (written != digest.getSize() || !hash.equals(digest.getHash())) {
+          LOG.debug(
+              "Not caching %s, got %d bytes with hash %s instead.", digest, written, hash);
+          abort();
+          return;
+        }
+        add(digest, tempPath);
+        channel = null;
+        tempPath = null;
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to add %s to the cache.", digest);
+        abort();
+      }
+    }
+
+    private void abort() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to close the cache entry for %s.", digest);
+      }
+      deleteQuietly(tempPath);
+      channel = null;
+      tempPath = null;
+    }
+  }
+}
@@ -25,6 +25,8 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.TreeNode;
 import com.facebook.buck.util.types.Either;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
@@ -36,6 +38,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
@@ -46,13 +51,70 @@ import javax.annotation.Nullable;
  *
  * <p>It also provides methods to get the {@link Protocol} encoded merkle tree data structures
  * (these values are cached once computed for a node).
+ *
+ * <p>Nodes are only held weakly, so by default they (and their encoded data) go away along with the
+ * rules which built them. A cache can also retain up to a fixed number of nodes which were built
+ * more than once, which keeps stable subtrees (third-party jars, SDKs, toolchains) and their
+ * digests alive from one build to the next. Nodes include the digests of their files, which come
+ * from the file hash cache, so a subtree whose files changed is a different node and is never
+ * reused.
  */
 public class MerkleTreeNodeCache {
+  private static final long SHARED_RETAINED_NODES =
+      Long.getLong("buck.MerkleTreeNodeCache.retained_nodes", 100_000);
+
+  private static final ConcurrentMap<Class<?>, MerkleTreeNodeCache> SHARED_CACHES =
+      new ConcurrentHashMap<>();
+
   private final Interner<MerkleTreeNode> nodeInterner = Interners.newWeakInterner();
+  @Nullable private final Cache<MerkleTreeNode, MerkleTreeNode> retainedNodes;
   private final Protocol protocol;
 
+  private final LongAdder nodesBuilt = new LongAdder();
+  private final LongAdder nodesReused = new LongAdder();
+
   public MerkleTreeNodeCache(Protocol protocol) {
+    this(protocol, 0);
+  }
+
+  /**
+   * @param retainedNodesLimit the maximum number of nodes built more than once to keep alive, least
+   *     recently reused first out.
+   */
+  public MerkleTreeNodeCache(Protocol protocol, long retainedNodesLimit) {
     this.protocol = protocol;
+    this.retainedNodes =
+        retainedNodesLimit > 0
+            ? CacheBuilder.newBuilder().maximumSize(retainedNodesLimit).build()
+            : null;
+  }
+
+  /**
+   * Returns the cache shared by everything in this process which uses the same kind of protocol.
+   * It retains up to {@code -Dbuck.MerkleTreeNodeCache.retained_nodes} reused nodes, 100000 by
+   * default.
+   */
+  public static MerkleTreeNodeCache getShared(Protocol protocol) {
+    return SHARED_CACHES.computeIfAbsent(
+        protocol.getClass(), ignored -> new MerkleTreeNodeCache(protocol, SHARED_RETAINED_NODES));
+  }
+
+  /** Returns the number of nodes built and reused by this cache so far. */
+  public Stats getStats() {
+    return new Stats(nodesBuilt.sum(), nodesReused.sum());
+  }
+
+  private MerkleTreeNode intern(MerkleTreeNode node) {
+    MerkleTreeNode interned = nodeInterner.intern(node);
+    if (interned == node) {
+      nodesBuilt.increment();
+    } else {
+      nodesReused.increment();
+      if (retainedNodes != null) {
+        retainedNodes.put(interned, interned);
+      }
+    }
+    return interned;
   }
 
   /**
@@ -67,7 +129,7 @@ public class MerkleTreeNodeCache {
     files.forEach(processTreeNode(rootBuilder, NodeType.FILE));
     symlinks.forEach(processTreeNode(rootBuilder, NodeType.SYMLINK));
     emptyDirectories.forEach(processTreeNode(rootBuilder, NodeType.DIRECTORY));
-    return rootBuilder.build(nodeInterner);
+    return rootBuilder.build(this::intern);
   }
 
   private BiConsumer<Path, TreeNode> processTreeNode(
@@ -101,7 +163,7 @@ public class MerkleTreeNodeCache {
     while (iterator.hasNext()) {
       root.merge(iterator.next());
     }
-    return root.build(nodeInterner);
+    return root.build(this::intern);
   }
 
   /**
@@ -372,6 +434,32 @@ public class MerkleTreeNodeCache {
     Verify.verify(!name.equals(".."));
   }
 
+  /** Counts of the nodes a cache built and reused. */
+  public static class Stats {
+    private final long nodesBuilt;
+    private final long nodesReused;
+
+    public Stats(long nodesBuilt, long nodesReused) {
+      this.nodesBuilt = nodesBuilt;
+      this.nodesReused = nodesReused;
+    }
+
+    /** Returns the counts accumulated since {@code start} was taken. */
+    public Stats since(Stats start) {
+      return new Stats(nodesBuilt - start.nodesBuilt, nodesReused - start.nodesReused);
+    }
+
+    /** Number of nodes which did not exist yet when they were built. */
+    public long getNodesBuilt() {
+      return nodesBuilt;
+    }
+
+    /** Number of nodes which were built again and resolved to an existing node. */
+    public long getNodesReused() {
+      return nodesReused;
+    }
+  }
+
   /** NodeData is the {@link Protocol} encoded data for a node. */
   public static class NodeData {
     private final Directory directory;
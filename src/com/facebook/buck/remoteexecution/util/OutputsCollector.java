@@ -31,11 +31,12 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.MoreFiles;
-import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -100,6 +101,13 @@ public class OutputsCollector {
     /** Returns an {@link InputStream} for the path. */
     InputStream getInputStream(Path path) throws IOException;
 
+    /** Returns the contents of the file as a buffer, without copying them where possible. */
+    default ByteBuffer getByteBuffer(Path path) throws IOException {
+      try (InputStream stream = getInputStream(path)) {
+        return ByteBuffer.wrap(ByteStreams.toByteArray(stream));
+      }
+    }
+
     /** Returns the size of the file. */
     long size(Path path) throws IOException;
   }
@@ -141,6 +149,11 @@ public class OutputsCollector {
       return new FileInputStream(path.toFile());
     }
 
+    @Override
+    public ByteBuffer getByteBuffer(Path path) throws IOException {
+      return UploadDataSupplier.FileBuffers.read(path);
+    }
+
     @Override
     public long size(Path path) throws IOException {
       return Files.size(path);
@@ -190,7 +203,8 @@ public class OutputsCollector {
                     UploadDataSupplier.of(
                         file.getFileName().toString(),
                         fileNode.getDigest(),
-                        () -> delegate.getInputStream(path.resolve(file)))));
+                        () -> delegate.getInputStream(path.resolve(file)),
+                        () -> delegate.getByteBuffer(path.resolve(file)))));
 
         List<Directory> directories = new ArrayList<>();
         merkleTreeCache.forAllData(node, data -> directories.add(data.getDirectory()));
@@ -202,7 +216,7 @@ public class OutputsCollector {
 
         outputDirectoriesBuilder.add(protocol.newOutputDirectory(output, treeDigest));
         requiredDataBuilder.add(
-            UploadDataSupplier.of("tree", treeDigest, () -> new ByteArrayInputStream(treeData)));
+            UploadDataSupplier.ofBytes("tree", treeDigest, treeData));
       } else {
         long size = delegate.size(path);
         boolean isExecutable = delegate.isExecutable(path);
@@ -210,7 +224,10 @@ public class OutputsCollector {
 
         UploadDataSupplier dataSupplier =
             UploadDataSupplier.of(
-                path.getFileName().toString(), digest, () -> delegate.getInputStream(path));
+                path.getFileName().toString(),
+                digest,
+                () -> delegate.getInputStream(path),
+                () -> delegate.getByteBuffer(path));
         outputFilesBuilder.add(protocol.newOutputFile(output, digest, isExecutable));
         requiredDataBuilder.add(dataSupplier);
       }
@@ -22,6 +22,7 @@ import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.remoteexecution.AsyncBlobFetcher;
 import com.facebook.buck.remoteexecution.ContentAddressedStorageClient.FileMaterializer;
+import com.facebook.buck.remoteexecution.event.CasBlobDownloadEvent;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Directory;
@@ -44,6 +45,7 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
@@ -51,6 +53,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -67,6 +70,7 @@ public class OutputsMaterializer {
   private final int sizeLimit;
   private final ExecutorService materializerService;
   private final BuckEventBus buckEventBus;
+  private final Optional<LocalCasCache> localCache;
   private final BlockingDeque<PendingMaterialization> waitingMaterialization =
       new LinkedBlockingDeque<>();
 
@@ -136,11 +140,26 @@ public class OutputsMaterializer {
       AsyncBlobFetcher fetcher,
       Protocol protocol,
       BuckEventBus buckEventBus) {
+    this(sizeLimit, materializerService, fetcher, protocol, buckEventBus, Optional.empty());
+  }
+
+  /**
+   * Creates a materializer which copies the files found in {@code localCache} instead of fetching
+   * them.
+   */
+  public OutputsMaterializer(
+      int sizeLimit,
+      ExecutorService materializerService,
+      AsyncBlobFetcher fetcher,
+      Protocol protocol,
+      BuckEventBus buckEventBus,
+      Optional<LocalCasCache> localCache) {
     this.sizeLimit = sizeLimit;
     this.fetcher = fetcher;
     this.protocol = protocol;
     this.materializerService = materializerService;
     this.buckEventBus = buckEventBus;
+    this.localCache = localCache;
   }
 
   /** Materialize the outputs of an action into a directory. */
@@ -151,18 +170,24 @@ public class OutputsMaterializer {
       throws IOException {
     ImmutableList.Builder<ListenableFuture<Unit>> pending = ImmutableList.builder();
 
+    CacheHits cacheHits = new CacheHits();
     for (OutputFile file : outputFiles) {
       Path filePath = Paths.get(file.getPath());
       Path parent = filePath.getParent();
       if (parent != null) {
         materializer.makeDirectories(parent);
       }
+      if (copyFromCache(materializer, file.getDigest(), file.getIsExecutable(), filePath)) {
+        cacheHits.add(file.getDigest());
+        continue;
+      }
       SettableFuture<Unit> future = SettableFuture.create();
       waitingMaterialization.add(
           new PendingMaterialization(
               materializer, file.getDigest(), file.getIsExecutable(), filePath, future));
       pending.add(future);
     }
+    cacheHits.post();
     materializerService.submit(this::processFetchAndMaterialize);
 
     for (OutputDirectory directory : outputDirectories) {
@@ -183,8 +208,15 @@ public class OutputsMaterializer {
                 }
                 ImmutableList.Builder<ListenableFuture<Unit>> pendingFilesBuilder =
                     ImmutableList.builder();
+                CacheHits directoryCacheHits = new CacheHits();
                 materializeDirectory(
-                    materializer, childMap, tree.getRoot(), dirRoot, pendingFilesBuilder::add);
+                    materializer,
+                    childMap,
+                    tree.getRoot(),
+                    dirRoot,
+                    pendingFilesBuilder::add,
+                    directoryCacheHits);
+                directoryCacheHits.post();
                 return Futures.whenAllSucceed(pendingFilesBuilder.build())
                     .call(() -> null, MoreExecutors.directExecutor());
               },
@@ -199,7 +231,8 @@ public class OutputsMaterializer {
       Map<Digest, Directory> childMap,
       Directory directory,
       Path root,
-      Consumer<ListenableFuture<Unit>> pendingWorkConsumer)
+      Consumer<ListenableFuture<Unit>> pendingWorkConsumer,
+      CacheHits cacheHits)
       throws IOException {
     materializer.makeDirectories(root);
     for (Protocol.DirectoryNode childNode : directory.getDirectoriesList()) {
@@ -210,23 +243,84 @@ public class OutputsMaterializer {
               childMap.get(childNode.getDigest()),
               String.format("Data for dir [%s] not found in merkle-tree.", root)),
           root.resolve(childNode.getName()),
-          pendingWorkConsumer);
+          pendingWorkConsumer,
+          cacheHits);
     }
 
     for (FileNode file : directory.getFilesList()) {
+      Path filePath = root.resolve(file.getName());
+      if (copyFromCache(materializer, file.getDigest(), file.getIsExecutable(), filePath)) {
+        cacheHits.add(file.getDigest());
+        continue;
+      }
       SettableFuture<Unit> future = SettableFuture.create();
       waitingMaterialization.add(
           new PendingMaterialization(
               materializer,
               file.getDigest(),
               file.getIsExecutable(),
-              root.resolve(file.getName()),
+              filePath,
               future));
       pendingWorkConsumer.accept(future);
     }
     materializerService.submit(this::processFetchAndMaterialize);
   }
 
+  /**
+   * Copies a file from the local cache. The output is a new file rather than a link to the cached
+   * blob, so that rules which modify their outputs in place cannot corrupt the cache.
+   *
+   * @return whether the file was copied.
+   */
+  private boolean copyFromCache(
+      FileMaterializer materializer, Digest digest, boolean isExecutable, Path path)
+      throws IOException {
+    if (!localCache.isPresent()) {
+      return false;
+    }
+    Optional<Path> cached = localCache.get().get(digest);
+    if (!cached.isPresent()) {
+      return false;
+    }
+    FileChannel source;
+    try {
+      source = FileChannel.open(cached.get(), StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      // Evicted since, fetch it.
+      return false;
+    }
+    try (FileChannel input = source;
+        WritableByteChannel output = materializer.getOutputChannel(path, isExecutable)) {
+      long size = input.size();
+      long position = 0;
+      while (position < size) {
+        long transferred = input.transferTo(position, size - position, output);
+        if (transferred <= 0) {
+          throw new IOException("Failed to copy " + digest + " from " + cached.get());
+        }
+        position += transferred;
+      }
+    }
+    return true;
+  }
+
+  /** Counts the files copied from the local cache. */
+  private class CacheHits {
+    private int blobCount = 0;
+    private long sizeBytes = 0;
+
+    void add(Digest digest) {
+      blobCount++;
+      sizeBytes += digest.getSize();
+    }
+
+    void post() {
+      if (blobCount > 0) {
+        buckEventBus.post(new CasBlobDownloadEvent.LocalCacheHit(blobCount, sizeBytes));
+      }
+    }
+  }
+
   private void processFetchAndMaterialize() {
     ImmutableList.Builder<PendingMaterialization> builder = ImmutableList.builder();
     int size = 0;
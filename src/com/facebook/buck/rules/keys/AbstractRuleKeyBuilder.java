@@ -134,6 +134,7 @@ public abstract class AbstractRuleKeyBuilder<RULE_KEY> {
     // Check to see if we're dealing with a collection of some description.
     // Note {@link java.nio.file.Path} implements "Iterable", so we explicitly exclude it here.
     if (val instanceof Iterable && !(val instanceof Path)) {
+      prefetchIterable((Iterable<?>) val);
       try (RuleKeyScopedHasher.ContainerScope containerScope =
           scopedHasher.containerScope(RuleKeyHasher.Container.LIST)) {
         for (Object element : (Iterable<?>) val) {
@@ -192,6 +193,13 @@ public abstract class AbstractRuleKeyBuilder<RULE_KEY> {
     return setSingleValue(val);
   }
 
+  /**
+   * Called before the elements of an iterable are added one by one, so that builders can load
+   * whatever they need for all of the elements at once.
+   */
+  @SuppressWarnings("unused")
+  protected void prefetchIterable(Iterable<?> elements) {}
+
   protected abstract AbstractRuleKeyBuilder<RULE_KEY> setSingleValue(@Nullable Object val);
 
   protected abstract AbstractRuleKeyBuilder<RULE_KEY> setAction(Action action);
@@ -187,6 +187,12 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
       return setAddsToRuleKey(DefaultRuleKeyFactory.this.buildAppendableKey(appendable));
     }
 
+    @Override
+    protected void prefetchIterable(Iterable<?> elements) {
+      // outputs of build rules are represented by the rule keys of those rules instead
+      prefetchSourcePathHashes(elements, false);
+    }
+
     @Override
     protected RuleKeyBuilder<RULE_KEY> setSourcePath(SourcePath sourcePath) throws IOException {
       if (sourcePath instanceof BuildTargetSourcePath) {
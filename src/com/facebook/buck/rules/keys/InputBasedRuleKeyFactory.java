@@ -211,6 +211,11 @@ public class InputBasedRuleKeyFactory implements RuleKeyFactory<RuleKey> {
     // Input-based rule keys are evaluated after all dependencies for a rule are available on
     // disk, and so we can always resolve the `Path` packaged in a `SourcePath`.  We hash this,
     // rather than the rule key from it's `BuildRule`.
+    @Override
+    protected void prefetchIterable(Iterable<?> elements) {
+      prefetchSourcePathHashes(elements, true);
+    }
+
     @Override
     protected Builder<RULE_KEY> setSourcePath(SourcePath sourcePath) throws IOException {
       if (sourcePath instanceof BuildTargetSourcePath) {
@@ -45,6 +45,7 @@ import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
 import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.annotations.VisibleForTesting;
@@ -53,6 +54,8 @@ import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
@@ -189,6 +192,40 @@ public abstract class RuleKeyBuilder<RULE_KEY> extends AbstractRuleKeyBuilder<RU
     }
   }
 
+  /**
+   * To be called from {@link #prefetchIterable(Iterable)} by builders which hash the contents of
+   * the {@link SourcePath}s they are given. If the hash loader is a {@link FileHashCache}, the
+   * files of all the given {@link PathSourcePath}s (and {@link BuildTargetSourcePath}s, if
+   * requested) are hashed in one batch, so that the cache can read them concurrently. Failures are
+   * ignored here and surface once the paths are added individually.
+   */
+  final void prefetchSourcePathHashes(
+      Iterable<?> elements, boolean includeBuildTargetSourcePaths) {
+    if (!(hashLoader instanceof FileHashCache)) {
+      return;
+    }
+    SourcePathResolver resolver = ruleFinder.getSourcePathResolver();
+    List<Path> paths = new ArrayList<>();
+    for (Object element : elements) {
+      if (element instanceof PathSourcePath) {
+        paths.add(resolver.getAbsolutePath((PathSourcePath) element));
+      } else if (includeBuildTargetSourcePaths
+          && element instanceof BuildTargetSourcePath
+          && !((BuildTargetSourcePath) element).getPrecomputedHash().isPresent()) {
+        SourcePath sourcePath = (SourcePath) element;
+        paths.add(resolver.getFilesystem(sourcePath).resolve(resolver.getRelativePath(sourcePath)));
+      }
+    }
+    if (paths.size() < 2) {
+      return;
+    }
+    try {
+      ((FileHashCache) hashLoader).getAll(paths);
+    } catch (IOException e) {
+      logger.verbose(e, "Failed to prefetch the hashes of %d paths", paths.size());
+    }
+  }
+
   /**
    * To be called from {@link #setSourcePath(SourcePath)} in case {@link BuildTargetSourcePath}
    * should be handled as a build rule. This method hashes the given {@link BuildTargetSourcePath}
@@ -116,6 +116,10 @@ public class WorkerMacroArg extends ProxyArg {
     return workerTool.getMaxWorkers();
   }
 
+  public int getMaxJobsPerWorker() {
+    return workerTool.getMaxJobsPerWorker();
+  }
+
   public String getJobArgs(SourcePathResolver pathResolver) {
     return Arg.stringify(arg, pathResolver).trim();
   }
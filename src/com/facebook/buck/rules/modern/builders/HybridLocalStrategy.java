@@ -20,6 +20,7 @@ import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
 import com.facebook.buck.core.build.engine.DelegatingBuildStrategyContext;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.util.log.Logger;
@@ -459,6 +460,11 @@ public class HybridLocalStrategy implements BuildRuleStrategy {
     return true;
   }
 
+  @Override
+  public ListenableFuture<?> materializeOutputs(Iterable<BuildTarget> targets) {
+    return delegate.materializeOutputs(targets);
+  }
+
   @Override
   public void close() throws IOException {
     delegate.close();
@@ -19,6 +19,7 @@ package com.facebook.buck.rules.modern.builders;
 import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildRuleStatus;
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.util.log.Logger;
@@ -73,6 +74,11 @@ public class LocalFallbackStrategy implements BuildRuleStrategy {
     return mainBuildRuleStrategy.canBuild(instance);
   }
 
+  @Override
+  public ListenableFuture<?> materializeOutputs(Iterable<BuildTarget> targets) {
+    return mainBuildRuleStrategy.materializeOutputs(targets);
+  }
+
   /** Thrown when execution needs to be halted because of cancellation */
   public static class RemoteActionCancelledException extends Exception {
     RemoteActionCancelledException(String message) {
@@ -71,6 +71,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -80,6 +81,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -169,6 +171,7 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
   private final ThrowingSupplier<MerkleTreeNode, IOException> sharedFilesNode;
 
   private final MerkleTreeNodeCache nodeCache;
+  private final MerkleTreeNodeCache.Stats nodeCacheStatsAtStart;
 
   private final BuckEventBus eventBus;
 
@@ -184,6 +187,7 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
 
   private final Protocol protocol;
   private final Memoizer<Digest> emptyDirectoryDigestMemoizer = new Memoizer<>();
+  private final Optional<PendingRemoteOutputs> pendingOutputs;
 
   public ModernBuildRuleRemoteExecutionHelper(
       BuckEventBus eventBus,
@@ -191,6 +195,20 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
       SourcePathRuleFinder ruleFinder,
       Cell rootCell,
       ThrowingFunction<Path, HashCode, IOException> fileHasher) {
+    this(eventBus, protocol, ruleFinder, rootCell, fileHasher, Optional.empty());
+  }
+
+  /**
+   * @param pendingOutputs outputs of remote actions which are not on disk, and which are added to
+   *     the inputs of actions by digest, as they are already in the CAS.
+   */
+  ModernBuildRuleRemoteExecutionHelper(
+      BuckEventBus eventBus,
+      Protocol protocol,
+      SourcePathRuleFinder ruleFinder,
+      Cell rootCell,
+      ThrowingFunction<Path, HashCode, IOException> fileHasher,
+      Optional<PendingRemoteOutputs> pendingOutputs) {
     ImmutableSet<CanonicalCellName> cellNames = getCellNames(rootCell);
     this.cellResolver = rootCell.getCellPathResolver();
     this.cellPathPrefix = getCellPathPrefix(cellResolver, cellNames);
@@ -204,6 +222,7 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
     this.nodeMap = new ConcurrentHashMap<>();
     this.hasher = protocol.getHashFunction();
     this.fileHasher = fileHasher;
+    this.pendingOutputs = pendingOutputs;
 
     this.loggedMessagesByClass = new ConcurrentHashMap<>();
 
@@ -223,7 +242,8 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
         };
     this.serializer = new Serializer(ruleFinder, cellResolver, delegate);
 
-    this.nodeCache = new MerkleTreeNodeCache(protocol);
+    this.nodeCache = MerkleTreeNodeCache.getShared(protocol);
+    this.nodeCacheStatsAtStart = nodeCache.getStats();
 
     this.classPath = prepareClassPath(BuckClasspath::getClasspath);
     this.bootstrapClassPath = prepareClassPath(BuckClasspath::getBootstrapClasspath);
@@ -245,6 +265,11 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                       return new FileInputStream(TRAMPOLINE.toFile());
                     }
 
+                    @Override
+                    public ByteBuffer getByteBuffer() throws IOException {
+                      return UploadDataSupplier.FileBuffers.read(TRAMPOLINE);
+                    }
+
                     @Override
                     public String describe() {
                       try {
@@ -295,6 +320,11 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                             return new ByteArrayInputStream(bytes);
                           }
 
+                          @Override
+                          public ByteBuffer getByteBuffer() {
+                            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+                          }
+
                           @Override
                           public String describe() {
                             return String.format(
@@ -338,6 +368,11 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
     return cellPathPrefix;
   }
 
+  @Override
+  public MerkleTreeNodeCache.Stats getInputsTreeStats() {
+    return nodeCache.getStats().since(nodeCacheStatsAtStart);
+  }
+
   @Override
   public boolean supportsRemoteExecution(ModernBuildRule<?> rule) {
     // TODO(cjhopman): We may want to extend this to support returning more information about what
@@ -421,12 +456,10 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
           childData -> {
             if (requiredDataPredicate.test(childData.getDigest())) {
               requiredDataBuilder.add(
-                  UploadDataSupplier.of(
+                  UploadDataSupplier.ofBytes(
                       childData.getDirectory().toString(),
                       childData.getDigest(),
-                      () ->
-                          new ByteArrayInputStream(
-                              protocol.toByteArray(childData.getDirectory()))));
+                      protocol.toByteArray(childData.getDirectory())));
             }
           });
 
@@ -436,15 +469,13 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
       byte[] commandData = protocol.toByteArray(actionCommand);
       Digest commandDigest = protocol.computeDigest(commandData);
       requiredDataBuilder.add(
-          UploadDataSupplier.of(
-              "command", commandDigest, () -> new ByteArrayInputStream(commandData)));
+          UploadDataSupplier.ofBytes("command", commandDigest, commandData));
 
       Protocol.Action action = protocol.newAction(commandDigest, inputsRootDigest);
       byte[] actionData = protocol.toByteArray(action);
       Digest actionDigest = protocol.computeDigest(actionData);
       requiredDataBuilder.add(
-          UploadDataSupplier.of(
-              "action", actionDigest, () -> new ByteArrayInputStream(actionData)));
+          UploadDataSupplier.ofBytes("action", actionDigest, actionData));
 
       return RemoteExecutionActionInfo.of(
           actionDigest, requiredDataBuilder.build(), data.getTotalSize(), outputs);
@@ -470,6 +501,11 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                     return new FileInputStream(cellPathPrefix.resolve(path).toFile());
                   }
 
+                  @Override
+                  public ByteBuffer getByteBuffer() throws IOException {
+                    return UploadDataSupplier.FileBuffers.read(cellPathPrefix.resolve(path));
+                  }
+
                   @Override
                   public String describe() {
                     try {
@@ -543,7 +579,21 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                     cellPathPrefix);
 
             for (SourcePath path : inputs.getPaths()) {
-              inputsAdder.addInput(pathResolver.getAbsolutePath(path));
+              Path absolutePath = pathResolver.getAbsolutePath(path);
+              if (pendingOutputs.isPresent() && absolutePath.startsWith(cellPathPrefix)) {
+                pendingOutputs
+                    .get()
+                    .getFilesAtOrUnder(cellPathPrefix.relativize(absolutePath))
+                    .forEach(
+                        (pendingPath, file) ->
+                            files.put(
+                                pendingPath,
+                                protocol.newFileNode(
+                                    file.getDigest(),
+                                    pendingPath.getFileName().toString(),
+                                    file.getIsExecutable())));
+              }
+              inputsAdder.addInput(absolutePath);
             }
 
             List<MerkleTreeNode> nodes = new ArrayList<>();
@@ -709,6 +759,11 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                   return new ByteArrayInputStream(data);
                 }
 
+                @Override
+                public ByteBuffer getByteBuffer() {
+                  return ByteBuffer.wrap(data).asReadOnlyBuffer();
+                }
+
                 @Override
                 public Digest getDigest() {
                   return digest;
@@ -751,10 +806,7 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                   new RequiredFile(
                       relative,
                       protocol.newFileNode(digest, path.getFileName().toString(), false),
-                      UploadDataSupplier.of(
-                          path.getFileName().toString(),
-                          digest,
-                          () -> new FileInputStream(path.toFile()))));
+                      UploadDataSupplier.ofFile(path.getFileName().toString(), digest, path)));
             } else {
               pathsBuilder.add(path);
             }
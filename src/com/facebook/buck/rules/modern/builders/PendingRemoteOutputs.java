@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient.FileMaterializer;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Output files of remote actions which were left in the content addressed storage rather than
+ * written to disk, until something needs them there.
+ *
+ * <p>Paths are relative to the directory the actions run in, the cell path prefix. A file stays
+ * pending until it has been completely written to disk, so that while it is pending, readers which
+ * can use its digest do not have to wait for it.
+ */
+class PendingRemoteOutputs {
+  private static final Logger LOG = Logger.get(PendingRemoteOutputs.class);
+
+  private final ContentAddressedStorageClient storage;
+
+  /** Pending files by path, sorted so that the files under a directory are next to each other. */
+  private final ConcurrentNavigableMap<String, OutputFile> files = new ConcurrentSkipListMap<>();
+
+  private final ConcurrentMap<BuildTarget, ImmutableList<OutputFile>> filesByTarget =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<BuildTarget, ListenableFuture<Unit>> materializations =
+      new ConcurrentHashMap<>();
+
+  PendingRemoteOutputs(ContentAddressedStorageClient storage) {
+    this.storage = storage;
+  }
+
+  /** Records the output files of the action of a rule instead of materializing them. */
+  void add(BuildTarget target, List<OutputFile> outputFiles) {
+    for (OutputFile file : outputFiles) {
+      files.put(file.getPath(), file);
+    }
+    filesByTarget.put(target, ImmutableList.copyOf(outputFiles));
+  }
+
+  /** @return the pending file at {@code path}, if any. */
+  Optional<OutputFile> getFile(Path path) {
+    return Optional.ofNullable(files.get(path.toString()));
+  }
+
+  /**
+   * @return the pending files at {@code path} or, if it is a directory, under it, keyed by their
+   *     path.
+   */
+  ImmutableMap<Path, OutputFile> getFilesAtOrUnder(Path path) {
+    if (files.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    String prefix = path.toString();
+    ImmutableMap.Builder<Path, OutputFile> builder = ImmutableMap.builder();
+    OutputFile file = files.get(prefix);
+    if (file != null) {
+      builder.put(path, file);
+    }
+    // '0' is the character after '/'
+    for (OutputFile child : files.subMap(prefix + '/', prefix + '0').values()) {
+      builder.put(Paths.get(child.getPath()), child);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Writes the pending files of the given rules through {@code materializer}. Rules which have no
+   * pending files are ignored.
+   *
+   * @return a future which completes once all the files are on disk
+   */
+  ListenableFuture<Unit> materialize(Iterable<BuildTarget> targets, FileMaterializer materializer) {
+    List<ListenableFuture<Unit>> futures = new ArrayList<>();
+    for (BuildTarget target : targets) {
+      // Files are only removed from filesByTarget once they have been materialized.
+      if (filesByTarget.containsKey(target)) {
+        futures.add(
+            materializations.computeIfAbsent(target, ignored -> materialize(target, materializer)));
+      }
+    }
+    return Futures.whenAllSucceed(futures).call(() -> Unit.UNIT, MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<Unit> materialize(BuildTarget target, FileMaterializer materializer) {
+    ImmutableList<OutputFile> outputFiles = Objects.requireNonNull(filesByTarget.get(target));
+    LOG.debug("Materializing %d outputs of %s.", outputFiles.size(), target);
+    ListenableFuture<Unit> materialized;
+    try {
+      materialized = storage.materializeOutputs(ImmutableList.of(), outputFiles, materializer);
+    } catch (IOException e) {
+      materialized = Futures.immediateFailedFuture(e);
+    }
+    return Futures.transform(
+        materialized,
+        ignored -> {
+          for (OutputFile file : outputFiles) {
+            files.remove(file.getPath());
+          }
+          filesByTarget.remove(target);
+          return Unit.UNIT;
+        },
+        MoreExecutors.directExecutor());
+  }
+}
@@ -17,6 +17,7 @@ package com.facebook.buck.rules.modern.builders;
 
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -46,4 +47,7 @@ public interface RemoteExecutionHelper {
    * The cell path prefix is the path that all remote execution related paths will be relative to.
    */
   Path getCellPathPrefix();
+
+  /** Returns how many inputs tree nodes were built and reused since this helper was created. */
+  MerkleTreeNodeCache.Stats getInputsTreeStats();
 }
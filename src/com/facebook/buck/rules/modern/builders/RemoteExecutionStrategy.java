@@ -37,6 +37,7 @@ import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient.ExecutionR
 import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
+import com.facebook.buck.remoteexecution.event.InputsTreeStatsEvent;
 import com.facebook.buck.remoteexecution.event.RemoteBuildRuleExecutionEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.State;
@@ -44,6 +45,7 @@ import com.facebook.buck.remoteexecution.event.RemoteExecutionSessionEvent;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.step.AbstractExecutionStep;
@@ -108,6 +110,7 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final WorkerRequirementsProvider requirementsProvider;
   private final MetadataProvider metadataProvider;
   private final String auxiliaryBuildTag;
+  private final Optional<PendingRemoteOutputs> pendingOutputs;
   private final RemoteExecutionSessionEvent.Started remoteExecutionSessionStartedEvent;
 
   RemoteExecutionStrategy(
@@ -118,7 +121,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       RemoteExecutionHelper mbrHelper,
       WorkerRequirementsProvider requirementsProvider,
       ListeningExecutorService service,
-      String auxiliaryBuildTag) {
+      String auxiliaryBuildTag,
+      Optional<PendingRemoteOutputs> pendingOutputs) {
     this.executionClients = executionClients;
     this.service = service;
     this.computeActionLimiter = new JobLimiter(strategyConfig.getMaxConcurrentActionComputations());
@@ -131,6 +135,7 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     this.mbrHelper = mbrHelper;
     this.requirementsProvider = requirementsProvider;
     this.auxiliaryBuildTag = auxiliaryBuildTag;
+    this.pendingOutputs = pendingOutputs;
     this.remoteExecutionSessionStartedEvent = RemoteExecutionSessionEvent.started();
     this.eventBus.post(remoteExecutionSessionStartedEvent);
   }
@@ -150,6 +155,10 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       MetadataProvider metadataProvider,
       WorkerRequirementsProvider workerRequirementsProvider) {
     RemoteExecutionStrategyConfig strategyConfig = remoteExecutionConfig.getStrategyConfig();
+    Optional<PendingRemoteOutputs> pendingOutputs =
+        strategyConfig.isLazyOutputMaterializationEnabled()
+            ? Optional.of(new PendingRemoteOutputs(clients.getContentAddressedStorage()))
+            : Optional.empty();
     return new LocalFallbackStrategy(
         new RemoteExecutionStrategy(
             eventBus,
@@ -157,11 +166,12 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
             clients,
             metadataProvider,
             new ModernBuildRuleRemoteExecutionHelper(
-                eventBus, clients.getProtocol(), ruleFinder, rootCell, fileHasher),
+                eventBus, clients.getProtocol(), ruleFinder, rootCell, fileHasher, pendingOutputs),
             workerRequirementsProvider,
             MoreExecutors.listeningDecorator(
                 MostExecutors.newMultiThreadExecutor("remote-exec", strategyConfig.getThreads())),
-            remoteExecutionConfig.getAuxiliaryBuildTag()),
+            remoteExecutionConfig.getAuxiliaryBuildTag(),
+            pendingOutputs),
         eventBus,
         strategyConfig.isLocalFallbackEnabled());
   }
@@ -172,9 +182,23 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
         && mbrHelper.supportsRemoteExecution((ModernBuildRule<?>) instance);
   }
 
+  @Override
+  public ListenableFuture<?> materializeOutputs(Iterable<BuildTarget> targets) {
+    if (!pendingOutputs.isPresent()) {
+      return Futures.immediateFuture(null);
+    }
+    return pendingOutputs
+        .get()
+        .materialize(targets, new FilesystemFileMaterializer(mbrHelper.getCellPathPrefix()));
+  }
+
   @Override
   public void close() throws IOException {
     executionClients.close();
+    MerkleTreeNodeCache.Stats inputsTreeStats = mbrHelper.getInputsTreeStats();
+    eventBus.post(
+        new InputsTreeStatsEvent(
+            inputsTreeStats.getNodesBuilt(), inputsTreeStats.getNodesReused()));
     eventBus.post(RemoteExecutionSessionEvent.finished(remoteExecutionSessionStartedEvent));
   }
 
@@ -297,10 +321,18 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   }
 
   private void recordArtifact(BuildRule rule, BuildStrategyContext strategyContext, Path output) {
-    strategyContext
-        .getBuildableContext()
-        .recordArtifact(
-            rule.getProjectFilesystem().relativize(mbrHelper.getCellPathPrefix().resolve(output)));
+    Path path =
+        rule.getProjectFilesystem().relativize(mbrHelper.getCellPathPrefix().resolve(output));
+    Optional<Protocol.OutputFile> pendingFile =
+        pendingOutputs.flatMap(pending -> pending.getFile(output));
+    if (pendingFile.isPresent()) {
+      Digest digest = pendingFile.get().getDigest();
+      strategyContext
+          .getBuildableContext()
+          .recordRemoteArtifact(path, HashCode.fromString(digest.getHash()), digest.getSize());
+    } else {
+      strategyContext.getBuildableContext().recordArtifact(path);
+    }
   }
 
   private ListenableFuture<RemoteExecutionActionInfo> computeActionAndUpload(
@@ -528,6 +560,12 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
 
     List<Protocol.OutputFile> files = new ArrayList<>();
     ListenableFuture<Unit> metadata = stripMetadata(result.getOutputFiles(), files, buildRule);
+    if (pendingOutputs.isPresent()) {
+      // Output files are left in the CAS until they are needed on disk. Output directories are
+      // still materialized, as the engine lists and hashes their contents from disk.
+      pendingOutputs.get().add(buildTarget, files);
+      files = ImmutableList.of();
+    }
     ListenableFuture<Unit> materializationFuture =
         executionClients
             .getContentAddressedStorage()
@@ -422,6 +422,7 @@ public class Genrule extends AbstractBuildRuleWithDeclaredAndExtraDeps
                   workerMacroArg.getStartupCommand(),
                   workerMacroArg.getEnvironment(),
                   workerMacroArg.getMaxWorkers(),
+                  workerMacroArg.getMaxJobsPerWorker(),
                   workerMacroArg.getPersistentWorkerKey().isPresent()
                       ? Optional.of(
                           WorkerProcessIdentity.of(
@@ -422,6 +422,7 @@ public class LegacyGenrule extends AbstractBuildRuleWithDeclaredAndExtraDeps
                   workerMacroArg.getStartupCommand(),
                   workerMacroArg.getEnvironment(),
                   workerMacroArg.getMaxWorkers(),
+                  workerMacroArg.getMaxJobsPerWorker(),
                   workerMacroArg.getPersistentWorkerKey().isPresent()
                       ? Optional.of(
                           WorkerProcessIdentity.of(
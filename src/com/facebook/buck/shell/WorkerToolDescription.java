@@ -53,6 +53,7 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
   private static final String CONFIG_SECTION = "worker";
   private static final String CONFIG_PERSISTENT_KEY = "persistent";
+  private static final String CONFIG_MEMORY_BUDGET_KEY = "per_tool_memory_budget_mb";
 
   public static final ImmutableList<MacroExpander<? extends Macro, ?>> MACRO_EXPANDERS =
       ImmutableList.of(
@@ -140,6 +141,21 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
               .orElse(1);
     }
 
+    // Start no more workers than fit in the memory budget, but always at least one. The budget is
+    // for the workers of this tool alone: the workers of other tools are not counted against it.
+    Optional<Long> memoryBudgetMb = buckConfig.getLong(CONFIG_SECTION, CONFIG_MEMORY_BUDGET_KEY);
+    if (memoryBudgetMb.isPresent() && args.getMemoryPerWorkerMb().isPresent()) {
+      int memoryPerWorkerMb = args.getMemoryPerWorkerMb().get();
+      Preconditions.checkArgument(
+          memoryPerWorkerMb > 0, "memory_per_worker_mb must be greater than 0.");
+      maxWorkers =
+          (int) Math.max(1, Math.min(maxWorkers, memoryBudgetMb.get() / memoryPerWorkerMb));
+    }
+
+    int maxJobsPerWorker = args.getMaxJobsPerWorker().orElse(1);
+    Preconditions.checkArgument(
+        maxJobsPerWorker > 0, "max_jobs_per_worker must be greater than 0.");
+
     CommandTool tool = builder.build();
     return new DefaultWorkerToolRule(
         buildTarget,
@@ -147,6 +163,7 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
         graphBuilder,
         tool,
         maxWorkers,
+        maxJobsPerWorker,
         args.getPersistent()
             .orElse(buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
@@ -189,6 +206,10 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
     Optional<Integer> getMaxWorkersPerThreadPercent();
 
+    Optional<Integer> getMaxJobsPerWorker();
+
+    Optional<Integer> getMemoryPerWorkerMb();
+
     Optional<Boolean> getPersistent();
   }
 }
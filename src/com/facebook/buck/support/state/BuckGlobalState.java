@@ -33,8 +33,11 @@ import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
+import com.facebook.buck.util.cache.impl.PersistentFileHashStore;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
 import com.facebook.buck.worker.WorkerProcessPool;
@@ -42,11 +45,15 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * {@link BuckGlobalState} contains all the global state of Buck which is kept between invocations
@@ -67,6 +74,15 @@ public final class BuckGlobalState implements Closeable {
   private final TypeCoercerFactory typeCoercerFactory;
   private final DaemonicParserState daemonicParserState;
   private final ImmutableList<ProjectFileHashCache> hashCaches;
+  private final ImmutableList<PersistentFileHashStore> persistentFileHashStores;
+  private final ListeningExecutorService fileHashingExecutor;
+  private final ExecutorService persistentFileHashStoreSaver =
+      MostExecutors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("file-hash-store-saver")
+              .setDaemon(true)
+              .build());
+  private final AtomicBoolean persistentFileHashStoreSavePending = new AtomicBoolean();
   private final LoadingCache<Path, DirectoryListCache> directoryListCachePerRoot;
   private final LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot;
   private final LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot;
@@ -87,6 +103,8 @@ public final class BuckGlobalState implements Closeable {
       TypeCoercerFactory typeCoercerFactory,
       DaemonicParserState daemonicParserState,
       ImmutableList<ProjectFileHashCache> hashCaches,
+      ImmutableList<PersistentFileHashStore> persistentFileHashStores,
+      ListeningExecutorService fileHashingExecutor,
       LoadingCache<Path, DirectoryListCache> directoryListCachePerRoot,
       LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot,
       LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot,
@@ -104,6 +122,8 @@ public final class BuckGlobalState implements Closeable {
     this.typeCoercerFactory = typeCoercerFactory;
     this.daemonicParserState = daemonicParserState;
     this.hashCaches = hashCaches;
+    this.persistentFileHashStores = persistentFileHashStores;
+    this.fileHashingExecutor = fileHashingExecutor;
     this.directoryListCachePerRoot = directoryListCachePerRoot;
     this.fileTreeCachePerRoot = fileTreeCachePerRoot;
     this.buildFileManifestCachePerRoot = buildFileManifestCachePerRoot;
@@ -145,6 +165,11 @@ public final class BuckGlobalState implements Closeable {
     return hashCaches;
   }
 
+  /** @return the executor used to hash files in bulk, see {@link FileHashCache#getAll}. */
+  public ListeningExecutorService getFileHashingExecutor() {
+    return fileHashingExecutor;
+  }
+
   /**
    * Return a map of all directory list caches for each cell which is a key. For every cell, we
    * cache directory structure (i.e. list of files and folders) for all subfolders that exist under
@@ -243,8 +268,45 @@ public final class BuckGlobalState implements Closeable {
     return usesWatchman;
   }
 
+  /**
+   * Writes file hashes computed so far to disk on a background thread, so that they can be reused
+   * after the daemon restarts. The first save also drops the hashes of files deleted while the
+   * daemon was down. Requests made while a save is pending are coalesced into it.
+   */
+  public void savePersistentFileHashStoresInBackground() {
+    if (persistentFileHashStores.isEmpty()
+        || !persistentFileHashStoreSavePending.compareAndSet(false, true)) {
+      return;
+    }
+    persistentFileHashStoreSaver.execute(
+        () -> {
+          persistentFileHashStoreSavePending.set(false);
+          for (PersistentFileHashStore store : persistentFileHashStores) {
+            store.pruneDeletedFiles();
+          }
+          savePersistentFileHashStores();
+        });
+  }
+
+  /**
+   * Writes file hashes computed so far to disk, so that they can be reused after the daemon
+   * restarts.
+   */
+  public void savePersistentFileHashStores() {
+    for (PersistentFileHashStore store : persistentFileHashStores) {
+      try {
+        store.save();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save file hashes");
+      }
+    }
+  }
+
   @Override
   public void close() {
+    persistentFileHashStoreSaver.shutdown();
+    savePersistentFileHashStores();
+    fileHashingExecutor.shutdownNow();
     shutdownPersistentWorkerPools();
     shutdownWebServer();
   }
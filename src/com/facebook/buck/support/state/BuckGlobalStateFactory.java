@@ -26,6 +26,7 @@ import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.model.actiongraph.computation.ActionGraphCache;
+import com.facebook.buck.core.model.actiongraph.computation.ActionGraphConfig;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.knowntypes.provider.KnownRuleTypesProvider;
@@ -46,7 +47,9 @@ import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.PersistentFileHashStore;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
 import com.facebook.buck.worker.WorkerProcessPool;
@@ -56,7 +59,12 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
@@ -84,16 +92,41 @@ public class BuckGlobalStateFactory {
     // Setup the stacked file hash cache from all cells.
     ImmutableList.Builder<ProjectFileHashCache> hashCachesBuilder =
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
+    Map<Path, PersistentFileHashStore> persistentFileHashStores = new LinkedHashMap<>();
+    if (buildBuckConfig.getUsePersistentFileHashCache()) {
+      for (Cell cell : allCells) {
+        persistentFileHashStores.computeIfAbsent(
+            cell.getFilesystem().getRootPath(),
+            root ->
+                PersistentFileHashStore.load(
+                    root,
+                    DefaultFileHashCache.getPersistentStorePath(cell.getFilesystem()),
+                    clock));
+      }
+    }
     for (Cell subCell : allCells) {
       WatchedFileHashCache watchedCache =
-          new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
+          new WatchedFileHashCache(
+              subCell.getFilesystem(),
+              buildBuckConfig.getFileHashCacheMode(),
+              Optional.ofNullable(
+                  persistentFileHashStores.get(subCell.getFilesystem().getRootPath())));
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
     }
     hashCachesBuilder.add(
         DefaultFileHashCache.createBuckOutFileHashCache(
-            rootCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode()));
+            rootCell.getFilesystem(),
+            buildBuckConfig.getFileHashCacheMode(),
+            Optional.ofNullable(
+                persistentFileHashStores.get(rootCell.getFilesystem().getRootPath()))));
     ImmutableList<ProjectFileHashCache> hashCaches = hashCachesBuilder.build();
+    // Hashing is mostly bound by file reads, so use daemon threads separate from the build pools.
+    ListeningExecutorService fileHashingExecutor =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-hashing-%d").setDaemon(true).build(),
+                buildBuckConfig.getNumFileHashingThreads()));
 
     // Setup file list cache and file tree cache from all cells
     LoadingCache<Path, DirectoryListCache> directoryListCachePerRoot =
@@ -104,7 +137,12 @@ public class BuckGlobalStateFactory {
         createBuildFileManifestCachePerCellMap(
             fileEventBus, rootCell.getCellProvider(), rootCell.getSuperRootPath());
     ActionGraphCache actionGraphCache =
-        new ActionGraphCache(buildBuckConfig.getMaxActionGraphCacheEntries());
+        new ActionGraphCache(
+            buildBuckConfig.getMaxActionGraphCacheEntries(),
+            rootCell
+                .getBuckConfig()
+                .getView(ActionGraphConfig.class)
+                .getIncrementalActionGraphRetainedGenerations());
     VersionedTargetGraphCache versionedTargetGraphCache = new VersionedTargetGraphCache();
 
     TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
@@ -155,6 +193,8 @@ public class BuckGlobalStateFactory {
         typeCoercerFactory,
         daemonicParserState,
         hashCaches,
+        ImmutableList.copyOf(persistentFileHashStores.values()),
+        fileHashingExecutor,
         directoryListCachePerRoot,
         fileTreeCachePerRoot,
         buildFileManifestCachePerRoot,
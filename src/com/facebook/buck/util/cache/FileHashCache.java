@@ -19,9 +19,12 @@ package com.facebook.buck.util.cache;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -39,6 +42,22 @@ public interface FileHashCache extends FileHashLoader {
 
   void set(Path path, HashCode hashCode) throws IOException;
 
+  /**
+   * Returns the hashes of all the given absolute paths, as {@link #get(Path)} would. Besides
+   * reducing the per-call overhead, implementations may hash paths that are not cached yet in
+   * parallel, so that callers with many inputs can warm up the cache in one go.
+   *
+   * @throws IOException if any of the paths cannot be hashed.
+   */
+  default ImmutableMap<Path, HashCode> getAll(Collection<Path> paths) throws IOException {
+    ImmutableMap.Builder<Path, HashCode> hashes =
+        ImmutableMap.builderWithExpectedSize(paths.size());
+    for (Path path : ImmutableSet.copyOf(paths)) {
+      hashes.put(path, get(path));
+    }
+    return hashes.build();
+  }
+
   /**
    * Set the {@link HashCode} for the given relative {@link Path} under the given {@link
    * ProjectFilesystem}.
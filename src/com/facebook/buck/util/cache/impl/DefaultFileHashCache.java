@@ -35,7 +35,9 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
@@ -52,6 +54,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
   private final Predicate<Path> ignoredPredicate;
+  protected final Optional<PersistentFileHashStore> persistentStore;
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
@@ -59,8 +62,21 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentStore if present, file hashes are looked up in and recorded to it before
+   *     falling back to hashing the file contents.
+   */
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.persistentStore = persistentStore;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -130,14 +146,40 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   public static DefaultFileHashCache createBuckOutFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
+    return createBuckOutFileHashCache(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  public static DefaultFileHashCache createBuckOutFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     return new DefaultFileHashCache(
-        projectFilesystem, (path) -> !isInBuckOut(projectFilesystem, path), fileHashCacheMode);
+        projectFilesystem,
+        (path) -> !isInBuckOut(projectFilesystem, path),
+        fileHashCacheMode,
+        persistentStore);
   }
 
   public static DefaultFileHashCache createDefaultFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
+    return createDefaultFileHashCache(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  public static DefaultFileHashCache createDefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     return new DefaultFileHashCache(
-        projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        persistentStore);
+  }
+
+  /** @return the location of the {@link PersistentFileHashStore} of the given filesystem. */
+  public static Path getPersistentStorePath(ProjectFilesystem projectFilesystem) {
+    return projectFilesystem.resolve(
+        projectFilesystem.getBuckPaths().getCacheDir().resolve("file_hashes"));
   }
 
   /**
@@ -196,15 +238,40 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     if (projectFilesystem.isDirectory(path)) {
       return getDirHashCode(path);
     } else if (path.toString().endsWith(".jar")) {
+      HashCode jarHashCode = getFileHashCode(path);
       return JarHashCodeAndFileType.ofArchive(
-          getFileHashCode(path), new DefaultJarContentHasher(projectFilesystem, path));
+          jarHashCode,
+          new DefaultJarContentHasher(projectFilesystem, path, Optional.of(jarHashCode)));
     }
 
     return HashCodeAndFileType.ofFile(getFileHashCode(path));
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
-    return projectFilesystem.computeSha1(path).asHashCode();
+    if (!persistentStore.isPresent()) {
+      return projectFilesystem.computeSha1(path).asHashCode();
+    }
+
+    BasicFileAttributes attributes;
+    try {
+      attributes = projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      persistentStore.get().invalidate(path);
+      throw e;
+    }
+    Optional<HashCode> storedHashCode = persistentStore.get().get(path, attributes);
+    if (storedHashCode.isPresent()) {
+      return storedHashCode.get();
+    }
+    HashCode hashCode = projectFilesystem.computeSha1(path).asHashCode();
+    // Only record the hash if the file did not change while it was being hashed.
+    BasicFileAttributes attributesAfterHashing =
+        projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+    if (attributes.lastModifiedTime().equals(attributesAfterHashing.lastModifiedTime())
+        && attributes.size() == attributesAfterHashing.size()) {
+      persistentStore.get().put(path, attributes, hashCode);
+    }
+    return hashCode;
   }
 
   private long getPathSize(Path path) throws IOException {
@@ -215,10 +282,21 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     return size;
   }
 
+  /**
+   * Directories are hashed as Merkle tree nodes from the cached hashes of their children, so that
+   * after a change only the changed path and its ancestors, which the engines invalidate together,
+   * need to be rehashed. Symlinked directories are hashed by walking all of their files instead, as
+   * changes to their targets are not reported for the paths under the link, and the walk detects
+   * symlink loops.
+   */
   private HashCodeAndFileType getDirHashCode(Path path) throws IOException {
-    Hasher hasher = Hashing.sha1().newHasher();
-    PathHashing.hashPath(hasher, this, projectFilesystem, path);
-    return HashCodeAndFileType.ofDirectory(hasher.hash());
+    if (projectFilesystem.isSymLink(path)) {
+      Hasher hasher = Hashing.sha1().newHasher();
+      PathHashing.hashPath(hasher, this, projectFilesystem, path);
+      return HashCodeAndFileType.ofDirectory(hasher.hash());
+    }
+    return HashCodeAndFileType.ofDirectory(
+        PathHashing.hashDirectory(this, projectFilesystem, path));
   }
 
   @Override
@@ -244,8 +322,17 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   @Override
   public void invalidate(Path relativePath) {
     fileHashCacheEngine.invalidate(relativePath);
+    persistentStore.ifPresent(store -> store.invalidate(relativePath));
+    // Memos are only written in central directory mode.
+    if (DefaultJarContentHasher.USE_CENTRAL_DIRECTORY && relativePath.toString().endsWith(".jar")) {
+      DefaultJarContentHasher.invalidateMemo(projectFilesystem, relativePath);
+    }
   }
 
+  /**
+   * Invalidates all in-memory hashes. Hashes in the {@link PersistentFileHashStore} are kept, as
+   * they are validated against the file attributes before being used.
+   */
   @Override
   public void invalidateAll() {
     fileHashCacheEngine.invalidateAll();
@@ -302,11 +389,24 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
               hashCode,
               new DefaultJarContentHasher(
                   projectFilesystem,
-                  projectFilesystem.getPathRelativeToProjectRoot(relativePath).get()));
+                  projectFilesystem.getPathRelativeToProjectRoot(relativePath).get(),
+                  Optional.of(hashCode)));
     } else {
       value = HashCodeAndFileType.ofFile(hashCode);
     }
 
+    if (persistentStore.isPresent() && value.getType() != HashCodeAndFileType.TYPE_DIRECTORY) {
+      try {
+        persistentStore
+            .get()
+            .put(
+                relativePath,
+                projectFilesystem.readAttributes(relativePath, BasicFileAttributes.class),
+                hashCode);
+      } catch (IOException e) {
+        persistentStore.get().invalidate(relativePath);
+      }
+    }
     fileHashCacheEngine.put(relativePath, value);
   }
 
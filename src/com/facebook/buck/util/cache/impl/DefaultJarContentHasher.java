@@ -15,29 +15,105 @@
  */
 package com.facebook.buck.util.cache.impl;
 
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
 import com.facebook.buck.util.cache.JarContentHasher;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+/**
+ * Loads the hashes of the members of a jar.
+ *
+ * <p>By default, they are read from the digests that {@link CustomJarOutputStream} records in the
+ * manifest. With {@code -Dbuck.DefaultJarContentHasher.use_central_directory=true}, they are
+ * instead derived from the name, CRC32 and size that the central directory records for each
+ * member, which needs neither inflating any member nor a manifest with digests, so it also works
+ * for third-party jars. In that mode, hashes are memoized on disk, in one file per jar path that
+ * records the hash of the jar it was derived from and is dropped when the jar is invalidated, and
+ * with {@code -Dbuck.DefaultJarContentHasher.verify_central_directory=true}, the recorded CRCs
+ * are checked against the actual contents in the background.
+ */
 class DefaultJarContentHasher implements JarContentHasher {
 
+  private static final Logger LOG = Logger.get(DefaultJarContentHasher.class);
+
+  static final boolean USE_CENTRAL_DIRECTORY =
+      Boolean.getBoolean("buck.DefaultJarContentHasher.use_central_directory");
+  private static final boolean VERIFY_CENTRAL_DIRECTORY =
+      Boolean.getBoolean("buck.DefaultJarContentHasher.verify_central_directory");
+
+  private static final int MEMO_MAGIC = 0x4a434831; // "JCH1"
+  private static final int MEMO_VERSION = 2;
+  private static final String MEMO_DIR = "jar_member_hashes";
+
   private final ProjectFilesystem filesystem;
   private final Path jarRelativePath;
+  private final Optional<HashCode> jarHashCode;
+  private final boolean useCentralDirectory;
+  private final Optional<Executor> verificationExecutor;
 
   public DefaultJarContentHasher(ProjectFilesystem filesystem, Path jarRelativePath) {
+    this(filesystem, jarRelativePath, Optional.empty());
+  }
+
+  /**
+   * @param jarHashCode the hash of the jar itself, which validates the on-disk memo of member
+   *     hashes in central directory mode. The memo is not used if it is absent.
+   */
+  public DefaultJarContentHasher(
+      ProjectFilesystem filesystem, Path jarRelativePath, Optional<HashCode> jarHashCode) {
+    this(
+        filesystem,
+        jarRelativePath,
+        jarHashCode,
+        USE_CENTRAL_DIRECTORY,
+        VERIFY_CENTRAL_DIRECTORY
+            ? Optional.of(VerificationExecutorHolder.EXECUTOR)
+            : Optional.empty());
+  }
+
+  @VisibleForTesting
+  DefaultJarContentHasher(
+      ProjectFilesystem filesystem,
+      Path jarRelativePath,
+      Optional<HashCode> jarHashCode,
+      boolean useCentralDirectory,
+      Optional<Executor> verificationExecutor) {
     Preconditions.checkState(!jarRelativePath.isAbsolute());
     this.filesystem = filesystem;
     this.jarRelativePath = jarRelativePath;
+    this.jarHashCode = jarHashCode;
+    this.useCentralDirectory = useCentralDirectory;
+    this.verificationExecutor = verificationExecutor;
   }
 
   @Override
@@ -47,6 +123,10 @@ class DefaultJarContentHasher implements JarContentHasher {
 
   @Override
   public ImmutableMap<Path, HashCodeAndFileType> getContentHashes() throws IOException {
+    if (useCentralDirectory) {
+      return getContentHashesFromCentralDirectory();
+    }
+
     Manifest manifest = filesystem.getJarManifest(jarRelativePath);
     if (manifest == null) {
       throw new UnsupportedOperationException(
@@ -73,4 +153,190 @@ class DefaultJarContentHasher implements JarContentHasher {
 
     return builder.build();
   }
+
+  /**
+   * Drops the memoized member hashes of a jar, so that the memo directory only ever holds the memos
+   * of jars that are still known to the file hash cache.
+   */
+  static void invalidateMemo(ProjectFilesystem filesystem, Path jarRelativePath) {
+    try {
+      Files.deleteIfExists(getMemoPath(filesystem, jarRelativePath));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to drop jar member hashes of %s", jarRelativePath);
+    }
+  }
+
+  private ImmutableMap<Path, HashCodeAndFileType> getContentHashesFromCentralDirectory()
+      throws IOException {
+    Optional<Path> memoPath =
+        jarHashCode.isPresent()
+            ? Optional.of(getMemoPath(filesystem, jarRelativePath))
+            : Optional.empty();
+    if (memoPath.isPresent()) {
+      Optional<ImmutableMap<Path, HashCodeAndFileType>> memoized =
+          readMemo(memoPath.get(), jarHashCode.get());
+      if (memoized.isPresent()) {
+        return memoized.get();
+      }
+    }
+
+    // zip files may contain duplicate entries, keep the last one rather than failing
+    Map<Path, HashCodeAndFileType> memberHashes = new LinkedHashMap<>();
+    try (ZipFile zipFile = openZipFile()) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        HashCode memberHash =
+            Hashing.sha1()
+                .newHasher()
+                .putString(entry.getName(), StandardCharsets.UTF_8)
+                .putLong(entry.getCrc())
+                .putLong(entry.getSize())
+                .hash();
+        memberHashes.put(Paths.get(entry.getName()), HashCodeAndFileType.ofFile(memberHash));
+      }
+    }
+    ImmutableMap<Path, HashCodeAndFileType> hashes = ImmutableMap.copyOf(memberHashes);
+
+    if (memoPath.isPresent()) {
+      writeMemo(memoPath.get(), jarHashCode.get(), hashes);
+    }
+    verificationExecutor.ifPresent(
+        executor -> executor.execute(() -> verifyCentralDirectory(memoPath)));
+    return hashes;
+  }
+
+  private ZipFile openZipFile() throws IOException {
+    return new ZipFile(filesystem.getPathForRelativePath(jarRelativePath).toFile());
+  }
+
+  /**
+   * Checks the CRCs recorded in the central directory against the contents of the members. If any
+   * of them does not match, the hashes derived from the central directory are not trustworthy, so
+   * the memo is dropped and an error is logged.
+   */
+  @VisibleForTesting
+  boolean verifyCentralDirectory(Optional<Path> memoPath) {
+    byte[] buffer = new byte[8192];
+    try (ZipFile zipFile = openZipFile()) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            crc.update(buffer, 0, read);
+          }
+        }
+        if (crc.getValue() != entry.getCrc()) {
+          LOG.error(
+              "Central directory of %s records a wrong CRC for %s, "
+                  + "hashes of its members may be stale",
+              jarRelativePath,
+              entry.getName());
+          if (memoPath.isPresent()) {
+            Files.deleteIfExists(memoPath.get());
+          }
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to verify the central directory of %s", jarRelativePath);
+      return false;
+    }
+  }
+
+  /**
+   * Memos are keyed by the path of the jar rather than by its hash, so that a changed jar replaces
+   * its memo instead of adding another one.
+   */
+  @VisibleForTesting
+  static Path getMemoPath(ProjectFilesystem filesystem, Path jarRelativePath) {
+    return filesystem.resolve(
+        filesystem
+            .getBuckPaths()
+            .getCacheDir()
+            .resolve(MEMO_DIR)
+            .resolve(
+                Hashing.sha1()
+                    .hashString(jarRelativePath.toString(), StandardCharsets.UTF_8)
+                    .toString()));
+  }
+
+  private Optional<ImmutableMap<Path, HashCodeAndFileType>> readMemo(
+      Path memoPath, HashCode expectedJarHashCode) {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(memoPath)))) {
+      if (in.readInt() != MEMO_MAGIC || in.readInt() != MEMO_VERSION) {
+        return Optional.empty();
+      }
+      byte[] memoJarHash = new byte[in.readUnsignedByte()];
+      in.readFully(memoJarHash);
+      if (!HashCode.fromBytes(memoJarHash).equals(expectedJarHashCode)) {
+        return Optional.empty();
+      }
+      int size = in.readInt();
+      ImmutableMap.Builder<Path, HashCodeAndFileType> builder =
+          ImmutableMap.builderWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        Path memberPath = Paths.get(in.readUTF());
+        byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        builder.put(memberPath, HashCodeAndFileType.ofFile(HashCode.fromBytes(hash)));
+      }
+      return Optional.of(builder.build());
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Ignoring unreadable jar member hashes %s", memoPath);
+      return Optional.empty();
+    }
+  }
+
+  private void writeMemo(
+      Path memoPath, HashCode jarHashCode, ImmutableMap<Path, HashCodeAndFileType> hashes) {
+    Path tmpPath =
+        memoPath.resolveSibling(
+            memoPath.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      Files.createDirectories(memoPath.getParent());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+        out.writeInt(MEMO_MAGIC);
+        out.writeInt(MEMO_VERSION);
+        byte[] jarHash = jarHashCode.asBytes();
+        out.writeByte(jarHash.length);
+        out.write(jarHash);
+        out.writeInt(hashes.size());
+        for (Map.Entry<Path, HashCodeAndFileType> entry : hashes.entrySet()) {
+          out.writeUTF(entry.getKey().toString());
+          byte[] hash = entry.getValue().getHashCode().asBytes();
+          out.writeByte(hash.length);
+          out.write(hash);
+        }
+      }
+      Files.move(
+          tmpPath, memoPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record jar member hashes of %s", jarRelativePath);
+    }
+  }
+
+  /** Verification runs on a single low priority thread, as it inflates every member. */
+  private static class VerificationExecutorHolder {
+    private static final Executor EXECUTOR =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("jar-central-directory-verification")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build());
+  }
 }
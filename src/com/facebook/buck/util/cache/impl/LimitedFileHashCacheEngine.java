@@ -93,7 +93,8 @@ class LimitedFileHashCacheEngine implements FileHashCacheEngine {
           HashCode loadedValue = fileHashLoader.load(path);
           if (isArchive(path)) {
             return JarHashCodeAndFileType.ofArchive(
-                loadedValue, new DefaultJarContentHasher(filesystem, path));
+                loadedValue,
+                new DefaultJarContentHasher(filesystem, path, Optional.of(loadedValue)));
           }
           return HashCodeAndFileType.ofFile(loadedValue);
         case FILE_TYPE_DIRECTORY:
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.ObjectFileCommonModificationDate;
+import com.facebook.buck.util.timing.Clock;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An on-disk store of file hashes which survives daemon restarts.
+ *
+ * <p>Each hash is recorded along with the file key (the inode on most file systems), modification
+ * time and size of the file it was computed from, and is only returned while all three still
+ * match. Files modified within {@link #RACY_WINDOW_MILLIS} of being hashed are not recorded, as a
+ * later modification might not change their modification time. Neither are files with the fixed
+ * modification time the artifact cache gives to the files it writes, as another version of such a
+ * file may have the same size and time; their hashes are always computed from their contents.
+ *
+ * <p>Entries are keyed by paths relative to the root of a project filesystem, so one store should
+ * be used per filesystem. The store is loaded once, without looking at the files of its entries:
+ * an entry is checked against its file when it is looked up. Entries of files deleted while no
+ * daemon was watching them are dropped by {@link #pruneDeletedFiles()}, which is meant to run off
+ * the critical path. The store is written back by {@link #save()} when it changed. It holds at most
+ * {@link #MAX_ENTRIES} hashes.
+ */
+public class PersistentFileHashStore {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final int MAGIC = 0x46485331; // "FHS1"
+  private static final int VERSION = 1;
+
+  /** Coarsest modification time granularity of the file systems we care about. */
+  static final long RACY_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+  /** Modification time of the files written by the artifact cache. */
+  private static final long ARTIFACT_CACHE_MODIFICATION_TIME_MILLIS =
+      TimeUnit.SECONDS.toMillis(ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP);
+
+  /** Bounds the size of the store, which is about 100 bytes per entry on disk. */
+  static final int MAX_ENTRIES = 2_000_000;
+
+  private final Path projectRoot;
+  private final Path storePath;
+  private final Clock clock;
+  private final Map<Path, Entry> entries;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private final AtomicBoolean needsPruning = new AtomicBoolean();
+
+  private PersistentFileHashStore(
+      Path projectRoot, Path storePath, Clock clock, Map<Path, Entry> entries) {
+    this.projectRoot = projectRoot;
+    this.storePath = storePath;
+    this.clock = clock;
+    this.entries = entries;
+  }
+
+  /**
+   * Loads the store from the given file. A missing, outdated or corrupt file results in an empty
+   * store.
+   *
+   * @param projectRoot the root of the filesystem the paths of the entries are relative to
+   */
+  public static PersistentFileHashStore load(Path projectRoot, Path storePath, Clock clock) {
+    Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    boolean truncated = false;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(storePath)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.info("Ignoring file hash store %s in an unknown format", storePath);
+        return new PersistentFileHashStore(projectRoot, storePath, clock, entries);
+      }
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        Path path = Paths.get(in.readUTF());
+        String fileKey = in.readUTF();
+        long lastModifiedMillis = in.readLong();
+        long fileSize = in.readLong();
+        byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        if (entries.size() >= MAX_ENTRIES) {
+          truncated = true;
+          continue;
+        }
+        Entry entry = new Entry(fileKey, lastModifiedMillis, fileSize, HashCode.fromBytes(hash));
+        entry.unverified = true;
+        entries.put(path, entry);
+      }
+      LOG.debug("Loaded %d of %d file hashes from %s", entries.size(), size, storePath);
+    } catch (NoSuchFileException e) {
+      // no hashes recorded yet
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Ignoring unreadable file hash store %s", storePath);
+      entries.clear();
+    }
+    PersistentFileHashStore store =
+        new PersistentFileHashStore(projectRoot, storePath, clock, entries);
+    store.dirty.set(truncated);
+    store.needsPruning.set(!entries.isEmpty());
+    return store;
+  }
+
+  /**
+   * @return the recorded hash of the file at {@code relativePath}, if the file still has the given
+   *     attributes.
+   */
+  public Optional<HashCode> get(Path relativePath, BasicFileAttributes attributes) {
+    Entry entry = entries.get(relativePath);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    if (!entry.matches(attributes)) {
+      // The file changed, so the entry is of no use anymore.
+      if (entries.remove(relativePath, entry)) {
+        dirty.set(true);
+      }
+      return Optional.empty();
+    }
+    entry.unverified = false;
+    return Optional.of(entry.hashCode);
+  }
+
+  /**
+   * Records the hash of the file at {@code relativePath}, computed while it had the given
+   * attributes.
+   */
+  public void put(Path relativePath, BasicFileAttributes attributes, HashCode hashCode) {
+    long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+    if (clock.currentTimeMillis() - lastModifiedMillis < RACY_WINDOW_MILLIS
+        || lastModifiedMillis == ARTIFACT_CACHE_MODIFICATION_TIME_MILLIS) {
+      invalidate(relativePath);
+      return;
+    }
+    if (entries.size() >= MAX_ENTRIES && !entries.containsKey(relativePath)) {
+      return;
+    }
+    Entry entry =
+        new Entry(getFileKey(attributes), lastModifiedMillis, attributes.size(), hashCode);
+    if (!entry.equals(entries.put(relativePath, entry))) {
+      dirty.set(true);
+    }
+  }
+
+  /** Forgets the recorded hash of the file at {@code relativePath}, if any. */
+  public void invalidate(Path relativePath) {
+    if (entries.remove(relativePath) != null) {
+      dirty.set(true);
+    }
+  }
+
+  /**
+   * Drops the loaded entries of files that no longer exist, unless they were looked up since. This
+   * looks at the file of every such entry, so it is only done once per store, and should not run
+   * while a command waits for it.
+   */
+  public void pruneDeletedFiles() {
+    if (!needsPruning.getAndSet(false)) {
+      return;
+    }
+    int pruned = 0;
+    for (Map.Entry<Path, Entry> mapEntry : entries.entrySet()) {
+      Entry entry = mapEntry.getValue();
+      if (entry.unverified
+          && !Files.exists(projectRoot.resolve(mapEntry.getKey()), LinkOption.NOFOLLOW_LINKS)
+          && entries.remove(mapEntry.getKey(), entry)) {
+        pruned++;
+      }
+    }
+    if (pruned > 0) {
+      dirty.set(true);
+      LOG.debug("Pruned %d hashes of deleted files from %s", pruned, storePath);
+    }
+  }
+
+  /** @return the number of recorded hashes. */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Writes the store back to disk, if it changed since it was loaded or last saved. */
+  public synchronized void save() throws IOException {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    Files.createDirectories(storePath.getParent());
+    Path tmpPath = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+    Map<Path, Entry> snapshot = new HashMap<>(entries);
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(snapshot.size());
+      for (Map.Entry<Path, Entry> mapEntry : snapshot.entrySet()) {
+        Entry entry = mapEntry.getValue();
+        out.writeUTF(mapEntry.getKey().toString());
+        out.writeUTF(entry.fileKey);
+        out.writeLong(entry.lastModifiedMillis);
+        out.writeLong(entry.size);
+        byte[] hash = entry.hashCode.asBytes();
+        out.writeByte(hash.length);
+        out.write(hash);
+      }
+    } catch (IOException e) {
+      dirty.set(true);
+      throw e;
+    }
+    Files.move(
+        tmpPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved %d file hashes to %s", snapshot.size(), storePath);
+  }
+
+  private static String getFileKey(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    return fileKey == null ? "" : fileKey.toString();
+  }
+
+  private static class Entry {
+    private final String fileKey;
+    private final long lastModifiedMillis;
+    private final long size;
+    private final HashCode hashCode;
+
+    /** Whether the entry was loaded from disk and not matched against its file since. */
+    private volatile boolean unverified;
+
+    private Entry(String fileKey, long lastModifiedMillis, long size, HashCode hashCode) {
+      this.fileKey = fileKey;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.size = size;
+      this.hashCode = hashCode;
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return lastModifiedMillis == attributes.lastModifiedTime().toMillis()
+          && size == attributes.size()
+          && fileKey.equals(getFileKey(attributes));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) other;
+      return lastModifiedMillis == that.lastModifiedMillis
+          && size == that.size
+          && fileKey.equals(that.fileKey)
+          && hashCode.equals(that.hashCode);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(fileKey, lastModifiedMillis, size, hashCode);
+    }
+  }
+}
@@ -23,13 +23,27 @@ import com.facebook.buck.util.cache.FileHashCacheVerificationResult;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -66,17 +80,42 @@ import java.util.stream.Stream;
 public class StackedFileHashCache implements FileHashCache {
 
   private final ImmutableList<? extends ProjectFileHashCache> caches;
+  private final Optional<ListeningExecutorService> bulkHashingExecutor;
 
   public StackedFileHashCache(ImmutableList<? extends ProjectFileHashCache> caches) {
+    this(caches, Optional.empty());
+  }
+
+  /**
+   * @param bulkHashingExecutor if present, {@link #getAll(Collection)} hashes paths that are not
+   *     cached yet on this executor. Its size bounds the number of files read concurrently.
+   */
+  public StackedFileHashCache(
+      ImmutableList<? extends ProjectFileHashCache> caches,
+      Optional<ListeningExecutorService> bulkHashingExecutor) {
     this.caches = caches;
+    this.bulkHashingExecutor = bulkHashingExecutor;
   }
 
   public static StackedFileHashCache createDefaultHashCaches(
       ProjectFilesystem filesystem, FileHashCacheMode fileHashCacheMode) {
+    return createDefaultHashCaches(filesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * Like {@link #createDefaultHashCaches(ProjectFilesystem, FileHashCacheMode)}, but with both
+   * caches backed by the given {@link PersistentFileHashStore} of {@code filesystem}.
+   */
+  public static StackedFileHashCache createDefaultHashCaches(
+      ProjectFilesystem filesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     return new StackedFileHashCache(
         ImmutableList.of(
-            DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode),
-            DefaultFileHashCache.createBuckOutFileHashCache(filesystem, fileHashCacheMode)));
+            DefaultFileHashCache.createDefaultFileHashCache(
+                filesystem, fileHashCacheMode, persistentStore),
+            DefaultFileHashCache.createBuckOutFileHashCache(
+                filesystem, fileHashCacheMode, persistentStore)));
   }
 
   /**
@@ -132,6 +171,61 @@ public class StackedFileHashCache implements FileHashCache {
     return found.get().getFirst().get(found.get().getSecond());
   }
 
+  @Override
+  public ImmutableMap<Path, HashCode> getAll(Collection<Path> paths) throws IOException {
+    Map<Path, HashCode> hashes = new HashMap<>();
+    Map<Path, Pair<ProjectFileHashCache, Path>> uncached = new LinkedHashMap<>();
+    ImmutableSet<Path> uniquePaths = ImmutableSet.copyOf(paths);
+    for (Path path : uniquePaths) {
+      Optional<Pair<ProjectFileHashCache, Path>> found = lookup(path);
+      if (!found.isPresent()) {
+        throw new NoSuchFileException(path.toString());
+      }
+      Optional<HashCode> cached = found.get().getFirst().getIfPresent(found.get().getSecond());
+      if (cached.isPresent()) {
+        hashes.put(path, cached.get());
+      } else {
+        uncached.put(path, found.get());
+      }
+    }
+
+    if (!bulkHashingExecutor.isPresent() || uncached.size() < 2) {
+      for (Map.Entry<Path, Pair<ProjectFileHashCache, Path>> entry : uncached.entrySet()) {
+        hashes.put(entry.getKey(), entry.getValue().getFirst().get(entry.getValue().getSecond()));
+      }
+    } else {
+      List<ListenableFuture<HashCode>> futures = new ArrayList<>(uncached.size());
+      for (Pair<ProjectFileHashCache, Path> cacheAndPath : uncached.values()) {
+        futures.add(
+            bulkHashingExecutor
+                .get()
+                .submit(() -> cacheAndPath.getFirst().get(cacheAndPath.getSecond())));
+      }
+      ListenableFuture<List<HashCode>> allHashes = Futures.allAsList(futures);
+      try {
+        Iterator<HashCode> results = allHashes.get().iterator();
+        for (Path path : uncached.keySet()) {
+          hashes.put(path, results.next());
+        }
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        allHashes.cancel(true);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while hashing files");
+      }
+    }
+
+    ImmutableMap.Builder<Path, HashCode> orderedHashes =
+        ImmutableMap.builderWithExpectedSize(uniquePaths.size());
+    for (Path path : uniquePaths) {
+      orderedHashes.put(path, hashes.get(path));
+    }
+    return orderedHashes.build();
+  }
+
   @Override
   public long getSize(Path path) throws IOException {
     Optional<Pair<ProjectFileHashCache, Path>> found = lookup(path);
@@ -218,7 +312,7 @@ public class StackedFileHashCache implements FileHashCache {
       decoratedCaches.add(decorateDelegate.apply(cache));
     }
 
-    return new StackedFileHashCache(decoratedCaches.build());
+    return new StackedFileHashCache(decoratedCaches.build(), bulkHashingExecutor);
   }
 
   public ImmutableList<? extends ProjectFileHashCache> getCaches() {
@@ -23,6 +23,7 @@ import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -30,7 +31,18 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
 
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    this(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        persistentStore);
   }
 
   /**
@@ -44,6 +56,7 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     Path path = event.getPath().normalize();
     LOG.verbose("Invalidating %s", path);
     fileHashCacheEngine.invalidateWithParents(path);
+    persistentStore.ifPresent(store -> store.invalidate(path));
   }
 
   @SuppressWarnings("unused")
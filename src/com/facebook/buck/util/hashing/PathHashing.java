@@ -21,7 +21,9 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -32,6 +34,9 @@ public class PathHashing {
 
   private static final Path EMPTY_PATH = Paths.get("");
 
+  /** Hash of a directory without any files in it, as computed by {@link #hashDirectory}. */
+  public static final HashCode EMPTY_DIRECTORY_HASH = Hashing.sha1().newHasher().hash();
+
   public static ImmutableSet<Path> hashPath(
       Hasher hasher,
       ProjectFileHashLoader fileHashLoader,
@@ -50,4 +55,33 @@ public class PathHashing {
     }
     return children.build();
   }
+
+  /**
+   * Computes the hash of a directory from the names and hashes of its direct children, as a node
+   * of a Merkle tree. The hashes of child directories are requested from {@code fileHashLoader}
+   * as well, so when it caches directory hashes and invalidates them along with the ancestors of
+   * changed paths, a change to a single file only rehashes the directories above it, each of which
+   * only lists its own entries.
+   *
+   * <p>As with {@link #hashPath}, only files contribute to the hash: child directories without any
+   * files in them are skipped.
+   *
+   * @return the hash of the directory, {@link #EMPTY_DIRECTORY_HASH} if it contains no files.
+   */
+  public static HashCode hashDirectory(
+      ProjectFileHashLoader fileHashLoader, ProjectFilesystem projectFilesystem, Path directory)
+      throws IOException {
+    Preconditions.checkArgument(
+        !directory.equals(EMPTY_PATH), "Path to hash (%s) must not be empty", directory);
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Path child : projectFilesystem.getDirectoryContents(directory)) {
+      HashCode childHash = fileHashLoader.get(child);
+      if (projectFilesystem.isDirectory(child) && childHash.equals(EMPTY_DIRECTORY_HASH)) {
+        continue;
+      }
+      FastPaths.hashPathFast(hasher, child.getFileName());
+      hasher.putBytes(childHash.asBytes());
+    }
+    return hasher.hash();
+  }
 }
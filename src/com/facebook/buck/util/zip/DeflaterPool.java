@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.google.common.base.Preconditions;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Reuses {@link Deflater}s across zip entries, since allocating the native state of a deflater
+ * costs more than compressing a typical class file.
+ *
+ * <p>Deflaters are pooled per compression level, rather than having their level changed, so that a
+ * reused deflater produces exactly the bytes a new one would.
+ */
+@ThreadSafe
+class DeflaterPool {
+
+  /** Shared by all the zip streams of this process. */
+  static final DeflaterPool SHARED = new DeflaterPool(Runtime.getRuntime().availableProcessors());
+
+  private static final int LEVELS = Deflater.BEST_COMPRESSION + 2;
+
+  private final int maxIdlePerLevel;
+  private final Queue<Deflater>[] idleDeflaters;
+  private final AtomicInteger[] idleCounts;
+
+  @SuppressWarnings("unchecked")
+  DeflaterPool(int maxIdlePerLevel) {
+    this.maxIdlePerLevel = maxIdlePerLevel;
+    this.idleDeflaters = new Queue[LEVELS];
+    this.idleCounts = new AtomicInteger[LEVELS];
+    for (int i = 0; i < LEVELS; i++) {
+      idleDeflaters[i] = new ConcurrentLinkedQueue<>();
+      idleCounts[i] = new AtomicInteger();
+    }
+  }
+
+  /** @return a deflater that writes raw deflate data (no zlib wrapper) at the given level. */
+  Deflater acquire(int level) {
+    int index = indexOf(level);
+    Deflater deflater = idleDeflaters[index].poll();
+    if (deflater == null) {
+      return new Deflater(level, true);
+    }
+    idleCounts[index].decrementAndGet();
+    return deflater;
+  }
+
+  /** Returns a deflater obtained from {@link #acquire(int)} with the given level. */
+  void release(Deflater deflater, int level) {
+    int index = indexOf(level);
+    if (idleCounts[index].incrementAndGet() > maxIdlePerLevel) {
+      idleCounts[index].decrementAndGet();
+      deflater.end();
+      return;
+    }
+    deflater.reset();
+    idleDeflaters[index].add(deflater);
+  }
+
+  private static int indexOf(int level) {
+    Preconditions.checkArgument(
+        level >= Deflater.DEFAULT_COMPRESSION && level <= Deflater.BEST_COMPRESSION,
+        "Invalid compression level: %s",
+        level);
+    return level + 1;
+  }
+}
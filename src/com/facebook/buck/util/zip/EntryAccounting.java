@@ -24,11 +24,11 @@ import com.google.common.hash.Hashing;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
 
 /**
  * A wrapper containing the {@link ZipEntry} and additional book keeping information required to
@@ -69,7 +69,9 @@ class EntryAccounting {
    */
   private int flags = UTF8_NAMES_FLAG;
 
-  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  // Taken from the pool when the first bytes are deflated, and returned once the entry is finished.
+  @Nullable private Deflater deflater;
   private final byte[] buffer = new byte[ARBITRARY_SIZE];
 
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
@@ -82,7 +84,7 @@ class EntryAccounting {
     }
 
     if (entry instanceof CustomZipEntry) {
-      deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
+      compressionLevel = ((CustomZipEntry) entry).getCompressionLevel();
       externalAttributes = ((CustomZipEntry) entry).getExternalAttributes();
     }
   }
@@ -231,10 +233,17 @@ class EntryAccounting {
     }
   }
 
-  private int deflate(OutputStream out) throws IOException {
+  private Deflater getDeflater() {
+    if (deflater == null) {
+      deflater = DeflaterPool.SHARED.acquire(compressionLevel);
+    }
+    return deflater;
+  }
+
+  private int deflate(Deflater deflater, OutputStream out) throws IOException {
     int written = deflater.deflate(buffer, 0, buffer.length);
     if (written > 0) {
-      out.write(Arrays.copyOf(buffer, written));
+      out.write(buffer, 0, written);
     }
     return written;
   }
@@ -249,10 +258,11 @@ class EntryAccounting {
       out.write(b, off, len);
       length += len;
     } else if (method == Method.DEFLATE) {
+      Deflater deflater = getDeflater();
       Preconditions.checkState(!deflater.finished());
       deflater.setInput(b, off, len);
       while (!deflater.needsInput()) {
-        deflate(out);
+        deflate(deflater, out);
       }
     }
   }
@@ -270,17 +280,19 @@ class EntryAccounting {
           entry.getCrc() == calculateCrc(),
           "CRC of bytes written differs from what is specified in the entry.");
     } else if (method == Method.DEFLATE) {
+      Deflater deflater = getDeflater();
       deflater.finish();
       while (!deflater.finished()) {
-        deflate(out);
+        deflate(deflater, out);
       }
       entry.setSize(deflater.getBytesRead());
       entry.setCompressedSize(deflater.getBytesWritten());
       entry.setCrc(calculateCrc());
-    }
 
-    // regardless of the method used, end the deflater to free native resources.
-    deflater.end();
+      // Hand the deflater, and its native resources, to the next entry.
+      DeflaterPool.SHARED.release(deflater, compressionLevel);
+      this.deflater = null;
+    }
 
     // write the data descriptor if required
     byte[] dataDescriptor = getDataDescriptor();
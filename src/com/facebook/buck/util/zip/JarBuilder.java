@@ -23,6 +23,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -37,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
@@ -60,7 +62,13 @@ public class JarBuilder {
     void onEntryOmitted(String jarFile, JarEntrySupplier entrySupplier);
   }
 
+  /** Receives the contents of each file written to the jar, including the manifest. */
+  public interface EntryListener {
+    void onEntry(String name, byte[] contents) throws IOException;
+  }
+
   private Observer observer = Observer.IGNORING;
+  @Nullable private EntryListener entryListener;
   @Nullable private Path outputFile;
   @Nullable private String mainClass;
   @Nullable private Path manifestFile;
@@ -71,12 +79,22 @@ public class JarBuilder {
   private List<JarEntryContainer> sourceContainers = new ArrayList<>();
   private Set<String> alreadyAddedEntries = new HashSet<>();
   private Map<String, Set<String>> services = new HashMap<>();
+  @Nullable private Executor compressionExecutor = null;
 
   public JarBuilder setObserver(Observer observer) {
     this.observer = observer;
     return this;
   }
 
+  /**
+   * Hands each file to the listener as it is written, so that something else can be built from the
+   * contents of the jar without reading it back.
+   */
+  public JarBuilder setEntryListener(@Nullable EntryListener entryListener) {
+    this.entryListener = entryListener;
+    return this;
+  }
+
   public JarBuilder setEntriesToJar(Stream<Path> entriesToJar) {
     return setEntriesToJar(entriesToJar::iterator);
   }
@@ -132,11 +150,24 @@ public class JarBuilder {
     return this;
   }
 
+  /**
+   * Sets where entries are compressed while the next ones are read, such as {@link
+   * ZipOutputStreams#getCompressionExecutor()}, or compresses them on the calling thread if {@code
+   * null}, which is the default. Either way, the jar has the same bytes.
+   */
+  public JarBuilder setCompressionExecutor(@Nullable Executor compressionExecutor) {
+    this.compressionExecutor = compressionExecutor;
+    return this;
+  }
+
   public int createJarFile(Path outputFile) throws IOException {
     Preconditions.checkArgument(outputFile.isAbsolute());
     try (CustomJarOutputStream jar =
-        ZipOutputStreams.newJarOutputStream(
-            outputFile, ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP)) {
+        compressionExecutor == null
+            ? ZipOutputStreams.newJarOutputStream(
+                outputFile, ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP)
+            : ZipOutputStreams.newParallelJarOutputStream(
+                outputFile, ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP, compressionExecutor)) {
       jar.setEntryHashingEnabled(shouldHashEntries);
       this.outputFile = outputFile;
 
@@ -158,6 +189,13 @@ public class JarBuilder {
         throw new HumanReadableException("ERROR: Main class %s does not exist.", mainClass);
       }
 
+      if (entryListener != null) {
+        // The manifest is only written when the jar is closed, but it won't change any more.
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        jar.getManifest().write(manifest);
+        entryListener.onEntry(JarFile.MANIFEST_NAME, manifest.toByteArray());
+      }
+
       return 0;
     }
   }
@@ -166,9 +204,13 @@ public class JarBuilder {
     Joiner joiner = Joiner.on("\n");
     for (String entryName : services.keySet()) {
       CustomZipEntry entry = new CustomZipEntry(entryName);
+      byte[] contents = joiner.join(services.get(entryName)).getBytes();
       jar.putNextEntry(entry);
-      jar.write(joiner.join(services.get(entryName)).getBytes());
+      jar.write(contents);
       jar.closeEntry();
+      if (entryListener != null) {
+        entryListener.onEntry(entryName, contents);
+      }
     }
   }
 
@@ -272,7 +314,11 @@ public class JarBuilder {
 
     jar.putNextEntry(entry);
     try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
-      if (entryInputStream != null) {
+      if (entryInputStream != null && entryListener != null && !entry.isDirectory()) {
+        byte[] contents = ByteStreams.toByteArray(entryInputStream);
+        jar.write(contents);
+        entryListener.onEntry(entryName, contents);
+      } else if (entryInputStream != null) {
         // Null stream means a directory
         ByteStreams.copy(entryInputStream, jar);
       }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.facebook.buck.util.timing.Clock;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CustomZipOutputStream.Impl} that compresses entries on an {@link Executor} while the
+ * caller adds the next ones, and writes them in the order they were added. The output is the same,
+ * byte for byte, as the one of {@link AppendingZipOutputStreamImpl}.
+ *
+ * <p>The uncompressed bytes of each entry are buffered in memory until the entry is compressed. At
+ * most {@code maxPendingBytes} of entries wait to be written at any time (plus the entry being
+ * added), after which adding an entry waits for the oldest one to be written. The pending bytes
+ * are also added to a counter shared with other streams, and while it exceeds {@code
+ * maxSharedPendingBytes}, adding an entry also waits for the pending entries of this stream.
+ */
+class ParallelZipOutputStreamImpl implements CustomZipOutputStream.Impl {
+
+  private final OutputStream delegate;
+  private final boolean throwExceptionsOnDuplicate;
+  private final Clock clock;
+  private final Executor executor;
+  private final long maxPendingBytes;
+  private final AtomicLong sharedPendingBytes;
+  private final long maxSharedPendingBytes;
+  private final List<EntryAccounting> entries = new ArrayList<>();
+  private final Set<String> seenNames = new HashSet<>();
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private long pendingBytes = 0;
+  private long currentOffset = 0;
+  @Nullable private EntryAccounting currentEntry = null;
+  @Nullable private EntryBuffer currentBuffer = null;
+
+  public ParallelZipOutputStreamImpl(
+      Clock clock,
+      OutputStream stream,
+      boolean throwExceptionsOnDuplicate,
+      Executor executor,
+      long maxPendingBytes,
+      AtomicLong sharedPendingBytes,
+      long maxSharedPendingBytes) {
+    this.delegate = stream;
+    this.clock = clock;
+    this.throwExceptionsOnDuplicate = throwExceptionsOnDuplicate;
+    this.executor = executor;
+    this.maxPendingBytes = maxPendingBytes;
+    this.sharedPendingBytes = sharedPendingBytes;
+    this.maxSharedPendingBytes = maxSharedPendingBytes;
+  }
+
+  @Override
+  public void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+
+    // The offset is only known once the entries before this one are written.
+    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    currentBuffer = new EntryBuffer();
+    entries.add(currentEntry);
+  }
+
+  @Override
+  public void actuallyWrite(byte[] b, int off, int len) {
+    Objects.requireNonNull(currentBuffer).write(b, off, len);
+  }
+
+  @Override
+  public void actuallyCloseEntry() throws IOException {
+    if (currentEntry == null) {
+      return; // no-op
+    }
+
+    EntryAccounting entry = currentEntry;
+    EntryBuffer uncompressed = Objects.requireNonNull(currentBuffer);
+    currentEntry = null;
+    currentBuffer = null;
+
+    pendingEntries.add(
+        new PendingEntry(
+            entry,
+            uncompressed.size(),
+            CompletableFuture.supplyAsync(() -> compress(entry, uncompressed), executor)));
+    pendingBytes += uncompressed.size();
+    sharedPendingBytes.addAndGet(uncompressed.size());
+
+    // Write what is already compressed, and wait for the oldest entries if too many are pending.
+    while (!pendingEntries.isEmpty()
+        && (pendingEntries.peek().compressed.isDone()
+            || pendingBytes > maxPendingBytes
+            || sharedPendingBytes.get() > maxSharedPendingBytes)) {
+      writeOldestPendingEntry();
+    }
+  }
+
+  @Override
+  public void actuallyClose() throws IOException {
+    try {
+      while (!pendingEntries.isEmpty()) {
+        writeOldestPendingEntry();
+      }
+    } finally {
+      // Give back the budget of the entries that could not be written.
+      while (!pendingEntries.isEmpty()) {
+        release(pendingEntries.remove());
+      }
+    }
+
+    new CentralDirectory().writeCentralDirectory(delegate, currentOffset, entries);
+
+    delegate.close();
+  }
+
+  /** @return the local file header, data and data descriptor of the entry. */
+  private static ByteArrayOutputStream compress(EntryAccounting entry, EntryBuffer uncompressed) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(uncompressed.size() / 2 + 64);
+    try {
+      entry.writeLocalFileHeader(out);
+      uncompressed.writeTo(entry, out);
+      entry.finish(out);
+    } catch (IOException e) {
+      // Writing to memory does not throw.
+      throw new IllegalStateException(e);
+    }
+    return out;
+  }
+
+  private void writeOldestPendingEntry() throws IOException {
+    PendingEntry pendingEntry = pendingEntries.remove();
+    release(pendingEntry);
+
+    ByteArrayOutputStream compressed;
+    try {
+      compressed = Uninterruptibles.getUninterruptibly(pendingEntry.compressed);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+
+    pendingEntry.entry.setOffset(currentOffset);
+    compressed.writeTo(delegate);
+    currentOffset += compressed.size();
+  }
+
+  private void release(PendingEntry pendingEntry) {
+    pendingBytes -= pendingEntry.uncompressedSize;
+    sharedPendingBytes.addAndGet(-pendingEntry.uncompressedSize);
+  }
+
+  private static class PendingEntry {
+    private final EntryAccounting entry;
+    private final int uncompressedSize;
+    private final CompletableFuture<ByteArrayOutputStream> compressed;
+
+    private PendingEntry(
+        EntryAccounting entry,
+        int uncompressedSize,
+        CompletableFuture<ByteArrayOutputStream> compressed) {
+      this.entry = entry;
+      this.uncompressedSize = uncompressedSize;
+      this.compressed = compressed;
+    }
+  }
+
+  /** Hands its bytes to {@link EntryAccounting} without copying them. */
+  private static class EntryBuffer extends ByteArrayOutputStream {
+    private void writeTo(EntryAccounting entry, OutputStream out) throws IOException {
+      entry.write(out, buf, 0, count);
+    }
+  }
+}
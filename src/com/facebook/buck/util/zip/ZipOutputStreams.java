@@ -19,14 +19,26 @@ package com.facebook.buck.util.zip;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ZipOutputStreams {
 
+  /** How many bytes of entries a parallel stream buffers while they wait to be compressed. */
+  private static final long MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+  /** How many bytes of entries all the parallel streams of this process buffer together. */
+  private static final long MAX_TOTAL_PENDING_BYTES = 64 * 1024 * 1024;
+
+  private static final AtomicLong TOTAL_PENDING_BYTES = new AtomicLong();
+
   private ZipOutputStreams() {
     // factory class
   }
@@ -105,6 +117,49 @@ public class ZipOutputStreams {
     return new CustomJarOutputStream(newImpl(out, mode, clock));
   }
 
+  /**
+   * Create a new {@link CustomJarOutputStream} that compresses entries on {@code executor} while
+   * the next ones are added. The jar is the same, byte for byte, as the one written by {@link
+   * #newJarOutputStream(Path, HandleDuplicates)}. Entries are buffered in memory until they are
+   * compressed, up to a budget per stream and one shared by all the parallel streams of the
+   * process. {@link HandleDuplicates#OVERWRITE_EXISTING} is not supported.
+   *
+   * @param jarFile The file to write to.
+   * @param mode How to handle duplicate entries.
+   * @param executor Where to compress entries, such as {@link #getCompressionExecutor()}.
+   */
+  public static CustomJarOutputStream newParallelJarOutputStream(
+      Path jarFile, HandleDuplicates mode, Executor executor) throws IOException {
+    return newParallelJarOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(jarFile)), mode, executor);
+  }
+
+  public static CustomJarOutputStream newParallelJarOutputStream(
+      OutputStream out, HandleDuplicates mode, Executor executor) {
+    switch (mode) {
+      case APPEND_TO_ZIP:
+      case THROW_EXCEPTION:
+        return new CustomJarOutputStream(
+            new ParallelZipOutputStreamImpl(
+                new DefaultClock(),
+                out,
+                mode == HandleDuplicates.THROW_EXCEPTION,
+                executor,
+                MAX_PENDING_BYTES,
+                TOTAL_PENDING_BYTES,
+                MAX_TOTAL_PENDING_BYTES));
+      case OVERWRITE_EXISTING:
+      default:
+        throw new HumanReadableException(
+            "Unable to compress zip entries in parallel in output mode: %s", mode);
+    }
+  }
+
+  /** @return an executor shared by the zip streams of this process to compress entries. */
+  public static Executor getCompressionExecutor() {
+    return CompressionExecutorHolder.EXECUTOR;
+  }
+
   protected static CustomZipOutputStream.Impl newImpl(
       OutputStream out, HandleDuplicates mode, Clock clock) {
     CustomZipOutputStream.Impl impl;
@@ -125,6 +180,14 @@ public class ZipOutputStreams {
     return impl;
   }
 
+  /** Compression never blocks, so it only needs as many threads as there are cores. */
+  private static class CompressionExecutorHolder {
+    private static final Executor EXECUTOR =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("zip-compression-%d").setDaemon(true).build());
+  }
+
   public enum HandleDuplicates {
     /** Duplicate entries are simply appended to the zip. */
     APPEND_TO_ZIP,
@@ -46,6 +46,12 @@ interface AbstractWorkerProcessParams {
   /** Maximum number of tools that pool can have. */
   int getMaxWorkers();
 
+  /**
+   * Maximum number of jobs each tool runs at the same time. Tools that run more than one job at a
+   * time must speak {@link WorkerProcessProtocolOne}.
+   */
+  int getMaxJobsPerWorker();
+
   /**
    * Identifies the instance of the persisted worker process pool. Defines when worker process pool
    * should be invalidated.
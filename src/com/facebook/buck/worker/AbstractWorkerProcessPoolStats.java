@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import org.immutables.value.Value;
+
+/** Throughput of the jobs run by a {@link WorkerProcessPool} since it was created. */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractWorkerProcessPoolStats {
+  /** Number of jobs that finished, successfully or not. */
+  public abstract long getJobCount();
+
+  /** Number of jobs that finished with a non-zero exit code, or could not be run. */
+  public abstract long getFailedJobCount();
+
+  /** Sum of the time jobs took, from submission to result. */
+  public abstract long getTotalJobMillis();
+
+  /** Time during which at least one job was running. */
+  public abstract long getBusyMillis();
+
+  /** Sum of the time callers waited for a worker to become available. */
+  public abstract long getTotalWaitMillis();
+
+  /** Largest number of jobs that ran at the same time. */
+  public abstract int getPeakConcurrentJobs();
+
+  /** Jobs finished per second of busy time. */
+  public double getJobsPerSecond() {
+    return getBusyMillis() == 0 ? 0 : getJobCount() * 1000.0 / getBusyMillis();
+  }
+}
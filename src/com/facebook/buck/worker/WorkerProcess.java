@@ -32,6 +32,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 public class WorkerProcess implements Closeable {
@@ -43,9 +44,10 @@ public class WorkerProcess implements Closeable {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final Path stdErr;
+  private final int maxConcurrentJobs;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
-  @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  @Nullable private volatile WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
   /**
@@ -67,7 +69,23 @@ public class WorkerProcess implements Closeable {
       ProjectFilesystem filesystem,
       Path stdErr,
       Path tmpPath) {
+    this(executor, processParams, filesystem, stdErr, tmpPath, 1);
+  }
+
+  /**
+   * @param maxConcurrentJobs How many jobs the process may run at the same time. Processes that
+   *     run more than one job at a time must speak {@link WorkerProcessProtocolOne}.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path stdErr,
+      Path tmpPath,
+      int maxConcurrentJobs) {
+    Preconditions.checkArgument(maxConcurrentJobs > 0, "maxConcurrentJobs must be positive.");
     this.executor = executor;
+    this.maxConcurrentJobs = maxConcurrentJobs;
     this.stdErr = stdErr;
     this.processParams =
         processParams.withRedirectError(ProcessBuilder.Redirect.to(stdErr.toFile()));
@@ -87,24 +105,37 @@ public class WorkerProcess implements Closeable {
         "Starting up process %d using command: \'%s\'",
         this.hashCode(), Joiner.on(' ').join(processParams.getCommand()));
     launchedProcess = executor.launchProcess(processParams);
+    Runnable onClose =
+        () -> {
+          if (launchedProcess != null) {
+            executor.destroyLaunchedProcess(launchedProcess);
+          }
+        };
+    Supplier<Boolean> isAlive = () -> launchedProcess != null && launchedProcess.isAlive();
     protocol =
-        new WorkerProcessProtocolZero.CommandSender(
-            launchedProcess.getStdin(),
-            launchedProcess.getStdout(),
-            stdErr,
-            () -> {
-              if (launchedProcess != null) {
-                executor.destroyLaunchedProcess(launchedProcess);
-              }
-            },
-            () -> launchedProcess != null && launchedProcess.isAlive());
+        maxConcurrentJobs > 1
+            ? new WorkerProcessProtocolOne.CommandSender(
+                launchedProcess.getStdin(), launchedProcess.getStdout(), stdErr, onClose, isAlive)
+            : new WorkerProcessProtocolZero.CommandSender(
+                launchedProcess.getStdin(), launchedProcess.getStdout(), stdErr, onClose, isAlive);
 
     LOG.debug("Handshaking with process %d", this.hashCode());
     protocol.handshake(currentMessageID.getAndIncrement());
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    if (maxConcurrentJobs > 1) {
+      return runJob(jobArgs);
+    }
+    // Protocol zero runs one job at a time.
+    synchronized (this) {
+      return runJob(jobArgs);
+    }
+  }
+
+  private WorkerJobResult runJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender protocol = this.protocol;
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -113,6 +144,8 @@ public class WorkerProcess implements Closeable {
     Path argsPath = Paths.get(tmpPath.toString(), String.format("%d.args", messageID));
     Path stdoutPath = Paths.get(tmpPath.toString(), String.format("%d.out", messageID));
     Path stderrPath = Paths.get(tmpPath.toString(), String.format("%d.err", messageID));
+    // Persistent workers outlive builds, and their temp folder may have been cleaned since.
+    filesystem.mkdirs(tmpPath);
     filesystem.deleteFileAtPathIfExists(stdoutPath);
     filesystem.deleteFileAtPathIfExists(stderrPath);
     filesystem.writeContentsToPath(jobArgs, argsPath);
@@ -120,7 +153,16 @@ public class WorkerProcess implements Closeable {
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+    WorkerProcessCommand command = WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath);
+    if (maxConcurrentJobs > 1) {
+      // Output streamed by the worker is appended to these files from Buck's process.
+      command =
+          WorkerProcessCommand.of(
+              filesystem.resolve(argsPath),
+              filesystem.resolve(stdoutPath),
+              filesystem.resolve(stderrPath));
+    }
+    protocol.send(messageID, command);
     LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
     int exitCode = protocol.receiveCommandResponse(messageID);
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
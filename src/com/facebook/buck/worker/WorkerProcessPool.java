@@ -26,12 +26,12 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -40,21 +40,40 @@ import javax.annotation.concurrent.ThreadSafe;
  *
  * <p>This pool supports acquisition and release of worker processes on different threads. Workers
  * are acquired with {@link #borrowWorkerProcess()}, which returns
+ *
+ * <p>A worker process that can run several jobs at the same time may be borrowed that many times
+ * concurrently.
  */
 @ThreadSafe
 public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
   private final int capacity;
+  private final int maxJobsPerWorker;
   private final BlockingQueue<WorkerLifecycle> availableWorkers;
   private final WorkerLifecycle[] workerLifecycles;
   private final HashCode poolHash;
+  private final StatsRecorder stats = new StatsRecorder();
 
   public WorkerProcessPool(
       int maxWorkers,
       HashCode poolHash,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(maxWorkers, 1, poolHash, startWorkerProcess);
+  }
+
+  /**
+   * @param maxJobsPerWorker how many jobs each worker process may run at the same time. The
+   *     processes started by {@code startWorkerProcess} must support that many.
+   */
+  public WorkerProcessPool(
+      int maxWorkers,
+      int maxJobsPerWorker,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    Preconditions.checkArgument(maxJobsPerWorker > 0, "maxJobsPerWorker must be positive.");
     capacity = maxWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
     availableWorkers = new LinkedBlockingStack<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
@@ -62,7 +81,13 @@ public class WorkerProcessPool implements Closeable {
     Arrays.setAll(
         workerLifecycles,
         ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
-    Collections.addAll(availableWorkers, workerLifecycles);
+    // A worker is available once per job it may run. The first workers are on top of the stack,
+    // so that a worker only starts when the ones before it run as many jobs as they can.
+    for (int i = workerLifecycles.length - 1; i >= 0; i--) {
+      for (int job = 0; job < maxJobsPerWorker; job++) {
+        availableWorkers.add(workerLifecycles[i]);
+      }
+    }
   }
 
   /**
@@ -71,14 +96,17 @@ public class WorkerProcessPool implements Closeable {
    * BorrowedWorkerProcess#close()} after using them.
    */
   public BorrowedWorkerProcess borrowWorkerProcess() throws InterruptedException {
-    return new BorrowedWorkerProcess(availableWorkers.take());
+    long waitStartNanos = System.nanoTime();
+    WorkerLifecycle lifecycle = availableWorkers.take();
+    stats.recordWait(System.nanoTime() - waitStartNanos);
+    return new BorrowedWorkerProcess(lifecycle, stats);
   }
 
   @VisibleForTesting
   Optional<BorrowedWorkerProcess> borrowWorkerProcess(int timeout, TimeUnit unit)
       throws InterruptedException {
     return Optional.ofNullable(availableWorkers.poll(timeout, unit))
-        .map(BorrowedWorkerProcess::new);
+        .map(lifecycle -> new BorrowedWorkerProcess(lifecycle, stats));
   }
 
   @Override
@@ -95,8 +123,12 @@ public class WorkerProcessPool implements Closeable {
       }
     }
 
+    WorkerProcessPoolStats poolStats = getStats();
+    LOG.info(
+        "Closing worker pool %s, which ran %.1f jobs per second: %s",
+        poolHash, poolStats.getJobsPerSecond(), poolStats);
     Preconditions.checkState(
-        numAvailableWorkers == capacity,
+        numAvailableWorkers == capacity * maxJobsPerWorker,
         "WorkerProcessPool was still running when shutdown was called.");
     if (caughtWhileClosing != null) {
       throw new RuntimeException(caughtWhileClosing);
@@ -107,7 +139,16 @@ public class WorkerProcessPool implements Closeable {
     return capacity;
   }
 
-  HashCode getPoolHash() {
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
+  /** @return the throughput of the jobs run by this pool so far. */
+  public WorkerProcessPoolStats getStats() {
+    return stats.get();
+  }
+
+  public HashCode getPoolHash() {
     return poolHash;
   }
 
@@ -187,9 +228,11 @@ public class WorkerProcessPool implements Closeable {
    */
   public static class BorrowedWorkerProcess implements Closeable {
     @Nullable private WorkerLifecycle lifecycle;
+    private final StatsRecorder stats;
 
-    private BorrowedWorkerProcess(WorkerLifecycle lifecycle) {
+    private BorrowedWorkerProcess(WorkerLifecycle lifecycle, StatsRecorder stats) {
       this.lifecycle = Objects.requireNonNull(lifecycle);
+      this.stats = stats;
     }
 
     /** Returns ownership of the borrowed worker process back to the pool it was retrieved from. */
@@ -208,7 +251,15 @@ public class WorkerProcessPool implements Closeable {
      * @throws IOException
      */
     public WorkerJobResult submitAndWaitForJob(String expandedJobArgs) throws IOException {
-      return get().submitAndWaitForJob(expandedJobArgs);
+      long startNanos = stats.jobStarted();
+      boolean failed = true;
+      try {
+        WorkerJobResult result = get().submitAndWaitForJob(expandedJobArgs);
+        failed = result.getExitCode() != 0;
+        return result;
+      } finally {
+        stats.jobFinished(startNanos, failed);
+      }
     }
 
     @VisibleForTesting
@@ -217,4 +268,61 @@ public class WorkerProcessPool implements Closeable {
       return lifecycle.get();
     }
   }
+
+  /** Collects the throughput metrics of a pool. */
+  @ThreadSafe
+  private static class StatsRecorder implements Supplier<WorkerProcessPoolStats> {
+    private long jobCount = 0;
+    private long failedJobCount = 0;
+    private long totalJobNanos = 0;
+    private long busyNanos = 0;
+    private long totalWaitNanos = 0;
+    private int runningJobs = 0;
+    private int peakConcurrentJobs = 0;
+    private long busySinceNanos = 0;
+
+    synchronized void recordWait(long waitNanos) {
+      totalWaitNanos += waitNanos;
+    }
+
+    /** @return the start time of the job, to pass to {@link #jobFinished(long, boolean)}. */
+    synchronized long jobStarted() {
+      long now = System.nanoTime();
+      if (runningJobs == 0) {
+        busySinceNanos = now;
+      }
+      runningJobs++;
+      peakConcurrentJobs = Math.max(peakConcurrentJobs, runningJobs);
+      return now;
+    }
+
+    synchronized void jobFinished(long startNanos, boolean failed) {
+      long now = System.nanoTime();
+      jobCount++;
+      if (failed) {
+        failedJobCount++;
+      }
+      totalJobNanos += now - startNanos;
+      runningJobs--;
+      if (runningJobs == 0) {
+        busyNanos += now - busySinceNanos;
+      }
+    }
+
+    @Override
+    public synchronized WorkerProcessPoolStats get() {
+      long currentBusyNanos = busyNanos;
+      if (runningJobs > 0) {
+        currentBusyNanos += System.nanoTime() - busySinceNanos;
+      }
+      return WorkerProcessPoolStats.builder()
+          .setJobCount(jobCount)
+          .setFailedJobCount(failedJobCount)
+          .setTotalJobMillis(TimeUnit.NANOSECONDS.toMillis(totalJobNanos))
+          .setBusyMillis(TimeUnit.NANOSECONDS.toMillis(currentBusyNanos))
+          .setTotalWaitMillis(TimeUnit.NANOSECONDS.toMillis(totalWaitNanos))
+          .setPeakConcurrentJobs(peakConcurrentJobs)
+          .build();
+    }
+  }
 }
@@ -31,4 +31,20 @@ public interface WorkerProcessProtocol {
     @Override
     void close() throws IOException;
   }
+
+  /** The side of the protocol that runs in the worker process. */
+  interface CommandReceiver extends Closeable {
+    void handshake(int messageId) throws IOException;
+
+    WorkerProcessCommand receiveCommand(int messageId) throws IOException;
+
+    void sendResponse(int messageId, String type, int exitCode) throws IOException;
+
+    /** @return whether the CommandSender asked the worker process to shut itself down. */
+    boolean shouldClose() throws IOException;
+
+    /** Acknowledges the CommandSender's request to shut down. */
+    @Override
+    void close() throws IOException;
+  }
 }
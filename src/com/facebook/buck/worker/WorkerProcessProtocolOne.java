@@ -0,0 +1,442 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.worker;
+
+import static com.facebook.buck.worker.WorkerProcessProtocolZero.TYPE_COMMAND;
+import static com.facebook.buck.worker.WorkerProcessProtocolZero.TYPE_ERROR;
+import static com.facebook.buck.worker.WorkerProcessProtocolZero.TYPE_RESULT;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Version 1 of the worker protocol, which lets one worker process run several commands at the same
+ * time.
+ *
+ * <p>Messages look like the ones of {@link WorkerProcessProtocolZero}, with "protocol_version" set
+ * to "1" in the handshake. The difference is that the CommandSender does not wait for the response
+ * to a command before sending the next one, and that the worker may answer commands in any order:
+ * the "id" of a response tells which command it belongs to.
+ *
+ * <p>While a command runs, the worker may also stream what it prints with messages that look like
+ * this, instead of writing the command's stdout and stderr files itself:
+ *
+ * <pre>
+ *   ,{
+ *     id: &lt;id&gt;,
+ *     type: 'output',
+ *     stream: 'stdout' | 'stderr',
+ *     data: &lt;text&gt;
+ *   }
+ * </pre>
+ *
+ * Buck appends the streamed text to the file of the command's stream, so a worker must not both
+ * stream a stream and write its file.
+ */
+public class WorkerProcessProtocolOne {
+
+  private static final Logger LOG = Logger.get(WorkerProcessProtocolOne.class);
+
+  static final String PROTOCOL_VERSION = "1";
+  public static final String TYPE_OUTPUT = "output";
+  public static final String STREAM_STDOUT = "stdout";
+  public static final String STREAM_STDERR = "stderr";
+
+  /** How long closing waits for the worker to acknowledge the end of the stream. */
+  private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+  /**
+   * Sends commands without waiting for the previous ones to finish. Responses are read by a
+   * dedicated thread, which hands each of them to the thread waiting for it in {@link
+   * #receiveCommandResponse(int)}.
+   */
+  public static class CommandSender implements WorkerProcessProtocol.CommandSender {
+    private final JsonWriter processStdinWriter;
+    private final JsonReader processStdoutReader;
+    private final Path stdErr;
+    private final Runnable onClose;
+    private final Supplier<Boolean> isAlive;
+    private final ConcurrentMap<Integer, PendingCommand> pendingCommands =
+        new ConcurrentHashMap<>();
+    @Nullable private Thread responseReader;
+    @Nullable private volatile Throwable responseReaderFailure;
+    private boolean isClosed = false;
+
+    public CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        Supplier<Boolean> isAlive) {
+      this.processStdinWriter =
+          new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdin)));
+      this.processStdoutReader =
+          new JsonReader(new BufferedReader(new InputStreamReader(processStdout)));
+      this.stdErr = stdErr;
+      this.onClose = onClose;
+      this.isAlive = isAlive;
+    }
+
+    @Override
+    public synchronized void handshake(int messageId) throws IOException {
+      WorkerProcessProtocolZero.sendHandshake(processStdinWriter, messageId, PROTOCOL_VERSION);
+      WorkerProcessProtocolZero.receiveHandshake(
+          processStdoutReader, messageId, PROTOCOL_VERSION, stdErr);
+
+      responseReader = new Thread(this::readResponses, "Worker process response reader");
+      responseReader.setDaemon(true);
+      responseReader.start();
+    }
+
+    /**
+     * Sends the command, without waiting for it to finish. The paths of the command must be
+     * absolute, since output streamed by the worker is written to them from Buck's process.
+     */
+    @Override
+    public synchronized void send(int messageId, WorkerProcessCommand command)
+        throws IOException {
+      Preconditions.checkState(responseReader != null, "Handshake was not performed.");
+      Preconditions.checkState(!isClosed, "Protocol was already closed.");
+      PendingCommand pendingCommand = new PendingCommand(command);
+      pendingCommands.put(messageId, pendingCommand);
+      try {
+        WorkerProcessProtocolZero.writeCommand(processStdinWriter, messageId, command);
+      } catch (IOException e) {
+        pendingCommands.remove(messageId);
+        throw e;
+      }
+      // The reader may have stopped before it could see this command.
+      Throwable failure = responseReaderFailure;
+      if (failure != null) {
+        pendingCommand.exitCode.setException(failure);
+      }
+    }
+
+    @Override
+    public int receiveCommandResponse(int messageID) throws IOException {
+      PendingCommand pendingCommand = pendingCommands.get(messageID);
+      Preconditions.checkState(pendingCommand != null, "Command %s was not sent.", messageID);
+      try {
+        return Uninterruptibles.getUninterruptibly(pendingCommand.exitCode);
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        pendingCommands.remove(messageID);
+      }
+    }
+
+    @VisibleForTesting
+    int getPendingCommandCount() {
+      return pendingCommands.size();
+    }
+
+    private void readResponses() {
+      try {
+        while (processStdoutReader.hasNext()) {
+          readResponse();
+        }
+        // The worker acknowledged the end of the stream.
+        processStdoutReader.endArray();
+      } catch (IOException e) {
+        String stdErrOutput;
+        try {
+          stdErrOutput = WorkerProcessProtocolZero.getStdErrorOutput(stdErr);
+        } catch (IOException stdErrException) {
+          stdErrOutput = "";
+        }
+        failPendingCommands(
+            new HumanReadableException(
+                e,
+                "Error receiving command response from external process.\n"
+                    + "Stderr from external process:\n%s",
+                stdErrOutput));
+      } catch (RuntimeException e) {
+        failPendingCommands(e);
+      }
+    }
+
+    /*
+      Expects a message that looks like this while the command runs:
+        ,{
+          id: <messageID>,
+          type: 'output',
+          stream: 'stdout' | 'stderr',
+          data: <text>
+        }
+
+      and a message that looks like this when it is done, with the same meaning as in protocol
+      zero:
+        ,{
+          id: <messageID>,
+          type: 'result' | 'error',
+          exit_code: <exitCode>
+        }
+    */
+    private void readResponse() throws IOException {
+      int id = -1;
+      int exitCode = -1;
+      String type = "";
+      String stream = "";
+      String data = "";
+
+      processStdoutReader.beginObject();
+      while (processStdoutReader.hasNext()) {
+        String property = processStdoutReader.nextName();
+        if (property.equals("id")) {
+          id = processStdoutReader.nextInt();
+        } else if (property.equals("type")) {
+          type = processStdoutReader.nextString();
+        } else if (property.equals("exit_code")) {
+          exitCode = processStdoutReader.nextInt();
+        } else if (property.equals("stream")) {
+          stream = processStdoutReader.nextString();
+        } else if (property.equals("data")) {
+          data = processStdoutReader.nextString();
+        } else {
+          processStdoutReader.skipValue();
+        }
+      }
+      processStdoutReader.endObject();
+
+      PendingCommand pendingCommand = pendingCommands.get(id);
+      if (pendingCommand == null || pendingCommand.exitCode.isDone()) {
+        throw new HumanReadableException(
+            String.format("Got a response for command \"%d\", which is not running.", id));
+      }
+      if (type.equals(TYPE_OUTPUT)) {
+        pendingCommand.appendOutput(stream, data);
+      } else if (type.equals(TYPE_RESULT) || type.equals(TYPE_ERROR)) {
+        pendingCommand.exitCode.set(exitCode);
+      } else {
+        throw new HumanReadableException(
+            String.format(
+                "Expected response's \"type\" "
+                    + "to be one of [\"%s\",\"%s\",\"%s\"], got \"%s\" instead.",
+                TYPE_OUTPUT, TYPE_RESULT, TYPE_ERROR, type));
+      }
+    }
+
+    private void failPendingCommands(Throwable failure) {
+      responseReaderFailure = failure;
+      for (PendingCommand pendingCommand : pendingCommands.values()) {
+        pendingCommand.exitCode.setException(failure);
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      try {
+        processStdinWriter.endArray();
+        processStdinWriter.close();
+        if (responseReader != null) {
+          Uninterruptibles.joinUninterruptibly(
+              responseReader, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        processStdoutReader.close();
+      } catch (IOException e) {
+        if (!isAlive.get()) {
+          LOG.warn(
+              e,
+              "Streams already closed when closing protocol. Process is alive %s",
+              isAlive.get());
+        } else {
+          throw e;
+        }
+      } finally {
+        onClose.run();
+        isClosed = true;
+      }
+    }
+  }
+
+  /**
+   * The worker process side of the protocol. Commands are received one after the other, but their
+   * output and responses may be sent from any thread, in any order.
+   */
+  public static class CommandReceiver implements Closeable {
+    private final JsonWriter processStdoutWriter;
+    private final JsonReader processStdinReader;
+    private boolean isClosed = false;
+
+    public CommandReceiver(OutputStream processStdout, InputStream processStdin) {
+      this.processStdoutWriter =
+          new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdout)));
+      this.processStdinReader =
+          new JsonReader(new BufferedReader(new InputStreamReader(processStdin)));
+    }
+
+    public synchronized void handshake(int messageId) throws IOException {
+      WorkerProcessProtocolZero.readHandshake(processStdinReader, messageId, PROTOCOL_VERSION);
+      WorkerProcessProtocolZero.sendHandshake(processStdoutWriter, messageId, PROTOCOL_VERSION);
+    }
+
+    /**
+     * Waits for the next command and passes it to {@code consumer} along with its id.
+     *
+     * @return false if the CommandSender closed the stream instead of sending a command.
+     */
+    public boolean receiveCommand(ObjIntConsumer<WorkerProcessCommand> consumer)
+        throws IOException {
+      try {
+        if (processStdinReader.peek() == JsonToken.END_ARRAY) {
+          return false;
+        }
+      } catch (EOFException e) {
+        // The other side went away without closing the stream.
+        isClosed = true;
+        return false;
+      }
+
+      int id = -1;
+      String type = "";
+      String argsPath = null;
+      String stdoutPath = null;
+      String stderrPath = null;
+
+      processStdinReader.beginObject();
+      while (processStdinReader.hasNext()) {
+        String property = processStdinReader.nextName();
+        if (property.equals("id")) {
+          id = processStdinReader.nextInt();
+        } else if (property.equals("type")) {
+          type = processStdinReader.nextString();
+        } else if (property.equals("args_path")) {
+          argsPath = processStdinReader.nextString();
+        } else if (property.equals("stdout_path")) {
+          stdoutPath = processStdinReader.nextString();
+        } else if (property.equals("stderr_path")) {
+          stderrPath = processStdinReader.nextString();
+        } else {
+          processStdinReader.skipValue();
+        }
+      }
+      processStdinReader.endObject();
+
+      if (!type.equals(TYPE_COMMAND)) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected command's \"type\" to be \"%s\", got \"%s\" instead.",
+                TYPE_COMMAND, type));
+      }
+      if (argsPath == null || stdoutPath == null || stderrPath == null) {
+        throw new HumanReadableException(
+            "Expected command to have \"args_path\", \"stdout_path\" and \"stderr_path\".");
+      }
+      consumer.accept(
+          WorkerProcessCommand.of(
+              Paths.get(argsPath), Paths.get(stdoutPath), Paths.get(stderrPath)),
+          id);
+      return true;
+    }
+
+    /** Streams some text the command printed to {@code stream}, stdout or stderr. */
+    public synchronized void sendOutput(int messageId, String stream, String data)
+        throws IOException {
+      processStdoutWriter.beginObject();
+      processStdoutWriter.name("id").value(messageId);
+      processStdoutWriter.name("type").value(TYPE_OUTPUT);
+      processStdoutWriter.name("stream").value(stream);
+      processStdoutWriter.name("data").value(data);
+      processStdoutWriter.endObject();
+      processStdoutWriter.flush();
+    }
+
+    public synchronized void sendResponse(int messageId, String type, int exitCode)
+        throws IOException {
+      processStdoutWriter.beginObject();
+      processStdoutWriter.name("id").value(messageId);
+      processStdoutWriter.name("type").value(type);
+      processStdoutWriter.name("exit_code").value(exitCode);
+      processStdoutWriter.endObject();
+      processStdoutWriter.flush();
+    }
+
+    /** Acknowledges the CommandSender's request to shut down. */
+    @Override
+    public synchronized void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      processStdinReader.endArray();
+      processStdinReader.close();
+      processStdoutWriter.endArray();
+      processStdoutWriter.close();
+    }
+  }
+
+  private static class PendingCommand {
+    private final WorkerProcessCommand command;
+    private final SettableFuture<Integer> exitCode = SettableFuture.create();
+
+    private PendingCommand(WorkerProcessCommand command) {
+      this.command = command;
+    }
+
+    private void appendOutput(String stream, String data) throws IOException {
+      Path path;
+      if (stream.equals(STREAM_STDOUT)) {
+        path = command.getStdOutPath();
+      } else if (stream.equals(STREAM_STDERR)) {
+        path = command.getStdErrPath();
+      } else {
+        throw new HumanReadableException(
+            String.format(
+                "Expected output's \"stream\" to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
+                STREAM_STDOUT, STREAM_STDERR, stream));
+      }
+      Files.write(
+          path,
+          data.getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND);
+    }
+  }
+}
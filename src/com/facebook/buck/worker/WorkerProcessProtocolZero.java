@@ -19,9 +19,11 @@ import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.util.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -29,6 +31,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.function.Supplier;
 
 public class WorkerProcessProtocolZero {
@@ -70,8 +73,8 @@ public class WorkerProcessProtocolZero {
 
     @Override
     public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, stdErr);
+      sendHandshake(processStdinWriter, messageId, PROTOCOL_VERSION);
+      receiveHandshake(processStdoutReader, messageId, PROTOCOL_VERSION, stdErr);
     }
 
     /*
@@ -86,14 +89,7 @@ public class WorkerProcessProtocolZero {
     */
     @Override
     public void send(int messageId, WorkerProcessCommand command) throws IOException {
-      processStdinWriter.beginObject();
-      processStdinWriter.name("id").value(messageId);
-      processStdinWriter.name("type").value(TYPE_COMMAND);
-      processStdinWriter.name("args_path").value(command.getArgsPath().toString());
-      processStdinWriter.name("stdout_path").value(command.getStdOutPath().toString());
-      processStdinWriter.name("stderr_path").value(command.getStdErrPath().toString());
-      processStdinWriter.endObject();
-      processStdinWriter.flush();
+      writeCommand(processStdinWriter, messageId, command);
     }
 
     /*
@@ -198,11 +194,132 @@ public class WorkerProcessProtocolZero {
     }
   }
 
-  private static final String TYPE_HANDSHAKE = "handshake";
-  private static final String TYPE_COMMAND = "command";
+  /**
+   * The worker process side of the protocol: answers the handshake, then reads commands and writes
+   * their results until the CommandSender closes the stream.
+   */
+  public static class CommandReceiver implements WorkerProcessProtocol.CommandReceiver {
+    private final JsonWriter processStdoutWriter;
+    private final JsonReader processStdinReader;
+    private boolean isClosed = false;
+
+    public CommandReceiver(OutputStream processStdout, InputStream processStdin) {
+      this.processStdoutWriter =
+          new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdout)));
+      this.processStdinReader =
+          new JsonReader(new BufferedReader(new InputStreamReader(processStdin)));
+    }
+
+    @Override
+    public void handshake(int messageId) throws IOException {
+      readHandshake(processStdinReader, messageId, PROTOCOL_VERSION);
+      sendHandshake(processStdoutWriter, messageId, PROTOCOL_VERSION);
+    }
+
+    /*
+    Expects a message that looks like this:
+      ,{
+        id: <id>,
+        type: 'command',
+        args_path: <argsPath>,
+        stdout_path: <stdoutPath>,
+        stderr_path: <stderrPath>,
+      }
+    */
+    @Override
+    public WorkerProcessCommand receiveCommand(int messageId) throws IOException {
+      int id = -1;
+      String type = "";
+      String argsPath = null;
+      String stdoutPath = null;
+      String stderrPath = null;
+
+      processStdinReader.beginObject();
+      while (processStdinReader.hasNext()) {
+        String property = processStdinReader.nextName();
+        if (property.equals("id")) {
+          id = processStdinReader.nextInt();
+        } else if (property.equals("type")) {
+          type = processStdinReader.nextString();
+        } else if (property.equals("args_path")) {
+          argsPath = processStdinReader.nextString();
+        } else if (property.equals("stdout_path")) {
+          stdoutPath = processStdinReader.nextString();
+        } else if (property.equals("stderr_path")) {
+          stderrPath = processStdinReader.nextString();
+        } else {
+          processStdinReader.skipValue();
+        }
+      }
+      processStdinReader.endObject();
+
+      if (id != messageId) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected command's \"id\" value to be \"%d\", got \"%d\" instead.",
+                messageId, id));
+      }
+      if (!type.equals(TYPE_COMMAND)) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected command's \"type\" to be \"%s\", got \"%s\" instead.",
+                TYPE_COMMAND, type));
+      }
+      if (argsPath == null || stdoutPath == null || stderrPath == null) {
+        throw new HumanReadableException(
+            "Expected command to have \"args_path\", \"stdout_path\" and \"stderr_path\".");
+      }
+      return WorkerProcessCommand.of(
+          Paths.get(argsPath), Paths.get(stdoutPath), Paths.get(stderrPath));
+    }
+
+    /*
+    Sends a message that looks like this:
+      ,{
+        id: <id>,
+        type: <type>,
+        exit_code: <exitCode>
+      }
+    */
+    @Override
+    public void sendResponse(int messageId, String type, int exitCode) throws IOException {
+      processStdoutWriter.beginObject();
+      processStdoutWriter.name("id").value(messageId);
+      processStdoutWriter.name("type").value(type);
+      processStdoutWriter.name("exit_code").value(exitCode);
+      processStdoutWriter.endObject();
+      processStdoutWriter.flush();
+    }
+
+    @Override
+    public boolean shouldClose() throws IOException {
+      try {
+        return processStdinReader.peek() == JsonToken.END_ARRAY;
+      } catch (EOFException e) {
+        // The other side went away without closing the stream.
+        isClosed = true;
+        return true;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      processStdinReader.endArray();
+      processStdinReader.close();
+      processStdoutWriter.endArray();
+      processStdoutWriter.close();
+    }
+  }
+
+  static final String TYPE_HANDSHAKE = "handshake";
+  static final String TYPE_COMMAND = "command";
   private static final String PROTOCOL_VERSION = "0";
-  private static final String TYPE_RESULT = "result";
-  private static final String TYPE_ERROR = "error";
+  public static final String TYPE_RESULT = "result";
+  public static final String TYPE_ERROR = "error";
 
   /*
    Sends a message that looks like this:
@@ -210,61 +327,48 @@ public class WorkerProcessProtocolZero {
        {
          id: 0,
          type: 'handshake',
-         protocol_version: '0',
+         protocol_version: <protocolVersion>,
          capabilities: []
        }
   */
-  private static void sendHandshake(JsonWriter writer, int messageId) throws IOException {
+  static void sendHandshake(JsonWriter writer, int messageId, String protocolVersion)
+      throws IOException {
     writer.beginArray();
     writer.beginObject();
     writer.name("id").value(messageId);
     writer.name("type").value(TYPE_HANDSHAKE);
-    writer.name("protocol_version").value(PROTOCOL_VERSION);
+    writer.name("protocol_version").value(protocolVersion);
     writer.name("capabilities").beginArray().endArray();
     writer.endObject();
     writer.flush();
   }
 
+  static void writeCommand(JsonWriter writer, int messageId, WorkerProcessCommand command)
+      throws IOException {
+    writer.beginObject();
+    writer.name("id").value(messageId);
+    writer.name("type").value(TYPE_COMMAND);
+    writer.name("args_path").value(command.getArgsPath().toString());
+    writer.name("stdout_path").value(command.getStdOutPath().toString());
+    writer.name("stderr_path").value(command.getStdErrPath().toString());
+    writer.endObject();
+    writer.flush();
+  }
+
   /*
    Expects a message that looks like this:
      [
        {
          id: 0,
          type: 'handshake',
-         protocol_version: '0',
+         protocol_version: <protocolVersion>,
          capabilities: []
        }
   */
-  private static void receiveHandshake(JsonReader reader, int messageId, Path stdErr)
-      throws IOException {
-    int id = -1;
-    String type = "";
-    String protocolVersion = "";
-
+  static void receiveHandshake(
+      JsonReader reader, int messageId, String protocolVersion, Path stdErr) throws IOException {
     try {
-      reader.beginArray();
-      reader.beginObject();
-      while (reader.hasNext()) {
-        String property = reader.nextName();
-        if (property.equals("id")) {
-          id = reader.nextInt();
-        } else if (property.equals("type")) {
-          type = reader.nextString();
-        } else if (property.equals("protocol_version")) {
-          protocolVersion = reader.nextString();
-        } else if (property.equals("capabilities")) {
-          try {
-            reader.beginArray();
-            reader.endArray();
-          } catch (IllegalStateException e) {
-            throw new HumanReadableException(
-                "Expected handshake response's \"capabilities\" to " + "be an empty array.");
-          }
-        } else {
-          reader.skipValue();
-        }
-      }
-      reader.endObject();
+      readHandshake(reader, messageId, protocolVersion);
     } catch (IOException e) {
       throw new HumanReadableException(
           e,
@@ -272,6 +376,37 @@ public class WorkerProcessProtocolZero {
               + "Stderr from external process:\n%s",
           getStdErrorOutput(stdErr));
     }
+  }
+
+  static void readHandshake(JsonReader reader, int messageId, String expectedProtocolVersion)
+      throws IOException {
+    int id = -1;
+    String type = "";
+    String protocolVersion = "";
+
+    reader.beginArray();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String property = reader.nextName();
+      if (property.equals("id")) {
+        id = reader.nextInt();
+      } else if (property.equals("type")) {
+        type = reader.nextString();
+      } else if (property.equals("protocol_version")) {
+        protocolVersion = reader.nextString();
+      } else if (property.equals("capabilities")) {
+        try {
+          reader.beginArray();
+          reader.endArray();
+        } catch (IllegalStateException e) {
+          throw new HumanReadableException(
+              "Expected handshake response's \"capabilities\" to " + "be an empty array.");
+        }
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
 
     if (id != messageId) {
       throw new HumanReadableException(
@@ -285,16 +420,16 @@ public class WorkerProcessProtocolZero {
               "Expected handshake response's \"type\" " + "to be \"%s\", got \"%s\" instead.",
               TYPE_HANDSHAKE, type));
     }
-    if (!protocolVersion.equals(PROTOCOL_VERSION)) {
+    if (!protocolVersion.equals(expectedProtocolVersion)) {
       throw new HumanReadableException(
           String.format(
               "Expected handshake response's "
                   + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
-              PROTOCOL_VERSION, protocolVersion));
+              expectedProtocolVersion, protocolVersion));
     }
   }
 
-  private static String getStdErrorOutput(Path stdErr) throws IOException {
+  static String getStdErrorOutput(Path stdErr) throws IOException {
     StringBuilder sb = new StringBuilder();
     try (InputStream inputStream = Files.newInputStream(stdErr);
         BufferedReader errorReader = new BufferedReader(new InputStreamReader(inputStream))) {
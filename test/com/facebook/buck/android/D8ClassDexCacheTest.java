@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class D8ClassDexCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void storingPastTheLimitDropsTheLeastRecentlyAccessedEntries() throws IOException {
+    Path cacheDir = tmp.getRoot().resolve("d8_classes");
+    D8ClassDexCache cache = new D8ClassDexCache(cacheDir, 300);
+    for (int i = 0; i < 3; i++) {
+      cache.put(HashCode.fromInt(i), new byte[100]);
+    }
+    setLastAccessTime(cacheDir, 1000);
+    setLastAccessTime(cacheDir, HashCode.fromInt(0), System.currentTimeMillis() + 3600 * 1000);
+
+    cache.put(HashCode.fromInt(3), new byte[100]);
+    cache.put(HashCode.fromInt(4), new byte[100]);
+
+    assertTrue(getTotalSize(cacheDir) <= 200);
+    assertTrue(cache.get(HashCode.fromInt(0)).isPresent());
+    assertFalse(cache.get(HashCode.fromInt(1)).isPresent());
+  }
+
+  @Test
+  public void entriesOfOlderVersionsAreTrimmedFirst() throws IOException {
+    Path cacheDir = tmp.getRoot().resolve("d8_classes");
+    Path oldEntry = cacheDir.resolve(String.valueOf(D8ClassDexCache.VERSION - 1)).resolve("x.dex");
+    Files.createDirectories(oldEntry.getParent());
+    Files.write(oldEntry, new byte[150]);
+    Files.setAttribute(oldEntry, "lastAccessTime", FileTime.fromMillis(0));
+    D8ClassDexCache cache = new D8ClassDexCache(cacheDir, 300);
+    cache.put(HashCode.fromInt(0), new byte[100]);
+    cache.put(HashCode.fromInt(1), new byte[100]);
+
+    cache.trim();
+
+    assertFalse(Files.exists(oldEntry));
+    assertEquals(200, getTotalSize(cacheDir));
+  }
+
+  private static void setLastAccessTime(Path cacheDir, long millis) throws IOException {
+    try (Stream<Path> files = Files.walk(cacheDir)) {
+      for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+        Files.setAttribute(file, "lastAccessTime", FileTime.fromMillis(millis));
+      }
+    }
+  }
+
+  private static void setLastAccessTime(Path cacheDir, HashCode key, long millis)
+      throws IOException {
+    String name = key.toString();
+    Path entry =
+        cacheDir
+            .resolve(String.valueOf(D8ClassDexCache.VERSION))
+            .resolve(name.substring(0, 2))
+            .resolve(name.substring(2) + ".dex");
+    Files.setAttribute(entry, "lastAccessTime", FileTime.fromMillis(millis));
+  }
+
+  private static long getTotalSize(Path cacheDir) throws IOException {
+    try (Stream<Path> files = Files.walk(cacheDir)) {
+      return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+}
@@ -17,6 +17,9 @@
 package com.facebook.buck.android;
 
 import static com.facebook.buck.util.Verbosity.COMMANDS_AND_SPECIAL_OUTPUT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.DxStep.Option;
@@ -26,26 +29,45 @@ import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.toolchain.tool.impl.testutil.SimpleTool;
 import com.facebook.buck.core.toolchain.toolprovider.impl.ConstantToolProvider;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.MoreAsserts;
+import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class DxStepTest {
 
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
   private static final String BASE_DX_PREFIX = Paths.get("/usr/bin/dx").toString();
 
   private static final String EXPECTED_DX_PREFIX = Paths.get("/usr/bin/dx") + " --dex";
@@ -279,6 +301,149 @@ public class DxStepTest {
     }
   }
 
+  @Test
+  public void dexingWithTheClassDexCacheDoesNotDependOnWhatIsCached() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path cacheDir = Paths.get("buck-out/cache/d8_classes");
+    Path jar = writeJar(filesystem.resolve("lib.jar"), Joiner.class, Splitter.class);
+
+    byte[] cold = dex(filesystem, jar, Optional.of(cacheDir));
+    List<Path> cachedFiles = listFiles(filesystem.resolve(cacheDir));
+    byte[] warm = dex(filesystem, jar, Optional.of(cacheDir));
+
+    assertArrayEquals(cold, warm);
+    assertEquals(2, cachedFiles.size());
+    assertEquals(cachedFiles, listFiles(filesystem.resolve(cacheDir)));
+  }
+
+  @Test
+  public void onlyClassesThatWereNeverDexedAreDexedAgain() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path cacheDir = Paths.get("buck-out/cache/d8_classes");
+    dex(filesystem, writeJar(filesystem.resolve("a.jar"), Joiner.class), Optional.of(cacheDir));
+    List<Path> cachedFiles = listFiles(filesystem.resolve(cacheDir));
+
+    Path jar = writeJar(filesystem.resolve("b.jar"), Joiner.class, Strings.class);
+    byte[] partiallyCached = dex(filesystem, jar, Optional.of(cacheDir));
+
+    List<Path> newFiles = listFiles(filesystem.resolve(cacheDir));
+    newFiles.removeAll(cachedFiles);
+    assertEquals(1, newFiles.size());
+    assertArrayEquals(dex(filesystem, jar, Optional.of(Paths.get("empty-cache"))), partiallyCached);
+  }
+
+  @Test
+  public void desugaringClasspathIsHashedWithTheHashesOfTheBuild() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path cacheDir = Paths.get("buck-out/cache/d8_classes");
+    Path jar = writeJar(filesystem.resolve("lib.jar"), Joiner.class);
+    Path classpathJar = writeJar(filesystem.resolve("classpath.jar"), Splitter.class);
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(ImmutableMap.of(classpathJar, HashCode.fromInt(1)));
+
+    dex(filesystem, jar, ImmutableSet.of(classpathJar), Optional.of(fileHashLoader), cacheDir);
+    List<Path> cachedFiles = listFiles(filesystem.resolve(cacheDir));
+    // Only the hash that the build has for the classpath matters, not what is on disk.
+    writeJar(classpathJar, Strings.class);
+    dex(filesystem, jar, ImmutableSet.of(classpathJar), Optional.of(fileHashLoader), cacheDir);
+
+    assertEquals(1, cachedFiles.size());
+    assertEquals(cachedFiles, listFiles(filesystem.resolve(cacheDir)));
+  }
+
+  private byte[] dex(ProjectFilesystem filesystem, Path jar, Optional<Path> classDexCacheDir)
+      throws Exception {
+    return dex(
+        filesystem,
+        jar,
+        EnumSet.of(Option.NO_OPTIMIZE, Option.FORCE_JUMBO, Option.NO_DESUGAR),
+        ImmutableSet.of(),
+        Optional.empty(),
+        classDexCacheDir);
+  }
+
+  private byte[] dex(
+      ProjectFilesystem filesystem,
+      Path jar,
+      ImmutableSet<Path> classpathFiles,
+      Optional<FileHashLoader> fileHashLoader,
+      Path classDexCacheDir)
+      throws Exception {
+    return dex(
+        filesystem,
+        jar,
+        EnumSet.of(Option.NO_OPTIMIZE, Option.FORCE_JUMBO),
+        classpathFiles,
+        fileHashLoader,
+        Optional.of(classDexCacheDir));
+  }
+
+  private byte[] dex(
+      ProjectFilesystem filesystem,
+      Path jar,
+      EnumSet<Option> options,
+      ImmutableSet<Path> classpathFiles,
+      Optional<FileHashLoader> fileHashLoader,
+      Optional<Path> classDexCacheDir)
+      throws Exception {
+    Path output = tmp.getRoot().resolve("classes.dex");
+    DxStep dx =
+        new DxStep(
+            filesystem,
+            AndroidPlatformTarget.of(
+                "android",
+                writeJar(tmp.getRoot().resolve("android.jar")),
+                Collections.emptyList(),
+                () -> new SimpleTool(""),
+                new ConstantToolProvider(new SimpleTool("")),
+                Paths.get(""),
+                Paths.get(""),
+                Paths.get(""),
+                Paths.get("/usr/bin/dx"),
+                Paths.get(""),
+                Paths.get(""),
+                Paths.get(""),
+                Paths.get("")),
+            output,
+            ImmutableSet.of(jar),
+            options,
+            Optional.empty(),
+            DxStep.D8,
+            true,
+            classpathFiles,
+            Optional.empty(),
+            Optional.empty(),
+            classDexCacheDir);
+    try (ExecutionContext context =
+        TestExecutionContext.newBuilder().setFileHashLoader(fileHashLoader).build()) {
+      assertTrue(dx.execute(context).isSuccess());
+    }
+    byte[] dex = Files.readAllBytes(output);
+    Files.delete(output);
+    return dex;
+  }
+
+  /** Writes a jar of the class files of the given classes, as found on the test's classpath. */
+  private static Path writeJar(Path jar, Class<?>... classes) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (Class<?> clazz : classes) {
+        String name = clazz.getName().replace('.', '/') + ".class";
+        out.putNextEntry(new JarEntry(name));
+        try (InputStream in = clazz.getClassLoader().getResourceAsStream(name)) {
+          ByteStreams.copy(in, out);
+        }
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static List<Path> listFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+  }
+
   private ExecutionContext createExecutionContext(int verbosityLevel) {
     Verbosity verbosity = VerbosityParser.getVerbosityForLevel(verbosityLevel);
     TestConsole console = new TestConsole(verbosity);
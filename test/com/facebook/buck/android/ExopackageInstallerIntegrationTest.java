@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 import com.android.common.SdkConstants;
+import com.facebook.buck.android.exopackage.ExopackageDeviceStateCache;
 import com.facebook.buck.android.exopackage.ExopackageInfo;
 import com.facebook.buck.android.exopackage.ExopackageInfo.DexInfo;
 import com.facebook.buck.android.exopackage.ExopackageInstaller;
@@ -44,6 +45,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Maps;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
@@ -90,6 +92,7 @@ public class ExopackageInstallerIntegrationTest {
   @Before
   public void setUp() throws Exception {
     assumeTrue(Platform.detect() != Platform.WINDOWS);
+    ExopackageDeviceStateCache.invalidateAll();
     filesystem = TestProjectFilesystems.createProjectFilesystem(tmpFolder.getRoot());
     executionContext = TestExecutionContext.newInstance();
     currentBuildState = null;
@@ -273,6 +276,61 @@ public class ExopackageInstallerIntegrationTest {
     checkExoInstall(0, 1, 0, 0, 0);
   }
 
+  @Test
+  public void testExoReinstallWithJavaChangeOnlyPushesTheChangedFiles() throws Exception {
+    setDefaultFullBuildState();
+
+    checkExoInstall(1, 2, 2, 3, 2);
+    // The files of all types are pushed at once, and so are their metadata.
+    assertEquals(2, device.getInstallBatches().size());
+
+    currentBuildState =
+        new ExoState(
+            currentBuildState.apkContent,
+            currentBuildState.manifestContent,
+            ImmutableList.of("secondary-dex0\n", "new-secondary-dex1\n"),
+            currentBuildState.nativeLibsContents,
+            currentBuildState.resourcesContents,
+            currentBuildState.modularDexesContents);
+
+    checkExoInstall(0, 1, 0, 0, 0);
+    String newDexHash =
+        Hashing.sha1().hashString("new-secondary-dex1\n", Charsets.US_ASCII).toString();
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSortedSet.of(Paths.get("secondary-dex/secondary-" + newDexHash + ".dex.jar")),
+            ImmutableSortedSet.of(Paths.get("secondary-dex/metadata.txt"))),
+        device.getInstallBatches());
+    assertEquals(ImmutableList.of(INSTALL_ROOT.toString()), device.getCreatedDirs());
+  }
+
+  @Test
+  public void testExoReinstallAfterDeviceChangedPushesAllMetadata() throws Exception {
+    setDefaultFullBuildState();
+
+    checkExoInstall(1, 2, 2, 3, 2);
+
+    // Another install left different files on the device, so its metadata can't be trusted.
+    Path strayFile =
+        deviceStateDirectory
+            .getRoot()
+            .resolve(INSTALL_ROOT.getRoot().relativize(INSTALL_ROOT))
+            .resolve("secondary-dex/stray.dex.jar");
+    Files.asCharSink(strayFile.toFile(), Charsets.UTF_8).write("stray\n");
+
+    checkExoInstall(0, 0, 0, 0, 0);
+    assertEquals(1, device.getInstallBatches().size());
+    assertTrue(
+        device
+            .getInstallBatches()
+            .get(0)
+            .containsAll(
+                ImmutableList.of(
+                    Paths.get("secondary-dex/metadata.txt"),
+                    Paths.get("resources/metadata.txt"),
+                    Paths.get("modular-dex/metadata.txt"))));
+  }
+
   @Test
   public void testExoReinstallWithJavaModuleChange() throws Exception {
     setDefaultFullBuildState();
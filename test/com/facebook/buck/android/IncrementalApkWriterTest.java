@@ -0,0 +1,304 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IncrementalApkWriterTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final ImmutableMap<String, String> CONTENTS =
+      ImmutableMap.of(
+          "AndroidManifest.xml", "<manifest package=\"com.example\" />",
+          "classes.dex", "dex\n035 classes",
+          "resources.arsc", "stored resources",
+          "res/layout/main.xml", "<LinearLayout />",
+          "lib/armeabi-v7a/libfoo.so", "native code");
+
+  @Test
+  public void writesAllEntriesAndAlignsStoredOnes() throws IOException {
+    Path input = writeUncompressedApk("input.apk", CONTENTS);
+    Path output = tmp.getRoot().resolve("output.apk");
+
+    IncrementalApkWriter.Result result = write(input, Optional.empty(), output);
+
+    // Everything but resources.arsc is compressed, including the jar manifest.
+    assertEquals(0, result.reusedEntries);
+    assertEquals(CONTENTS.size(), result.compressedEntries);
+    assertSameContents(input, output);
+    Map<String, Long> dataOffsets = readDataOffsets(output);
+    try (ZipFile zipFile = new ZipFile(output.toFile())) {
+      ZipEntry stored = zipFile.getEntry("resources.arsc");
+      assertEquals(ZipEntry.STORED, stored.getMethod());
+      assertEquals(0, dataOffsets.get("resources.arsc") % 4);
+      assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("classes.dex").getMethod());
+    }
+  }
+
+  @Test
+  public void onlyEntriesThatChangedAreCompressedAgain() throws IOException {
+    Path previous = tmp.getRoot().resolve("previous.apk");
+    write(writeUncompressedApk("first.apk", CONTENTS), Optional.empty(), previous);
+
+    Map<String, String> changedContents = new HashMap<>(CONTENTS);
+    changedContents.put("classes.dex", "dex\n035 other classes");
+    Path input = writeUncompressedApk("second.apk", changedContents);
+    Path output = tmp.getRoot().resolve("output.apk");
+    IncrementalApkWriter.Result result = write(input, Optional.of(previous), output);
+
+    // Only the dex file and the manifest listing its digest changed.
+    assertEquals(2, result.compressedEntries);
+    assertEquals(CONTENTS.size() - 2, result.reusedEntries);
+    assertSameContents(input, output);
+
+    Path fromScratch = tmp.getRoot().resolve("from-scratch.apk");
+    write(input, Optional.empty(), fromScratch);
+    assertArrayEquals(Files.readAllBytes(fromScratch), Files.readAllBytes(output));
+  }
+
+  @Test
+  public void aBrokenPreviousApkIsIgnored() throws IOException {
+    Path previous = tmp.getRoot().resolve("previous.apk");
+    Files.write(previous, "not a zip file".getBytes(StandardCharsets.UTF_8));
+    Path input = writeUncompressedApk("input.apk", CONTENTS);
+    Path output = tmp.getRoot().resolve("output.apk");
+
+    IncrementalApkWriter.Result result = write(input, Optional.of(previous), output);
+
+    assertEquals(0, result.reusedEntries);
+    assertSameContents(input, output);
+  }
+
+  @Test
+  public void theApksAreClosedOnReturn() throws IOException {
+    Path procFds = Paths.get("/proc/self/fd");
+    assumeTrue(Files.isDirectory(procFds));
+    Path previous = tmp.getRoot().resolve("previous.apk");
+    write(writeUncompressedApk("first.apk", CONTENTS), Optional.empty(), previous);
+    Path input = writeUncompressedApk("input.apk", CONTENTS);
+
+    write(input, Optional.of(previous), tmp.getRoot().resolve("output.apk"));
+
+    // The output replaces the previous APK, which fails on Windows while it is open or mapped.
+    Set<Path> openFiles = new HashSet<>();
+    try (Stream<Path> fds = Files.list(procFds)) {
+      for (Path fd : (Iterable<Path>) fds::iterator) {
+        try {
+          openFiles.add(Files.readSymbolicLink(fd));
+        } catch (IOException e) {
+          // The descriptor of the listing itself is closed by now.
+        }
+      }
+    }
+    String mappedFiles =
+        new String(Files.readAllBytes(Paths.get("/proc/self/maps")), StandardCharsets.UTF_8);
+    for (Path apk : new Path[] {previous.toRealPath(), input.toRealPath()}) {
+      assertFalse(openFiles.contains(apk));
+      assertFalse(mappedFiles.contains(apk.toString()));
+    }
+  }
+
+  @Test
+  public void entriesPastTwoGigabytesAreRead() throws IOException {
+    // A sparse file, so that only the entry and the central directory take space.
+    byte[] name = "resources.arsc".getBytes(StandardCharsets.UTF_8);
+    byte[] data = CONTENTS.get("resources.arsc").getBytes(StandardCharsets.UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    long localHeaderOffset = 3L << 30;
+    ByteBuffer localHeader =
+        ByteBuffer.allocate(ZipEntry.LOCHDR + name.length + data.length)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt((int) ZipEntry.LOCSIG)
+            .putShort((short) 10)
+            .putShort((short) 0)
+            .putShort((short) ZipEntry.STORED)
+            .putInt(0)
+            .putInt((int) crc.getValue())
+            .putInt(data.length)
+            .putInt(data.length)
+            .putShort((short) name.length)
+            .putShort((short) 0)
+            .put(name)
+            .put(data);
+    long centralDirectoryOffset = localHeaderOffset + localHeader.capacity();
+    ByteBuffer centralDirectory =
+        ByteBuffer.allocate(ZipEntry.CENHDR + name.length + ZipEntry.ENDHDR)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt((int) ZipEntry.CENSIG)
+            .putShort((short) 10)
+            .putShort((short) 10)
+            .putShort((short) 0)
+            .putShort((short) ZipEntry.STORED)
+            .putInt(0)
+            .putInt((int) crc.getValue())
+            .putInt(data.length)
+            .putInt(data.length)
+            .putShort((short) name.length)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putInt(0)
+            .putInt((int) localHeaderOffset)
+            .put(name)
+            .putInt((int) ZipEntry.ENDSIG)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 1)
+            .putShort((short) 1)
+            .putInt(ZipEntry.CENHDR + name.length)
+            .putInt((int) centralDirectoryOffset)
+            .putShort((short) 0);
+    Path input = tmp.getRoot().resolve("large.apk");
+    try (FileChannel channel =
+        FileChannel.open(
+            input,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.SPARSE)) {
+      localHeader.flip();
+      channel.write(localHeader, localHeaderOffset);
+      centralDirectory.flip();
+      channel.write(centralDirectory, centralDirectoryOffset);
+    }
+    Path output = tmp.getRoot().resolve("output.apk");
+
+    write(input, Optional.empty(), output);
+
+    assertEquals(
+        ImmutableMap.of("resources.arsc", CONTENTS.get("resources.arsc")), readContents(output));
+  }
+
+  private static IncrementalApkWriter.Result write(
+      Path input, Optional<Path> previous, Path output) throws IOException {
+    try (OutputStream out = Files.newOutputStream(output)) {
+      return IncrementalApkWriter.write(input, previous, out);
+    }
+  }
+
+  /** Writes an APK the way {@link ApkBuilderStep} does when it is asked not to compress. */
+  private Path writeUncompressedApk(String name, Map<String, String> contents)
+      throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    for (Map.Entry<String, String> entry : contents.entrySet()) {
+      Attributes attributes = new Attributes();
+      attributes.putValue(
+          "SHA1-Digest",
+          Base64.getEncoder()
+              .encodeToString(
+                  Hashing.sha1().hashString(entry.getValue(), StandardCharsets.UTF_8).asBytes()));
+      manifest.getEntries().put(entry.getKey(), attributes);
+    }
+
+    Path apk = tmp.getRoot().resolve(name);
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(apk), manifest)) {
+      out.setLevel(0);
+      for (Map.Entry<String, String> entry : contents.entrySet()) {
+        byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        if (entry.getKey().endsWith(".arsc")) {
+          CRC32 crc = new CRC32();
+          crc.update(bytes);
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setSize(bytes.length);
+          zipEntry.setCompressedSize(bytes.length);
+          zipEntry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(zipEntry);
+        out.write(bytes);
+        out.closeEntry();
+      }
+    }
+    return apk;
+  }
+
+  private static void assertSameContents(Path expected, Path actual) throws IOException {
+    assertEquals(readContents(expected), readContents(actual));
+  }
+
+  private static Map<String, String> readContents(Path apk) throws IOException {
+    Map<String, String> contents = new HashMap<>();
+    try (JarFile jarFile = new JarFile(apk.toFile())) {
+      Enumeration<? extends ZipEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        contents.put(
+            entry.getName(),
+            new String(
+                ByteStreams.toByteArray(jarFile.getInputStream(entry)), StandardCharsets.UTF_8));
+      }
+    }
+    return contents;
+  }
+
+  /** Walks the local headers of a zip file without data descriptors. */
+  private static Map<String, Long> readDataOffsets(Path zip) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(zip)).order(ByteOrder.LITTLE_ENDIAN);
+    Map<String, Long> offsets = new HashMap<>();
+    int offset = 0;
+    while (buffer.getInt(offset) == ZipEntry.LOCSIG) {
+      int nameLength = Short.toUnsignedInt(buffer.getShort(offset + ZipEntry.LOCNAM));
+      int extraLength = Short.toUnsignedInt(buffer.getShort(offset + ZipEntry.LOCEXT));
+      int compressedSize = buffer.getInt(offset + ZipEntry.LOCSIZ);
+      String name =
+          new String(
+              buffer.array(), offset + ZipEntry.LOCHDR, nameLength, StandardCharsets.UTF_8);
+      int dataOffset = offset + ZipEntry.LOCHDR + nameLength + extraLength;
+      offsets.put(name, (long) dataOffset);
+      offset = dataOffset + compressedSize;
+    }
+    return offsets;
+  }
+}
@@ -26,6 +26,8 @@ import com.facebook.buck.android.exopackage.NativeExoHelper;
 import com.facebook.buck.android.exopackage.ResourcesExoHelper;
 import com.facebook.buck.android.exopackage.TestAndroidDevice;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -47,6 +49,8 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
   private List<Path> installedLibs;
   private List<Path> installedResources;
   private List<Path> installedModules;
+  private List<ImmutableSortedSet<Path>> installBatches;
+  private List<String> createdDirs;
 
   private final Path apkPath;
   private final Path agentApkPath;
@@ -70,6 +74,8 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
     installedLibs = new ArrayList<>();
     installedResources = new ArrayList<>();
     installedModules = new ArrayList<>();
+    installBatches = new ArrayList<>();
+    createdDirs = new ArrayList<>();
   }
 
   @Override
@@ -142,9 +148,28 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
     for (Map.Entry<Path, Path> entry : installPaths.entrySet()) {
       validateInstallFile(entry.getKey(), entry.getValue());
     }
+    installBatches.add(
+        installPaths.keySet().stream()
+            .map(installRoot::relativize)
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural())));
     super.installFiles(filesType, installPaths);
   }
 
+  @Override
+  public void mkDirP(String dirpath) throws Exception {
+    createdDirs.add(dirpath);
+    super.mkDirP(dirpath);
+  }
+
+  /** @return the files pushed by each call to {@link #installFiles}, relative to the root. */
+  public List<ImmutableSortedSet<Path>> getInstallBatches() {
+    return installBatches;
+  }
+
+  public List<String> getCreatedDirs() {
+    return createdDirs;
+  }
+
   public void setAllowedInstallCounts(
       int expectedApksInstalled,
       int expectedDexesInstalled,
@@ -162,6 +187,8 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
     installedLibs.clear();
     installedResources.clear();
     installedModules.clear();
+    installBatches.clear();
+    createdDirs.clear();
   }
 
   public void assertExpectedInstallsAreConsumed() {
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.android.MergeAndroidResourcesStep.DuplicateResourceException;
+import com.facebook.buck.android.aapt.RDotTxtEntry;
+import com.facebook.buck.android.aapt.RDotTxtEntry.RType;
+import com.facebook.buck.android.aapt.RDotTxtFileCache;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SortedSetMultimap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the two places that read the {@code R.txt} files of a graph of {@code android_resource}
+ * libraries: checking the references of every library against the symbols of its dependencies,
+ * as {@code MiniAapt} does, and merging the symbols of all libraries for {@code R.java}, as {@link
+ * MergeAndroidResourcesStep} does. With {@code warmCache = false}, parsed files are dropped before
+ * each operation, as in the first build of a daemon.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class MergeAndroidResourcesBenchmark {
+
+  @Param({"1000"})
+  public int libraryCount;
+
+  @Param({"100"})
+  public int resourcesPerLibrary;
+
+  @Param({"30"})
+  public int depsPerLibrary;
+
+  @Param({"false", "true"})
+  public boolean warmCache;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private Map<Path, String> symbolsFileToRDotJavaPackage;
+  private List<ImmutableList<Path>> symbolsOfDeps;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("merge-android-resources-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    symbolsFileToRDotJavaPackage = new LinkedHashMap<>();
+    symbolsOfDeps = new ArrayList<>();
+
+    Random random = new Random(42);
+    List<Path> symbolsFiles = new ArrayList<>();
+    for (int library = 0; library < libraryCount; library++) {
+      StringBuilder rDotTxt = new StringBuilder();
+      int id = 0x7f010000;
+      for (int resource = 0; resource < resourcesPerLibrary; resource++) {
+        // Some resources, such as common attrs and ids, are defined by many libraries.
+        String name =
+            random.nextInt(4) == 0
+                ? "shared_" + random.nextInt(resourcesPerLibrary)
+                : String.format("lib%d_res%d", library, resource);
+        RType type = resource % 3 == 0 ? RType.ID : resource % 3 == 1 ? RType.STRING : RType.ATTR;
+        rDotTxt.append(String.format("int %s %s 0x%08x\n", type, name, id++));
+      }
+      rDotTxt.append(String.format("int[] styleable Lib%d { 0x%08x, 0x%08x }\n", library, id, id));
+      rDotTxt.append(String.format("int styleable Lib%d_shared_0 0\n", library));
+      rDotTxt.append(String.format("int styleable Lib%d_shared_1 1\n", library));
+
+      Path symbolsFile = Paths.get("lib" + library, "R.txt");
+      filesystem.mkdirs(symbolsFile.getParent());
+      filesystem.writeContentsToPath(rDotTxt.toString(), symbolsFile);
+      symbolsFileToRDotJavaPackage.put(symbolsFile, "com.example.lib" + library);
+
+      ImmutableList.Builder<Path> deps = ImmutableList.builder();
+      for (int dep = 0; dep < Math.min(library, depsPerLibrary); dep++) {
+        deps.add(symbolsFiles.get(random.nextInt(library)));
+      }
+      symbolsOfDeps.add(deps.build());
+      symbolsFiles.add(symbolsFile);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    MostFiles.deleteRecursively(root);
+  }
+
+  @Setup(Level.Invocation)
+  public void dropParsedFiles() {
+    if (!warmCache) {
+      RDotTxtFileCache.invalidateAll();
+    }
+  }
+
+  @Benchmark
+  public int readSymbolsOfDeps() throws IOException {
+    int entries = 0;
+    for (ImmutableList<Path> deps : symbolsOfDeps) {
+      for (ImmutableList<RDotTxtEntry> symbols :
+          RDotTxtFileCache.readResources(filesystem, deps).values()) {
+        entries += symbols.size();
+      }
+    }
+    return entries;
+  }
+
+  @Benchmark
+  public SortedSetMultimap<String, RDotTxtEntry> mergeSymbols()
+      throws DuplicateResourceException {
+    return MergeAndroidResourcesStep.sortSymbols(
+        symbolsFileToRDotJavaPackage,
+        Optional.empty(),
+        ImmutableMap.of(),
+        Optional.empty(),
+        EnumSet.noneOf(RType.class),
+        ImmutableSet.of(),
+        filesystem,
+        /* useOldStyleableFormat */ false);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
@@ -32,8 +32,14 @@ import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.core.sourcepath.FakeSourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemView;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.timing.FakeClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -71,6 +77,8 @@ public class MiniAaptTest {
 
   @Rule public ExpectedException thrown = ExpectedException.none();
 
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
   private static Set<RDotTxtEntry> createTestingFakes(
       Set<RDotTxtEntry> entries, Function<RDotTxtEntry, RDotTxtEntry> converter) {
     return entries.stream().map(converter).collect(Collectors.toSet());
@@ -864,4 +872,53 @@ public class MiniAaptTest {
 
     aapt.processValuesFile(filesystem, Paths.get("non-public.xml"));
   }
+
+  @Test
+  public void testExecuteWritesTheSameRDotTxtAsProcessingFilesOneByOne() throws IOException {
+    // XML files are looked up by absolute path, which the fake filesystem does not support.
+    ProjectFilesystem realFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    realFilesystem.mkdirs(Paths.get("res/layout"));
+    realFilesystem.mkdirs(Paths.get("res/values"));
+    realFilesystem.mkdirs(Paths.get("res/drawable"));
+    realFilesystem.writeLinesToPath(RESOURCES, Paths.get("res/layout/main.xml"));
+    realFilesystem.writeLinesToPath(
+        ImmutableList.of(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+            "<resources>",
+            "<string name=\"text\">Text</string>",
+            "<style name=\"Buck.Theme\" />",
+            "</resources>"),
+        Paths.get("res/values/values.xml"));
+    realFilesystem.writeLinesToPath(
+        ImmutableList.of(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+            "<app-drawable android:src=\"@drawable/some_image\" />"),
+        Paths.get("res/drawable/custom.xml"));
+    realFilesystem.writeContentsToPath("", Paths.get("res/drawable/some_image.png"));
+    Path depRTxt = Paths.get("dep/R.txt");
+    realFilesystem.mkdirs(depRTxt.getParent());
+    realFilesystem.writeLinesToPath(ImmutableList.of("int id button2 0x7f010001"), depRTxt);
+
+    MiniAapt aapt =
+        new MiniAapt(
+            resolver,
+            realFilesystem,
+            FakeSourcePath.of(realFilesystem, "res"),
+            Paths.get("R.txt"),
+            ImmutableSet.of(depRTxt));
+    StepExecutionResult result = aapt.execute(TestExecutionContext.newInstance());
+
+    assertEquals(StepExecutionResults.SUCCESS_EXIT_CODE, result.getExitCode());
+    assertEquals(
+        ImmutableList.of(
+            "int drawable custom 0x7f010001 #",
+            "int drawable some_image 0x7f010002",
+            "int id button1 0x7f050001",
+            "int id button3 0x7f050002",
+            "int layout main 0x7f020001",
+            "int string text 0x7f030001",
+            "int style Buck_Theme 0x7f040001"),
+        realFilesystem.readLines(Paths.get("R.txt")));
+  }
 }
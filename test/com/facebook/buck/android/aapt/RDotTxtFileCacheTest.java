@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.aapt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.android.aapt.RDotTxtEntry.IdType;
+import com.facebook.buck.android.aapt.RDotTxtEntry.RType;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RDotTxtFileCacheTest {
+
+  private static final String R_DOT_TXT =
+      "int string hello 0x7f010001\n"
+          + "\n"
+          + "int[] styleable Toolbar { 0x7f020001 }\n"
+          + "int styleable Toolbar_title 0\n";
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = new FakeProjectFilesystem();
+    RDotTxtFileCache.invalidateAll();
+  }
+
+  @Test
+  public void readsTheEntriesOfAFileInOrder() throws IOException {
+    Path rDotTxt = write("a/R.txt", R_DOT_TXT);
+
+    ImmutableList<RDotTxtEntry> entries = RDotTxtFileCache.readResources(filesystem, rDotTxt);
+
+    assertEquals(
+        ImmutableList.of(
+            new RDotTxtEntry(IdType.INT, RType.STRING, "hello", "0x7f010001"),
+            new RDotTxtEntry(IdType.INT_ARRAY, RType.STYLEABLE, "Toolbar", "{ 0x7f020001 }"),
+            new RDotTxtEntry(IdType.INT, RType.STYLEABLE, "Toolbar_title", "0")),
+        entries);
+    // Entries are equal when their type and name are, so compare the ids too.
+    assertEquals(
+        ImmutableList.of("0x7f010001", "{ 0x7f020001 }", "0"),
+        entries.stream().map(entry -> entry.idValue).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void filesWithTheSameContentsAreOnlyParsedOnce() throws IOException {
+    Path first = write("a/R.txt", R_DOT_TXT);
+    Path second = write("b/R.txt", R_DOT_TXT);
+    Path different = write("c/R.txt", "int string world 0x7f010001\n");
+
+    ImmutableList<RDotTxtEntry> firstEntries = RDotTxtFileCache.readResources(filesystem, first);
+
+    assertSame(firstEntries, RDotTxtFileCache.readResources(filesystem, second));
+    assertNotSame(firstEntries, RDotTxtFileCache.readResources(filesystem, different));
+    assertEquals(2, RDotTxtFileCache.size());
+  }
+
+  @Test
+  public void changedFilesAreParsedAgain() throws IOException {
+    Path rDotTxt = write("a/R.txt", R_DOT_TXT);
+    RDotTxtFileCache.readResources(filesystem, rDotTxt);
+
+    write("a/R.txt", "int string world 0x7f010001\n");
+
+    assertEquals(
+        ImmutableList.of(new RDotTxtEntry(IdType.INT, RType.STRING, "world", "0x7f010001")),
+        RDotTxtFileCache.readResources(filesystem, rDotTxt));
+  }
+
+  @Test
+  public void readsManyFilesInTheGivenOrder() throws IOException {
+    Path first = write("a/R.txt", "int string a 0x7f010001\n");
+    Path second = write("b/R.txt", "int string b 0x7f010001\n");
+    Path third = write("c/R.txt", "int string c 0x7f010001\n");
+
+    ImmutableMap<Path, ImmutableList<RDotTxtEntry>> entries =
+        RDotTxtFileCache.readResources(filesystem, ImmutableList.of(third, first, second, first));
+
+    assertEquals(ImmutableList.of(third, first, second), entries.keySet().asList());
+    assertEquals("b", entries.get(second).get(0).name);
+  }
+
+  private Path write(String path, String contents) throws IOException {
+    Path rDotTxt = Paths.get(path);
+    filesystem.mkdirs(rDotTxt.getParent());
+    filesystem.writeContentsToPath(contents, rDotTxt);
+    return rDotTxt;
+  }
+}
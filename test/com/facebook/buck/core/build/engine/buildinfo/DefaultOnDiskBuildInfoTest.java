@@ -16,6 +16,8 @@
 
 package com.facebook.buck.core.build.engine.buildinfo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.model.BuildId;
@@ -25,11 +27,15 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -150,6 +156,45 @@ public class DefaultOnDiskBuildInfoTest {
     onDiskBuildInfo.getMetadataForArtifact();
   }
 
+  @Test
+  public void remoteArtifactsAreHashedAndSizedFromTheirMetadata() throws IOException {
+    Path output = Paths.get("buck-out/gen/foo/bar/baz.out");
+    RemoteArtifact remoteArtifact = new RemoteArtifact(HashCode.fromInt(42), 1234);
+    BuildInfoRecorder buildInfoRecorder = createBuildInfoRecorder();
+    buildInfoRecorder.recordRemoteArtifact(output, remoteArtifact);
+    buildInfoRecorder.addMetadata(
+        BuildInfo.MetadataKey.RECORDED_PATHS, ImmutableList.of(output.toString()));
+    buildInfoRecorder.writeMetadataToDisk(true);
+
+    DefaultOnDiskBuildInfo onDiskBuildInfo = createOnDiskBuildInfo();
+    assertEquals(ImmutableMap.of(output, remoteArtifact), onDiskBuildInfo.getRemoteArtifacts());
+    assertThat(onDiskBuildInfo.getPathsForArtifact(), Matchers.hasItem(output));
+
+    onDiskBuildInfo.calculateOutputSizeAndWriteOutputHashes(
+        new FileHashLoader() {
+          @Override
+          public HashCode get(Path path) {
+            assertFalse("Remote artifacts should not be read from disk", path.endsWith(output));
+            return HashCode.fromInt(0);
+          }
+
+          @Override
+          public long getSize(Path path) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath) {
+            throw new UnsupportedOperationException();
+          }
+        },
+        size -> true);
+    assertEquals(Optional.of("1234"), onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE));
+    assertThat(
+        onDiskBuildInfo.getMap(BuildInfo.MetadataKey.RECORDED_PATH_HASHES).get(),
+        Matchers.hasEntry(output.toString(), remoteArtifact.getHash().toString()));
+  }
+
   private void setMetadata(String key, String value) throws IOException {
     BuildInfoRecorder buildInfoRecorder = createBuildInfoRecorder();
     buildInfoRecorder.addMetadata(key, value);
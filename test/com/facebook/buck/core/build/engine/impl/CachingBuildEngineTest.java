@@ -170,6 +170,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.AbstractListeningExecutorService;
@@ -188,14 +189,17 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Exchanger;
@@ -204,6 +208,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
@@ -2053,6 +2058,13 @@ public class CachingBuildEngineTest {
         Predicate<BuildRule> canBuild = rule -> false;
         Optional<Builder> builder = Optional.empty();
         Runnable cancelCallback = () -> {};
+        Set<BuildTarget> materializedTargets = Collections.synchronizedSet(new HashSet<>());
+
+        @Override
+        public ListenableFuture<?> materializeOutputs(Iterable<BuildTarget> targets) {
+          Iterables.addAll(materializedTargets, targets);
+          return Futures.immediateFuture(null);
+        }
 
         @Override
         public StrategyBuildResult build(BuildRule rule, BuildStrategyContext strategyContext) {
@@ -2167,6 +2179,32 @@ public class CachingBuildEngineTest {
         runVerifiedBuild(rule);
       }
 
+      @Test
+      public void outputsOfDepsAndOfTheirRuntimeDepsAreMaterializedBeforeBuildingLocally()
+          throws Exception {
+        FakeBuildRule runtimeDep = new FakeBuildRule("//:runtime_dep", filesystem);
+        FakeBuildRule dep = new FakeBuildRule("//:dep", filesystem).setRuntimeDeps(runtimeDep);
+        graphBuilder.addToIndex(runtimeDep);
+        graphBuilder.addToIndex(dep);
+        ImmutableSet<BuildTarget> expectedTargets =
+            ImmutableSet.of(dep.getBuildTarget(), runtimeDep.getBuildTarget());
+        AtomicBoolean materializedBeforeSteps = new AtomicBoolean();
+        FakeBuildRule ruleWithDeps =
+            new FakeBuildRule("//:with_deps", filesystem, dep) {
+              @Override
+              public ImmutableList<Step> getBuildSteps(
+                  BuildContext context, BuildableContext buildableContext) {
+                materializedBeforeSteps.set(
+                    expectedTargets.equals(ImmutableSet.copyOf(strategy.materializedTargets)));
+                return ImmutableList.of();
+              }
+            };
+
+        runVerifiedBuild(ruleWithDeps);
+
+        assertTrue(materializedBeforeSteps.get());
+      }
+
       @Test
       public void customBuildRuleStrategyGetsCancelCallOnFirstFailure() throws Exception {
         CountDownLatch failureBlocker = new CountDownLatch(1);
@@ -298,4 +298,17 @@ public class BuckUnixPathTest {
     Path path = BuckUnixPathUtils.createPath(data);
     path.subpath(beginIndex, endIndex);
   }
+
+  @Test
+  @Parameters({"/a/b,c,/a/b/c", "a/b,c/d,a/b/c/d", "/a/b/../c,.,/a/c"})
+  public void pathsBuiltDifferentlyAreEqual(String data1, String data2, String expected) {
+    Path path1 = BuckUnixPathUtils.createPath(data1);
+    Path path2 = BuckUnixPathUtils.createPath(data2);
+    Path built = path1.resolve(path2).normalize();
+    Path parsed = BuckUnixPathUtils.createPath(expected);
+    assertEquals(parsed, built);
+    assertEquals(parsed.hashCode(), built.hashCode());
+    assertEquals(0, parsed.compareTo(built));
+    assertEquals(parsed.getParent(), built.getParent());
+  }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.filesystems;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class PathTableTest {
+
+  // not the process-wide table, so that the paths created here are freed with it
+  private final PathTable table = new PathTable();
+
+  @Test
+  public void internedPathsKnowTheirParentDepthAndSegments() {
+    int id = table.intern(new String[] {"", "path_table", "a", "b"});
+
+    assertTrue(table.isAbsolute(id));
+    assertEquals(4, table.getDepth(id));
+    assertEquals("b", table.getSegment(id));
+    assertEquals(table.intern(new String[] {"", "path_table", "a"}), table.getParent(id));
+    assertEquals(table.intern(new String[] {"", "path_table"}), table.getAncestor(id, 2));
+    assertArrayEquals(new String[] {"", "path_table", "a", "b"}, table.getSegments(id));
+
+    int relativeId = table.intern(new String[] {"path_table", "a", "b"});
+    assertFalse(table.isAbsolute(relativeId));
+    assertFalse(id == relativeId);
+  }
+
+  @Test
+  public void ancestorsOfDeepPathsAreFound() {
+    String[] segments = new String[100];
+    segments[0] = "";
+    for (int i = 1; i < segments.length; i++) {
+      segments[i] = ("dir" + i).intern();
+    }
+    int id = table.intern(segments);
+
+    for (int depth = 0; depth <= segments.length; depth++) {
+      int ancestor = table.getAncestor(id, depth);
+      assertEquals(depth, table.getDepth(ancestor));
+      assertArrayEquals(Arrays.copyOf(segments, depth), table.getSegments(ancestor));
+    }
+  }
+
+  @Test
+  public void hashesDependOnlyOnSegments() {
+    String[] segments = {"", "path_table", "hash"};
+    int id = table.intern(segments);
+
+    assertEquals(Arrays.hashCode(segments), table.getHash(id));
+    PathTable otherTable = new PathTable();
+    for (int i = 0; i < 100; i++) {
+      otherTable.intern(new String[] {"", "path_table", ("other" + i).intern()});
+    }
+    int otherId = otherTable.intern(segments);
+    assertNotEquals(id, otherId);
+    assertEquals(table.getHash(id), otherTable.getHash(otherId));
+    assertEquals(Arrays.hashCode(new String[0]), table.getHash(PathTable.EMPTY));
+  }
+
+  @Test
+  public void concurrentlyInternedPathsGetTheSameIds() throws Exception {
+    int pathCount = 100_000;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<int[]>> results = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  int[] ids = new int[pathCount];
+                  for (int i = 0; i < pathCount; i++) {
+                    ids[i] =
+                        table.intern(
+                            new String[] {
+                              "concurrent", ("dir" + (i % 100)).intern(), ("file" + i).intern()
+                            });
+                  }
+                  return ids;
+                }));
+      }
+      int[] expected = results.get(0).get();
+      for (Future<int[]> result : results) {
+        assertArrayEquals(expected, result.get());
+      }
+      for (int i = 0; i < pathCount; i++) {
+        assertEquals("file" + i, table.getSegment(expected[i]));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
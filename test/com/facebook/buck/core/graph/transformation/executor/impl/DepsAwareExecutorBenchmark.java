@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask;
+import com.facebook.buck.core.graph.transformation.executor.factory.DepsAwareExecutorFactory;
+import com.facebook.buck.core.graph.transformation.executor.factory.DepsAwareExecutorType;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the per task scheduling overhead of the {@link DepsAwareExecutor} implementations by
+ * running synthetic graphs of trivial tasks.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DepsAwareExecutorBenchmark {
+
+  private static final int TASK_COUNT = 10000;
+
+  /** Shapes of the synthetic graphs. */
+  public enum GraphShape {
+    /** A single root depending on every other task. */
+    WIDE,
+    /** A chain where each task depends on the next one. */
+    DEEP,
+    /** Layers of 100 tasks, each depending on two tasks of the layer below. */
+    LAYERED,
+  }
+
+  @Param({"DEFAULT", "DEFAULT_WITH_LS", "JAVA_BASED", "TOPOSORT_BASED", "WORK_STEALING"})
+  public DepsAwareExecutorType executorType;
+
+  @Param({"WIDE", "DEEP", "LAYERED"})
+  public GraphShape graphShape;
+
+  @Param({"1", "4", "12"})
+  public int parallelism;
+
+  private DepsAwareExecutor<Object, ?> executor;
+  private Runnable graph;
+
+  @Setup(Level.Trial)
+  public void setUpExecutor() {
+    executor = DepsAwareExecutorFactory.create(executorType, parallelism);
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpGraph() {
+    graph = createGraph(executor);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OperationsPerInvocation(TASK_COUNT)
+  public void runGraph() {
+    graph.run();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executor.close();
+  }
+
+  /**
+   * Tasks can only be ran once, so a fresh graph is created for every invocation.
+   *
+   * @return a {@link Runnable} that submits the root of the graph and waits for it to finish
+   */
+  private <T extends DepsAwareTask<Object, T>> Runnable createGraph(
+      DepsAwareExecutor<Object, T> executor) {
+    T root = createRoot(executor);
+    return () -> {
+      try {
+        executor.submit(root).get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+
+  private <T extends DepsAwareTask<Object, T>> T createRoot(DepsAwareExecutor<Object, T> executor) {
+    switch (graphShape) {
+      case WIDE:
+        List<T> leaves = new ArrayList<>(TASK_COUNT - 1);
+        for (int i = 1; i < TASK_COUNT; i++) {
+          leaves.add(executor.createTask(() -> null));
+        }
+        ImmutableSet<T> deps = ImmutableSet.copyOf(leaves);
+        return executor.createThrowingTask(() -> null, ImmutableSet::of, () -> deps);
+      case DEEP:
+        T next = executor.createTask(() -> null);
+        for (int i = 1; i < TASK_COUNT; i++) {
+          ImmutableSet<T> dep = ImmutableSet.of(next);
+          next = executor.createThrowingTask(() -> null, ImmutableSet::of, () -> dep);
+        }
+        return next;
+      case LAYERED:
+        int layerSize = 100;
+        List<T> layer = new ArrayList<>(layerSize);
+        for (int i = 0; i < layerSize; i++) {
+          layer.add(executor.createTask(() -> null));
+        }
+        for (int depth = 1; depth < TASK_COUNT / layerSize; depth++) {
+          List<T> layerBelow = layer;
+          layer = new ArrayList<>(layerSize);
+          for (int i = 0; i < layerSize; i++) {
+            ImmutableSet<T> layerDeps =
+                ImmutableSet.of(layerBelow.get(i), layerBelow.get((i + 1) % layerSize));
+            layer.add(executor.createThrowingTask(() -> null, ImmutableSet::of, () -> layerDeps));
+          }
+        }
+        ImmutableSet<T> topLayer = ImmutableSet.copyOf(layer);
+        return executor.createThrowingTask(() -> null, ImmutableSet::of, () -> topLayer);
+      default:
+        throw new IllegalArgumentException(String.format("Unknown GraphShape: %s", graphShape));
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
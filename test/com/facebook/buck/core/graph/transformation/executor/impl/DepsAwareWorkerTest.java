@@ -73,6 +73,18 @@ public class DepsAwareWorkerTest<TaskType extends AbstractDepsAwareTask<?, TaskT
                     DefaultDepsAwareTask<Object>>)
                 (callable, depsSupplier) -> DefaultDepsAwareTask.of(callable, depsSupplier)
           },
+          {
+            (Function<
+                    LinkedBlockingDeque<DefaultDepsAwareTask<? super Object>>,
+                    AbstractDepsAwareWorker<?>>)
+                defaultDepsAwareTasks ->
+                    new WorkStealingDepsAwareWorker.Pool<Object>(defaultDepsAwareTasks).newWorker(),
+            (BiFunction<
+                    Callable<Object>,
+                    DepsAwareTask.DepsSupplier<DefaultDepsAwareTask<Object>>,
+                    DefaultDepsAwareTask<Object>>)
+                (callable, depsSupplier) -> DefaultDepsAwareTask.of(callable, depsSupplier)
+          },
           {
             (Function<
                     LinkedBlockingDeque<ToposortBasedDepsAwareTask<? super Object>>,
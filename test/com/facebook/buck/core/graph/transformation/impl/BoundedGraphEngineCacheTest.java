@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.impl.ChildrenAdder.LongNode;
+import com.facebook.buck.core.graph.transformation.model.ComputeResult;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import com.google.common.primitives.Longs;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BoundedGraphEngineCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static LongNode node(long value) {
+    return ImmutableLongNode.of(value);
+  }
+
+  private DiskGraphEngineCacheSpillStore<LongNode, LongNode> createSpillStore() throws IOException {
+    return new DiskGraphEngineCacheSpillStore<>(
+        tmp.getRoot().resolve("spill"),
+        new DiskGraphEngineCacheSpillStore.Serializer<LongNode>() {
+          @Override
+          public byte[] serialize(LongNode value) {
+            return Longs.toByteArray(value.get());
+          }
+
+          @Override
+          public LongNode deserialize(byte[] bytes) {
+            return node(Longs.fromByteArray(bytes));
+          }
+        });
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedResultsOverWeight() {
+    BoundedGraphEngineCache<LongNode, LongNode> cache =
+        new BoundedGraphEngineCache<>(2, value -> 1, Optional.empty());
+
+    cache.put(node(1), node(10));
+    cache.put(node(2), node(20));
+    assertEquals(Optional.of(node(10)), cache.get(node(1)));
+    cache.put(node(3), node(30));
+
+    assertEquals(2, cache.getTotalWeight());
+    assertEquals(Optional.of(node(10)), cache.get(node(1)));
+    assertFalse(cache.get(node(2)).isPresent());
+    assertEquals(Optional.of(node(30)), cache.get(node(3)));
+
+    GraphEngineCacheStats stats = cache.getStats().get(LongNode.IDENTIFIER);
+    assertEquals(3, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(1, stats.getEvictionCount());
+    assertEquals(0, stats.getReloadCount());
+  }
+
+  @Test
+  public void acquiredResultsAreNotEvictedUntilReleased() {
+    BoundedGraphEngineCache<LongNode, LongNode> cache =
+        new BoundedGraphEngineCache<>(1, value -> 1, Optional.empty());
+
+    cache.acquire(node(1));
+    cache.put(node(1), node(10));
+    cache.put(node(2), node(20));
+
+    assertEquals(Optional.of(node(10)), cache.get(node(1)));
+    assertFalse(cache.get(node(2)).isPresent());
+
+    cache.acquire(node(3));
+    cache.put(node(3), node(30));
+    assertEquals(2, cache.getTotalWeight());
+
+    cache.release(node(1));
+    assertEquals(1, cache.getTotalWeight());
+    assertFalse(cache.get(node(1)).isPresent());
+    assertEquals(Optional.of(node(30)), cache.get(node(3)));
+  }
+
+  @Test
+  public void evictedResultsAreReloadedFromSpillStore() throws IOException {
+    try (DiskGraphEngineCacheSpillStore<LongNode, LongNode> spillStore = createSpillStore()) {
+      BoundedGraphEngineCache<LongNode, LongNode> cache =
+          new BoundedGraphEngineCache<>(1, value -> 1, Optional.of(spillStore));
+
+      cache.put(node(1), node(10));
+      cache.put(node(2), node(20));
+      assertEquals(Optional.of(node(10)), cache.get(node(1)));
+      assertEquals(Optional.of(node(20)), cache.get(node(2)));
+      assertFalse(cache.get(node(3)).isPresent());
+
+      GraphEngineCacheStats stats = cache.getStats().get(LongNode.IDENTIFIER);
+      assertEquals(0, stats.getHitCount());
+      assertEquals(1, stats.getMissCount());
+      assertEquals(3, stats.getEvictionCount());
+      assertEquals(2, stats.getReloadCount());
+      assertTrue(stats.getTotalReloadNanos() > 0);
+    }
+  }
+
+  @Test
+  public void engineReleasesAllDependencies() {
+    MutableGraph<LongNode> graph = GraphBuilder.directed().build();
+    graph.putEdge(node(1), node(2));
+    graph.putEdge(node(1), node(4));
+    graph.putEdge(node(1), node(5));
+    graph.putEdge(node(5), node(4));
+    graph.putEdge(node(2), node(3));
+
+    BoundedGraphEngineCache<LongNode, LongNode> cache =
+        new BoundedGraphEngineCache<>(0, value -> 1, Optional.empty());
+    try (DefaultDepsAwareExecutor<ComputeResult> executor = DefaultDepsAwareExecutor.of(2)) {
+      DefaultGraphTransformationEngine engine =
+          new DefaultGraphTransformationEngine(
+              ImmutableList.of(new GraphComputationStage<>(new ChildrenAdder(graph), cache)),
+              graph.nodes().size(),
+              executor);
+
+      assertEquals(node(19), engine.computeUnchecked(node(1)));
+    }
+
+    // results of all nodes are evicted once nothing depends on them anymore
+    assertEquals(0, cache.getTotalWeight());
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.core.graph.transformation.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.core.graph.transformation.ComputationEnvironment;
@@ -44,6 +45,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.IntStream;
 import org.hamcrest.Matchers;
@@ -112,6 +114,7 @@ public class DefaultGraphTransformationEngineTest {
 
     private final ConcurrentHashMap<LongNode, LongNode> cache = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<LongNode, LongAdder> hitStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<LongNode, LongAdder> acquired = new ConcurrentHashMap<>();
 
     @Override
     public Optional<LongNode> get(LongNode k) {
@@ -126,10 +129,25 @@ public class DefaultGraphTransformationEngineTest {
       hitStats.put(k, new LongAdder());
     }
 
+    @Override
+    public void acquire(LongNode k) {
+      acquired.computeIfAbsent(k, ignored -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void release(LongNode k) {
+      acquired.get(k).decrement();
+    }
+
     public ImmutableMap<LongNode, LongAdder> getStats() {
       return ImmutableMap.copyOf(hitStats);
     }
 
+    /** @return the number of acquired results that were not released yet */
+    public long getAcquiredCount() {
+      return acquired.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
     public int getSize() {
       return cache.size();
     }
@@ -562,6 +580,75 @@ public class DefaultGraphTransformationEngineTest {
     assertComputationIndexBecomesEmpty(engine.impl.computationIndex);
   }
 
+  @Test
+  public void dependenciesAreReleasedWhenADependencyFails() throws InterruptedException {
+    ChildrenAdder transformer =
+        new ChildrenAdder(graph) {
+          @Override
+          public LongNode transform(LongNode key, ComputationEnvironment env) {
+            if (key.get() == 3) {
+              throw new IllegalStateException("failed to compute 3");
+            }
+            return super.transform(key, env);
+          }
+        };
+    DefaultGraphTransformationEngine engine =
+        new DefaultGraphTransformationEngine(
+            ImmutableList.of(new GraphComputationStage<>(transformer, cache)),
+            graph.nodes().size(),
+            executor);
+
+    try {
+      engine.compute(ImmutableLongNode.of(1)).get();
+      fail("computation should have failed");
+    } catch (ExecutionException e) {
+      assertThat(e.getMessage(), Matchers.containsString("failed to compute 3"));
+    }
+
+    assertAllAcquiredResultsAreReleased();
+  }
+
+  @Test
+  public void dependenciesAreReleasedWhenDiscoveringDependenciesFails()
+      throws InterruptedException {
+    ChildrenAdder transformer =
+        new ChildrenAdder(graph) {
+          @Override
+          public ImmutableSet<LongNode> discoverDeps(LongNode key, ComputationEnvironment env) {
+            if (key.get() == 2) {
+              throw new IllegalStateException("failed to discover the deps of 2");
+            }
+            return super.discoverDeps(key, env);
+          }
+        };
+    DefaultGraphTransformationEngine engine =
+        new DefaultGraphTransformationEngine(
+            ImmutableList.of(new GraphComputationStage<>(transformer, cache)),
+            graph.nodes().size(),
+            executor);
+
+    try {
+      engine.compute(ImmutableLongNode.of(1)).get();
+      fail("computation should have failed");
+    } catch (ExecutionException e) {
+      assertThat(e.getMessage(), Matchers.containsString("failed to discover the deps of 2"));
+    }
+
+    assertAllAcquiredResultsAreReleased();
+  }
+
+  /**
+   * Asserts that the results acquired from the cache are all eventually released. Results are
+   * released right after a task completes, so this may briefly wait for it.
+   */
+  private void assertAllAcquiredResultsAreReleased() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (cache.getAcquiredCount() != 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, cache.getAcquiredCount());
+  }
+
   /**
    * Asserts that the computationIndex of the {@link GraphTransformationEngine} eventually becomes
    * empty.
@@ -613,6 +613,114 @@ public class IncrementalActionGraphGeneratorTest {
     assertEquals(1, ((ActionGraphEvent.IncrementalLoad) event).getReusedNodeCount());
   }
 
+  @Test
+  public void rulesFromOlderGraphReusedWhenRetainingMultipleGenerations() {
+    generator = new IncrementalActionGraphGenerator(2);
+    TargetNode<?> sharedNode = createTargetNode("shared");
+    TargetNode<?> nodeA = createTargetNode("a", sharedNode);
+    TargetNode<?> nodeB = createTargetNode("b", sharedNode);
+
+    setUpTargetGraphAndResolver(nodeA, sharedNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    BuildRule ruleA = graphBuilder.requireRule(nodeA.getBuildTarget());
+    BuildRule sharedRule = graphBuilder.requireRule(sharedNode.getBuildTarget());
+
+    setUpTargetGraphAndResolver(nodeB, sharedNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(nodeB.getBuildTarget());
+    assertSame(sharedRule, graphBuilder.getRule(sharedNode.getBuildTarget()));
+
+    setUpTargetGraphAndResolver(nodeA, sharedNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    assertSame(ruleA, graphBuilder.requireRule(nodeA.getBuildTarget()));
+    assertSame(sharedRule, graphBuilder.getRule(sharedNode.getBuildTarget()));
+    assertSame(graphBuilder, ((FakeBuildRule) ruleA).getRuleResolver());
+  }
+
+  @Test
+  public void rulesFromOlderGraphNotReusedWhenRetainingSingleGeneration() {
+    TargetNode<?> sharedNode = createTargetNode("shared");
+    TargetNode<?> nodeA = createTargetNode("a", sharedNode);
+    TargetNode<?> nodeB = createTargetNode("b", sharedNode);
+
+    setUpTargetGraphAndResolver(nodeA, sharedNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    BuildRule ruleA = graphBuilder.requireRule(nodeA.getBuildTarget());
+    BuildRule sharedRule = graphBuilder.requireRule(sharedNode.getBuildTarget());
+
+    setUpTargetGraphAndResolver(nodeB, sharedNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(nodeB.getBuildTarget());
+
+    setUpTargetGraphAndResolver(nodeA, sharedNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    assertNotSame(ruleA, graphBuilder.requireRule(nodeA.getBuildTarget()));
+    assertSame(sharedRule, graphBuilder.getRule(sharedNode.getBuildTarget()));
+  }
+
+  @Test
+  public void retainedRulesInvalidatedWhenDependencyRecreated() {
+    generator = new IncrementalActionGraphGenerator(3);
+    TargetNode<?> childNode = createTargetNode("child");
+    TargetNode<?> parentNode = createTargetNode("parent", childNode);
+    TargetNode<?> changedChildNode = createTargetNode("child", "new_label");
+
+    setUpTargetGraphAndResolver(parentNode, childNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    BuildRule parentRule = graphBuilder.requireRule(parentNode.getBuildTarget());
+
+    // Changing the child and changing it back recreates its rule, so the retained parent rule,
+    // which references the original child rule, must not be reused.
+    setUpTargetGraphAndResolver(changedChildNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(changedChildNode.getBuildTarget());
+
+    setUpTargetGraphAndResolver(childNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(childNode.getBuildTarget());
+
+    setUpTargetGraphAndResolver(parentNode, childNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    assertNotSame(parentRule, graphBuilder.requireRule(parentNode.getBuildTarget()));
+  }
+
+  @Test
+  public void incrementalLoadFinishedEventReportsReusedAndCreatedRules() {
+    BlockingQueue<ActionGraphEvent.IncrementalLoadFinished> finishedEvents =
+        new LinkedBlockingQueue<>();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void incrementalLoadFinished(ActionGraphEvent.IncrementalLoadFinished event) {
+            finishedEvents.add(event);
+          }
+        });
+    TargetNode<?> childNode = createTargetNode("child");
+    TargetNode<?> parentNode = createTargetNode("parent", childNode);
+    TargetNode<?> otherNode = createTargetNode("other", childNode);
+
+    setUpTargetGraphAndResolver(parentNode, childNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(parentNode.getBuildTarget());
+    generator.finishIncrementalLoad(eventBus, TimeUnit.MILLISECONDS.toNanos(20));
+
+    ActionGraphEvent.IncrementalLoadFinished event = finishedEvents.poll();
+    assertEquals(0, event.getReusedNodeCount());
+    assertEquals(2, event.getCreatedNodeCount());
+    assertEquals(0, event.getEstimatedTimeSavedMillis());
+
+    setUpTargetGraphAndResolver(parentNode, otherNode, childNode);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(otherNode.getBuildTarget());
+    generator.finishIncrementalLoad(eventBus, TimeUnit.MILLISECONDS.toNanos(10));
+
+    event = finishedEvents.poll();
+    assertEquals(2, event.getReusedNodeCount());
+    assertEquals(1, event.getCreatedNodeCount());
+    assertEquals(20, event.getEstimatedTimeSavedMillis());
+    assertTrue(finishedEvents.isEmpty());
+  }
+
   private FakeTargetNodeBuilder createTargetNodeBuilder(String name) {
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//test:" + name);
     return FakeTargetNodeBuilder.newBuilder(new FakeDescription(), buildTarget);
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.core.model.targetgraph.impl;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphFactory;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures {@link TargetGraphHashing} over a generated graph of java libraries, with a varying
+ * number of hashing threads. Reading files is simulated by hashing their paths a number of times.
+ * Comparing the thread counts is only meaningful on a host with at least that many cores.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TargetGraphHashingBenchmark {
+
+  @Param({"20000"})
+  public int nodeCount;
+
+  @Param({"1", "32"})
+  public int threads;
+
+  @Param({"100"})
+  public int fileHashRounds;
+
+  private TargetGraph targetGraph;
+  private ImmutableList<TargetNode<?>> roots;
+  private ListeningExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Random random = new Random(42);
+    List<BuildTarget> targets = new ArrayList<>(nodeCount);
+    List<TargetNode<?>> nodes = new ArrayList<>(nodeCount);
+    for (int i = 0; i < nodeCount; i++) {
+      BuildTarget target = BuildTargetFactory.newInstance("//package" + (i / 10) + ":lib" + i);
+      JavaLibraryBuilder builder =
+          JavaLibraryBuilder.createBuilder(target, filesystem)
+              .addSrc(Paths.get("package" + (i / 10), "Lib" + i + ".java"));
+      // deps only go to targets defined earlier, mostly nearby ones, which keeps the graph acyclic
+      for (int dep = 0; i > 0 && dep < 4; dep++) {
+        int distance = 1 + random.nextInt(Math.min(i, random.nextBoolean() ? 50 : i));
+        builder.addDep(targets.get(i - distance));
+      }
+      targets.add(target);
+      nodes.add(builder.build());
+    }
+    targetGraph = TargetGraphFactory.newInstance(nodes);
+    roots = ImmutableList.copyOf(targetGraph.getNodes());
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableMap<BuildTarget, HashCode> hashTargetGraph() throws InterruptedException {
+    return new TargetGraphHashing(
+            BuckEventBusForTests.newInstance(),
+            targetGraph,
+            new SlowFileHashLoader(fileHashRounds),
+            roots,
+            executor,
+            TestRuleKeyConfigurationFactory.create(),
+            node ->
+                Futures.immediateFuture(
+                    ImmutableMap.of("name", node.getBuildTarget().getShortName())),
+            Hashing.murmur3_128())
+        .hashTargetGraph();
+  }
+
+  /** Spends some CPU time per file, in place of reading it. */
+  private static class SlowFileHashLoader implements FileHashLoader {
+
+    private final int rounds;
+
+    private SlowFileHashLoader(int rounds) {
+      this.rounds = rounds;
+    }
+
+    @Override
+    public HashCode get(Path path) {
+      HashCode hash = Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8);
+      for (int i = 1; i < rounds; i++) {
+        hash = Hashing.sha1().hashBytes(hash.asBytes());
+      }
+      return hash;
+    }
+
+    @Override
+    public long getSize(Path path) {
+      return 0;
+    }
+
+    @Override
+    public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath)
+        throws IOException {
+      throw new IOException("Archives are not supported");
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
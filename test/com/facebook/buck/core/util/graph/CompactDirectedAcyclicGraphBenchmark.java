@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares {@link DirectedAcyclicGraph} and {@link CompactDirectedAcyclicGraph} on a generated
+ * graph shaped like a large target graph. Run it with {@code -prof gc} to compare the memory each
+ * representation takes: the normalized allocation rate of {@link #copy()} and {@link
+ * #compactCopy()} is the size of the graph each of them builds.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompactDirectedAcyclicGraphBenchmark {
+
+  @Param({"1000000"})
+  public int nodeCount;
+
+  @Param({"4"})
+  public int averageOutDegree;
+
+  private MutableDirectedGraph<Node> mutableGraph;
+  private DirectedAcyclicGraph<Node> graph;
+  private CompactDirectedAcyclicGraph<Node> compactGraph;
+  private ImmutableList<Node> roots;
+
+  /** Stands in for a target node: an object with a precomputed hash code. */
+  private static final class Node {
+    private final String name;
+    private final int hash;
+
+    private Node(int id) {
+      this.name = "//package" + (id / 100) + ":target" + id;
+      this.hash = name.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Node && name.equals(((Node) other).name);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUpGraphs() {
+    Node[] nodes = new Node[nodeCount];
+    for (int i = 0; i < nodeCount; i++) {
+      nodes[i] = new Node(i);
+    }
+
+    // edges only go to nodes with smaller ids, mostly nearby ones, which keeps the graph acyclic
+    Random random = new Random(42);
+    mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < nodeCount; i++) {
+      mutableGraph.addNode(nodes[i]);
+      for (int edge = 0; i > 0 && edge < averageOutDegree; edge++) {
+        int distance = 1 + random.nextInt(Math.min(i, random.nextBoolean() ? 100 : i));
+        mutableGraph.addEdge(nodes[i], nodes[i - distance]);
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+    compactGraph = CompactDirectedAcyclicGraph.copyOf(graph);
+    roots = compactGraph.getNodesWithNoIncomingEdges();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableList<Node> topologicalSort() {
+    return TopologicalSort.sort(graph);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableList<Node> compactTopologicalSort() {
+    return compactGraph.getTopologicalOrder();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Iterable<Node> depthFirstPostOrderTraversal()
+      throws AcyclicDepthFirstPostOrderTraversal.CycleException {
+    return new AcyclicDepthFirstPostOrderTraversal<Node>(
+            node -> graph.getOutgoingNodesFor(node).iterator())
+        .traverse(roots);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableList<Node> compactDepthFirstPostOrderTraversal() {
+    return compactGraph.traverseDepthFirstPostOrder(roots);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public DirectedAcyclicGraph<Node> copy() {
+    return new DirectedAcyclicGraph<>(mutableGraph);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public CompactDirectedAcyclicGraph<Node> compactCopy() {
+    return CompactDirectedAcyclicGraph.copyOf(graph);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CompactDirectedAcyclicGraphTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  //           A
+  //         /  \
+  //       B     C
+  //      /     / \
+  //    D    __/   E
+  //  /  \  /
+  // F    G
+  private DirectedAcyclicGraph<String> makeGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addNode("C");
+    graph.addNode("B");
+    graph.addNode("E");
+    graph.addNode("A");
+    graph.addNode("F");
+    graph.addNode("G");
+    graph.addNode("D");
+
+    graph.addEdge("D", "G");
+    graph.addEdge("A", "C");
+    graph.addEdge("D", "F");
+    graph.addEdge("B", "D");
+    graph.addEdge("A", "B");
+    graph.addEdge("C", "E");
+    graph.addEdge("C", "G");
+    return new DirectedAcyclicGraph<>(graph);
+  }
+
+  @Test
+  public void copyHasSameNodesAndEdges() {
+    DirectedAcyclicGraph<String> graph = makeGraph();
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    assertEquals(ImmutableList.copyOf(graph.getNodes()), compact.getNodes());
+    assertEquals(7, compact.getNodeCount());
+    assertEquals(7, compact.getEdgeCount());
+    for (String node : graph.getNodes()) {
+      assertEquals(
+          ImmutableList.copyOf(graph.getOutgoingNodesFor(node)),
+          compact.getOutgoingNodesFor(node));
+      assertEquals(
+          ImmutableSet.copyOf(graph.getIncomingNodesFor(node)),
+          ImmutableSet.copyOf(compact.getIncomingNodesFor(node)));
+      assertEquals(node, compact.getNode(compact.getNodeId(node)));
+    }
+    assertEquals(
+        graph.getNodesWithNoIncomingEdges(),
+        ImmutableSet.copyOf(compact.getNodesWithNoIncomingEdges()));
+    assertEquals(
+        graph.getNodesWithNoOutgoingEdges(),
+        ImmutableSet.copyOf(compact.getNodesWithNoOutgoingEdges()));
+    assertEquals(-1, compact.getNodeId("H"));
+    assertTrue(compact.getOutgoingNodesFor("H").isEmpty());
+  }
+
+  @Test
+  public void topologicalOrderPutsNodesAfterTheirSuccessors() {
+    DirectedAcyclicGraph<String> graph = makeGraph();
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    ImmutableList<String> sorted = compact.getTopologicalOrder();
+    assertEquals(graph.getNodes(), ImmutableSet.copyOf(sorted));
+    assertEquals(graph.getNodes().size(), sorted.size());
+    for (String node : graph.getNodes()) {
+      for (String successor : graph.getOutgoingNodesFor(node)) {
+        assertTrue(sorted.indexOf(successor) < sorted.indexOf(node));
+      }
+    }
+  }
+
+  @Test
+  public void depthFirstPostOrderMatchesAcyclicDepthFirstPostOrderTraversal()
+      throws AcyclicDepthFirstPostOrderTraversal.CycleException {
+    DirectedAcyclicGraph<String> graph = makeGraph();
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    AcyclicDepthFirstPostOrderTraversal<String> traversal =
+        new AcyclicDepthFirstPostOrderTraversal<>(
+            node -> graph.getOutgoingNodesFor(node).iterator());
+    for (ImmutableList<String> roots :
+        ImmutableList.of(
+            ImmutableList.of("A"), ImmutableList.of("C", "B"), ImmutableList.of("G", "D", "A"))) {
+      assertEquals(
+          ImmutableList.copyOf(traversal.traverse(roots)),
+          compact.traverseDepthFirstPostOrder(roots));
+    }
+  }
+
+  @Test
+  public void copyFromTraversableIncludesReachableNodesAndDropsDuplicateEdges() {
+    ImmutableListMultimap<String, String> children =
+        ImmutableListMultimap.of("A", "B", "A", "B", "B", "C", "A", "C");
+    CompactDirectedAcyclicGraph<String> compact =
+        CompactDirectedAcyclicGraph.copyOf(
+            ImmutableList.of("A", "A"), node -> children.get(node).iterator());
+
+    assertEquals(ImmutableList.of("A", "B", "C"), compact.getNodes());
+    assertEquals(3, compact.getEdgeCount());
+    assertEquals(ImmutableList.of("B", "C"), compact.getOutgoingNodesFor("A"));
+
+    List<String> predecessors = new ArrayList<>();
+    compact.forEachPredecessor(compact.getNodeId("C"), id -> predecessors.add(compact.getNode(id)));
+    assertEquals(ImmutableList.of("A", "B"), predecessors);
+    assertEquals(ImmutableList.of("C", "B", "A"), compact.getTopologicalOrder());
+  }
+
+  @Test
+  public void cyclesAreRejected() {
+    ImmutableListMultimap<String, String> children =
+        ImmutableListMultimap.of("A", "B", "B", "C", "C", "A");
+
+    thrown.expect(IllegalArgumentException.class);
+    CompactDirectedAcyclicGraph.copyOf(
+        ImmutableList.of("A"), node -> children.get(node).iterator());
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ParallelBottomUpTraversalTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  //           A
+  //         /  \
+  //       B     C
+  //      /     / \
+  //    D    __/   E
+  //  /  \  /
+  // F    G
+  private static final ImmutableListMultimap<String, String> CHILDREN =
+      ImmutableListMultimap.<String, String>builder()
+          .putAll("A", "B", "C")
+          .putAll("B", "D")
+          .putAll("C", "G", "E")
+          .putAll("D", "F", "G")
+          .build();
+
+  private static CompactDirectedAcyclicGraph<String> makeGraph() {
+    return CompactDirectedAcyclicGraph.copyOf(
+        ImmutableList.of("A"), node -> CHILDREN.get(node).iterator());
+  }
+
+  /** Concatenates a node with the values of its successors, in the order of its edges. */
+  private static String visit(String node, Function<String, String> values) {
+    StringBuilder builder = new StringBuilder(node);
+    for (String child : CHILDREN.get(node)) {
+      builder.append('(').append(values.apply(child)).append(')');
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void visitsNodesAfterTheirSuccessors() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+
+    ImmutableMap<String, String> values =
+        ParallelBottomUpTraversal.traverse(
+                graph, ParallelBottomUpTraversalTest::visit, MoreExecutors.directExecutor())
+            .get();
+
+    assertEquals(graph.getNodes(), values.keySet().asList());
+    assertEquals("D(F)(G)", values.get("D"));
+    assertEquals("A(B(D(F)(G)))(C(G)(E))", values.get("A"));
+  }
+
+  @Test
+  public void resultIsTheSameOnForkJoinPool() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+    ImmutableMap<String, String> expected =
+        ParallelBottomUpTraversal.traverse(
+                graph, ParallelBottomUpTraversalTest::visit, MoreExecutors.directExecutor())
+            .get();
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int i = 0; i < 100; i++) {
+        ImmutableMap<String, String> values =
+            ParallelBottomUpTraversal.traverse(graph, ParallelBottomUpTraversalTest::visit, pool)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(expected.entrySet().asList(), values.entrySet().asList());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void visitsEachNodeOnceOnLargeGraph() throws Exception {
+    int size = 10000;
+    ImmutableListMultimap.Builder<Integer, Integer> children = ImmutableListMultimap.builder();
+    for (int i = 1; i < size; i++) {
+      children.put(i, i - 1);
+      children.put(i, i / 2);
+    }
+    ImmutableListMultimap<Integer, Integer> edges = children.build();
+    CompactDirectedAcyclicGraph<Integer> graph =
+        CompactDirectedAcyclicGraph.copyOf(
+            ImmutableList.of(size - 1), node -> edges.get(node).iterator());
+
+    AtomicInteger visits = new AtomicInteger();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ImmutableMap<Integer, Integer> depths =
+          ParallelBottomUpTraversal.<Integer, Integer>traverse(
+                  graph,
+                  (node, values) -> {
+                    visits.incrementAndGet();
+                    int depth = 0;
+                    for (int child : edges.get(node)) {
+                      depth = Math.max(depth, values.apply(child) + 1);
+                    }
+                    return depth;
+                  },
+                  pool)
+              .get(10, TimeUnit.SECONDS);
+
+      assertEquals(size, visits.get());
+      assertEquals(size - 1, (int) depths.get(size - 1));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void firstFailureFailsTheTraversal() throws Exception {
+    AtomicInteger visits = new AtomicInteger();
+
+    thrown.expect(ExecutionException.class);
+    thrown.expectCause(instanceOf(IllegalStateException.class));
+    try {
+      ParallelBottomUpTraversal.<String, String>traverse(
+              makeGraph(),
+              (node, values) -> {
+                visits.incrementAndGet();
+                if (node.equals("D")) {
+                  throw new IllegalStateException("D failed");
+                }
+                return node;
+              },
+              MoreExecutors.directExecutor())
+          .get();
+    } finally {
+      // neither B nor A are visited once D failed
+      assertTrue(visits.get() < 7);
+    }
+  }
+
+  @Test
+  public void emptyGraphHasNoValues() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph =
+        CompactDirectedAcyclicGraph.copyOf(
+            ImmutableList.of(), node -> CHILDREN.get(node).iterator());
+
+    assertTrue(
+        ParallelBottomUpTraversal.traverse(
+                graph, ParallelBottomUpTraversalTest::visit, MoreExecutors.directExecutor())
+            .get()
+            .isEmpty());
+  }
+}
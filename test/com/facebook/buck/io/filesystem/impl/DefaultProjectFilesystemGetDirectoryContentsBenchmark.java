@@ -19,10 +19,16 @@ import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.Main;
 import org.openjdk.jmh.annotations.Benchmark;
@@ -96,6 +102,51 @@ public class DefaultProjectFilesystemGetDirectoryContentsBenchmark {
     }
   }
 
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Map<Path, BasicFileAttributes> getDirectoryContentsWithAttributes() throws IOException {
+    return fileSystem.getDirectoryContentsWithAttributes(pathToEnumerate);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Map<Path, BasicFileAttributes> getDirectoryContentsThenReadAttributes()
+      throws IOException {
+    Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+    for (Path path : fileSystem.getDirectoryContents(pathToEnumerate)) {
+      attributes.put(
+          path,
+          fileSystem.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+    }
+    return attributes;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Map<Path, BasicFileAttributes> nioWithAttributes() throws IOException {
+    return DirectoryListing.listWithJava(pathToEnumerate, path -> true);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Map<Path, BasicFileAttributes> nativeWithAttributes() throws IOException {
+    return DirectoryListing.list(pathToEnumerate, path -> true);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void walkRelativeFileTree(Blackhole blackhole) throws IOException {
+    fileSystem.walkRelativeFileTree(
+        fileSystem.getPath(""),
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            blackhole.consume(attrs);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
   @TearDown(Level.Trial)
   public void tearDown() {
     temporaryPaths.after();
@@ -45,8 +45,10 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import java.io.ByteArrayInputStream;
@@ -72,6 +74,7 @@ import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -124,6 +127,20 @@ public class DefaultProjectFilesystemTest {
         "foo/ is a directory, but not an ordinary file", filesystem.isFile(Paths.get("foo")));
   }
 
+  @Test
+  public void computeSha1OfSmallAndLargeFiles() throws IOException {
+    Random random = new Random(42);
+    for (int size : new int[] {0, 1, 4096, 2 * 1024 * 1024 + 7}) {
+      byte[] contents = new byte[size];
+      random.nextBytes(contents);
+      Path path = Paths.get("file" + size);
+      filesystem.writeBytesToPath(contents, path);
+
+      assertEquals(
+          Hashing.sha1().hashBytes(contents), filesystem.computeSha1(path).asHashCode());
+    }
+  }
+
   @Test
   public void testSetLastModifiedTime() throws IOException {
     Path path = tmp.newFile("somefile");
@@ -591,6 +608,58 @@ public class DefaultProjectFilesystemTest {
         filesystem.getMtimeSortedMatchingDirectoryContents(Paths.get("foo"), "*.txt"));
   }
 
+  @Test
+  public void getDirectoryContentsWithAttributesListsTypesAndSizesWithoutFollowingLinks()
+      throws IOException {
+    Assume.assumeTrue("System supports symlinks", !Platform.detect().equals(Platform.WINDOWS));
+    tmp.newFolder("foo", "bar");
+    Path file = tmp.newFile("foo/file.txt");
+    Files.write(file, "hello".getBytes(UTF_8));
+    CreateSymlinksForTests.createSymLink(tmp.getRoot().resolve("foo/link"), Paths.get("bar"));
+    tmp.newFolder("foo", "ignored");
+
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(
+            tmp.getRoot(), ConfigBuilder.createFromText("[project]", "ignore = foo/ignored"));
+    ImmutableSortedMap<Path, BasicFileAttributes> contents =
+        filesystem.getDirectoryContentsWithAttributes(Paths.get("foo"));
+
+    assertEquals(
+        ImmutableList.of(Paths.get("foo/bar"), Paths.get("foo/file.txt"), Paths.get("foo/link")),
+        contents.keySet().asList());
+    assertTrue(contents.get(Paths.get("foo/bar")).isDirectory());
+    assertTrue(contents.get(Paths.get("foo/file.txt")).isRegularFile());
+    assertEquals(5, contents.get(Paths.get("foo/file.txt")).size());
+    assertTrue(contents.get(Paths.get("foo/link")).isSymbolicLink());
+  }
+
+  @Test
+  public void directoryListingMatchesAttributesReadThroughJava() throws IOException {
+    tmp.newFolder("foo", "bar");
+    Path file = tmp.newFile("foo/file.txt");
+    Files.write(file, "hello".getBytes(UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(123456789000L));
+    Path directory = tmp.getRoot().resolve("foo");
+
+    ImmutableSortedMap<Path, BasicFileAttributes> listed =
+        DirectoryListing.list(directory, path -> true);
+    ImmutableSortedMap<Path, BasicFileAttributes> listedWithJava =
+        DirectoryListing.listWithJava(directory, path -> true);
+
+    assertEquals(listedWithJava.keySet(), listed.keySet());
+    for (Path path : listed.keySet()) {
+      BasicFileAttributes attributes = listed.get(path);
+      BasicFileAttributes javaAttributes = listedWithJava.get(path);
+      assertEquals(javaAttributes.isDirectory(), attributes.isDirectory());
+      assertEquals(javaAttributes.isRegularFile(), attributes.isRegularFile());
+      assertEquals(javaAttributes.lastModifiedTime(), attributes.lastModifiedTime());
+      assertEquals(String.valueOf(javaAttributes.fileKey()), String.valueOf(attributes.fileKey()));
+      if (attributes.isRegularFile()) {
+        assertEquals(javaAttributes.size(), attributes.size());
+      }
+    }
+  }
+
   @Test
   public void testExtractIgnorePaths() {
     Config config =
@@ -35,6 +35,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
@@ -424,6 +425,18 @@ public class FakeProjectFilesystem extends DefaultProjectFilesystem {
     }
   }
 
+  /** Does not support symlinks. */
+  @Override
+  public ImmutableSortedMap<Path, BasicFileAttributes> getDirectoryContentsWithAttributes(
+      Path pathRelativeToProjectRoot) throws IOException {
+    ImmutableSortedMap.Builder<Path, BasicFileAttributes> builder =
+        ImmutableSortedMap.naturalOrder();
+    for (Path path : getDirectoryContents(pathRelativeToProjectRoot)) {
+      builder.put(path, readBasicAttributes(path));
+    }
+    return builder.build();
+  }
+
   /** @return returns sorted absolute paths of everything under the given directory */
   @Override
   DirectoryStream<Path> getDirectoryContentsStream(Path absolutePath) {
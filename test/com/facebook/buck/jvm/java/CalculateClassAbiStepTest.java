@@ -16,6 +16,7 @@
 
 package com.facebook.buck.jvm.java;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -23,15 +24,21 @@ import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
+import com.facebook.buck.jvm.java.abi.StubJar;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.testutil.integration.ZipInspector;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
+import com.facebook.buck.util.zip.JarBuilder;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import org.junit.Rule;
@@ -79,4 +86,67 @@ public class CalculateClassAbiStepTest {
               .getValue(CustomJarOutputStream.DIGEST_ATTRIBUTE_NAME));
     }
   }
+
+  @Test
+  public void shouldCopyTheAbiWrittenWithTheLibraryJar() throws IOException {
+    Path outDir = temp.newFolder().toAbsolutePath();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(outDir);
+    Path source = TestDataHelper.getTestDataDirectory(this).resolve("prebuilt/junit.jar");
+
+    // Write the library jar and its ABI in one pass, the way in-memory compilation does.
+    Map<Path, byte[]> jarContents = new HashMap<>();
+    Path binJar = Paths.get("lib.jar");
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(source))
+        .setEntryListener((name, contents) -> jarContents.put(Paths.get(name), contents))
+        .createJarFile(outDir.resolve(binJar));
+    Path libraryClassAbiJar = Paths.get("lib-class-abi.jar");
+    new StubJar(jarContents)
+        .setCompatibilityMode(AbiGenerationMode.CLASS)
+        .writeTo(filesystem, libraryClassAbiJar);
+
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+    Path copiedAbiJar = Paths.get("copied-abi.jar");
+    new CalculateClassAbiStep(
+            filesystem,
+            binJar,
+            Optional.of(libraryClassAbiJar),
+            copiedAbiJar,
+            AbiGenerationMode.CLASS)
+        .execute(executionContext);
+    Path calculatedAbiJar = Paths.get("calculated-abi.jar");
+    new CalculateClassAbiStep(filesystem, binJar, calculatedAbiJar, AbiGenerationMode.CLASS)
+        .execute(executionContext);
+
+    assertArrayEquals(
+        Files.readAllBytes(outDir.resolve(calculatedAbiJar)),
+        Files.readAllBytes(outDir.resolve(copiedAbiJar)));
+  }
+
+  @Test
+  public void shouldCalculateTheAbiWhenTheLibraryDidNotKeepOne() throws IOException {
+    Path outDir = temp.newFolder().toAbsolutePath();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(outDir);
+    Path source = TestDataHelper.getTestDataDirectory(this).resolve("prebuilt/junit.jar");
+    Path binJar = Paths.get("lib.jar");
+    Files.copy(source, outDir.resolve(binJar));
+
+    // A library fetched from a cache that predates the ABI jar only brings back its jar.
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+    Path abiJar = Paths.get("abi.jar");
+    new CalculateClassAbiStep(
+            filesystem,
+            binJar,
+            Optional.of(outDir.resolve("lib-class-abi.jar")),
+            abiJar,
+            AbiGenerationMode.CLASS)
+        .execute(executionContext);
+    Path calculatedAbiJar = Paths.get("calculated-abi.jar");
+    new CalculateClassAbiStep(filesystem, binJar, calculatedAbiJar, AbiGenerationMode.CLASS)
+        .execute(executionContext);
+
+    assertArrayEquals(
+        Files.readAllBytes(outDir.resolve(calculatedAbiJar)),
+        Files.readAllBytes(outDir.resolve(abiJar)));
+  }
 }
@@ -375,6 +375,24 @@ public class DefaultJavaLibraryIntegrationTest extends AbiCompilationModeTest {
     buildResult3.assertSuccess("Successful build should exit with 0.");
   }
 
+  @Test
+  public void testClassAbiOfALibraryFetchedFromTheCacheIsBuilt() throws IOException {
+    setUpProjectWorkspaceForScenario("depends_only_on_abi_test");
+    workspace.enableDirCache();
+
+    BuildTarget b = BuildTargetFactory.newInstance("//:b");
+    workspace.runBuckBuild(b.getFullyQualifiedName()).assertSuccess();
+    workspace.runBuckCommand("clean", "--keep-cache").assertSuccess();
+
+    BuildTarget classAbi = b.withFlavors(JavaAbis.CLASS_ABI_FLAVOR);
+    workspace.runBuckBuild(classAbi.getFullyQualifiedName()).assertSuccess();
+
+    workspace.getBuildLog().assertTargetWasFetchedFromCache(b);
+    workspace.getBuildLog().assertTargetBuiltLocally(classAbi);
+    assertTrue(
+        Files.exists(workspace.getPath(CompilerOutputPaths.getClassAbiJarPath(b, filesystem))));
+  }
+
   @Test
   public void testJavaLibraryOnlyDependsOnTheAbiVersionsOfItsDeps() throws IOException {
     compileAgainstAbisOnly();
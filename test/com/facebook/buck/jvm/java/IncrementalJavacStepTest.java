@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IncrementalJavacStepTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final Path A = Paths.get("src/com/example/A.java");
+  private static final Path B = Paths.get("src/com/example/B.java");
+  private static final Path C = Paths.get("src/com/example/C.java");
+
+  private ProjectFilesystem filesystem;
+  private BuildTarget target;
+  private CompilerParameters compilerParameters;
+  private Path libraryClasses;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    target = BuildTargetFactory.newInstance(filesystem.getRootPath(), "//:lib");
+    libraryClasses = tmp.newFolder("library");
+
+    write(A, "package com.example; public class A { int a() { return 1; } }");
+    write(B, "package com.example; public class B { public static final int X = 1; void b() {} }");
+    write(
+        C,
+        "package com.example; public class C { int x = B.X; void c(B b) { b.b(); } "
+            + "int l() { return new com.library.L().get(); } }");
+    writeLibrary("public int get() { return 1; }");
+
+    compilerParameters =
+        CompilerParameters.builder()
+            .setScratchPaths(target, filesystem)
+            .setSourceFilePaths(ImmutableSortedSet.of(A, B, C))
+            .setClasspathEntries(ImmutableSortedSet.of(libraryClasses))
+            .setShouldTrackClassUsage(true)
+            .build();
+  }
+
+  @Test
+  public void unchangedSourcesAreNotRecompiled() throws Exception {
+    assertEquals(ImmutableList.of(A, B, C), build());
+    byte[] classA = readClass("A");
+
+    assertEquals(ImmutableList.of(), build());
+    assertArrayEquals(classA, readClass("A"));
+    assertTrue(Files.exists(getClassFile("B")));
+    assertTrue(Files.exists(getClassFile("C")));
+  }
+
+  @Test
+  public void changesToMethodBodiesOnlyRecompileTheirSource() throws Exception {
+    build();
+    byte[] classC = readClass("C");
+
+    write(
+        B,
+        "package com.example; public class B { public static final int X = 1; void b() { "
+            + "System.out.println(); } }");
+    assertEquals(ImmutableList.of(B), build());
+    assertArrayEquals(classC, readClass("C"));
+  }
+
+  @Test
+  public void changesToTheAbiRecompileDependents() throws Exception {
+    build();
+
+    write(
+        B,
+        "package com.example; public class B { public static final int X = 1; void b() {} "
+            + "public void added() {} }");
+    // The last round only compiles C.
+    assertEquals(ImmutableList.of(C), build());
+
+    write(B, "package com.example; public class B { public static final int X = 1; }");
+    assertFalse(build(false).isSuccess());
+  }
+
+  @Test
+  public void changesToConstantsRecompileEverything() throws Exception {
+    build();
+
+    write(B, "package com.example; public class B { public static final int X = 2; void b() {} }");
+    assertEquals(ImmutableList.of(A, B, C), build());
+  }
+
+  @Test
+  public void changesToTheClasspathRecompileDependents() throws Exception {
+    build();
+
+    writeLibrary("public int get() { return 1; } public int added() { return 2; }");
+    assertEquals(ImmutableList.of(C), build());
+
+    writeLibrary("public int get() { return 3; } public int added() { return 4; }");
+    assertEquals(ImmutableList.of(), build());
+  }
+
+  @Test
+  public void jarsRewrittenWithTheSameSizeAndTimeAreReadAgain() throws Exception {
+    Path libraryJar = tmp.getRoot().resolve("library.jar");
+    writeLibraryJar(libraryJar, "public int get() { return 1; } public static final int Y = 1;");
+    FileTime lastModifiedTime = Files.getLastModifiedTime(libraryJar);
+    long size = Files.size(libraryJar);
+    compilerParameters =
+        CompilerParameters.builder()
+            .from(compilerParameters)
+            .setClasspathEntries(ImmutableSortedSet.of(libraryJar))
+            .build();
+    build();
+
+    writeLibraryJar(libraryJar, "public int get() { return 1; } public static final int Y = 2;");
+    Files.setLastModifiedTime(libraryJar, lastModifiedTime);
+    assertEquals(size, Files.size(libraryJar));
+    assertEquals(ImmutableList.of(A, B, C), build());
+  }
+
+  @Test
+  public void addedSourcesRecompileEverything() throws Exception {
+    build();
+
+    Path d = Paths.get("src/com/example/D.java");
+    write(d, "package com.example; public class D {}");
+    compilerParameters =
+        CompilerParameters.builder()
+            .from(compilerParameters)
+            .setSourceFilePaths(ImmutableSortedSet.of(A, B, C, d))
+            .build();
+    assertEquals(ImmutableList.of(A, B, C, d), build());
+    assertTrue(Files.exists(getClassFile("D")));
+  }
+
+  /** @return the sources compiled by the last invocation of javac. */
+  private List<Path> build() throws Exception {
+    assertTrue(build(true).isSuccess());
+    Path sourcesList =
+        filesystem.resolve(compilerParameters.getOutputPaths().getPathToSourcesList());
+    if (!Files.exists(sourcesList)) {
+      return ImmutableList.of();
+    }
+    return Files.readAllLines(sourcesList).stream()
+        .map(Paths::get)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private StepExecutionResult build(boolean expectSuccess) throws Exception {
+    CompilerOutputPaths outputPaths = compilerParameters.getOutputPaths();
+    Path classesDir = filesystem.resolve(outputPaths.getClassesDir());
+    if (Files.exists(classesDir)) {
+      MoreFiles.deleteRecursively(classesDir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+    Files.createDirectories(classesDir);
+    Files.createDirectories(filesystem.resolve(outputPaths.getOutputJarDirPath()));
+    Files.createDirectories(filesystem.resolve(outputPaths.getWorkingDirectory()));
+    Files.createDirectories(filesystem.resolve(outputPaths.getAnnotationPath()));
+    Path sourcesList = filesystem.resolve(outputPaths.getPathToSourcesList());
+    Files.createDirectories(sourcesList.getParent());
+    Files.deleteIfExists(sourcesList);
+
+    JavacOptions javacOptions =
+        JavacOptions.builder()
+            .setLanguageLevelOptions(
+                JavacLanguageLevelOptions.builder()
+                    .setSourceLevel("8")
+                    .setTargetLevel("8")
+                    .build())
+            .setIncrementalCompilation(true)
+            .build();
+    StepExecutionResult result =
+        new IncrementalJavacStep(
+                new JdkProvidedInMemoryJavac(),
+                javacOptions,
+                target,
+                new TestActionGraphBuilder().getSourcePathResolver(),
+                filesystem,
+                compilerParameters)
+            .execute(TestExecutionContext.newInstance());
+    assertEquals(expectSuccess, result.isSuccess());
+    return result;
+  }
+
+  private void writeLibrary(String members) throws IOException {
+    Path source = tmp.getRoot().resolve("library-src/L.java");
+    Files.createDirectories(source.getParent());
+    Files.write(
+        source,
+        ("package com.library; public class L { " + members + " }").getBytes(Charsets.UTF_8));
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertEquals(
+        0,
+        compiler.run(
+            null, null, null, "-d", libraryClasses.toString(), "-g", source.toString()));
+  }
+
+  private void writeLibraryJar(Path jar, String members) throws IOException {
+    writeLibrary(members);
+    byte[] classFile = Files.readAllBytes(libraryClasses.resolve("com/library/L.class"));
+    CRC32 crc = new CRC32();
+    crc.update(classFile);
+    ZipEntry entry = new ZipEntry("com/library/L.class");
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(classFile.length);
+    entry.setCrc(crc.getValue());
+    entry.setTime(0);
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+      zip.putNextEntry(entry);
+      zip.write(classFile);
+    }
+  }
+
+  private void write(Path source, String contents) throws IOException {
+    Path path = filesystem.resolve(source);
+    Files.createDirectories(path.getParent());
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+  }
+
+  private Path getClassFile(String simpleName) {
+    return filesystem
+        .resolve(compilerParameters.getOutputPaths().getClassesDir())
+        .resolve("com/example/" + simpleName + ".class");
+  }
+
+  private byte[] readClass(String simpleName) throws IOException {
+    return Files.readAllBytes(getClassFile(simpleName));
+  }
+}
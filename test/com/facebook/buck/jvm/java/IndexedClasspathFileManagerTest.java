@@ -0,0 +1,357 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IndexedClasspathFileManagerTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final Set<JavaFileObject.Kind> ALL_KINDS =
+      EnumSet.allOf(JavaFileObject.Kind.class);
+
+  private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+  private StandardJavaFileManager javacFileManager;
+  private IndexedClasspathFileManager fileManager;
+  private Path firstJar;
+  private Path secondJar;
+
+  @Before
+  public void setUp() throws IOException {
+    firstJar =
+        writeJar(
+            "first.jar",
+            false,
+            "com/example/A.class",
+            "com/example/B.class",
+            "com/example/res.txt",
+            "com/example/sub/C.class",
+            "Top.class");
+    secondJar = writeJar("second.jar", true, "com/example/A.class", "com/example/D.class");
+
+    javacFileManager = compiler.getStandardFileManager(null, null, null);
+    javacFileManager.setLocation(
+        StandardLocation.CLASS_PATH, ImmutableList.of(firstJar.toFile(), secondJar.toFile()));
+    fileManager =
+        new IndexedClasspathFileManager(compiler.getStandardFileManager(null, null, null));
+    fileManager.setLocation(
+        StandardLocation.CLASS_PATH, ImmutableList.of(firstJar.toFile(), secondJar.toFile()));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileManager.close();
+    javacFileManager.close();
+  }
+
+  @Test
+  public void listingMatchesJavac() throws IOException {
+    for (String packageName : ImmutableList.of("", "com", "com.example", "com.example.sub")) {
+      for (boolean recurse : new boolean[] {false, true}) {
+        for (Set<JavaFileObject.Kind> kinds :
+            ImmutableList.of(ALL_KINDS, EnumSet.of(JavaFileObject.Kind.CLASS))) {
+          assertEquals(
+              packageName + (recurse ? " recursively" : ""),
+              describe(
+                  javacFileManager,
+                  javacFileManager.list(StandardLocation.CLASS_PATH, packageName, kinds, recurse)),
+              describe(
+                  fileManager,
+                  fileManager.list(StandardLocation.CLASS_PATH, packageName, kinds, recurse)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void classesAreFoundInClasspathOrder() throws IOException {
+    JavaFileObject first =
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.A", JavaFileObject.Kind.CLASS);
+    assertEquals(
+        javacFileManager
+            .getJavaFileForInput(
+                StandardLocation.CLASS_PATH, "com.example.A", JavaFileObject.Kind.CLASS)
+            .toUri(),
+        first.toUri());
+    assertArrayEquals(contents("com/example/A.class", false), read(first));
+
+    JavaFileObject stored =
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.D", JavaFileObject.Kind.CLASS);
+    assertArrayEquals(contents("com/example/D.class", true), read(stored));
+    assertEquals("com.example.D", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, stored));
+    assertTrue(stored.isNameCompatible("D", JavaFileObject.Kind.CLASS));
+
+    assertNull(
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.Missing", JavaFileObject.Kind.CLASS));
+  }
+
+  @Test
+  public void indexesAreSharedBetweenFileManagers() throws IOException {
+    JavaFileObject fromFirstManager =
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.B", JavaFileObject.Kind.CLASS);
+    try (IndexedClasspathFileManager otherManager =
+        new IndexedClasspathFileManager(compiler.getStandardFileManager(null, null, null))) {
+      otherManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(firstJar.toFile()));
+      JavaFileObject fromOtherManager =
+          otherManager.getJavaFileForInput(
+              StandardLocation.CLASS_PATH, "com.example.B", JavaFileObject.Kind.CLASS);
+      assertSame(fromFirstManager, fromOtherManager);
+      assertTrue(otherManager.isSameFile(fromFirstManager, fromOtherManager));
+    }
+
+    // Still readable while the first manager holds on to the jar.
+    assertArrayEquals(contents("com/example/B.class", false), read(fromFirstManager));
+  }
+
+  @Test
+  public void changedJarsAreIndexedAgain() throws IOException {
+    assertTrue(
+        fileManager
+            .list(StandardLocation.CLASS_PATH, "com.example", ALL_KINDS, false)
+            .iterator()
+            .hasNext());
+    fileManager.close();
+
+    writeJar("first.jar", false, "org/example/E.class");
+    Files.setLastModifiedTime(
+        firstJar,
+        FileTime.fromMillis(Files.getLastModifiedTime(firstJar).toMillis() + 2000));
+    fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(firstJar.toFile()));
+
+    assertFalse(
+        fileManager
+            .list(StandardLocation.CLASS_PATH, "com.example", ALL_KINDS, false)
+            .iterator()
+            .hasNext());
+    assertArrayEquals(
+        contents("org/example/E.class", false),
+        read(
+            fileManager.getJavaFileForInput(
+                StandardLocation.CLASS_PATH, "org.example.E", JavaFileObject.Kind.CLASS)));
+  }
+
+  @Test
+  public void jarsRewrittenWithTheSameSizeAndTimeAreIndexedAgain() throws IOException {
+    Path jar = writeJar("same.jar", true, "com/example/G.class");
+    FileTime lastModifiedTime = Files.getLastModifiedTime(jar);
+    long size = Files.size(jar);
+    fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(jar.toFile()));
+    assertArrayEquals(
+        contents("com/example/G.class", true),
+        read(
+            fileManager.getJavaFileForInput(
+                StandardLocation.CLASS_PATH, "com.example.G", JavaFileObject.Kind.CLASS)));
+    fileManager.close();
+
+    writeJar("same.jar", true, "com/example/H.class");
+    Files.setLastModifiedTime(jar, lastModifiedTime);
+    assertEquals(size, Files.size(jar));
+    fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(jar.toFile()));
+
+    assertNull(
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.G", JavaFileObject.Kind.CLASS));
+    assertArrayEquals(
+        contents("com/example/H.class", true),
+        read(
+            fileManager.getJavaFileForInput(
+                StandardLocation.CLASS_PATH, "com.example.H", JavaFileObject.Kind.CLASS)));
+  }
+
+  @Test
+  public void classpathsWithManifestClassPathsAreLeftToTheDelegate() throws IOException {
+    Path jar = tmp.getRoot().resolve("with-class-path.jar");
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest
+        .getMainAttributes()
+        .put(Attributes.Name.CLASS_PATH, secondJar.getFileName().toString());
+    try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+      output.putNextEntry(new ZipEntry("com/example/I.class"));
+      output.write(contents("com/example/I.class", false));
+    }
+    fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(jar.toFile()));
+
+    JavaFileObject fromClassPath =
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.D", JavaFileObject.Kind.CLASS);
+    assertFalse(fromClassPath instanceof ClasspathJarIndex.Entry);
+    assertArrayEquals(contents("com/example/D.class", true), read(fromClassPath));
+  }
+
+  @Test
+  public void classpathsWithDirectoriesAreLeftToTheDelegate() throws IOException {
+    Path classes = tmp.newFolder("classes");
+    Files.createDirectories(classes.resolve("com/example"));
+    Files.write(classes.resolve("com/example/F.class"), new byte[] {1, 2, 3});
+    fileManager.setLocation(
+        StandardLocation.CLASS_PATH, ImmutableList.of(classes.toFile(), firstJar.toFile()));
+
+    JavaFileObject fromDirectory =
+        fileManager.getJavaFileForInput(
+            StandardLocation.CLASS_PATH, "com.example.F", JavaFileObject.Kind.CLASS);
+    assertFalse(fromDirectory instanceof ClasspathJarIndex.Entry);
+    assertEquals(
+        "com.example.F", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, fromDirectory));
+  }
+
+  @Test
+  public void compilesAgainstIndexedJars() throws IOException {
+    Path libraryJar = tmp.getRoot().resolve("library.jar");
+    Path libraryClasses = tmp.newFolder("library-classes");
+    Path librarySource = tmp.newFolder("library-src").resolve("Library.java");
+    Files.write(
+        librarySource,
+        "package com.library; public class Library { public static int get() { return 1; } }"
+            .getBytes(Charsets.UTF_8));
+    assertTrue(compile(javacFileManager, libraryClasses, librarySource));
+    byte[] libraryClass =
+        Files.readAllBytes(libraryClasses.resolve("com/library/Library.class"));
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(libraryJar))) {
+      zip.putNextEntry(new ZipEntry("com/library/Library.class"));
+      zip.write(libraryClass);
+    }
+
+    Path userSource = tmp.newFolder("user-src").resolve("User.java");
+    Files.write(
+        userSource,
+        "package com.user; public class User { int i = com.library.Library.get(); }"
+            .getBytes(Charsets.UTF_8));
+    fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(libraryJar.toFile()));
+    Path userClasses = tmp.newFolder("user-classes");
+
+    assertTrue(compile(fileManager, userClasses, userSource));
+    assertTrue(Files.exists(userClasses.resolve("com/user/User.class")));
+  }
+
+  private boolean compile(StandardJavaFileManager manager, Path output, Path source)
+      throws IOException {
+    manager.setLocation(StandardLocation.CLASS_OUTPUT, ImmutableList.of(output.toFile()));
+    return compiler
+        .getTask(
+            null,
+            manager,
+            null,
+            ImmutableList.of("-sourcepath", ""),
+            null,
+            manager.getJavaFileObjects(source.toFile()))
+        .call();
+  }
+
+  private Path writeJar(String name, boolean stored, String... entries) throws IOException {
+    Path jar = tmp.getRoot().resolve(name);
+    try (OutputStream output = Files.newOutputStream(jar);
+        ZipOutputStream zip = new ZipOutputStream(output)) {
+      Set<String> directories = new HashSet<>();
+      for (String entryName : entries) {
+        String directory = entryName.substring(0, entryName.lastIndexOf('/') + 1);
+        if (!stored && !directory.isEmpty() && directories.add(directory)) {
+          // Directory entries are not files.
+          zip.putNextEntry(new ZipEntry(directory));
+          zip.closeEntry();
+        }
+        byte[] data = contents(entryName, stored);
+        ZipEntry entry = new ZipEntry(entryName);
+        if (stored) {
+          CRC32 crc = new CRC32();
+          crc.update(data);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(data.length);
+          entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static byte[] contents(String entryName, boolean stored) {
+    return (entryName + (stored ? " stored" : " deflated")).getBytes(Charsets.UTF_8);
+  }
+
+  private static byte[] read(JavaFileObject file) throws IOException {
+    try (InputStream input = file.openInputStream()) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  /** Describes a listing by binary name, kind, uri and contents. */
+  private static List<String> describe(
+      StandardJavaFileManager manager, Iterable<JavaFileObject> files) throws IOException {
+    List<String> result = new ArrayList<>();
+    for (JavaFileObject file : files) {
+      String binaryName =
+          file.getKind() == JavaFileObject.Kind.OTHER
+              ? file.getName()
+              : manager.inferBinaryName(StandardLocation.CLASS_PATH, file);
+      result.add(
+          String.format(
+              "%s %s %s %s",
+              binaryName,
+              file.getKind(),
+              file.toUri(),
+              new String(read(file), Charsets.UTF_8)));
+    }
+    // The order of subpackages in recursive listings is unspecified.
+    Collections.sort(result);
+    return result;
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.jvm.java;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.util.zip.CustomZipEntry;
@@ -24,6 +25,7 @@ import com.facebook.buck.util.zip.JarEntryContainer;
 import com.facebook.buck.util.zip.JarEntrySupplier;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -31,7 +33,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -170,6 +174,30 @@ public class JarBuilderTest {
     }
   }
 
+  @Test
+  public void testEntryListenerSeesEveryFileOfTheJar() throws IOException {
+    File tempFile = temporaryFolder.newFile();
+    Map<String, byte[]> seen = new LinkedHashMap<>();
+    JarBuilder jarBuilder = new JarBuilder().setEntryListener(seen::put);
+    addEntry(jarBuilder, "foo/1.txt", "1");
+    addEntry(jarBuilder, "foo/bar/2.txt", "2");
+    addEntry(jarBuilder, "META-INF/services/com.example.Foo", "com.example.Bar");
+    jarBuilder.createJarFile(tempFile.toPath());
+
+    try (JarFile jarFile = new JarFile(tempFile)) {
+      List<JarEntry> files =
+          jarFile.stream().filter(entry -> !entry.isDirectory()).collect(Collectors.toList());
+      assertEquals(
+          files.stream().map(JarEntry::getName).collect(Collectors.toSet()), seen.keySet());
+      for (JarEntry file : files) {
+        assertArrayEquals(
+            file.getName(),
+            ByteStreams.toByteArray(jarFile.getInputStream(file)),
+            seen.get(file.getName()));
+      }
+    }
+  }
+
   private void addEntry(JarBuilder builder, String name, String contents) {
     builder.addEntry(
         new JarEntrySupplier(
@@ -125,7 +125,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getWorkerProcessPools(),
+            executionContext.isParallelJarCompressionEnabled());
 
     int exitCode =
         javac
@@ -180,7 +182,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getWorkerProcessPools(),
+            executionContext.isParallelJarCompressionEnabled());
 
     int exitCode =
         javac
@@ -283,7 +287,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getWorkerProcessPools(),
+            executionContext.isParallelJarCompressionEnabled());
 
     boolean caught = false;
 
@@ -376,7 +382,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getWorkerProcessPools(),
+            executionContext.isParallelJarCompressionEnabled());
 
     Invocation buildInvocation =
         javac.newBuildInvocation(
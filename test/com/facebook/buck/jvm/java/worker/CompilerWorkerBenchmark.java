@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.util.Console;
+import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.caliper.api.SkipThisScenarioException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the latency of compiling one library with javac:
+ *
+ * <ul>
+ *   <li>in a new JVM, like {@link com.facebook.buck.jvm.java.ExternalJavac} does;
+ *   <li>in Buck's JVM, with javac loaded again, like after its class loader was recycled;
+ *   <li>in Buck's JVM, with a warm javac;
+ *   <li>in a warm compiler worker.
+ * </ul>
+ */
+public class CompilerWorkerBenchmark {
+  @Param({"50"})
+  private int sourceCount = 10;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ProcessExecutor processExecutor;
+  private ImmutableList<String> options;
+  private ImmutableList<String> sources;
+  private final ConcurrentMap<String, WorkerProcessPool> pools = new ConcurrentHashMap<>();
+
+  @Before
+  @BeforeExperiment
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("compiler-worker-benchmark").toRealPath();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    processExecutor = new DefaultProcessExecutor(Console.createNullConsole());
+    Path classes = Files.createDirectories(root.resolve("classes"));
+    options = ImmutableList.of("-g", "-d", classes.toString(), "-cp", classes.toString());
+
+    ImmutableList.Builder<String> sources = ImmutableList.builder();
+    for (int i = 0; i < sourceCount; i++) {
+      Path source = root.resolve("com/example/C" + i + ".java");
+      Files.createDirectories(source.getParent());
+      String previous = i == 0 ? "Object" : "C" + (i - 1);
+      Files.write(
+          source,
+          ("package com.example;\n"
+                  + "import java.util.*;\n"
+                  + "public class C"
+                  + i
+                  + " {\n"
+                  + "  private final Map<String, List<"
+                  + previous
+                  + ">> values = new HashMap<>();\n"
+                  + "  public int count(String key) {\n"
+                  + "    return values.getOrDefault(key, Collections.emptyList()).stream()\n"
+                  + "        .mapToInt(value -> value.hashCode() % 7).sum();\n"
+                  + "  }\n"
+                  + "}\n")
+              .getBytes(Charsets.UTF_8));
+      sources.add(source.toString());
+    }
+    this.sources = sources.build();
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws IOException {
+    pools.values().forEach(WorkerProcessPool::close);
+    pools.clear();
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Test
+  public void everyCompilerCompilesTheLibrary() throws Exception {
+    assertEquals(0, externalJavac());
+    if (getJavacJar() != null) {
+      assertEquals(0, inProcessJavacLoadedAgain());
+    }
+    assertEquals(0, inProcessJavac());
+    assertEquals(0, workerJavac());
+    assertEquals(0, workerJavac());
+  }
+
+  @Macrobenchmark
+  public int externalJavac() throws Exception {
+    Path javaHome = Paths.get(System.getProperty("java.home"));
+    if (javaHome.endsWith("jre")) {
+      javaHome = javaHome.getParent();
+    }
+    Path argsFile = root.resolve("javac.args");
+    Files.write(argsFile, Iterables.concat(options, sources), Charsets.UTF_8);
+    return processExecutor
+        .launchAndExecute(
+            ProcessExecutorParams.builder()
+                .setCommand(
+                    ImmutableList.of(
+                        javaHome.resolve("bin/javac").toString(), "@" + argsFile.toString()))
+                .setDirectory(root)
+                .build())
+        .getExitCode();
+  }
+
+  @Macrobenchmark
+  public int inProcessJavacLoadedAgain() throws Exception {
+    URL javacJar = getJavacJar();
+    if (javacJar == null) {
+      throw new SkipThisScenarioException();
+    }
+    try (URLClassLoader classLoader = new URLClassLoader(new URL[] {javacJar}, null)) {
+      JavaCompiler compiler =
+          (JavaCompiler)
+              classLoader.loadClass("com.sun.tools.javac.api.JavacTool").newInstance();
+      return runInProcess(compiler);
+    }
+  }
+
+  @Macrobenchmark
+  public int inProcessJavac() {
+    return runInProcess(ToolProvider.getSystemJavaCompiler());
+  }
+
+  @Macrobenchmark
+  public int workerJavac() throws Exception {
+    return CompilerWorkers.compile(
+        pools,
+        processExecutor,
+        filesystem,
+        ImmutableMap.copyOf(System.getenv()),
+        ImmutableList.of(CompilerWorkers.JAVAC),
+        1,
+        options,
+        sources,
+        new PrintStream(ByteStreams.nullOutputStream()));
+  }
+
+  private int runInProcess(JavaCompiler compiler) {
+    return compiler.run(
+        null,
+        ByteStreams.nullOutputStream(),
+        ByteStreams.nullOutputStream(),
+        Iterables.toArray(Iterables.concat(options, sources), String.class));
+  }
+
+  /** @return the jar javac is loaded from, which only exists before Java 9. */
+  @Nullable
+  private static URL getJavacJar() {
+    CodeSource codeSource =
+        ToolProvider.getSystemJavaCompiler().getClass().getProtectionDomain().getCodeSource();
+    return codeSource == null ? null : codeSource.getLocation();
+  }
+}
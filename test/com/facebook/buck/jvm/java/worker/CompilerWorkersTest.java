@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.Console;
+import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CompilerWorkersTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ProcessExecutor processExecutor;
+  private ImmutableMap<String, String> environment;
+  private final ConcurrentMap<String, WorkerProcessPool> pools = new ConcurrentHashMap<>();
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    processExecutor = new DefaultProcessExecutor(Console.createNullConsole());
+    environment = ImmutableMap.copyOf(System.getenv());
+  }
+
+  @After
+  public void tearDown() {
+    pools.values().forEach(WorkerProcessPool::close);
+  }
+
+  @Test
+  public void compilesOneJobAfterTheOtherInTheSameWorker() throws Exception {
+    write("A.java", "public class A {}");
+    write("B.java", "public class B { A a; }");
+
+    assertEquals(0, compile("A.java"));
+    assertTrue(Files.exists(tmp.getRoot().resolve("classes/A.class")));
+    assertEquals(0, compile("B.java"));
+    assertTrue(Files.exists(tmp.getRoot().resolve("classes/B.class")));
+  }
+
+  @Test
+  public void reportsCompileErrors() throws Exception {
+    write("Broken.java", "public class Broken { int x = \"not an int\"; }");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertNotEquals(0, compile(output, "Broken.java"));
+    assertThat(output.toString("UTF-8"), containsString("Broken.java:1: error"));
+  }
+
+  @Test
+  public void poolsAreReusedByBuildsWithAnotherBuildId() throws Exception {
+    write("A.java", "public class A {}");
+    environment = withVariable("BUCK_BUILD_ID", "first-build");
+    assertEquals(0, compile("A.java"));
+    WorkerProcessPool pool = Iterables.getOnlyElement(pools.values());
+
+    environment = withVariable("BUCK_BUILD_ID", "second-build");
+    assertEquals(0, compile("A.java"));
+    assertSame(pool, Iterables.getOnlyElement(pools.values()));
+  }
+
+  @Test
+  public void poolsStartedWithAnotherEnvironmentAreReplaced() throws Exception {
+    write("A.java", "public class A {}");
+    assertEquals(0, compile("A.java"));
+    WorkerProcessPool pool = Iterables.getOnlyElement(pools.values());
+    Path logDir = filesystem.resolve(filesystem.getBuckPaths().getLogDir()).resolve("workers");
+    assertEquals(1, countFiles(logDir));
+
+    environment = withVariable("LC_ALL", "C");
+    assertEquals(0, compile("A.java"));
+    assertNotSame(pool, Iterables.getOnlyElement(pools.values()));
+    // The worker of the replaced pool was closed, and its log deleted.
+    assertEquals(1, countFiles(logDir));
+
+    WorkerProcessPool replacement = Iterables.getOnlyElement(pools.values());
+    pools.clear();
+    replacement.close();
+    assertEquals(0, countFiles(logDir));
+  }
+
+  private static ImmutableMap<String, String> withVariable(String name, String value) {
+    Map<String, String> environment = new HashMap<>(System.getenv());
+    environment.put(name, value);
+    return ImmutableMap.copyOf(environment);
+  }
+
+  private static long countFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+
+  private int compile(String source) throws IOException, InterruptedException {
+    return compile(new ByteArrayOutputStream(), source);
+  }
+
+  private int compile(ByteArrayOutputStream output, String source)
+      throws IOException, InterruptedException {
+    Files.createDirectories(tmp.getRoot().resolve("classes"));
+    return CompilerWorkers.compile(
+        pools,
+        processExecutor,
+        filesystem,
+        environment,
+        ImmutableList.of(CompilerWorkers.JAVAC),
+        1,
+        ImmutableList.of("-d", "classes", "-cp", "classes"),
+        ImmutableList.of(source),
+        new PrintStream(output, true, "UTF-8"));
+  }
+
+  private void write(String name, String contents) throws IOException {
+    Path path = tmp.getRoot().resolve(name);
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JavacWorkerCompilerTest {
+  private static final String PROCESSOR_PROPERTY = "buck.JavacWorkerCompilerTest.processor";
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path processorPath;
+  private Path source;
+
+  @Before
+  public void setUp() throws IOException {
+    // Records the identity of its class, which changes when the class is loaded again.
+    processorPath = tmp.newFolder("processor");
+    Path processorSource = tmp.getRoot().resolve("RecordingProcessor.java");
+    write(
+        processorSource,
+        "import java.util.Set;"
+            + "import javax.annotation.processing.*;"
+            + "import javax.lang.model.element.TypeElement;"
+            + "import javax.lang.model.SourceVersion;"
+            + "@SupportedAnnotationTypes(\"*\")"
+            + "@SupportedSourceVersion(SourceVersion.RELEASE_8)"
+            + "public class RecordingProcessor extends AbstractProcessor {"
+            + "  public boolean process(Set<? extends TypeElement> a, RoundEnvironment r) {"
+            + "    System.setProperty(\""
+            + PROCESSOR_PROPERTY
+            + "\", String.valueOf(System.identityHashCode(getClass())));"
+            + "    return false;"
+            + "  }"
+            + "}");
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler()
+            .run(null, null, null, "-d", processorPath.toString(), processorSource.toString()));
+
+    source = tmp.getRoot().resolve("A.java");
+    write(source, "public class A {}");
+    System.clearProperty(PROCESSOR_PROPERTY);
+  }
+
+  @Test
+  public void annotationProcessorsAreLoadedOnce() throws Exception {
+    JavacWorkerCompiler compiler = new JavacWorkerCompiler();
+
+    assertEquals(0, compile(compiler));
+    String firstProcessorClass = System.getProperty(PROCESSOR_PROPERTY);
+    assertNotNull(firstProcessorClass);
+
+    assertEquals(0, compile(compiler));
+    assertEquals(firstProcessorClass, System.getProperty(PROCESSOR_PROPERTY));
+  }
+
+  @Test
+  public void changedAnnotationProcessorsAreLoadedAgain() throws Exception {
+    JavacWorkerCompiler compiler = new JavacWorkerCompiler();
+
+    assertEquals(0, compile(compiler));
+    String firstProcessorClass = System.getProperty(PROCESSOR_PROPERTY);
+
+    // Rebuilding the processor changes the modification time of its jar, or here, directory.
+    Files.setLastModifiedTime(
+        processorPath,
+        FileTime.fromMillis(Files.getLastModifiedTime(processorPath).toMillis() + 10000));
+    assertEquals(0, compile(compiler));
+    assertNotEquals(firstProcessorClass, System.getProperty(PROCESSOR_PROPERTY));
+  }
+
+  private int compile(JavacWorkerCompiler compiler) throws IOException {
+    Path classes = tmp.getRoot().resolve("classes");
+    Files.createDirectories(classes);
+    return compiler.compile(
+        ImmutableList.of(
+            "-d",
+            classes.toString(),
+            "-processorpath",
+            processorPath.toString(),
+            "-processor",
+            "RecordingProcessor"),
+        ImmutableList.of(source.toString()),
+        System.out,
+        new PrintStream(System.err, true, "UTF-8"));
+  }
+
+  private static void write(Path path, String contents) throws IOException {
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+  }
+}
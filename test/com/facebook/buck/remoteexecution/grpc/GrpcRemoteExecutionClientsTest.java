@@ -208,6 +208,63 @@ public class GrpcRemoteExecutionClientsTest {
     assertEquals(ImmutableMap.of(out1, data1, out2, data2), getDirectoryContents(workDir));
   }
 
+  @Test
+  public void testStorageOfFiles() throws Exception {
+    Protocol protocol = new GrpcProtocol();
+    Path root = temporaryPaths.getRoot();
+    Path cacheDir = root.resolve("cache");
+    Files.createDirectories(cacheDir);
+    Path workDir = root.resolve("work");
+    Files.createDirectories(workDir);
+    Path inputDir = root.resolve("input");
+    Files.createDirectories(inputDir);
+    LocalContentAddressedStorage storage =
+        new LocalContentAddressedStorage(
+            cacheDir, new GrpcProtocol(), BuckEventBusForTests.newInstance());
+    services.add(new LocalBackedCasServer(storage));
+    services.add(new LocalBackedByteStreamServer(storage));
+
+    setupServer();
+
+    // Small enough to be uploaded in a batch.
+    String small = "small";
+    Path smallPath = inputDir.resolve("small");
+    Files.write(smallPath, small.getBytes(Charsets.UTF_8));
+    Digest smallDigest = protocol.computeDigest(small.getBytes(Charsets.UTF_8));
+
+    // Larger than the batch size limit, so it is uploaded as a stream, in several chunks.
+    StringBuilder largeBuilder = new StringBuilder();
+    for (int i = 0; largeBuilder.length() < 11 * 1024 * 1024; i++) {
+      largeBuilder.append(i).append('\n');
+    }
+    String large = largeBuilder.toString();
+    Path largePath = inputDir.resolve("large");
+    Files.write(largePath, large.getBytes(Charsets.UTF_8));
+    Digest largeDigest = protocol.computeDigest(large.getBytes(Charsets.UTF_8));
+
+    clients
+        .getContentAddressedStorage()
+        .addMissing(
+            ImmutableList.of(
+                UploadDataSupplier.ofFile("small", smallDigest, smallPath),
+                UploadDataSupplier.ofFile("large", largeDigest, largePath)))
+        .get();
+
+    Path out1 = Paths.get("out1");
+    Path out2 = Paths.get("out2");
+    clients
+        .getContentAddressedStorage()
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(
+                protocol.newOutputFile(out1, smallDigest, false),
+                protocol.newOutputFile(out2, largeDigest, false)),
+            new FilesystemFileMaterializer(workDir))
+        .get();
+
+    assertEquals(ImmutableMap.of(out1, small, out2, large), getDirectoryContents(workDir));
+  }
+
   private ImmutableMap<Path, String> getDirectoryContents(Path workDir) throws IOException {
     Builder<Path, String> contentsBuilder = ImmutableMap.builder();
     try (Stream<Path> stream = Files.list(workDir)) {
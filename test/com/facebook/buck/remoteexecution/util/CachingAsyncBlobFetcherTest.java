@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.remoteexecution.AsyncBlobFetcher;
+import com.facebook.buck.remoteexecution.event.CasBlobDownloadEvent;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CachingAsyncBlobFetcherTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+  private final byte[] data = "some data".getBytes(Charsets.UTF_8);
+  private final Digest digest = protocol.computeDigest(data);
+
+  private final List<Digest> remoteFetches = new ArrayList<>();
+  private final List<CasBlobDownloadEvent.LocalCacheHit> cacheHits = new ArrayList<>();
+
+  private BuckEventBus eventBus;
+  private LocalCasCache cache;
+  private CachingAsyncBlobFetcher fetcher;
+
+  @Before
+  public void setUp() throws IOException {
+    eventBus = BuckEventBusForTests.newInstance();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void onCacheHit(CasBlobDownloadEvent.LocalCacheHit event) {
+            cacheHits.add(event);
+          }
+        });
+    cache = new LocalCasCache(tmp.newFolder("cache"), 1024, protocol);
+    fetcher =
+        new CachingAsyncBlobFetcher(
+            new RemoteFetcher(ImmutableMap.of(digest, data)), cache, eventBus);
+  }
+
+  @Test
+  public void fetchedBlobsAreServedFromTheCache() throws Exception {
+    assertArrayEquals(data, toArray(fetcher.fetch(digest).get()));
+    assertTrue(cache.get(digest).isPresent());
+    assertArrayEquals(data, toArray(fetcher.fetch(digest).get()));
+
+    assertEquals(ImmutableList.of(digest), remoteFetches);
+    assertEquals(1, cacheHits.size());
+    assertEquals(data.length, cacheHits.get(0).getSizeBytes());
+  }
+
+  @Test
+  public void streamedBlobsAreServedFromTheCache() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      try (WritableByteChannel channel = Channels.newChannel(output)) {
+        fetcher.fetchToStream(digest, channel).get();
+      }
+      assertArrayEquals(data, output.toByteArray());
+    }
+
+    assertEquals(ImmutableList.of(digest), remoteFetches);
+    assertEquals(1, cacheHits.size());
+  }
+
+  @Test
+  public void batchFetchedBlobsAreServedFromTheCache() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream first = new ByteArrayOutputStream();
+      ByteArrayOutputStream second = new ByteArrayOutputStream();
+      SettableFuture<Unit> firstFuture = SettableFuture.create();
+      SettableFuture<Unit> secondFuture = SettableFuture.create();
+      fetcher
+          .batchFetchBlobs(
+              ImmutableMultimap.of(
+                  digest,
+                  () -> Channels.newChannel(first),
+                  digest,
+                  () -> Channels.newChannel(second)),
+              ImmutableMultimap.of(digest, firstFuture, digest, secondFuture))
+          .get();
+      firstFuture.get();
+      secondFuture.get();
+      assertArrayEquals(data, first.toByteArray());
+      assertArrayEquals(data, second.toByteArray());
+    }
+
+    assertEquals(ImmutableList.of(digest), remoteFetches);
+    assertEquals(1, cacheHits.size());
+  }
+
+  @Test
+  public void cachedFilesAreCopiedIntoTheOutputs() throws Exception {
+    cache.put(digest, ByteBuffer.wrap(data));
+    OutputsMaterializer materializer =
+        new OutputsMaterializer(
+            1024,
+            MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor()),
+            fetcher,
+            protocol,
+            eventBus,
+            Optional.of(cache));
+    OutputFile regular = protocol.newOutputFile(Paths.get("out/regular"), digest, false);
+    OutputFile executable = protocol.newOutputFile(Paths.get("out/executable"), digest, true);
+    Path root = tmp.newFolder("root");
+
+    materializer
+        .materialize(
+            ImmutableList.of(),
+            ImmutableList.of(regular, executable),
+            new FilesystemFileMaterializer(root))
+        .get();
+
+    Path regularPath = root.resolve("out/regular");
+    Path executablePath = root.resolve("out/executable");
+    Path cachedPath = cache.get(digest).get();
+    assertArrayEquals(data, Files.readAllBytes(regularPath));
+    assertArrayEquals(data, Files.readAllBytes(executablePath));
+    assertFalse(Files.isSameFile(cachedPath, regularPath));
+    assertFalse(Files.isSameFile(cachedPath, executablePath));
+    assertTrue(Files.isExecutable(executablePath));
+    assertFalse(Files.isExecutable(cachedPath));
+    assertEquals(ImmutableList.of(), remoteFetches);
+    assertEquals(2, cacheHits.stream().mapToInt(hit -> hit.getBlobCount()).sum());
+
+    // Rules may modify their outputs in place, which must leave the cached blob alone.
+    Files.write(regularPath, new byte[] {0});
+    assertArrayEquals(data, Files.readAllBytes(cachedPath));
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /** Serves blobs from a map, and records the digests it was asked for. */
+  private class RemoteFetcher implements AsyncBlobFetcher {
+    private final Map<Digest, byte[]> blobs;
+
+    RemoteFetcher(Map<Digest, byte[]> blobs) {
+      this.blobs = blobs;
+    }
+
+    @Override
+    public ListenableFuture<ByteBuffer> fetch(Digest digest) {
+      remoteFetches.add(digest);
+      return Futures.immediateFuture(ByteBuffer.wrap(blobs.get(digest)));
+    }
+
+    @Override
+    public ListenableFuture<Unit> fetchToStream(Digest digest, WritableByteChannel channel) {
+      remoteFetches.add(digest);
+      try {
+        channel.write(ByteBuffer.wrap(blobs.get(digest)));
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<Unit> batchFetchBlobs(
+        ImmutableMultimap<Digest, Callable<WritableByteChannel>> requests,
+        ImmutableMultimap<Digest, SettableFuture<Unit>> futures) {
+      for (Digest digest : requests.keySet()) {
+        remoteFetches.add(digest);
+        for (Callable<WritableByteChannel> callable : requests.get(digest)) {
+          try (WritableByteChannel channel = callable.call()) {
+            channel.write(ByteBuffer.wrap(blobs.get(digest)));
+          } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+          }
+        }
+        futures.get(digest).forEach(future -> future.set(null));
+      }
+      return Futures.immediateFuture(null);
+    }
+  }
+}
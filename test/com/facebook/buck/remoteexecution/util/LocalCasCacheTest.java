@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalCasCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+
+  @Test
+  public void blobsAreCachedAcrossInstances() throws IOException {
+    byte[] data = "some data".getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+
+    LocalCasCache cache = new LocalCasCache(tmp.getRoot(), 1024, protocol);
+    assertFalse(cache.get(digest).isPresent());
+    cache.put(digest, ByteBuffer.wrap(data));
+
+    Path path = cache.get(digest).get();
+    assertArrayEquals(data, Files.readAllBytes(path));
+    assertFalse(Files.getPosixFilePermissions(path).contains(PosixFilePermission.OWNER_WRITE));
+
+    LocalCasCache reloaded = new LocalCasCache(tmp.getRoot(), 1024, protocol);
+    assertEquals(path, reloaded.get(digest).get());
+    assertEquals(data.length, reloaded.getSizeBytes());
+  }
+
+  @Test
+  public void incompleteOrCorruptBlobsAreNotCached() throws IOException {
+    byte[] data = "some data".getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    LocalCasCache cache = new LocalCasCache(tmp.getRoot(), 1024, protocol);
+
+    try (WritableByteChannel writer = cache.newWriter(digest)) {
+      writer.write(ByteBuffer.wrap(data, 0, 4));
+    }
+    assertFalse(cache.get(digest).isPresent());
+
+    cache.put(digest, ByteBuffer.wrap("some dat@".getBytes(Charsets.UTF_8)));
+    assertFalse(cache.get(digest).isPresent());
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void leastRecentlyUsedBlobsAreEvicted() throws IOException {
+    // Blobs larger than a tenth of the cache are not cached.
+    LocalCasCache cache = new LocalCasCache(tmp.getRoot(), 100, protocol);
+    List<Digest> digests = new ArrayList<>();
+    for (char c = 'a'; c < 'k'; c++) {
+      digests.add(put(cache, Strings.repeat(String.valueOf(c), 10)));
+    }
+    assertEquals(100, cache.getSizeBytes());
+    assertTrue(cache.get(digests.get(0)).isPresent());
+
+    Digest last = put(cache, Strings.repeat("k", 10));
+    assertTrue(cache.get(last).isPresent());
+    assertTrue(cache.get(digests.get(0)).isPresent());
+    assertFalse(cache.get(digests.get(1)).isPresent());
+    assertTrue(cache.get(digests.get(2)).isPresent());
+    assertEquals(100, cache.getSizeBytes());
+  }
+
+  @Test
+  public void largeBlobsAreNotCached() {
+    LocalCasCache cache = new LocalCasCache(tmp.getRoot(), 100, protocol);
+    assertFalse(cache.get(put(cache, Strings.repeat("a", 11))).isPresent());
+  }
+
+  @Test
+  public void blobsDeletedBehindTheCachesBackAreMisses() throws IOException {
+    LocalCasCache cache = new LocalCasCache(tmp.getRoot(), 1024, protocol);
+    Digest digest = put(cache, "some data");
+    Files.delete(cache.get(digest).get());
+
+    assertFalse(cache.get(digest).isPresent());
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  private Digest put(LocalCasCache cache, String contents) {
+    byte[] data = contents.getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    cache.put(digest, ByteBuffer.wrap(data));
+    return digest;
+  }
+}
@@ -302,6 +302,46 @@ public class MerkleTreeNodeCacheTest {
     assertEquals(30, nodeCache.getData(combinedNode).getTotalSize());
   }
 
+  @Test
+  public void statsCountBuiltAndReusedNodes() {
+    MerkleTreeNodeCache nodeCache = new MerkleTreeNodeCache(protocol);
+    MerkleTreeNodeCache.Stats start = nodeCache.getStats();
+
+    MerkleTreeNode first =
+        nodeCache.createNode(createFiles(), ImmutableMap.of(), ImmutableMap.of());
+    MerkleTreeNode second =
+        nodeCache.createNode(createFiles(), ImmutableMap.of(), ImmutableMap.of());
+
+    assertSame(first, second);
+    MerkleTreeNodeCache.Stats stats = nodeCache.getStats().since(start);
+    // The root and the "dir" node, once each way.
+    assertEquals(2, stats.getNodesBuilt());
+    assertEquals(2, stats.getNodesReused());
+  }
+
+  @Test
+  public void reusedNodesAreRetained() {
+    MerkleTreeNodeCache nodeCache = new MerkleTreeNodeCache(protocol, 10);
+    nodeCache.createNode(createFiles(), ImmutableMap.of(), ImmutableMap.of());
+    nodeCache.createNode(createFiles(), ImmutableMap.of(), ImmutableMap.of());
+
+    // Nothing else references the nodes anymore, they must still be found.
+    System.gc();
+    MerkleTreeNodeCache.Stats start = nodeCache.getStats();
+    nodeCache.createNode(createFiles(), ImmutableMap.of(), ImmutableMap.of());
+
+    MerkleTreeNodeCache.Stats stats = nodeCache.getStats().since(start);
+    assertEquals(0, stats.getNodesBuilt());
+    assertEquals(2, stats.getNodesReused());
+  }
+
+  private ImmutableMap<Path, FileNode> createFiles() {
+    return ImmutableMap.of(
+        Paths.get("dir/file"),
+        protocol.newFileNode(
+            protocol.computeDigest("contents".getBytes(Charsets.UTF_8)), "file", false));
+  }
+
   @Test
   public void badFileNodeNameIsRejected() {
     expected.expect(IllegalStateException.class);
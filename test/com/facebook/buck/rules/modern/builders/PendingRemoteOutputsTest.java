@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PendingRemoteOutputsTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+  private final BuildTarget target = BuildTargetFactory.newInstance("//some:target");
+  private final BuildTarget otherTarget = BuildTargetFactory.newInstance("//some:other");
+
+  private final byte[] data = "data".getBytes(Charsets.UTF_8);
+  private final OutputFile file =
+      protocol.newOutputFile(Paths.get("out/dir/file"), protocol.computeDigest(data), true);
+  private final OutputFile otherFile =
+      protocol.newOutputFile(Paths.get("out/dir.other"), protocol.computeDigest(data), false);
+
+  @Test
+  public void filesAreFoundAtOrUnderTheirDirectories() {
+    PendingRemoteOutputs pendingOutputs = new PendingRemoteOutputs(new FakeStorage());
+    pendingOutputs.add(target, ImmutableList.of(file));
+    pendingOutputs.add(otherTarget, ImmutableList.of(otherFile));
+
+    assertEquals(file, pendingOutputs.getFile(Paths.get("out/dir/file")).get());
+    assertFalse(pendingOutputs.getFile(Paths.get("out/dir")).isPresent());
+
+    assertEquals(
+        ImmutableMap.of(Paths.get("out/dir/file"), file),
+        pendingOutputs.getFilesAtOrUnder(Paths.get("out/dir")));
+    assertEquals(
+        ImmutableMap.of(Paths.get("out/dir/file"), file),
+        pendingOutputs.getFilesAtOrUnder(Paths.get("out/dir/file")));
+    assertEquals(
+        ImmutableMap.of(Paths.get("out/dir/file"), file, Paths.get("out/dir.other"), otherFile),
+        pendingOutputs.getFilesAtOrUnder(Paths.get("out")));
+    assertEquals(ImmutableMap.of(), pendingOutputs.getFilesAtOrUnder(Paths.get("out/di")));
+  }
+
+  @Test
+  public void materializedFilesAreNoLongerPending() throws Exception {
+    FakeStorage storage = new FakeStorage();
+    PendingRemoteOutputs pendingOutputs = new PendingRemoteOutputs(storage);
+    pendingOutputs.add(target, ImmutableList.of(file));
+    pendingOutputs.add(otherTarget, ImmutableList.of(otherFile));
+
+    FilesystemFileMaterializer materializer = new FilesystemFileMaterializer(tmp.getRoot());
+    pendingOutputs.materialize(ImmutableList.of(target), materializer).get();
+    // materializing again, or materializing a rule without pending outputs, is a no-op
+    pendingOutputs
+        .materialize(
+            ImmutableList.of(target, BuildTargetFactory.newInstance("//some:built_locally")),
+            materializer)
+        .get();
+
+    Path path = tmp.getRoot().resolve("out/dir/file");
+    assertArrayEquals(data, Files.readAllBytes(path));
+    assertTrue(Files.isExecutable(path));
+    assertFalse(Files.exists(tmp.getRoot().resolve("out/dir.other")));
+    assertEquals(ImmutableSet.of(file.getPath()), storage.materializedPaths.keySet());
+
+    assertFalse(pendingOutputs.getFile(Paths.get("out/dir/file")).isPresent());
+    assertEquals(
+        ImmutableMap.of(Paths.get("out/dir.other"), otherFile),
+        pendingOutputs.getFilesAtOrUnder(Paths.get("out")));
+  }
+
+  /** Serves every digest with {@link #data}. */
+  private class FakeStorage implements ContentAddressedStorageClient {
+    private final Map<String, Integer> materializedPaths = new HashMap<>();
+
+    @Override
+    public ListenableFuture<Unit> addMissing(Collection<UploadDataSupplier> data) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<Unit> materializeOutputs(
+        List<OutputDirectory> outputDirectories,
+        List<OutputFile> outputFiles,
+        FileMaterializer materializer)
+        throws IOException {
+      for (OutputFile outputFile : outputFiles) {
+        materializedPaths.merge(outputFile.getPath(), 1, Integer::sum);
+        Path path = Paths.get(outputFile.getPath());
+        materializer.makeDirectories(path.getParent());
+        try (WritableByteChannel channel =
+            materializer.getOutputChannel(path, outputFile.getIsExecutable())) {
+          channel.write(ByteBuffer.wrap(data));
+        }
+      }
+      return Futures.immediateFuture(Unit.UNIT);
+    }
+
+    @Override
+    public boolean containsDigest(Digest digest) {
+      return true;
+    }
+
+    @Override
+    public ListenableFuture<ByteBuffer> fetch(Digest digest) {
+      return Futures.immediateFuture(ByteBuffer.wrap(data));
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.facebook.buck.rules.modern.builders;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -45,6 +46,7 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.NoOpModernBuildRule;
 import com.facebook.buck.testutil.TemporaryPaths;
@@ -65,6 +67,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -85,6 +88,7 @@ public class RemoteExecutionStrategyTest {
   private RemoteExecutionClients clients;
   private ListeningExecutorService service;
   private RemoteExecutionStrategy strategy;
+  private BuildTarget target;
 
   @After
   public void tearDown() throws Exception {
@@ -94,9 +98,14 @@ public class RemoteExecutionStrategyTest {
   }
 
   public StrategyBuildResult beginBuild() {
+    return beginBuild(false);
+  }
+
+  public StrategyBuildResult beginBuild(boolean lazyOutputMaterialization) {
     this.service = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
 
-    RemoteExecutionStrategyConfig strategyConfig = new TestRemoteExecutionConfig();
+    RemoteExecutionStrategyConfig strategyConfig =
+        new TestRemoteExecutionConfig(lazyOutputMaterialization);
 
     RemoteExecutionActionInfo actionInfo =
         RemoteExecutionActionInfo.of(
@@ -128,6 +137,11 @@ public class RemoteExecutionStrategyTest {
           public Path getCellPathPrefix() {
             return cellPathPrefix;
           }
+
+          @Override
+          public MerkleTreeNodeCache.Stats getInputsTreeStats() {
+            return new MerkleTreeNodeCache.Stats(0, 0);
+          }
         };
 
     this.strategy =
@@ -139,11 +153,14 @@ public class RemoteExecutionStrategyTest {
             mbrHelper,
             new NoOpWorkerRequirementsProvider(),
             service,
-            "" /* auxiliaryBuildTag */);
+            "" /* auxiliaryBuildTag */,
+            lazyOutputMaterialization
+                ? Optional.of(new PendingRemoteOutputs(clients.getContentAddressedStorage()))
+                : Optional.empty());
 
     ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
     SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
-    BuildTarget target = BuildTargetFactory.newInstance(filesystem, "//some:target");
+    this.target = BuildTargetFactory.newInstance(filesystem, "//some:target");
     ModernBuildRule rule = new NoOpModernBuildRule(target, filesystem, ruleFinder);
 
     BuildStrategyContext strategyContext = new SimpleBuildStrategyContext(rule, service);
@@ -240,7 +257,29 @@ public class RemoteExecutionStrategyTest {
     strategyBuildResult.getBuildResult().get(2, TimeUnit.SECONDS);
   }
 
+  @Test
+  public void testLazyOutputMaterialization() throws Exception {
+    SimpleRemoteExecutionClients simpleClients = new SimpleRemoteExecutionClients();
+    clients = simpleClients;
+    StrategyBuildResult strategyBuildResult = beginBuild(true);
+    strategyBuildResult.getBuildResult().get(2, TimeUnit.SECONDS);
+    assertEquals(ImmutableList.of(), simpleClients.materializedFiles);
+
+    strategy.materializeOutputs(ImmutableList.of(target)).get(2, TimeUnit.SECONDS);
+    assertEquals(1, simpleClients.materializedFiles.size());
+    assertEquals("output", simpleClients.materializedFiles.get(0).getPath());
+
+    // Outputs are only materialized once.
+    strategy.materializeOutputs(ImmutableList.of(target)).get(2, TimeUnit.SECONDS);
+    assertEquals(1, simpleClients.materializedFiles.size());
+  }
+
   private static class TestRemoteExecutionConfig implements RemoteExecutionStrategyConfig {
+    private final boolean lazyOutputMaterialization;
+
+    TestRemoteExecutionConfig(boolean lazyOutputMaterialization) {
+      this.lazyOutputMaterialization = lazyOutputMaterialization;
+    }
 
     @Override
     public int getThreads() {
@@ -291,9 +330,26 @@ public class RemoteExecutionStrategyTest {
     public boolean tryLargerWorkerOnOom() {
       return false;
     }
+
+    @Override
+    public boolean isLazyOutputMaterializationEnabled() {
+      return lazyOutputMaterialization;
+    }
+
+    @Override
+    public Optional<Path> getLocalCasCacheDirectory() {
+      return Optional.empty();
+    }
+
+    @Override
+    public long getLocalCasCacheMaxSizeBytes() {
+      return 0;
+    }
   }
 
   private class SimpleRemoteExecutionClients implements RemoteExecutionClients {
+    private final List<OutputFile> materializedFiles = new CopyOnWriteArrayList<>();
+
     public ExecutionHandle execute() {
       return new ExecutionHandle() {
         @Override
@@ -379,6 +435,7 @@ public class RemoteExecutionStrategyTest {
             List<OutputDirectory> outputDirectories,
             List<OutputFile> outputFiles,
             FileMaterializer materializer) {
+          materializedFiles.addAll(outputFiles);
           return SimpleRemoteExecutionClients.this.materializeOutputs();
         }
 
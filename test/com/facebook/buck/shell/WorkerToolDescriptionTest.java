@@ -44,6 +44,7 @@ public class WorkerToolDescriptionTest {
   private static final BiFunction<ActionGraphBuilder, BuildRule, BuildTarget>
       getShBinaryBuildTarget = (resolver, shBinary) -> shBinary.getBuildTarget();
   private static final int NUM_THREADS = 16;
+  private static final int MEMORY_BUDGET_MB = 4096;
 
   private static BuckConfig BUCK_CONFIG;
 
@@ -51,7 +52,11 @@ public class WorkerToolDescriptionTest {
   public static void setUp() {
     BUCK_CONFIG =
         FakeBuckConfig.builder()
-            .setSections("[build]", String.format("threads = %d", NUM_THREADS))
+            .setSections(
+                "[build]",
+                String.format("threads = %d", NUM_THREADS),
+                "[worker]",
+                String.format("per_tool_memory_budget_mb = %d", MEMORY_BUDGET_MB))
             .build();
   }
 
@@ -127,6 +132,45 @@ public class WorkerToolDescriptionTest {
     createWorkerTool(builder -> builder.setMaxWorkers(123).setMaxWorkersPerThreadPercent(45));
   }
 
+  @Test
+  public void testMemoryBudgetLimitsMaxWorkers() {
+    WorkerTool workerTool =
+        createWorkerTool(builder -> builder.setMaxWorkers(14).setMemoryPerWorkerMb(1024));
+    assertThat(workerTool.getMaxWorkers(), equalTo(MEMORY_BUDGET_MB / 1024));
+  }
+
+  @Test
+  public void testMemoryBudgetDoesNotRaiseMaxWorkers() {
+    WorkerTool workerTool =
+        createWorkerTool(builder -> builder.setMaxWorkers(2).setMemoryPerWorkerMb(1024));
+    assertThat(workerTool.getMaxWorkers(), equalTo(2));
+  }
+
+  @Test
+  public void testMemoryBudgetAllowsAtLeastOneWorker() {
+    WorkerTool workerTool =
+        createWorkerTool(
+            builder -> builder.setMaxWorkers(14).setMemoryPerWorkerMb(MEMORY_BUDGET_MB * 2));
+    assertThat(workerTool.getMaxWorkers(), equalTo(1));
+  }
+
+  @Test
+  public void testDefaultGetMaxJobsPerWorker() {
+    WorkerTool workerTool = createWorkerToolWithDefaultSettings();
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(1));
+  }
+
+  @Test
+  public void testGetMaxJobsPerWorkerWhenSet() {
+    WorkerTool workerTool = createWorkerTool(builder -> builder.setMaxJobsPerWorker(4));
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxJobsPerWorkerMustBePositive() {
+    createWorkerTool(builder -> builder.setMaxJobsPerWorker(0));
+  }
+
   private static WorkerTool createWorkerToolWithPercent(int maxWorkersPerThreadPercent) {
     return createWorkerTool(
         builder -> builder.setMaxWorkersPerThreadPercent(maxWorkersPerThreadPercent),
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares hashing files one at a time through {@link StackedFileHashCache#get(Path)} with hashing
+ * them in one batch through {@link StackedFileHashCache#getAll}, on a cold cache. Most files are
+ * small sources, a few are large enough to be memory mapped.
+ */
+public class BulkFileHashingBenchmark {
+  @Param({"2000"})
+  private int fileCount = 200;
+
+  @Param({"1", "8", "32"})
+  private int threads = 4;
+
+  private static final int SMALL_FILE_SIZE = 8 * 1024;
+  private static final int LARGE_FILE_SIZE = 4 * 1024 * 1024;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private List<Path> paths;
+  private ListeningExecutorService executor;
+
+  @Before
+  @BeforeExperiment
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("bulk-file-hashing");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    Random random = new Random(123);
+    paths = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      byte[] contents = new byte[i % 100 == 0 ? LARGE_FILE_SIZE : SMALL_FILE_SIZE];
+      random.nextBytes(contents);
+      Path path = root.resolve("dir" + (i % 50)).resolve("file" + i);
+      Files.createDirectories(path.getParent());
+      Files.write(path, contents);
+      paths.add(path);
+    }
+    executor =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor("bulk-file-hashing", threads));
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  private StackedFileHashCache newCache() {
+    return new StackedFileHashCache(
+        ImmutableList.of(
+            DefaultFileHashCache.createDefaultFileHashCache(filesystem, FileHashCacheMode.DEFAULT)),
+        Optional.of(executor));
+  }
+
+  @Test
+  public void bulkHashesMatchSequentialHashes() throws IOException {
+    StackedFileHashCache sequentialCache = newCache();
+    ImmutableMap<Path, HashCode> hashes = newCache().getAll(paths);
+    for (Path path : paths) {
+      assertEquals(sequentialCache.get(path), hashes.get(path));
+    }
+  }
+
+  @Benchmark
+  public void hashSequentially() throws IOException {
+    StackedFileHashCache cache = newCache();
+    for (Path path : paths) {
+      cache.get(path);
+    }
+  }
+
+  @Benchmark
+  public void hashInBulk() throws IOException {
+    newCache().getAll(paths);
+  }
+}
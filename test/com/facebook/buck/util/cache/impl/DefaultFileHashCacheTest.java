@@ -28,6 +28,7 @@ import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
 import com.facebook.buck.util.zip.CustomZipOutputStream;
 import com.facebook.buck.util.zip.ZipOutputStreams;
@@ -41,8 +42,10 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Optional;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -114,6 +117,41 @@ public class DefaultFileHashCacheTest {
     assertFalse("Cache should not contain pain", cache.getIfPresent(path).isPresent());
   }
 
+  @Test
+  public void persistentStoreHashesAreReusedByNewCachesWhileFileIsUnchanged() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path path = Paths.get("SomeClass.java");
+    filesystem.writeContentsToPath("class SomeClass {}", path);
+    FileTime lastModifiedTime = FileTime.fromMillis(System.currentTimeMillis() - 3600 * 1000);
+    filesystem.setLastModifiedTime(path, lastModifiedTime);
+    Path storePath = DefaultFileHashCache.getPersistentStorePath(filesystem);
+
+    PersistentFileHashStore store =
+        PersistentFileHashStore.load(tmp.getRoot(), storePath, new DefaultClock());
+    HashCode hashCode =
+        DefaultFileHashCache.createDefaultFileHashCache(
+                filesystem, fileHashCacheMode, Optional.of(store))
+            .get(path);
+    store.save();
+
+    // Change the contents without changing the attributes the store validates hashes against.
+    filesystem.writeContentsToPath("class OtherClass{}", path);
+    filesystem.setLastModifiedTime(path, lastModifiedTime);
+    DefaultFileHashCache restartedCache =
+        DefaultFileHashCache.createDefaultFileHashCache(
+            filesystem,
+            fileHashCacheMode,
+            Optional.of(
+                PersistentFileHashStore.load(tmp.getRoot(), storePath, new DefaultClock())));
+    assertEquals(hashCode, restartedCache.get(path));
+
+    filesystem.setLastModifiedTime(path, FileTime.fromMillis(lastModifiedTime.toMillis() + 1000));
+    restartedCache.invalidate(path);
+    assertEquals(
+        Hashing.sha1().hashString("class OtherClass{}", StandardCharsets.UTF_8),
+        restartedCache.get(path));
+  }
+
   @Test
   public void invalidatingNonExistentEntryDoesNotThrow() {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
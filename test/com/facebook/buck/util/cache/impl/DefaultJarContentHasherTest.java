@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.stream.Stream;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DefaultJarContentHasherTest {
+
+  private static final Path JAR_PATH = Paths.get("third-party/lib.jar");
+  private static final HashCode JAR_HASH = HashCode.fromInt(42);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  private void writeJar(String... namesAndContents) throws IOException {
+    filesystem.mkdirs(JAR_PATH.getParent());
+    try (ZipOutputStream zip = new ZipOutputStream(filesystem.newFileOutputStream(JAR_PATH))) {
+      zip.putNextEntry(new ZipEntry("com/"));
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+        zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  private DefaultJarContentHasher newHasher(Optional<Executor> verificationExecutor) {
+    return new DefaultJarContentHasher(
+        filesystem, JAR_PATH, Optional.of(JAR_HASH), true, verificationExecutor);
+  }
+
+  @Test
+  public void centralDirectoryHashesCoverJarsWithoutDigests() throws IOException {
+    writeJar("com/A.class", "a", "com/B.class", "b");
+    ImmutableMap<Path, HashCodeAndFileType> hashes = newHasher(Optional.empty()).getContentHashes();
+
+    assertEquals(2, hashes.size());
+    assertNotEquals(
+        hashes.get(Paths.get("com/A.class")).getHashCode(),
+        hashes.get(Paths.get("com/B.class")).getHashCode());
+
+    writeJar("com/A.class", "a", "com/B.class", "c");
+    ImmutableMap<Path, HashCodeAndFileType> changedHashes =
+        new DefaultJarContentHasher(
+                filesystem, JAR_PATH, Optional.of(HashCode.fromInt(43)), true, Optional.empty())
+            .getContentHashes();
+    assertEquals(
+        hashes.get(Paths.get("com/A.class")).getHashCode(),
+        changedHashes.get(Paths.get("com/A.class")).getHashCode());
+    assertNotEquals(
+        hashes.get(Paths.get("com/B.class")).getHashCode(),
+        changedHashes.get(Paths.get("com/B.class")).getHashCode());
+  }
+
+  @Test
+  public void memoizedHashesAreReusedWithoutReadingTheJar() throws IOException {
+    writeJar("com/A.class", "a");
+    ImmutableMap<Path, HashCodeAndFileType> hashes = newHasher(Optional.empty()).getContentHashes();
+
+    filesystem.deleteFileAtPath(JAR_PATH);
+
+    assertEquals(
+        hashes.get(Paths.get("com/A.class")).getHashCode(),
+        newHasher(Optional.empty())
+            .getContentHashes()
+            .get(Paths.get("com/A.class"))
+            .getHashCode());
+  }
+
+  @Test
+  public void verificationDropsMemoOfJarsWithWrongCrcs() throws IOException {
+    writeJar("com/A.class", "a");
+    newHasher(Optional.of(MoreExecutors.directExecutor())).getContentHashes();
+    Path memoPath = DefaultJarContentHasher.getMemoPath(filesystem, JAR_PATH);
+    assertTrue(Files.exists(memoPath));
+
+    corruptCentralDirectoryCrc();
+
+    assertFalse(newHasher(Optional.empty()).verifyCentralDirectory(Optional.of(memoPath)));
+    assertFalse(Files.exists(memoPath));
+  }
+
+  @Test
+  public void changedJarReplacesItsMemo() throws IOException {
+    writeJar("com/A.class", "a");
+    newHasher(Optional.empty()).getContentHashes();
+    writeJar("com/A.class", "b");
+    ImmutableMap<Path, HashCodeAndFileType> changedHashes =
+        new DefaultJarContentHasher(
+                filesystem, JAR_PATH, Optional.of(HashCode.fromInt(43)), true, Optional.empty())
+            .getContentHashes();
+
+    Path memoPath = DefaultJarContentHasher.getMemoPath(filesystem, JAR_PATH);
+    try (Stream<Path> memos = Files.list(memoPath.getParent())) {
+      assertEquals(ImmutableList.of(memoPath), memos.collect(ImmutableList.toImmutableList()));
+    }
+
+    filesystem.deleteFileAtPath(JAR_PATH);
+    assertEquals(
+        changedHashes.get(Paths.get("com/A.class")).getHashCode(),
+        new DefaultJarContentHasher(
+                filesystem, JAR_PATH, Optional.of(HashCode.fromInt(43)), true, Optional.empty())
+            .getContentHashes()
+            .get(Paths.get("com/A.class"))
+            .getHashCode());
+  }
+
+  @Test
+  public void staleMemoIsNotUsed() throws IOException {
+    writeJar("com/A.class", "a");
+    ImmutableMap<Path, HashCodeAndFileType> hashes = newHasher(Optional.empty()).getContentHashes();
+    writeJar("com/A.class", "b");
+
+    assertNotEquals(
+        hashes.get(Paths.get("com/A.class")).getHashCode(),
+        new DefaultJarContentHasher(
+                filesystem, JAR_PATH, Optional.of(HashCode.fromInt(43)), true, Optional.empty())
+            .getContentHashes()
+            .get(Paths.get("com/A.class"))
+            .getHashCode());
+  }
+
+  @Test
+  public void invalidatingJarDropsItsMemo() throws IOException {
+    writeJar("com/A.class", "a");
+    newHasher(Optional.empty()).getContentHashes();
+    Path memoPath = DefaultJarContentHasher.getMemoPath(filesystem, JAR_PATH);
+    assertTrue(Files.exists(memoPath));
+
+    DefaultJarContentHasher.invalidateMemo(filesystem, JAR_PATH);
+
+    assertFalse(Files.exists(memoPath));
+  }
+
+  /** Flips a bit of the CRC recorded in the last central directory header of the jar. */
+  private void corruptCentralDirectoryCrc() throws IOException {
+    byte[] bytes = Files.readAllBytes(filesystem.resolve(JAR_PATH));
+    int header = -1;
+    for (int i = bytes.length - 4; i >= 0 && header == -1; i--) {
+      if (bytes[i] == 'P' && bytes[i + 1] == 'K' && bytes[i + 2] == 1 && bytes[i + 3] == 2) {
+        header = i;
+      }
+    }
+    bytes[header + 16] ^= 1;
+    try (OutputStream out = filesystem.newFileOutputStream(JAR_PATH)) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.ObjectFileCommonModificationDate;
+import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+
+  private static final long NOW_MILLIS = TimeUnit.DAYS.toMillis(365);
+  private static final HashCode HASH = HashCode.fromInt(42);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final SettableFakeClock clock = new SettableFakeClock(NOW_MILLIS, 0);
+  private Path storePath;
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    storePath = tmp.getRoot().resolve("buck-out/cache/file_hashes");
+    file = tmp.newFile("Foo.java");
+    Files.write(file, "class Foo {}".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(NOW_MILLIS - TimeUnit.HOURS.toMillis(1)));
+  }
+
+  private BasicFileAttributes readAttributes() throws IOException {
+    return Files.readAttributes(file, BasicFileAttributes.class);
+  }
+
+  @Test
+  public void hashesAreReloadedWhileAttributesMatch() throws IOException {
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+    store.save();
+
+    PersistentFileHashStore reloaded =
+        PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    assertEquals(1, reloaded.size());
+    assertEquals(Optional.of(HASH), reloaded.get(Paths.get("Foo.java"), readAttributes()));
+
+    Files.setLastModifiedTime(file, FileTime.fromMillis(NOW_MILLIS - 1000));
+    assertFalse(reloaded.get(Paths.get("Foo.java"), readAttributes()).isPresent());
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotRecorded() throws IOException {
+    Files.setLastModifiedTime(file, FileTime.fromMillis(NOW_MILLIS - 500));
+
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+
+    assertEquals(0, store.size());
+    assertFalse(store.get(Paths.get("Foo.java"), readAttributes()).isPresent());
+  }
+
+  @Test
+  public void invalidatedHashesAreNotSaved() throws IOException {
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+    store.save();
+    store.invalidate(Paths.get("Foo.java"));
+    store.save();
+
+    assertEquals(0, PersistentFileHashStore.load(tmp.getRoot(), storePath, clock).size());
+  }
+
+  @Test
+  public void filesWithTheArtifactCacheModificationTimeAreNotRecorded() throws IOException {
+    Files.setLastModifiedTime(
+        file,
+        FileTime.from(
+            ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP, TimeUnit.SECONDS));
+
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void hashesOfChangedFilesAreDropped() throws IOException {
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+    store.save();
+
+    Files.setLastModifiedTime(file, FileTime.fromMillis(NOW_MILLIS - 1000));
+    assertFalse(store.get(Paths.get("Foo.java"), readAttributes()).isPresent());
+    store.save();
+
+    assertEquals(0, PersistentFileHashStore.load(tmp.getRoot(), storePath, clock).size());
+  }
+
+  @Test
+  public void hashesOfDeletedFilesAreDroppedWhenPruned() throws IOException {
+    Path bar = tmp.newFile("Bar.java");
+    Files.setLastModifiedTime(bar, FileTime.fromMillis(NOW_MILLIS - TimeUnit.HOURS.toMillis(1)));
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+    store.put(Paths.get("Bar.java"), Files.readAttributes(bar, BasicFileAttributes.class), HASH);
+    store.save();
+    Files.delete(bar);
+
+    // Loading does not look at the files.
+    PersistentFileHashStore reloaded =
+        PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    assertEquals(2, reloaded.size());
+
+    reloaded.pruneDeletedFiles();
+    assertEquals(1, reloaded.size());
+    reloaded.save();
+    assertEquals(1, PersistentFileHashStore.load(tmp.getRoot(), storePath, clock).size());
+  }
+
+  @Test
+  public void corruptStoreIsIgnored() throws IOException {
+    PersistentFileHashStore store = PersistentFileHashStore.load(tmp.getRoot(), storePath, clock);
+    store.put(Paths.get("Foo.java"), readAttributes(), HASH);
+    store.save();
+
+    byte[] bytes = Files.readAllBytes(storePath);
+    Files.write(storePath, Arrays.copyOf(bytes, bytes.length - 3));
+
+    assertEquals(0, PersistentFileHashStore.load(tmp.getRoot(), storePath, clock).size());
+  }
+}
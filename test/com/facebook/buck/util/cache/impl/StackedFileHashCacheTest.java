@@ -16,6 +16,7 @@
 
 package com.facebook.buck.util.cache.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.io.ArchiveMemberPath;
@@ -26,18 +27,27 @@ import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.config.Config;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.config.ConfigBuilder;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
 import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
 import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
@@ -344,6 +354,57 @@ public class StackedFileHashCacheTest {
         filesystem, archiveMemberPath.getArchivePath(), archiveMemberPath.getMemberPath());
   }
 
+  @Test
+  public void getAllHashesPathsOfAllCachesInOrder() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    ProjectFilesystem filesystem2 = TestProjectFilesystems.createProjectFilesystem(tmp2.getRoot());
+    List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      ProjectFilesystem owner = i % 2 == 0 ? filesystem : filesystem2;
+      Path path = owner.getPath("file" + i + ".txt");
+      owner.writeContentsToPath("contents " + i, path);
+      paths.add(owner.resolve(path));
+    }
+    ProjectFileHashCache innerCache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    ProjectFileHashCache innerCache2 =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem2, fileHashCacheMode);
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(MostExecutors.newMultiThreadExecutor("hashing", 3));
+    try {
+      StackedFileHashCache cache =
+          new StackedFileHashCache(
+              ImmutableList.of(innerCache, innerCache2), Optional.of(executor));
+      // one of the paths is already cached
+      HashCode cachedHash = cache.get(paths.get(3));
+
+      ImmutableMap<Path, HashCode> hashes = cache.getAll(Lists.reverse(paths));
+
+      assertEquals(Lists.reverse(paths), hashes.keySet().asList());
+      assertEquals(cachedHash, hashes.get(paths.get(3)));
+      StackedFileHashCache freshCache =
+          new StackedFileHashCache(ImmutableList.of(innerCache, innerCache2));
+      for (Path path : paths) {
+        assertEquals(freshCache.get(path), hashes.get(path));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void getAllFailsForPathsOutsideOfAllCaches() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path path = filesystem.getPath("world.txt");
+    filesystem.touch(path);
+    ProjectFileHashCache innerCache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    StackedFileHashCache cache = new StackedFileHashCache(ImmutableList.of(innerCache));
+    expectedException.expect(NoSuchFileException.class);
+    cache.getAll(
+        ImmutableList.of(filesystem.resolve(path), tmp2.getRoot().resolve("world.txt")));
+  }
+
   private void writeJarWithHashes(ProjectFilesystem filesystem, Path path) throws IOException {
     try (CustomJarOutputStream jar =
         ZipOutputStreams.newJarOutputStream(filesystem.newFileOutputStream(path))) {
@@ -17,6 +17,7 @@
 package com.facebook.buck.util.cache.impl;
 
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
@@ -42,6 +43,7 @@ import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.EnumSet;
 import org.hamcrest.junit.ExpectedException;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -159,6 +161,49 @@ public class WatchedFileHashCacheTest {
     assertNotEquals(dirHash, dirHash2);
   }
 
+  @Test
+  public void directoryHashIsUpdatedFromCachedHashesOfUnchangedSubdirectories()
+      throws IOException {
+    // Only the prefix tree engine keeps the hashes of siblings of invalidated paths.
+    Assume.assumeTrue(fileHashCacheMode == FileHashCacheMode.PREFIX_TREE);
+
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    Path changed = Paths.get("res/values/strings.xml");
+    Path unchangedDir = Paths.get("res/drawable");
+    filesystem.mkdirs(changed.getParent());
+    filesystem.mkdirs(unchangedDir);
+    filesystem.writeContentsToPath("<resources/>", changed);
+    filesystem.writeContentsToPath("<shape/>", unchangedDir.resolve("icon.xml"));
+
+    HashCode dirHash = cache.get(Paths.get("res"));
+    filesystem.writeContentsToPath("<resources></resources>", changed);
+    cache.onFileSystemChange(
+        ImmutableWatchmanPathEvent.of(filesystem.getRootPath(), Kind.MODIFY, changed));
+
+    assertFalse(cache.getIfPresent(Paths.get("res")).isPresent());
+    assertFalse(cache.getIfPresent(changed.getParent()).isPresent());
+    assertTrue(cache.getIfPresent(unchangedDir).isPresent());
+    HashCode dirHash2 = cache.get(Paths.get("res"));
+    assertNotEquals(dirHash, dirHash2);
+    assertEquals(
+        new WatchedFileHashCache(filesystem, fileHashCacheMode).get(Paths.get("res")), dirHash2);
+  }
+
+  @Test
+  public void directoriesWithoutFilesDoNotChangeDirectoryHash() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    filesystem.mkdirs(Paths.get("assets"));
+    filesystem.writeContentsToPath("data", Paths.get("assets/file.bin"));
+    HashCode dirHash =
+        new WatchedFileHashCache(filesystem, fileHashCacheMode).get(Paths.get("assets"));
+
+    filesystem.mkdirs(Paths.get("assets/empty/nested"));
+
+    assertEquals(
+        dirHash, new WatchedFileHashCache(filesystem, fileHashCacheMode).get(Paths.get("assets")));
+  }
+
   @Test
   public void whenNotifiedOfChangeToSubPathThenDirCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+public class DeflaterPoolTest {
+
+  private static final byte[] DATA =
+      "to be, or not to be, that is the question, to be, or not to be"
+          .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void reusesReleasedDeflatersOfTheSameLevel() {
+    DeflaterPool pool = new DeflaterPool(1);
+    Deflater deflater = pool.acquire(Deflater.BEST_SPEED);
+    pool.release(deflater, Deflater.BEST_SPEED);
+
+    assertNotSame(deflater, pool.acquire(Deflater.BEST_COMPRESSION));
+    assertSame(deflater, pool.acquire(Deflater.BEST_SPEED));
+  }
+
+  @Test
+  public void keepsAtMostTheGivenNumberOfIdleDeflaters() {
+    DeflaterPool pool = new DeflaterPool(1);
+    Deflater first = pool.acquire(Deflater.DEFAULT_COMPRESSION);
+    Deflater second = pool.acquire(Deflater.DEFAULT_COMPRESSION);
+    pool.release(first, Deflater.DEFAULT_COMPRESSION);
+    pool.release(second, Deflater.DEFAULT_COMPRESSION);
+
+    assertSame(first, pool.acquire(Deflater.DEFAULT_COMPRESSION));
+    Deflater third = pool.acquire(Deflater.DEFAULT_COMPRESSION);
+    assertNotSame(first, third);
+    assertNotSame(second, third);
+  }
+
+  @Test
+  public void reusedDeflatersWriteTheSameBytesAsNewOnes() {
+    DeflaterPool pool = new DeflaterPool(1);
+    Deflater deflater = pool.acquire(Deflater.BEST_COMPRESSION);
+    byte[] first = deflate(deflater);
+    pool.release(deflater, Deflater.BEST_COMPRESSION);
+
+    byte[] second = deflate(pool.acquire(Deflater.BEST_COMPRESSION));
+
+    assertArrayEquals(first, second);
+    assertArrayEquals(first, deflate(new Deflater(Deflater.BEST_COMPRESSION, true)));
+  }
+
+  private static byte[] deflate(Deflater deflater) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[16];
+    deflater.setInput(DATA);
+    deflater.finish();
+    while (!deflater.finished()) {
+      int written = deflater.deflate(buffer);
+      out.write(buffer, 0, written);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures how fast {@link JarBuilder} writes a jar of many class-sized entries, compressing them
+ * on the calling thread ({@code compressionThreads = 0}) or on a pool of the given size. The
+ * "megabytes" counter reports the throughput in MB of uncompressed entries per second.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JarBuilderBenchmark {
+
+  @Param({"50000"})
+  public int entryCount;
+
+  @Param({"0", "1", "2", "4", "8"})
+  public int compressionThreads;
+
+  private byte[][] contents;
+  private long totalBytes;
+  private Path outputDir;
+  @Nullable private ExecutorService executor;
+
+  /** Counts the uncompressed bytes written, which JMH reports per second. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Throughput {
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      megabytes = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    // Class files are about 2 KB on average, and compress to about half their size.
+    Random random = new Random(42);
+    contents = new byte[entryCount][];
+    for (int i = 0; i < entryCount; i++) {
+      byte[] entry = new byte[256 + random.nextInt(4096)];
+      for (int j = 0; j < entry.length; j++) {
+        entry[j] = (byte) (random.nextBoolean() ? 'a' + random.nextInt(8) : random.nextInt());
+      }
+      contents[i] = entry;
+      totalBytes += entry.length;
+    }
+    outputDir = Files.createTempDirectory("jar-builder-benchmark");
+    executor = compressionThreads == 0 ? null : Executors.newFixedThreadPool(compressionThreads);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    Files.deleteIfExists(outputDir.resolve("out.jar"));
+    Files.delete(outputDir);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  public int createJarFile(Throughput throughput) throws IOException {
+    JarBuilder builder = new JarBuilder().setCompressionExecutor(executor);
+    for (int i = 0; i < entryCount; i++) {
+      byte[] entry = contents[i];
+      builder.addEntry(
+          new JarEntrySupplier(
+              new CustomZipEntry(String.format("com/example/p%d/C%d.class", i % 100, i)),
+              "benchmark",
+              () -> new ByteArrayInputStream(entry)));
+    }
+    int result = builder.createJarFile(outputDir.resolve("out.jar"));
+    throughput.megabytes += totalBytes / (1024.0 * 1024.0);
+    return result;
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParallelZipOutputStreamImplTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ExecutorService executor;
+  private final AtomicLong sharedPendingBytes = new AtomicLong();
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void writesTheSameBytesAsTheSequentialStream() throws IOException {
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    try (CustomJarOutputStream jar =
+        ZipOutputStreams.newJarOutputStream(
+            sequential, ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP)) {
+      writeEntries(jar);
+    }
+
+    for (long maxPendingBytes : new long[] {0, 1024, Long.MAX_VALUE}) {
+      ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+      try (CustomJarOutputStream jar = newParallelStream(parallel, false, maxPendingBytes)) {
+        writeEntries(jar);
+      }
+      assertArrayEquals(
+          "maxPendingBytes = " + maxPendingBytes, sequential.toByteArray(), parallel.toByteArray());
+    }
+  }
+
+  @Test
+  public void entriesCanBeReadBack() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (CustomJarOutputStream jar = newParallelStream(out, false, 1024)) {
+      for (int i = 0; i < 100; i++) {
+        jar.writeEntry("entry" + i, new ByteArrayInputStream(("contents " + i).getBytes(UTF_8)));
+      }
+    }
+
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      for (int i = 0; i < 100; i++) {
+        ZipEntry entry = zip.getNextEntry();
+        assertEquals("entry" + i, entry.getName());
+        assertEquals("contents " + i, new String(ByteStreams.toByteArray(zip), UTF_8));
+      }
+      assertEquals(JarFile.MANIFEST_NAME, zip.getNextEntry().getName());
+      assertNull(zip.getNextEntry());
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void rejectsDuplicatesWhenAskedTo() throws IOException {
+    try (CustomJarOutputStream jar = newParallelStream(new ByteArrayOutputStream(), true, 1024)) {
+      jar.writeEntry("entry", new ByteArrayInputStream(new byte[1]));
+      jar.writeEntry("entry", new ByteArrayInputStream(new byte[1]));
+    }
+  }
+
+  @Test
+  public void writesTheSameBytesWhenOtherStreamsUseTheSharedBudget() throws IOException {
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    try (CustomJarOutputStream jar =
+        ZipOutputStreams.newJarOutputStream(
+            sequential, ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP)) {
+      writeEntries(jar);
+    }
+
+    sharedPendingBytes.set(1024);
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    try (CustomJarOutputStream jar = newParallelStream(parallel, false, Long.MAX_VALUE, 1024)) {
+      writeEntries(jar);
+      // Past the shared budget, the stream writes its entries before taking more.
+      assertEquals(1024, sharedPendingBytes.get());
+    }
+    assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+  }
+
+  @Test
+  public void theSharedBudgetIsGivenBackWhenTheStreamIsClosed() throws IOException {
+    try (CustomJarOutputStream jar = newParallelStream(new ByteArrayOutputStream(), false, 1024)) {
+      writeEntries(jar);
+    }
+    assertEquals(0, sharedPendingBytes.get());
+  }
+
+  @Test
+  public void jarBuilderWritesTheSameJarWithOrWithoutExecutor() throws IOException {
+    Path classes = tmp.newFolder("classes");
+    Random random = new Random(0);
+    for (int i = 0; i < 50; i++) {
+      Path file = classes.resolve("com/example/pkg" + (i % 5) + "/C" + i + ".class");
+      Files.createDirectories(file.getParent());
+      byte[] contents = new byte[random.nextInt(8192)];
+      random.nextBytes(contents);
+      Files.write(file, contents);
+    }
+
+    Path sequential = tmp.getRoot().resolve("sequential.jar");
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(classes))
+        .setCompressionExecutor(null)
+        .createJarFile(sequential);
+    Path parallel = tmp.getRoot().resolve("parallel.jar");
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(classes))
+        .setCompressionExecutor(executor)
+        .createJarFile(parallel);
+
+    assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+  }
+
+  private CustomJarOutputStream newParallelStream(
+      OutputStream out, boolean throwExceptionsOnDuplicate, long maxPendingBytes) {
+    return newParallelStream(out, throwExceptionsOnDuplicate, maxPendingBytes, Long.MAX_VALUE);
+  }
+
+  private CustomJarOutputStream newParallelStream(
+      OutputStream out,
+      boolean throwExceptionsOnDuplicate,
+      long maxPendingBytes,
+      long maxSharedPendingBytes) {
+    return new CustomJarOutputStream(
+        new ParallelZipOutputStreamImpl(
+            new DefaultClock(),
+            out,
+            throwExceptionsOnDuplicate,
+            executor,
+            maxPendingBytes,
+            sharedPendingBytes,
+            maxSharedPendingBytes));
+  }
+
+  /** Writes directories, empty and large entries, at every compression level. */
+  private static void writeEntries(CustomJarOutputStream jar) throws IOException {
+    jar.getManifest().getMainAttributes().putValue("Manifest-Version", "1.0");
+    jar.writeManifest();
+    jar.putNextEntry(new CustomZipEntry("dir/"));
+    jar.closeEntry();
+    jar.writeEntry("dir/empty", new ByteArrayInputStream(new byte[0]));
+
+    Random random = new Random(0);
+    for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+      byte[] contents = new byte[random.nextInt(64 * 1024)];
+      for (int i = 0; i < contents.length; i++) {
+        contents[i] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 4 : 26));
+      }
+      CustomZipEntry entry = new CustomZipEntry("dir/level" + level);
+      entry.setCompressionLevel(level);
+      if (level == Deflater.NO_COMPRESSION) {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        entry.setCrc(crc.getValue());
+        entry.setSize(contents.length);
+        entry.setCompressedSize(contents.length);
+      }
+      jar.putNextEntry(entry);
+      // Write in uneven chunks, like a copy from another stream would.
+      for (int offset = 0; offset < contents.length; offset += 1000) {
+        jar.write(contents, offset, Math.min(1000, contents.length - offset));
+      }
+      jar.closeEntry();
+    }
+  }
+}
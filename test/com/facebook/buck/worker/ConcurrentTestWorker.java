@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand-in worker that speaks {@link WorkerProcessProtocolOne} and runs the jobs it receives
+ * concurrently. It can run in its own process, through {@link #main(String[])}, or in Buck's.
+ *
+ * <p>Each line of the arguments of a job is an instruction:
+ *
+ * <ul>
+ *   <li>{@code echo <text>} streams a line to the job's stdout;
+ *   <li>{@code stderr <text>} streams a line to the job's stderr;
+ *   <li>{@code await <n>} waits until the worker ran n jobs at the same time, and fails the job
+ *       if that did not happen within 10 seconds;
+ *   <li>{@code exit <code>} sets the exit code of the job.
+ * </ul>
+ */
+public class ConcurrentTestWorker {
+  private static final long AWAIT_TIMEOUT_SECONDS = 10;
+
+  private final WorkerProcessProtocolOne.CommandReceiver receiver;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private int runningJobs = 0;
+  private int peakRunningJobs = 0;
+
+  public ConcurrentTestWorker(OutputStream processStdout, InputStream processStdin) {
+    receiver = new WorkerProcessProtocolOne.CommandReceiver(processStdout, processStdin);
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    new ConcurrentTestWorker(System.out, System.in).run();
+  }
+
+  /** Runs jobs until the CommandSender closes the stream. */
+  public void run() throws IOException, InterruptedException {
+    receiver.handshake(0);
+    while (receiver.receiveCommand((command, id) -> executor.execute(() -> runJob(id, command)))) {
+      // Keep receiving.
+    }
+    executor.shutdown();
+    executor.awaitTermination(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    receiver.close();
+  }
+
+  private void runJob(int id, WorkerProcessCommand command) {
+    synchronized (this) {
+      runningJobs++;
+      peakRunningJobs = Math.max(peakRunningJobs, runningJobs);
+      notifyAll();
+    }
+    int exitCode = 0;
+    try {
+      for (String line : Files.readAllLines(command.getArgsPath(), StandardCharsets.UTF_8)) {
+        String[] instruction = line.split(" ", 2);
+        switch (instruction[0]) {
+          case "echo":
+            receiver.sendOutput(id, WorkerProcessProtocolOne.STREAM_STDOUT, instruction[1] + "\n");
+            break;
+          case "stderr":
+            receiver.sendOutput(id, WorkerProcessProtocolOne.STREAM_STDERR, instruction[1] + "\n");
+            break;
+          case "await":
+            if (!awaitPeakRunningJobs(Integer.parseInt(instruction[1]))) {
+              receiver.sendOutput(
+                  id, WorkerProcessProtocolOne.STREAM_STDERR, "Timed out: " + line + "\n");
+              exitCode = 1;
+            }
+            break;
+          case "exit":
+            exitCode = Integer.parseInt(instruction[1]);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown instruction: " + line);
+        }
+      }
+    } catch (Exception e) {
+      exitCode = 1;
+    } finally {
+      synchronized (this) {
+        runningJobs--;
+      }
+    }
+    try {
+      receiver.sendResponse(id, WorkerProcessProtocolZero.TYPE_RESULT, exitCode);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private synchronized boolean awaitPeakRunningJobs(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(AWAIT_TIMEOUT_SECONDS);
+    while (peakRunningJobs < count) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+}
@@ -26,12 +26,14 @@ import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.facebook.buck.worker.WorkerProcessPool.BorrowedWorkerProcess;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -316,6 +318,50 @@ public class WorkerProcessPoolTest {
     assertThat(numStartedWorkers.get(), equalTo(NUM_CONSUMERS));
   }
 
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testLendsEachWorkerOncePerConcurrentJob() throws Exception {
+    int maxWorkers = 2;
+    int maxJobsPerWorker = 2;
+    Set<WorkerProcess> createdWorkers = new HashSet<>();
+    WorkerProcessPool pool = createPool(maxWorkers, maxJobsPerWorker, createdWorkers::add);
+
+    AtomicReference<BorrowedWorkerProcess> extraWorkerProcess = new AtomicReference<>();
+    acquireWorkersThenRunActionThenRelease(
+        pool,
+        maxWorkers * maxJobsPerWorker,
+        () ->
+            pool.borrowWorkerProcess(1, TimeUnit.MILLISECONDS).ifPresent(extraWorkerProcess::set));
+
+    assertThat(createdWorkers.size(), is(maxWorkers));
+    assertThat(extraWorkerProcess.get(), is(nullValue()));
+    pool.close();
+  }
+
+  @Test
+  public void testRecordsJobStats() throws Exception {
+    WorkerProcessPool pool =
+        createPool(
+            1,
+            () ->
+                new FakeWorkerProcess(
+                    ImmutableMap.of(
+                        "succeed",
+                        WorkerJobResult.of(0, Optional.empty(), Optional.empty()),
+                        "fail",
+                        WorkerJobResult.of(1, Optional.empty(), Optional.empty()))));
+    for (String job : ImmutableList.of("succeed", "fail", "succeed")) {
+      try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+        worker.submitAndWaitForJob(job);
+      }
+    }
+
+    WorkerProcessPoolStats stats = pool.getStats();
+    assertThat(stats.getJobCount(), is(3L));
+    assertThat(stats.getFailedJobCount(), is(1L));
+    assertThat(stats.getPeakConcurrentJobs(), is(1));
+    pool.close();
+  }
+
   @Test
   public void testPoolClosesCleanyIfNoWorkersUsed() {
     int arbitraryNumber = 16;
@@ -371,8 +417,16 @@ public class WorkerProcessPoolTest {
 
   private static WorkerProcessPool createPool(
       int maxWorkers, ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    return createPool(maxWorkers, 1, startWorkerProcess);
+  }
+
+  private static WorkerProcessPool createPool(
+      int maxWorkers,
+      int maxJobsPerWorker,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
     return new WorkerProcessPool(
         maxWorkers,
+        maxJobsPerWorker,
         Hashing.sha1().hashLong(0),
         () -> {
           WorkerProcess workerProcess = startWorkerProcess.get();
@@ -387,8 +441,14 @@ public class WorkerProcessPoolTest {
 
   private static WorkerProcessPool createPool(
       int maxWorkers, Consumer<WorkerProcess> onWorkerCreated) {
+    return createPool(maxWorkers, 1, onWorkerCreated);
+  }
+
+  private static WorkerProcessPool createPool(
+      int maxWorkers, int maxJobsPerWorker, Consumer<WorkerProcess> onWorkerCreated) {
     return createPool(
         maxWorkers,
+        maxJobsPerWorker,
         () -> {
           FakeWorkerProcess worker = new FakeWorkerProcess(ImmutableMap.of());
           onWorkerCreated.accept(worker);
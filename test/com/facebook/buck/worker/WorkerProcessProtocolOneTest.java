@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class WorkerProcessProtocolOneTest {
+
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  private Pipe toWorker;
+  private Pipe fromWorker;
+  private Thread workerThread;
+  private AtomicBoolean closed;
+  private WorkerProcessProtocolOne.CommandSender sender;
+
+  @Before
+  public void setUp() throws IOException {
+    toWorker = Pipe.open();
+    fromWorker = Pipe.open();
+    closed = new AtomicBoolean(false);
+    sender =
+        new WorkerProcessProtocolOne.CommandSender(
+            Channels.newOutputStream(toWorker.sink()),
+            Channels.newInputStream(fromWorker.source()),
+            temporaryPaths.newFile("stderr"),
+            () -> closed.set(true),
+            () -> true);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (workerThread != null) {
+      workerThread.interrupt();
+      workerThread.join();
+    }
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void commandsRunConcurrentlyAndFinishInAnyOrder() throws IOException {
+    startWorker();
+    sender.handshake(0);
+
+    sender.send(1, createCommand("first", "await 2", "echo first"));
+    sender.send(2, createCommand("second", "echo second"));
+
+    assertEquals(0, sender.receiveCommandResponse(2));
+    assertEquals(0, sender.receiveCommandResponse(1));
+    assertEquals("first\n", readFile("first.out"));
+    assertEquals("second\n", readFile("second.out"));
+    assertEquals(0, sender.getPendingCommandCount());
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void outputIsStreamedToTheFilesOfTheCommand() throws IOException {
+    startWorker();
+    sender.handshake(0);
+
+    sender.send(1, createCommand("job", "echo out 1", "stderr err", "echo out 2", "exit 3"));
+
+    assertEquals(3, sender.receiveCommandResponse(1));
+    assertEquals("out 1\nout 2\n", readFile("job.out"));
+    assertEquals("err\n", readFile("job.err"));
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void pendingCommandsFailWhenTheWorkerGoesAway() throws Exception {
+    WorkerProcessProtocolOne.CommandReceiver receiver = createReceiver();
+    workerThread =
+        new Thread(
+            () -> {
+              try {
+                receiver.handshake(0);
+                receiver.receiveCommand((command, id) -> {});
+                fromWorker.sink().close();
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    workerThread.start();
+    sender.handshake(0);
+
+    sender.send(1, createCommand("job", "echo never"));
+
+    try {
+      sender.receiveCommandResponse(1);
+      fail("The command should have failed.");
+    } catch (HumanReadableException e) {
+      assertTrue(e.getMessage().contains("Error receiving command response"));
+    }
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void responsesToUnknownCommandsFailPendingCommands() throws Exception {
+    WorkerProcessProtocolOne.CommandReceiver receiver = createReceiver();
+    workerThread =
+        new Thread(
+            () -> {
+              try {
+                receiver.handshake(0);
+                receiver.receiveCommand((command, id) -> {});
+                receiver.sendResponse(42, WorkerProcessProtocolZero.TYPE_RESULT, 0);
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    workerThread.start();
+    sender.handshake(0);
+
+    sender.send(1, createCommand("job", "echo never"));
+
+    try {
+      sender.receiveCommandResponse(1);
+      fail("The command should have failed.");
+    } catch (HumanReadableException e) {
+      assertTrue(e.getMessage().contains("\"42\", which is not running"));
+    }
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void closingStopsTheWorker() throws Exception {
+    startWorker();
+    sender.handshake(0);
+    sender.send(1, createCommand("job", "echo done"));
+    assertEquals(0, sender.receiveCommandResponse(1));
+
+    sender.close();
+    workerThread.join();
+
+    assertTrue(closed.get());
+    assertFalse(workerThread.isAlive());
+  }
+
+  private void startWorker() {
+    ConcurrentTestWorker worker =
+        new ConcurrentTestWorker(
+            Channels.newOutputStream(fromWorker.sink()),
+            Channels.newInputStream(toWorker.source()));
+    workerThread =
+        new Thread(
+            () -> {
+              try {
+                worker.run();
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    workerThread.start();
+  }
+
+  private WorkerProcessProtocolOne.CommandReceiver createReceiver() {
+    return new WorkerProcessProtocolOne.CommandReceiver(
+        Channels.newOutputStream(fromWorker.sink()), Channels.newInputStream(toWorker.source()));
+  }
+
+  private WorkerProcessCommand createCommand(String name, String... instructions)
+      throws IOException {
+    Path root = temporaryPaths.getRoot();
+    Path argsPath = root.resolve(name + ".args");
+    Files.write(argsPath, String.join("\n", instructions).getBytes(StandardCharsets.UTF_8));
+    return WorkerProcessCommand.of(
+        argsPath, root.resolve(name + ".out"), root.resolve(name + ".err"));
+  }
+
+  private String readFile(String name) throws IOException {
+    return new String(
+        Files.readAllBytes(temporaryPaths.getRoot().resolve(name)), StandardCharsets.UTF_8);
+  }
+}
@@ -228,6 +228,80 @@ public class WorkerProcessProtocolZeroTest {
     }
   }
 
+  @Test
+  public void testReceiverAnswersHandshake() throws IOException {
+    String handshake =
+        "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}";
+
+    ByteArrayOutputStream jsonSentToBuck = new ByteArrayOutputStream();
+    WorkerProcessProtocol.CommandReceiver protocol =
+        new WorkerProcessProtocolZero.CommandReceiver(jsonSentToBuck, inputStream(handshake));
+
+    protocol.handshake(0);
+    assertThat(jsonSentToBuck.toString(), Matchers.equalTo(handshake));
+  }
+
+  @Test
+  public void testReceiveCommand() throws IOException {
+    WorkerProcessProtocol.CommandReceiver protocol =
+        new WorkerProcessProtocolZero.CommandReceiver(
+            dummyOutputStream,
+            inputStream(
+                "{\"id\":123,\"type\":\"command\",\"args_path\":\"args\","
+                    + "\"stdout_path\":\"stdout\",\"stderr_path\":\"stderr\"}"));
+
+    assertThat(
+        protocol.receiveCommand(123),
+        Matchers.equalTo(
+            WorkerProcessCommand.of(Paths.get("args"), Paths.get("stdout"), Paths.get("stderr"))));
+  }
+
+  @Test
+  public void testReceiveCommandWithIncorrectMessageID() throws IOException {
+    expectedException.expect(HumanReadableException.class);
+    expectedException.expectMessage("Expected command's \"id\" value to be \"123\"");
+
+    WorkerProcessProtocol.CommandReceiver protocol =
+        new WorkerProcessProtocolZero.CommandReceiver(
+            dummyOutputStream,
+            inputStream(
+                "{\"id\":456,\"type\":\"command\",\"args_path\":\"args\","
+                    + "\"stdout_path\":\"stdout\",\"stderr_path\":\"stderr\"}"));
+
+    protocol.receiveCommand(123);
+  }
+
+  @Test
+  public void testSendResponse() throws IOException {
+    WorkerProcessProtocol.CommandReceiver protocol =
+        new WorkerProcessProtocolZero.CommandReceiver(dummyOutputStream, dummyInputStream);
+
+    protocol.sendResponse(123, "result", 1);
+    assertThat(
+        dummyOutputStream.toString(),
+        Matchers.equalTo("{\"id\":123,\"type\":\"result\",\"exit_code\":1}"));
+  }
+
+  @Test
+  public void testReceiverShouldCloseAtTheEndOfTheStream() throws IOException {
+    String handshake =
+        "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}";
+
+    WorkerProcessProtocol.CommandReceiver closedProtocol =
+        new WorkerProcessProtocolZero.CommandReceiver(
+            new ByteArrayOutputStream(), inputStream(handshake + "]"));
+    closedProtocol.handshake(0);
+    assertTrue(closedProtocol.shouldClose());
+    closedProtocol.close();
+
+    WorkerProcessProtocol.CommandReceiver abandonedProtocol =
+        new WorkerProcessProtocolZero.CommandReceiver(
+            new ByteArrayOutputStream(), inputStream(handshake));
+    abandonedProtocol.handshake(0);
+    assertTrue(abandonedProtocol.shouldClose());
+    abandonedProtocol.close();
+  }
+
   private Path newTempFile() throws IOException {
     return temporaryPaths.newFile();
   }
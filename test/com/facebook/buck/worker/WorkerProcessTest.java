@@ -37,12 +37,20 @@ import com.facebook.buck.util.FakeProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -140,4 +148,54 @@ public class WorkerProcessTest {
       assertThat(e.getMessage().length(), is(greaterThan(1024 * 1024)));
     }
   }
+
+  @Test(timeout = 20 * 1000)
+  public void testRunsJobsConcurrentlyOverProtocolOne() throws Exception {
+    Path root = temporaryPaths.getRoot();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    String classpath =
+        Splitter.on(File.pathSeparatorChar)
+            .omitEmptyStrings()
+            .splitToList(System.getProperty("java.class.path"))
+            .stream()
+            .map(entry -> Paths.get(entry).toAbsolutePath().toString())
+            .collect(Collectors.joining(File.pathSeparator));
+    Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+    int jobCount = 3;
+
+    try (WorkerProcess workerProcess =
+        new WorkerProcess(
+            new DefaultProcessExecutor(Console.createNullConsole()),
+            ProcessExecutorParams.builder()
+                .setCommand(
+                    ImmutableList.of(
+                        java.toString(),
+                        "-cp",
+                        classpath,
+                        ConcurrentTestWorker.class.getName()))
+                .setDirectory(root)
+                .build(),
+            filesystem,
+            temporaryPaths.newFile("stderr"),
+            temporaryPaths.newFolder("tmp"),
+            jobCount)) {
+      workerProcess.ensureLaunchAndHandshake();
+
+      ExecutorService executor = Executors.newFixedThreadPool(jobCount);
+      try {
+        List<Future<WorkerJobResult>> results = new ArrayList<>();
+        for (int i = 0; i < jobCount; i++) {
+          String jobArgs = "await " + jobCount + "\necho job" + i;
+          results.add(executor.submit(() -> workerProcess.submitAndWaitForJob(jobArgs)));
+        }
+        for (int i = 0; i < jobCount; i++) {
+          WorkerJobResult result = results.get(i).get();
+          assertThat(result.getExitCode(), is(0));
+          assertThat(result.getStdout(), is(Optional.of("job" + i + "\n")));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
 }
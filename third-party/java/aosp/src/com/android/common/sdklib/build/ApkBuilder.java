@@ -212,17 +212,29 @@ public final class ApkBuilder implements IArchiveBuilder {
    */
   public ApkBuilder(File apkFile, File resFile, File dexFile, PrivateKey key,
       X509Certificate certificate, PrintStream verboseStream) throws ApkCreationException {
-    init(apkFile, resFile, dexFile, key, certificate, verboseStream);
+    init(apkFile, resFile, dexFile, key, certificate, verboseStream, 4);
+  }
+
+  /**
+   * Creates a new instance that compresses the entries it adds at the given level.
+   *
+   * @see #ApkBuilder(File, File, File, PrivateKey, X509Certificate, PrintStream)
+   */
+  public ApkBuilder(File apkFile, File resFile, File dexFile, PrivateKey key,
+      X509Certificate certificate, PrintStream verboseStream, int compressionLevel)
+      throws ApkCreationException {
+    init(apkFile, resFile, dexFile, key, certificate, verboseStream, compressionLevel);
   }
 
 
   /**
    * Constructor init method.
    *
-   * @see #ApkBuilder(File, File, File, PrivateKey, X509Certificate, PrintStream)
+   * @see #ApkBuilder(File, File, File, PrivateKey, X509Certificate, PrintStream, int)
    */
   private void init(File apkFile, File resFile, File dexFile, PrivateKey key,
-      X509Certificate certificate, PrintStream verboseStream) throws ApkCreationException {
+      X509Certificate certificate, PrintStream verboseStream, int compressionLevel)
+      throws ApkCreationException {
 
     try {
       checkOutputFile(mApkFile = apkFile);
@@ -236,7 +248,7 @@ public final class ApkBuilder implements IArchiveBuilder {
 
       mBuilder = new SignedJarBuilder(
           new FileOutputStream(mApkFile, false /* append */), key,
-          certificate);
+          certificate, compressionLevel);
 
       verbosePrintln("Packaging %s", mApkFile.getName());
 
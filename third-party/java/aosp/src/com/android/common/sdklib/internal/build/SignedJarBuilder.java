@@ -123,8 +123,17 @@ public class SignedJarBuilder {
    */
   public SignedJarBuilder(OutputStream out, PrivateKey key, X509Certificate certificate)
       throws IOException, NoSuchAlgorithmException {
+    this(out, key, certificate, 4);
+  }
+
+  /**
+   * Creates a {@link SignedJarBuilder} that compresses entries at the given level.
+   * @see #SignedJarBuilder(OutputStream, PrivateKey, X509Certificate)
+   */
+  public SignedJarBuilder(OutputStream out, PrivateKey key, X509Certificate certificate,
+      int compressionLevel) throws IOException, NoSuchAlgorithmException {
     mOutputJar = new JarOutputStream(new BufferedOutputStream(out));
-    mOutputJar.setLevel(4);
+    mOutputJar.setLevel(compressionLevel);
     mKey = key;
     mCertificate = certificate;
 